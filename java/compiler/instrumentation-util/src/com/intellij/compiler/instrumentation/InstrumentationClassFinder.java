@@ -15,6 +15,8 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 /**
+ * Class lookup and loading may be performed from several threads at once.
+ *
  * @author Eugene Zhuravlev
  *         Date: 2/16/12
  */
@@ -28,7 +30,6 @@ public class InstrumentationClassFinder {
   private final URL[] myPlatformUrls;
   private final URL[] myClasspathUrls;
   private ClassLoader myLoader;
-  private byte[] myBuffer;
 
   public InstrumentationClassFinder(final URL[] cp) {
     this(URL_EMPTY_ARRAY, cp);
@@ -89,14 +90,18 @@ public class InstrumentationClassFinder {
   public void releaseResources() {
     myPlatformClasspath.releaseResources();
     myClasspath.releaseResources();
-    myLoaded.clear();
-    myBuffer = null;
+    synchronized (myLoaded) {
+      myLoaded.clear();
+    }
     myLoader = null;
   }
 
   public PseudoClass loadClass(final String name) throws IOException, ClassNotFoundException{
     final String internalName = name.replace('.', '/'); // normalize
-    final PseudoClass aClass = myLoaded.get(internalName);
+    final PseudoClass aClass;
+    synchronized (myLoaded) {
+      aClass = myLoaded.get(internalName);
+    }
     if (aClass != null) {
       return aClass;
     }
@@ -109,7 +114,13 @@ public class InstrumentationClassFinder {
 
     try {
       final PseudoClass result = loadPseudoClass(is);
-      myLoaded.put(internalName, result);
+      synchronized (myLoaded) {
+        final PseudoClass loaded = myLoaded.get(internalName);
+        if (loaded != null) {
+          return loaded; // loaded concurrently by another thread
+        }
+        myLoaded.put(internalName, result);
+      }
       return result;
     }
     finally {
@@ -118,7 +129,9 @@ public class InstrumentationClassFinder {
   }
 
   public void cleanCachedData(String className) {
-    myLoaded.remove(className.replace('.', '/'));
+    synchronized (myLoaded) {
+      myLoaded.remove(className.replace('.', '/'));
+    }
   }
 
   public InputStream getClassBytesAsStream(String className) throws IOException {
@@ -580,7 +593,7 @@ public class InstrumentationClassFinder {
         myURL = url;
       }
 
-      public void releaseResources() {
+      public synchronized void releaseResources() {
         final ZipFile zipFile = myZipFile;
         if (zipFile != null) {
           myZipFile = null;
@@ -593,7 +606,7 @@ public class InstrumentationClassFinder {
         }
       }
 
-      private ZipFile acquireZipFile() throws IOException {
+      private synchronized ZipFile acquireZipFile() throws IOException {
         ZipFile zipFile = myZipFile;
         if (zipFile == null) {
           zipFile = doGetZipFile();
@@ -740,11 +753,7 @@ public class InstrumentationClassFinder {
   }
 
   public byte[] loadBytes(InputStream stream) {
-    byte[] buf = myBuffer;
-    if (buf == null) {
-      buf = new byte[512];
-      myBuffer = buf;
-    }
+    final byte[] buf = new byte[512];
 
     final ByteArrayOutputStream result = new ByteArrayOutputStream();
     try {
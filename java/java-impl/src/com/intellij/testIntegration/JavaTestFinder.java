@@ -25,6 +25,7 @@ import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiNamedElement;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.search.PsiShortNamesCache;
+import com.intellij.util.Processor;
 import com.intellij.util.containers.HashSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -91,23 +92,29 @@ public class JavaTestFinder implements TestFinder {
 
     PsiShortNamesCache cache = PsiShortNamesCache.getInstance(element.getProject());
 
-    String klassName = klass.getName();
+    final String klassName = klass.getName();
     Pattern pattern = Pattern.compile(".*" + klassName + ".*");
 
-    List<Pair<? extends PsiNamedElement, Integer>> classesWithProximities = new ArrayList<Pair<? extends PsiNamedElement, Integer>>();
+    final List<Pair<? extends PsiNamedElement, Integer>> classesWithProximities = new ArrayList<Pair<? extends PsiNamedElement, Integer>>();
 
     HashSet<String> names = new HashSet<String>();
     cache.getAllClassNames(names);
+    List<String> matchingNames = new ArrayList<String>();
     for (String eachName : names) {
       if (pattern.matcher(eachName).matches()) {
-        for (PsiClass eachClass : cache.getClassesByName(eachName, scope)) {
-          if (TestFrameworks.getInstance().isTestClass(eachClass)) {
-            classesWithProximities.add(
-                new Pair<PsiClass, Integer>(eachClass, TestFinderHelper.calcTestNameProximity(klassName, eachName)));
-          }
-        }
+        matchingNames.add(eachName);
       }
     }
+    cache.processClassesWithNames(matchingNames, scope, new Processor<PsiClass>() {
+      @Override
+      public boolean process(PsiClass eachClass) {
+        if (TestFrameworks.getInstance().isTestClass(eachClass)) {
+          classesWithProximities.add(
+              new Pair<PsiClass, Integer>(eachClass, TestFinderHelper.calcTestNameProximity(klassName, eachClass.getName())));
+        }
+        return true;
+      }
+    });
 
     return TestFinderHelper.getSortedElements(classesWithProximities, true);
   }
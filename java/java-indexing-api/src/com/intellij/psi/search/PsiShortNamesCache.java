@@ -25,6 +25,8 @@ import com.intellij.util.containers.HashSet;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Collection;
+
 /**
  * Allows to retrieve files and Java classes, methods and fields in a project by
  * non-qualified names.
@@ -75,6 +77,26 @@ public abstract class PsiShortNamesCache {
   @NotNull
   public abstract PsiClass[] getClassesByName(@NotNull @NonNls String name, @NotNull GlobalSearchScope scope);
 
+  /**
+   * Processes classes with any of the specified names in the specified scope. It is cheaper than calling
+   * {@link #getClassesByName(String, GlobalSearchScope)} for each name, as files with several of the classes are visited once.
+   *
+   * @param names the non-qualified names of the classes to find.
+   * @param scope the scope in which classes are searched.
+   * @param processor the processor receiving found classes, in no particular order.
+   * @return false if the processor stopped the search.
+   */
+  public boolean processClassesWithNames(@NotNull Collection<String> names,
+                                         @NotNull GlobalSearchScope scope,
+                                         @NotNull Processor<PsiClass> processor) {
+    for (String name : names) {
+      for (PsiClass aClass : getClassesByName(name, scope)) {
+        if (!processor.process(aClass)) return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Returns the list of names of all classes in the project and
    * (optionally) libraries.
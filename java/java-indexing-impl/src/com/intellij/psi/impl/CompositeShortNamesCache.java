@@ -31,6 +31,7 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Set;
 
 public class CompositeShortNamesCache extends PsiShortNamesCache {
@@ -81,6 +82,16 @@ public class CompositeShortNamesCache extends PsiShortNamesCache {
     return result != null ? result : PsiClass.EMPTY_ARRAY;
   }
 
+  @Override
+  public boolean processClassesWithNames(@NotNull Collection<String> names,
+                                         @NotNull GlobalSearchScope scope,
+                                         @NotNull Processor<PsiClass> processor) {
+    for (PsiShortNamesCache cache : myCaches) {
+      if (!cache.processClassesWithNames(names, scope, processor)) return false;
+    }
+    return true;
+  }
+
   @Override
   @NotNull
   public String[] getAllClassNames() {
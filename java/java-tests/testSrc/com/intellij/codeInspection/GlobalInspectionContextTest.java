@@ -20,10 +20,15 @@ import com.intellij.analysis.AnalysisScope;
 import com.intellij.codeInsight.CodeInsightTestCase;
 import com.intellij.codeInspection.actions.RunInspectionIntention;
 import com.intellij.codeInspection.ex.*;
+import com.intellij.codeInspection.redundantCast.RedundantCastInspection;
 import com.intellij.codeInspection.visibility.VisibilityInspection;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.profile.codeInspection.InspectionProfileManager;
+import com.intellij.psi.PsiElement;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * @author Dmitry Avdeev
@@ -54,6 +59,45 @@ public class GlobalInspectionContextTest extends CodeInsightTestCase {
     assertEquals(1, tool.getProblemDescriptors().size());
   }
 
+  public void testParallelLocalAnalysisFindsSameProblems() throws Exception {
+    configureByFile("Foo.java");
+    VirtualFile dir = getFile().getVirtualFile().getParent();
+    for (int i = 0; i < 50; i++) {
+      createFile(myModule, dir, "Cast" + i + ".java",
+                 "class Cast" + i + " {\n" +
+                 "  String f(Object o) {\n" +
+                 "    String s = (String)\"" + i + "\";\n" +
+                 "    return " + (i % 2 == 0 ? "(String)s" : "(String)o") + ";\n" +
+                 "  }\n" +
+                 "}");
+    }
+
+    List<String> sequential = runLocalTool(new RedundantCastInspection().getShortName(), false);
+    List<String> parallel = runLocalTool(new RedundantCastInspection().getShortName(), true);
+    assertEquals(75, sequential.size());
+    assertEquals(sequential, parallel);
+  }
+
+  private List<String> runLocalTool(String shortName, boolean parallel) {
+    InspectionProfileImpl profile = new InspectionProfileImpl("Foo");
+    profile.disableAllTools();
+    profile.enableTool(shortName);
+
+    GlobalInspectionContextImpl context = ((InspectionManagerEx)InspectionManager.getInstance(getProject())).createNewGlobalContext(false);
+    context.setExternalProfile(profile);
+    context.setParallelLocalAnalysis(parallel);
+    context.doInspections(new AnalysisScope(myModule), InspectionManager.getInstance(getProject()));
+
+    Tools tools = context.getTools().get(shortName);
+    List<String> problems = new ArrayList<String>();
+    for (CommonProblemDescriptor descriptor : ((DescriptorProviderInspection)tools.getTool()).getProblemDescriptors()) {
+      PsiElement element = ((ProblemDescriptor)descriptor).getPsiElement();
+      problems.add(element.getContainingFile().getName() + ":" + element.getTextOffset() + ": " + descriptor.getDescriptionTemplate());
+    }
+    Collections.sort(problems);
+    return problems;
+  }
+
   public void testRunInspectionContext() throws Exception {
     InspectionProfile profile = (InspectionProfile)InspectionProfileManager.getInstance().getRootProfile();
     InspectionProfileEntry[] tools = profile.getInspectionTools(null);
@@ -16,16 +16,22 @@
 package com.intellij.psi;
 
 import com.intellij.lang.FileASTNode;
+import com.intellij.lang.LighterAST;
 import com.intellij.openapi.application.ex.PathManagerEx;
 import com.intellij.openapi.roots.LanguageLevelProjectExtension;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.pom.java.LanguageLevel;
 import com.intellij.psi.impl.DebugUtil;
 import com.intellij.psi.impl.source.JavaLightStubBuilder;
+import com.intellij.psi.stubs.LightStubBuilder;
 import com.intellij.psi.stubs.StubElement;
+import com.intellij.psi.stubs.StubTreeBuilder;
 import com.intellij.testFramework.LightIdeaTestCase;
+import com.intellij.testFramework.LightVirtualFile;
 import com.intellij.testFramework.PlatformTestUtil;
 import com.intellij.util.ThrowableRunnable;
+import com.intellij.util.indexing.FileContentImpl;
+import com.intellij.util.indexing.IndexingDataKeys;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 
@@ -380,6 +386,33 @@ public class JavaStubBuilderTest extends LightIdeaTestCase {
            "    IMPLEMENTS_LIST:PsiRefListStub[IMPLEMENTS_LIST:]\n");
   }
 
+  public void testLightTreeSharedWithIndices() {
+    LightVirtualFile vFile = new LightVirtualFile("test.java", "package p;\nclass A { void m() { } }");
+    FileContentImpl content = new FileContentImpl(vFile, vFile.getContent(), vFile.getCharset());
+    content.putUserData(IndexingDataKeys.PROJECT, getProject());
+
+    LighterAST tree = content.getLighterAST();
+    assertNotNull(tree);
+    assertSame(tree, content.getLighterAST());
+    assertFalse(content.getPsiFile().getNode().isParsed());
+
+    assertEquals("PsiJavaFileStub [p]\n" +
+                 "  IMPORT_LIST:PsiImportListStub\n" +
+                 "  CLASS:PsiClassStub[name=A fqn=p.A]\n" +
+                 "    MODIFIER_LIST:PsiModifierListStub[mask=4096]\n" +
+                 "    TYPE_PARAMETER_LIST:PsiTypeParameterListStub\n" +
+                 "    EXTENDS_LIST:PsiRefListStub[EXTENDS_LIST:]\n" +
+                 "    IMPLEMENTS_LIST:PsiRefListStub[IMPLEMENTS_LIST:]\n" +
+                 "    METHOD:PsiMethodStub[m:void]\n" +
+                 "      MODIFIER_LIST:PsiModifierListStub[mask=4096]\n" +
+                 "      TYPE_PARAMETER_LIST:PsiTypeParameterListStub\n" +
+                 "      PARAMETER_LIST:PsiParameterListStub\n" +
+                 "      THROWS_LIST:PsiRefListStub[THROWS_LIST:]\n",
+                 DebugUtil.stubTreeToString(StubTreeBuilder.buildStubTree(content)));
+    assertFalse(content.getPsiFile().getNode().isParsed());
+    assertNull(content.getPsiFile().getUserData(LightStubBuilder.FORCED_AST));
+  }
+
   public void testSOEProof() {
     final StringBuilder sb = new StringBuilder();
     final SecureRandom random = new SecureRandom();
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi;
+
+import com.intellij.psi.impl.java.stubs.index.JavaStubIndexKeys;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.PsiShortNamesCache;
+import com.intellij.psi.stubs.StubIndex;
+import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
+import com.intellij.util.CommonProcessors;
+import com.intellij.util.PairProcessor;
+
+import java.util.*;
+
+public class PsiShortNamesCacheTest extends LightCodeInsightFixtureTestCase {
+  public void testProcessClassesWithNames() {
+    myFixture.addClass("package a; class Foo { class Bar {} }");
+    myFixture.addClass("package b; class Foo {}");
+    myFixture.addClass("package b; class Baz {}");
+    myFixture.addClass("package b; class Other {}");
+
+    CommonProcessors.CollectProcessor<PsiClass> processor = new CommonProcessors.CollectProcessor<PsiClass>();
+    PsiShortNamesCache.getInstance(getProject())
+      .processClassesWithNames(Arrays.asList("Foo", "Bar", "Baz", "Missing"), GlobalSearchScope.projectScope(getProject()), processor);
+
+    Set<String> names = new HashSet<String>();
+    for (PsiClass aClass : processor.getResults()) {
+      names.add(aClass.getQualifiedName());
+    }
+    assertEquals(new HashSet<String>(Arrays.asList("a.Foo", "a.Foo.Bar", "b.Foo", "b.Baz")), names);
+  }
+
+  public void testProcessElementsReportsKeys() {
+    myFixture.addClass("class Foo { class Bar {} }");
+    myFixture.addClass("class Baz {}");
+
+    final Map<String, String> keyToClass = new HashMap<String, String>();
+    StubIndex.getInstance().processElements(JavaStubIndexKeys.CLASS_SHORT_NAMES, Arrays.asList("Foo", "Bar", "Baz"), getProject(),
+                                            GlobalSearchScope.projectScope(getProject()), new PairProcessor<String, PsiClass>() {
+      @Override
+      public boolean process(String key, PsiClass aClass) {
+        keyToClass.put(key, aClass.getQualifiedName());
+        return true;
+      }
+    });
+    assertEquals("Foo", keyToClass.get("Foo"));
+    assertEquals("Foo.Bar", keyToClass.get("Bar"));
+    assertEquals("Baz", keyToClass.get("Baz"));
+  }
+}
@@ -10,4 +10,10 @@ public interface GlobalOptions {
   String GENERATE_CLASSPATH_INDEX_OPTION = "generate.classpath.index";
   String COMPILE_PARALLEL_OPTION = "compile.parallel";
   String COMPILE_PARALLEL_MAX_THREADS_OPTION = "compile.parallel.max.threads";
+  String USE_CONTENT_HASH_STAMPS_OPTION = "use.content.hash.stamps";
+  String REUSE_JAVAC_FILE_MANAGER_OPTION = "reuse.javac.file.manager";
+  String INCREMENTAL_JARS_OPTION = "artifacts.incremental.jars";
+  String UNCOMPRESSED_JARS_OPTION = "artifacts.uncompressed.jars";
+  String INSTRUMENT_CLASSES_IN_PARALLEL_OPTION = "instrument.classes.parallel";
+  String CACHE_INSTRUMENTED_CLASSES_OPTION = "cache.instrumented.classes";
 }
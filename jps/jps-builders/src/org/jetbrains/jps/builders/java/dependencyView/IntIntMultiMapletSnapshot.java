@@ -0,0 +1,310 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.builders.java.dependencyView;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.io.ByteBufferWrapper;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TIntObjectProcedure;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Image of an {@link IntIntPersistentMultiMaplet} in a single memory-mapped file. Each segment of the file stores sorted keys,
+ * value offsets and values as separate int columns, so a lookup is a binary search without any deserialization.
+ * Keys changed during a session are appended as a new segment when the maplet is closed; segments are searched newest first,
+ * a key with no values in a segment is a removed one. The image is trusted only if the previous session was closed normally:
+ * the first change in a session creates a marker file which is deleted after the new segment is written.
+ */
+class IntIntMultiMapletSnapshot {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.builders.java.dependencyView.IntIntMultiMapletSnapshot");
+  private static final int MAGIC = 0x49494d53;
+  private static final int VERSION = 1;
+  private static final int HEADER_INTS = 2;
+  private static final int SEGMENT_HEADER_INTS = 2; // keys count, values count
+  private static final int MAX_SEGMENTS = 8;
+
+  private final File myFile;
+  private final File myDirtyMarker;
+  private ByteBufferWrapper myBufferWrapper;
+  private IntBuffer myInts;
+  private int[] mySegments = ArrayUtil.EMPTY_INT_ARRAY; // start of each segment in myInts, oldest first
+  private boolean myValid;
+  private boolean myDirty;
+
+  IntIntMultiMapletSnapshot(@NotNull File file) {
+    myFile = file;
+    myDirtyMarker = new File(file.getPath() + ".dirty");
+    if (myFile.exists() && !myDirtyMarker.exists()) {
+      try {
+        open();
+        myValid = true;
+      }
+      catch (IOException e) {
+        LOG.info("Dropping dependency graph snapshot " + myFile + ": " + e.getMessage());
+        unmap();
+      }
+    }
+  }
+
+  private void open() throws IOException {
+    myBufferWrapper = ByteBufferWrapper.readOnly(myFile, 0);
+    myInts = myBufferWrapper.getBuffer().asIntBuffer();
+    final int length = myInts.limit();
+    if (length < HEADER_INTS || myInts.get(0) != MAGIC || myInts.get(1) != VERSION) {
+      throw new IOException("version mismatch");
+    }
+    final TIntArrayList segments = new TIntArrayList();
+    int pos = HEADER_INTS;
+    while (pos < length) {
+      if (pos + SEGMENT_HEADER_INTS > length) throw new IOException("truncated segment header at " + pos);
+      final int keysCount = myInts.get(pos);
+      final int valuesCount = myInts.get(pos + 1);
+      if (keysCount < 0 || valuesCount < 0) throw new IOException("corrupted segment at " + pos);
+      final long end = (long)pos + SEGMENT_HEADER_INTS + keysCount + keysCount + 1 + valuesCount;
+      if (end > length) throw new IOException("truncated segment at " + pos);
+      segments.add(pos);
+      pos = (int)end;
+    }
+    mySegments = segments.toNativeArray();
+  }
+
+  boolean isValid() {
+    return myValid;
+  }
+
+  /**
+   * @return values of the key, null if there is no mapping for it
+   */
+  @Nullable
+  TIntHashSet get(final int key) {
+    for (int i = mySegments.length - 1; i >= 0; i--) {
+      final int segment = mySegments[i];
+      final int keysCount = myInts.get(segment);
+      final int keysStart = segment + SEGMENT_HEADER_INTS;
+      final int index = binarySearch(keysStart, keysCount, key);
+      if (index >= 0) {
+        final int offsetsStart = keysStart + keysCount;
+        final int valuesStart = offsetsStart + keysCount + 1;
+        final int from = myInts.get(offsetsStart + index);
+        final int to = myInts.get(offsetsStart + index + 1);
+        if (from == to) return null;
+        final TIntHashSet result = new TIntHashSet(to - from);
+        for (int j = from; j < to; j++) {
+          result.add(myInts.get(valuesStart + j));
+        }
+        return result;
+      }
+    }
+    return null;
+  }
+
+  boolean containsKey(final int key) {
+    for (int i = mySegments.length - 1; i >= 0; i--) {
+      final int segment = mySegments[i];
+      final int keysCount = myInts.get(segment);
+      final int keysStart = segment + SEGMENT_HEADER_INTS;
+      final int index = binarySearch(keysStart, keysCount, key);
+      if (index >= 0) {
+        final int offsetsStart = keysStart + keysCount;
+        return myInts.get(offsetsStart + index) != myInts.get(offsetsStart + index + 1);
+      }
+    }
+    return false;
+  }
+
+  private int binarySearch(final int from, final int count, final int key) {
+    int low = 0;
+    int high = count - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      final int midKey = myInts.get(from + mid);
+      if (midKey < key) {
+        low = mid + 1;
+      }
+      else if (midKey > key) {
+        high = mid - 1;
+      }
+      else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Must be called before the first change of the maplet is stored, so that the image isn't trusted if the session doesn't end normally.
+   */
+  void markDirty() {
+    if (myDirty) return;
+    myDirty = true;
+    try {
+      FileUtil.createIfDoesntExist(myDirtyMarker);
+      if (!myDirtyMarker.exists()) throw new IOException("Cannot create " + myDirtyMarker);
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      myValid = false;
+    }
+  }
+
+  /**
+   * Stores current values of keys changed during the session, or the whole maplet if the image is not valid.
+   * Must be called before the underlying maplet is closed; the image becomes trusted only after {@link #close(boolean)}.
+   *
+   * @param changes current values of changed keys, null or empty set for removed ones
+   * @param all whole maplet, used if there is no valid image to append to
+   */
+  void save(@NotNull TIntObjectHashMap<TIntHashSet> changes, @NotNull IntIntMultiMaplet all) throws IOException {
+    if (myValid && changes.isEmpty()) return;
+
+    final long started = System.currentTimeMillis();
+    if (myValid && mySegments.length < MAX_SEGMENTS) {
+      unmap();
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myFile, true)));
+      try {
+        writeSegment(out, changes);
+      }
+      finally {
+        out.close();
+      }
+    }
+    else {
+      final TIntObjectHashMap<TIntHashSet> content = new TIntObjectHashMap<TIntHashSet>();
+      if (myValid) {
+        mergeSegments(content);
+        changes.forEachEntry(new TIntObjectProcedure<TIntHashSet>() {
+          @Override
+          public boolean execute(int key, TIntHashSet values) {
+            if (values == null || values.isEmpty()) {
+              content.remove(key);
+            }
+            else {
+              content.put(key, values);
+            }
+            return true;
+          }
+        });
+      }
+      else {
+        all.forEachEntry(new TIntObjectProcedure<TIntHashSet>() {
+          @Override
+          public boolean execute(int key, TIntHashSet values) {
+            if (values != null && !values.isEmpty()) {
+              content.put(key, values);
+            }
+            return true;
+          }
+        });
+      }
+      unmap();
+
+      final File tempFile = new File(myFile.getPath() + ".tmp");
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeSegment(out, content);
+      }
+      finally {
+        out.close();
+      }
+      FileUtil.delete(myFile);
+      FileUtil.rename(tempFile, myFile);
+      LOG.info("Dependency graph snapshot " + myFile.getName() + " rewritten: " + content.size() + " keys in " +
+               (System.currentTimeMillis() - started) + " ms");
+    }
+    myValid = true;
+  }
+
+  private void mergeSegments(final TIntObjectHashMap<TIntHashSet> result) {
+    final TIntHashSet seen = new TIntHashSet();
+    for (int i = mySegments.length - 1; i >= 0; i--) {
+      final int segment = mySegments[i];
+      final int keysCount = myInts.get(segment);
+      final int keysStart = segment + SEGMENT_HEADER_INTS;
+      for (int j = 0; j < keysCount; j++) {
+        final int key = myInts.get(keysStart + j);
+        if (seen.add(key)) {
+          final TIntHashSet values = get(key);
+          if (values != null) {
+            result.put(key, values);
+          }
+        }
+      }
+    }
+  }
+
+  private static void writeSegment(final DataOutputStream out, final TIntObjectHashMap<TIntHashSet> content) throws IOException {
+    final int[] keys = content.keys();
+    Arrays.sort(keys);
+    int valuesCount = 0;
+    for (int key : keys) {
+      final TIntHashSet values = content.get(key);
+      valuesCount += values == null ? 0 : values.size();
+    }
+    out.writeInt(keys.length);
+    out.writeInt(valuesCount);
+    for (int key : keys) {
+      out.writeInt(key);
+    }
+    int offset = 0;
+    out.writeInt(offset);
+    for (int key : keys) {
+      final TIntHashSet values = content.get(key);
+      offset += values == null ? 0 : values.size();
+      out.writeInt(offset);
+    }
+    for (int key : keys) {
+      final TIntHashSet values = content.get(key);
+      if (values != null) {
+        final int[] sorted = values.toArray();
+        Arrays.sort(sorted);
+        for (int value : sorted) {
+          out.writeInt(value);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param saved whether {@link #save} succeeded and the underlying maplet is closed, i.e. the image may be trusted next time
+   */
+  void close(boolean saved) {
+    unmap();
+    if (!saved || !myValid) {
+      FileUtil.delete(myFile);
+    }
+    FileUtil.delete(myDirtyMarker);
+  }
+
+  private void unmap() {
+    if (myBufferWrapper != null) {
+      myBufferWrapper.unmap();
+      myBufferWrapper = null;
+    }
+    myInts = null;
+    mySegments = ArrayUtil.EMPTY_INT_ARRAY;
+  }
+}
@@ -15,6 +15,7 @@
  */
 package org.jetbrains.jps.builders.java.dependencyView;
 
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Ref;
 import com.intellij.util.Processor;
 import com.intellij.util.containers.SLRUCache;
@@ -22,9 +23,11 @@ import com.intellij.util.io.DataExternalizer;
 import com.intellij.util.io.KeyDescriptor;
 import com.intellij.util.io.PersistentHashMap;
 import gnu.trove.TIntHashSet;
+import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TIntObjectProcedure;
 import gnu.trove.TIntProcedure;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
 
@@ -33,13 +36,24 @@ import java.io.*;
  * Date: 08.03.11
  */
 class IntIntPersistentMultiMaplet extends IntIntMultiMaplet {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.builders.java.dependencyView.IntIntPersistentMultiMaplet");
   private static final TIntHashSet NULL_COLLECTION = new TIntHashSet();
   private static final int CACHE_SIZE = 128;
   private final PersistentHashMap<Integer, TIntHashSet> myMap;
   private final SLRUCache<Integer, TIntHashSet> myCache;
+  @Nullable private IntIntMultiMapletSnapshot mySnapshot;
+  private final TIntHashSet myChangedKeys = new TIntHashSet(); // keys which can't be read from the snapshot anymore
 
   public IntIntPersistentMultiMaplet(final File file, final KeyDescriptor<Integer> keyExternalizer) throws IOException {
+    this(file, keyExternalizer, false);
+  }
+
+  /**
+   * @param withSnapshot whether unchanged keys should be read from the {@link IntIntMultiMapletSnapshot snapshot} saved on close
+   */
+  public IntIntPersistentMultiMaplet(final File file, final KeyDescriptor<Integer> keyExternalizer, boolean withSnapshot) throws IOException {
     myMap = new PersistentHashMap<Integer, TIntHashSet>(file, keyExternalizer, new IntSetExternalizer());
+    mySnapshot = withSnapshot ? new IntIntMultiMapletSnapshot(new File(file.getPath() + ".snapshot")) : null;
     myCache = new SLRUCache<Integer, TIntHashSet>(CACHE_SIZE, CACHE_SIZE) {
       @NotNull
       @Override
@@ -55,8 +69,21 @@ class IntIntPersistentMultiMaplet extends IntIntMultiMaplet {
     };
   }
 
+  private boolean isInSnapshot(final int key) {
+    return mySnapshot != null && mySnapshot.isValid() && !myChangedKeys.contains(key);
+  }
+
+  private void keyChanged(final int key) {
+    if (mySnapshot != null && myChangedKeys.add(key)) {
+      mySnapshot.markDirty();
+    }
+  }
+
   @Override
   public boolean containsKey(final int key) {
+    if (isInSnapshot(key)) {
+      return mySnapshot.containsKey(key);
+    }
     try {
       return myMap.containsMapping(key);
     }
@@ -67,6 +94,9 @@ class IntIntPersistentMultiMaplet extends IntIntMultiMaplet {
 
   @Override
   public TIntHashSet get(final int key) {
+    if (isInSnapshot(key)) {
+      return mySnapshot.get(key);
+    }
     final TIntHashSet collection = myCache.get(key);
     return collection == NULL_COLLECTION? null : collection;
   }
@@ -74,6 +104,7 @@ class IntIntPersistentMultiMaplet extends IntIntMultiMaplet {
   @Override
   public void replace(int key, TIntHashSet value) {
     try {
+      keyChanged(key);
       myCache.remove(key);
       if (value == null || value.isEmpty()) {
         myMap.remove(key);
@@ -90,6 +121,7 @@ class IntIntPersistentMultiMaplet extends IntIntMultiMaplet {
   @Override
   public void put(final int key, final TIntHashSet value) {
     try {
+      keyChanged(key);
       myCache.remove(key);
       myMap.appendData(key, new PersistentHashMap.ValueDataAppender() {
         public void append(final DataOutput out) throws IOException {
@@ -122,6 +154,7 @@ class IntIntPersistentMultiMaplet extends IntIntMultiMaplet {
   @Override
   public void put(final int key, final int value) {
     try {
+      keyChanged(key);
       myCache.remove(key);
       myMap.appendData(key, new PersistentHashMap.ValueDataAppender() {
         public void append(final DataOutput out) throws IOException {
@@ -141,6 +174,7 @@ class IntIntPersistentMultiMaplet extends IntIntMultiMaplet {
 
       if (collection != NULL_COLLECTION) {
         if (collection.removeAll(values.toArray())) {
+          keyChanged(key);
           myCache.remove(key);
           if (collection.isEmpty()) {
             myMap.remove(key);
@@ -162,6 +196,7 @@ class IntIntPersistentMultiMaplet extends IntIntMultiMaplet {
       final TIntHashSet collection = myCache.get(key);
       if (collection != NULL_COLLECTION) {
         if (collection.remove(value)) {
+          keyChanged(key);
           myCache.remove(key);
           if (collection.isEmpty()) {
             myMap.remove(key);
@@ -180,6 +215,7 @@ class IntIntPersistentMultiMaplet extends IntIntMultiMaplet {
   @Override
   public void remove(final int key) {
     try {
+      keyChanged(key);
       myCache.remove(key);
       myMap.remove(key);
     }
@@ -212,13 +248,51 @@ class IntIntPersistentMultiMaplet extends IntIntMultiMaplet {
 
   @Override
   public void close() {
+    final IntIntMultiMapletSnapshot snapshot = mySnapshot;
+    boolean snapshotSaved = false;
     try {
+      if (snapshot != null) {
+        snapshotSaved = saveSnapshot(snapshot);
+      }
       myCache.clear();
       myMap.close();
     }
     catch (IOException e) {
+      snapshotSaved = false;
       throw new RuntimeException(e);
     }
+    finally {
+      if (snapshot != null) {
+        snapshot.close(snapshotSaved);
+      }
+    }
+  }
+
+  private boolean saveSnapshot(IntIntMultiMapletSnapshot snapshot) {
+    try {
+      final TIntObjectHashMap<TIntHashSet> changes = new TIntObjectHashMap<TIntHashSet>();
+      for (int key : myChangedKeys.toArray()) {
+        final TIntHashSet values = myMap.get(key);
+        changes.put(key, values);
+      }
+      mySnapshot = null; // the whole maplet must be read from the map itself
+      snapshot.save(changes, this);
+      return true;
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save dependency graph snapshot", e);
+      return false;
+    }
+  }
+
+  /**
+   * Deletes the snapshot, so that it isn't saved on close, e.g. when the maplet is going to be deleted anyway.
+   */
+  public void dropSnapshot() {
+    if (mySnapshot != null) {
+      mySnapshot.close(false);
+      mySnapshot = null;
+    }
   }
 
   public void flush(boolean memoryCachesOnly) {
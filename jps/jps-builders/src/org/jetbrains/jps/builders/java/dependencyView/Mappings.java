@@ -123,8 +123,9 @@ public class Mappings {
       if (myIsDelta) {
         myRootDir.mkdirs();
       }
-      myClassToSubclasses = new IntIntPersistentMultiMaplet(DependencyContext.getTableFile(myRootDir, CLASS_TO_SUBCLASSES), INT_KEY_DESCRIPTOR);
-      myClassToClassDependency = new IntIntPersistentMultiMaplet(DependencyContext.getTableFile(myRootDir, CLASS_TO_CLASS), INT_KEY_DESCRIPTOR);
+      // class graph of the project mappings is read mostly from snapshots, so that a fresh build process needn't load it from the maps
+      myClassToSubclasses = new IntIntPersistentMultiMaplet(DependencyContext.getTableFile(myRootDir, CLASS_TO_SUBCLASSES), INT_KEY_DESCRIPTOR, !myIsDelta);
+      myClassToClassDependency = new IntIntPersistentMultiMaplet(DependencyContext.getTableFile(myRootDir, CLASS_TO_CLASS), INT_KEY_DESCRIPTOR, !myIsDelta);
       mySourceFileToClasses = new ObjectObjectPersistentMultiMaplet<File, ClassRepr>(
         DependencyContext.getTableFile(myRootDir, SOURCE_TO_CLASS), new FileKeyDescriptor(), ClassRepr.externalizer(myContext),
         ourClassSetConstructor
@@ -177,6 +178,7 @@ public class Mappings {
   public void clean() throws IOException {
     if (myRootDir != null) {
       synchronized (myLock) {
+        dropSnapshots();
         close();
         FileUtil.delete(myRootDir);
         createImplementation();
@@ -184,6 +186,14 @@ public class Mappings {
     }
   }
 
+  private void dropSnapshots() {
+    for (IntIntMultiMaplet maplet : new IntIntMultiMaplet[]{myClassToSubclasses, myClassToClassDependency}) {
+      if (maplet instanceof IntIntPersistentMultiMaplet) {
+        ((IntIntPersistentMultiMaplet)maplet).dropSnapshot();
+      }
+    }
+  }
+
   public IntIntTransientMultiMaplet getRemovedSuperClasses() {
     return myRemovedSuperClasses;
   }
@@ -15,6 +15,7 @@ import org.jetbrains.jps.api.*;
 import org.jetbrains.jps.builders.BuildRootDescriptor;
 import org.jetbrains.jps.builders.java.JavaModuleBuildTargetType;
 import org.jetbrains.jps.builders.java.dependencyView.Callbacks;
+import org.jetbrains.jps.incremental.FSOperations;
 import org.jetbrains.jps.incremental.MessageHandler;
 import org.jetbrains.jps.incremental.ModuleBuildTarget;
 import org.jetbrains.jps.incremental.Utils;
@@ -302,8 +303,7 @@ final class BuildSession implements Runnable, CanceledStatus {
             if (fileStamp == -1L) {
               fileStamp = FileSystemUtil.lastModified(file); // lazy init
             }
-            long stamp = timestamps.getStamp(file, descriptor.getTarget());
-            if (stamp != fileStamp) {
+            if (FSOperations.isModified(timestamps, file, descriptor.getTarget(), fileStamp)) {
               pd.fsState.markDirty(null, file, descriptor, timestamps, saveEventStamp);
             }
           }
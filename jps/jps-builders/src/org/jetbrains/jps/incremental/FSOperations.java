@@ -1,9 +1,9 @@
 package org.jetbrains.jps.incremental;
 
 import com.intellij.openapi.util.Key;
-import com.intellij.openapi.util.io.FileSystemUtil;
 import com.intellij.openapi.util.io.FileUtil;
 import gnu.trove.THashSet;
+import gnu.trove.TLongArrayList;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.ModuleChunk;
@@ -13,7 +13,9 @@ import org.jetbrains.jps.builders.FileProcessor;
 import org.jetbrains.jps.builders.impl.BuildTargetChunk;
 import org.jetbrains.jps.builders.java.JavaSourceRootDescriptor;
 import org.jetbrains.jps.cmdline.ProjectDescriptor;
+import org.jetbrains.jps.incremental.storage.TimestampStorage;
 import org.jetbrains.jps.incremental.storage.Timestamps;
+import org.jetbrains.jps.indices.IgnoredFileIndex;
 import org.jetbrains.jps.model.java.JpsJavaClasspathKind;
 import org.jetbrains.jps.model.java.JpsJavaExtensionService;
 import org.jetbrains.jps.model.module.JpsModule;
@@ -22,7 +24,10 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Eugene Zhuravlev
@@ -30,6 +35,7 @@ import java.util.Set;
  */
 public class FSOperations {
   public static final Key<Set<File>> ALL_OUTPUTS_KEY = Key.create("_all_project_output_dirs_");
+  static final Key<ScanStatistics> SCAN_STATISTICS_KEY = Key.create("_fs_scan_statistics_");
 
   public static void markDirty(CompileContext context, final File file) throws IOException {
     final JavaSourceRootDescriptor rd = context.getProjectDescriptor().getBuildRootIndex().findJavaRootDescriptor(context, file);
@@ -135,44 +141,71 @@ public class FSOperations {
       if (filter == null) {
         context.getProjectDescriptor().fsState.clearRecompile(rd);
       }
-      traverseRecursively(context, rd, rd.getRootFile(), timestamps, forceMarkDirty, currentFiles, filter);
+      final long start = System.currentTimeMillis();
+      final int filesCount = traverseRecursively(context, rd, rd.getRootFile(), timestamps, forceMarkDirty, currentFiles, filter);
+      final ScanStatistics statistics = SCAN_STATISTICS_KEY.get(context);
+      if (statistics != null) {
+        statistics.add(filesCount, System.currentTimeMillis() - start);
+      }
     }
   }
 
-  private static void traverseRecursively(CompileContext context,
-                                          final BuildRootDescriptor rd,
-                                          final File file,
-                                          @NotNull final Timestamps tsStorage,
-                                          final boolean forceDirty,
-                                          @Nullable Set<File> currentFiles, @Nullable FileFilter filter) throws IOException {
-    if (context.getProjectDescriptor().getIgnoredFileIndex().isIgnored(file.getName())) {
-      return;
-    }
-    final File[] children = file.listFiles();
-    if (children != null) { // is directory
-      if (children.length > 0 && !rd.getExcludedRoots().contains(file)) {
-        for (File child : children) {
-          traverseRecursively(context, rd, child, tsStorage, forceDirty, currentFiles, filter);
+  private static int traverseRecursively(final CompileContext context,
+                                         final BuildRootDescriptor rd,
+                                         final File root,
+                                         @NotNull final Timestamps tsStorage,
+                                         final boolean forceDirty,
+                                         @Nullable final Set<File> currentFiles, @Nullable final FileFilter filter) throws IOException {
+    final IgnoredFileIndex ignoredFileIndex = context.getProjectDescriptor().getIgnoredFileIndex();
+    return ParallelFileScanner.scan(root, new ParallelFileScanner.DirectoryFilter() {
+      @Override
+      public boolean shouldVisit(@NotNull File dir) {
+        return !ignoredFileIndex.isIgnored(dir.getName()) && !rd.getExcludedRoots().contains(dir);
+      }
+    }, new ParallelFileScanner.FilesConsumer() {
+      @Override
+      public void consume(@NotNull List<File> files, @NotNull TLongArrayList stamps) throws IOException {
+        for (int i = 0; i < files.size(); i++) {
+          final File file = files.get(i);
+          if (ignoredFileIndex.isIgnored(file.getName()) || (filter != null && !filter.accept(file))) {
+            continue;
+          }
+          boolean markDirty = forceDirty;
+          if (!markDirty) {
+            markDirty = isModified(tsStorage, file, rd.getTarget(), stamps.get(i));
+          }
+          if (markDirty) {
+            // if it is full project rebuild, all storages are already completely cleared;
+            // so passing null because there is no need to access the storage to clear non-existing data
+            final Timestamps marker = context.isProjectRebuild() ? null : tsStorage;
+            context.getProjectDescriptor().fsState.markDirty(context, file, rd, marker, false);
+          }
+          if (currentFiles != null) {
+            currentFiles.add(file);
+          }
         }
       }
+    });
+  }
+
+  /**
+   * Compares the stamp saved for the file with its current timestamp. If they differ while the saved
+   * {@link TimestampStorage#USE_CONTENT_HASHES content hash} matches the current content, the new timestamp is saved
+   * and the file isn't considered modified.
+   */
+  public static boolean isModified(@NotNull Timestamps tsStorage, @NotNull File file, @NotNull BuildTarget<?> target, long fileStamp)
+    throws IOException {
+    if (tsStorage.getStamp(file, target) == fileStamp) {
+      return false;
     }
-    else { // is file
-      if (filter == null || filter.accept(file)) {
-        boolean markDirty = forceDirty;
-        if (!markDirty) {
-          markDirty = tsStorage.getStamp(file, rd.getTarget()) != FileSystemUtil.lastModified(file);
-        }
-        if (markDirty) {
-          // if it is full project rebuild, all storages are already completely cleared;
-          // so passing null because there is no need to access the storage to clear non-existing data
-          final Timestamps marker = context.isProjectRebuild() ? null : tsStorage;
-          context.getProjectDescriptor().fsState.markDirty(context, file, rd, marker, false);
-        }
-        if (currentFiles != null) {
-          currentFiles.add(file);
-        }
+    if (TimestampStorage.USE_CONTENT_HASHES) {
+      final long savedHash = tsStorage.getHash(file, target);
+      if (savedHash != Timestamps.NO_HASH && savedHash == TimestampStorage.computeHash(file)) {
+        tsStorage.saveStamp(file, target, fileStamp, savedHash);
+        return false;
       }
     }
+    return true;
   }
 
   public static void pruneEmptyDirs(CompileContext context, @Nullable final Set<File> dirsToDelete) {
@@ -207,4 +240,23 @@ public class FSOperations {
       additionalDirs = null;
     }
   }
+
+  /**
+   * Total time spent scanning build roots for changed files; targets may be scanned concurrently.
+   */
+  static class ScanStatistics {
+    private final AtomicInteger myFilesCount = new AtomicInteger();
+    private final AtomicLong myTime = new AtomicLong();
+
+    void add(int filesCount, long time) {
+      myFilesCount.addAndGet(filesCount);
+      myTime.addAndGet(time);
+    }
+
+    @Override
+    public String toString() {
+      return "Scanned " + myFilesCount.get() + " files in build roots in " + myTime.get() + " ms (" +
+             ParallelFileScanner.THREADS_COUNT + " threads per root, content hashes: " + TimestampStorage.USE_CONTENT_HASHES + ")";
+    }
+  }
 }
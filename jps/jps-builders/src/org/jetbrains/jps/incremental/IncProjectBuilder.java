@@ -4,9 +4,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.*;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
-import com.intellij.util.concurrency.BoundedTaskExecutor;
 import com.intellij.util.containers.ConcurrentHashSet;
-import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.MultiMap;
 import com.intellij.util.containers.MultiMapBasedOnSet;
 import com.intellij.util.io.MappingFailedException;
@@ -47,7 +45,6 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -71,7 +68,7 @@ public class IncProjectBuilder {
     }
     MAX_BUILDER_THREADS = maxThreads;
   }
-  private final BoundedTaskExecutor myParallelBuildExecutor = new BoundedTaskExecutor(SharedThreadPool.getInstance(), Math.min(MAX_BUILDER_THREADS, Math.max(2, Runtime.getRuntime().availableProcessors())));
+  private static final int MAX_PARALLEL_CHUNKS = Math.min(MAX_BUILDER_THREADS, Math.max(2, Runtime.getRuntime().availableProcessors()));
 
   private final ProjectDescriptor myProjectDescriptor;
   private final BuilderRegistry myBuilderRegistry;
@@ -251,6 +248,9 @@ public class IncProjectBuilder {
              " parallel compilation:" +
              BuildRunner.PARALLEL_BUILD_ENABLED);
 
+    final FSOperations.ScanStatistics scanStatistics = new FSOperations.ScanStatistics();
+    FSOperations.SCAN_STATISTICS_KEY.set(context, scanStatistics);
+
     for (TargetBuilder builder : myBuilderRegistry.getTargetBuilders()) {
       builder.buildStarted(context);
     }
@@ -295,6 +295,7 @@ public class IncProjectBuilder {
       for (ModuleLevelBuilder builder : myBuilderRegistry.getModuleLevelBuilders()) {
         builder.buildFinished(context);
       }
+      LOG.info(scanStatistics.toString());
       context.processMessage(new ProgressMessage("Finished, saving caches..."));
     }
 
@@ -477,76 +478,7 @@ public class IncProjectBuilder {
     BuildTargetIndex targetIndex = pd.getBuildTargetIndex();
     try {
       if (BuildRunner.PARALLEL_BUILD_ENABLED) {
-        final List<ChunkGroup> chunkGroups = buildChunkGroups(targetIndex, context);
-        for (ChunkGroup group : chunkGroups) {
-          final List<BuildTargetChunk> groupChunks = group.getChunks();
-          final int chunkCount = groupChunks.size();
-          if (chunkCount == 0) {
-            continue;
-          }
-          try {
-            if (chunkCount == 1) {
-              buildChunkIfAffected(createContextWrapper(context), scope, groupChunks.iterator().next());
-            }
-            else {
-              final CountDownLatch latch = new CountDownLatch(chunkCount);
-              final Ref<Throwable> exRef = new Ref<Throwable>(null);
-
-              if (LOG.isDebugEnabled()) {
-                final StringBuilder logBuilder = new StringBuilder("Building chunks in parallel: ");
-                for (BuildTargetChunk chunk : groupChunks) {
-                  logBuilder.append(chunk.toString()).append("; ");
-                }
-                LOG.debug(logBuilder.toString());
-              }
-
-              for (final BuildTargetChunk chunk : groupChunks) {
-                final CompileContext chunkLocalContext = createContextWrapper(context);
-                myParallelBuildExecutor.execute(new Runnable() {
-                  @Override
-                  public void run() {
-                    try {
-                      buildChunkIfAffected(chunkLocalContext, scope, chunk);
-                    }
-                    catch (Throwable e) {
-                      synchronized (exRef) {
-                        if (exRef.isNull()) {
-                          exRef.set(e);
-                        }
-                      }
-                      LOG.info(e);
-                    }
-                    finally {
-                      latch.countDown();
-                    }
-                  }
-                });
-              }
-
-              try {
-                latch.await();
-              }
-              catch (InterruptedException e) {
-                LOG.info(e);
-              }
-
-              final Throwable exception = exRef.get();
-              if (exception != null) {
-                if (exception instanceof ProjectBuildException) {
-                  throw (ProjectBuildException)exception;
-                }
-                else {
-                  throw new ProjectBuildException(exception);
-                }
-              }
-            }
-          }
-          finally {
-            context.updateCompilationStartStamp();
-            pd.dataManager.closeSourceToOutputStorages(groupChunks);
-            pd.dataManager.flush(true);
-          }
-        }
+        new ParallelChunkBuilder(context, targetIndex).build();
       }
       else {
         // non-parallel build
@@ -923,59 +855,212 @@ public class IncProjectBuilder {
     return doneSomething;
   }
 
-  private static List<ChunkGroup> buildChunkGroups(BuildTargetIndex index, CompileContext context) {
-    final List<BuildTargetChunk> allChunks = index.getSortedTargetChunks(context);
+  private static void onChunkBuildComplete(CompileContext context, @NotNull BuildTargetChunk chunk) throws IOException {
+    final ProjectDescriptor pd = context.getProjectDescriptor();
+    final BuildFSState fsState = pd.fsState;
+    fsState.clearContextRoundData(context);
+    fsState.clearContextChunk(context);
+
+    BuildOperations.markTargetsUpToDate(context, chunk);
+  }
 
-    // building aux dependencies map
-    final Map<BuildTarget<?>, Set<BuildTarget<?>>> depsMap = new HashMap<BuildTarget<?>, Set<BuildTarget<?>>>();
-    for (BuildTarget target : index.getAllTargets()) {
-      depsMap.put(target, index.getDependenciesRecursively(target, context));
+  /**
+   * Schedules chunks over the target dependency graph: a chunk is started as soon as all chunks it depends on are built,
+   * and among ready chunks the one heading the longest chain of dependent work goes first.
+   */
+  private class ParallelChunkBuilder {
+    private final CompileContextImpl myContext;
+    private final List<BuildChunkTask> myTasks;
+    private final PriorityQueue<BuildChunkTask> myReadyTasks;
+    private int myRunningCount;
+    private int myFinishedCount;
+    private Throwable myFailure;
+
+    private ParallelChunkBuilder(CompileContextImpl context, BuildTargetIndex targetIndex) {
+      myContext = context;
+      myTasks = createTasks(context, targetIndex);
+      myReadyTasks = new PriorityQueue<BuildChunkTask>(Math.max(1, myTasks.size()), BuildChunkTask.PRIORITY_ORDER);
     }
 
-    final List<ChunkGroup> groups = new ArrayList<ChunkGroup>();
-    ChunkGroup currentGroup = new ChunkGroup();
-    groups.add(currentGroup);
-    for (BuildTargetChunk chunk : allChunks) {
-      if (dependsOnGroup(chunk, currentGroup, depsMap)) {
-        currentGroup = new ChunkGroup();
-        groups.add(currentGroup);
+    public void build() throws ProjectBuildException {
+      final long start = System.currentTimeMillis();
+      synchronized (this) {
+        for (BuildChunkTask task : myTasks) {
+          if (task.myUnfinishedDependencies == 0) {
+            myReadyTasks.add(task);
+          }
+        }
+        while (myFinishedCount < myTasks.size()) {
+          if (myFailure == null) {
+            while (myRunningCount < MAX_PARALLEL_CHUNKS && !myReadyTasks.isEmpty()) {
+              startTask(myReadyTasks.poll());
+            }
+          }
+          if (myRunningCount == 0) {
+            break;
+          }
+          try {
+            wait();
+          }
+          catch (InterruptedException e) {
+            LOG.info(e);
+          }
+        }
+      }
+      myContext.updateCompilationStartStamp();
+      logStatistics(System.currentTimeMillis() - start);
+
+      final Throwable failure = myFailure;
+      if (failure != null) {
+        if (failure instanceof ProjectBuildException) {
+          throw (ProjectBuildException)failure;
+        }
+        throw new ProjectBuildException(failure);
       }
-      currentGroup.addChunk(chunk);
     }
-    return groups;
-  }
 
+    private void startTask(final BuildChunkTask task) {
+      myRunningCount++;
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Building chunk " + task.myChunk + "; chunks running: " + myRunningCount + ", ready: " + myReadyTasks.size());
+      }
+      final CompileContext chunkLocalContext = createContextWrapper(myContext);
+      SharedThreadPool.getInstance().executeOnPooledThread(new Runnable() {
+        @Override
+        public void run() {
+          final long start = System.currentTimeMillis();
+          Throwable failure = null;
+          try {
+            buildChunkIfAffected(chunkLocalContext, myContext.getScope(), task.myChunk);
+          }
+          catch (Throwable e) {
+            LOG.info(e);
+            failure = e;
+          }
+          finally {
+            try {
+              final ProjectDescriptor pd = myContext.getProjectDescriptor();
+              pd.dataManager.closeSourceToOutputStorages(Collections.singleton(task.myChunk));
+              pd.dataManager.flush(true);
+            }
+            catch (Throwable e) {
+              if (failure == null) {
+                failure = e;
+              }
+            }
+            taskFinished(task, System.currentTimeMillis() - start, failure);
+          }
+        }
+      });
+    }
 
-  private static boolean dependsOnGroup(BuildTargetChunk chunk, ChunkGroup group, Map<BuildTarget<?>, Set<BuildTarget<?>>> depsMap) {
-    for (BuildTargetChunk groupChunk : group.getChunks()) {
-      final Set<? extends BuildTarget<?>> groupChunkTargets = groupChunk.getTargets();
-      for (BuildTarget<?> target : chunk.getTargets()) {
-        if (ContainerUtil.intersects(depsMap.get(target), groupChunkTargets)) {
-          return true;
+    private synchronized void taskFinished(BuildChunkTask task, long elapsed, @Nullable Throwable failure) {
+      task.myBuildTime = elapsed;
+      myRunningCount--;
+      myFinishedCount++;
+      if (failure != null) {
+        if (myFailure == null) {
+          myFailure = failure;
+        }
+      }
+      else {
+        for (BuildChunkTask dependent : task.myDependents) {
+          if (--dependent.myUnfinishedDependencies == 0) {
+            myReadyTasks.add(dependent);
+          }
         }
       }
+      notifyAll();
     }
-    return false;
-  }
 
-  private static void onChunkBuildComplete(CompileContext context, @NotNull BuildTargetChunk chunk) throws IOException {
-    final ProjectDescriptor pd = context.getProjectDescriptor();
-    final BuildFSState fsState = pd.fsState;
-    fsState.clearContextRoundData(context);
-    fsState.clearContextChunk(context);
-
-    BuildOperations.markTargetsUpToDate(context, chunk);
+    private void logStatistics(long totalTime) {
+      final List<BuildChunkTask> built = new ArrayList<BuildChunkTask>();
+      long sequentialTime = 0;
+      for (BuildChunkTask task : myTasks) {
+        if (task.myBuildTime > 0) {
+          built.add(task);
+          sequentialTime += task.myBuildTime;
+        }
+      }
+      Collections.sort(built, new Comparator<BuildChunkTask>() {
+        @Override
+        public int compare(BuildChunkTask o1, BuildChunkTask o2) {
+          return o1.myBuildTime < o2.myBuildTime ? 1 : o1.myBuildTime == o2.myBuildTime ? 0 : -1;
+        }
+      });
+      final StringBuilder builder = new StringBuilder();
+      builder.append("Parallel build of ").append(myTasks.size()).append(" chunks finished in ").append(totalTime).append(" ms; ");
+      builder.append("sum of chunk build times: ").append(sequentialTime).append(" ms, threads: ").append(MAX_PARALLEL_CHUNKS);
+      for (BuildChunkTask task : built) {
+        builder.append("\n  ").append(task.myChunk).append(": ").append(task.myBuildTime).append(" ms");
+      }
+      LOG.info(builder.toString());
+    }
   }
 
-  private static class ChunkGroup {
-    private final List<BuildTargetChunk> myChunks = new ArrayList<BuildTargetChunk>();
+  private static List<BuildChunkTask> createTasks(CompileContext context, BuildTargetIndex targetIndex) {
+    final List<BuildTargetChunk> chunks = targetIndex.getSortedTargetChunks(context);
+    final List<BuildChunkTask> tasks = new ArrayList<BuildChunkTask>(chunks.size());
+    final Map<BuildTarget<?>, BuildChunkTask> targetToTask = new HashMap<BuildTarget<?>, BuildChunkTask>();
+    for (BuildTargetChunk chunk : chunks) {
+      final BuildChunkTask task = new BuildChunkTask(chunk, tasks.size());
+      tasks.add(task);
+      for (BuildTarget<?> target : chunk.getTargets()) {
+        targetToTask.put(target, task);
+      }
+    }
 
-    public void addChunk(BuildTargetChunk chunk) {
-      myChunks.add(chunk);
+    for (BuildChunkTask task : tasks) {
+      final Set<BuildChunkTask> dependencies = new HashSet<BuildChunkTask>();
+      for (BuildTarget<?> target : task.myChunk.getTargets()) {
+        for (BuildTarget<?> dependency : targetIndex.getDependencies(target, context)) {
+          final BuildChunkTask dependencyTask = targetToTask.get(dependency);
+          if (dependencyTask != null && dependencyTask != task) {
+            dependencies.add(dependencyTask);
+          }
+        }
+      }
+      task.myUnfinishedDependencies = dependencies.size();
+      for (BuildChunkTask dependency : dependencies) {
+        dependency.myDependents.add(task);
+      }
     }
 
-    public List<BuildTargetChunk> getChunks() {
-      return myChunks;
+    // chunks are sorted so that dependencies go first, so dependents' critical paths are known when a chunk is visited
+    final CompileScope scope = context.getScope();
+    for (int i = tasks.size() - 1; i >= 0; i--) {
+      final BuildChunkTask task = tasks.get(i);
+      int longestDependentPath = 0;
+      for (BuildChunkTask dependent : task.myDependents) {
+        longestDependentPath = Math.max(longestDependentPath, dependent.myCriticalPathLength);
+      }
+      // without history of build times the number of affected targets is the best guess of the work amount
+      task.myCriticalPathLength = longestDependentPath + (isAffected(scope, task.myChunk) ? task.myChunk.getTargets().size() : 0);
+    }
+    return tasks;
+  }
+
+  private static class BuildChunkTask {
+    private static final Comparator<BuildChunkTask> PRIORITY_ORDER = new Comparator<BuildChunkTask>() {
+      @Override
+      public int compare(BuildChunkTask o1, BuildChunkTask o2) {
+        if (o1.myCriticalPathLength != o2.myCriticalPathLength) {
+          return o2.myCriticalPathLength - o1.myCriticalPathLength;
+        }
+        return o1.myIndex - o2.myIndex;
+      }
+    };
+
+    private final BuildTargetChunk myChunk;
+    private final int myIndex;
+    private final List<BuildChunkTask> myDependents = new ArrayList<BuildChunkTask>();
+    private int myUnfinishedDependencies;
+    private int myCriticalPathLength;
+    private long myBuildTime;
+
+    private BuildChunkTask(BuildTargetChunk chunk, int index) {
+      myChunk = chunk;
+      myIndex = index;
     }
   }
 
@@ -988,6 +1073,8 @@ public class IncProjectBuilder {
   }
 
   private static CompileContext createContextWrapper(final CompileContext delegate) {
+    // chunks are built concurrently, so each of them needs its own compilation start stamp
+    final long compilationStartStamp = System.currentTimeMillis();
     final ClassLoader loader = delegate.getClass().getClassLoader();
     final UserDataHolderBase localDataHolder = new UserDataHolderBase();
     final Set<Object> deletedKeysSet = new ConcurrentHashSet<Object>();
@@ -997,6 +1084,9 @@ public class IncProjectBuilder {
       @Override
       public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
         final Class<?> declaringClass = method.getDeclaringClass();
+        if ("getCompilationStartStamp".equals(method.getName())) {
+          return compilationStartStamp;
+        }
         if (dataHolderInterface.equals(declaringClass)) {
           final Object firstArgument = args[0];
           final boolean isGlobalContextKey = firstArgument instanceof Key && GLOBAL_CONTEXT_KEYS.contains((Key)firstArgument);
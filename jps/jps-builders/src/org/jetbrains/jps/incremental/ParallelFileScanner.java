@@ -0,0 +1,173 @@
+package org.jetbrains.jps.incremental;
+
+import com.intellij.openapi.util.io.FileAttributes;
+import com.intellij.openapi.util.io.FileSystemUtil;
+import gnu.trove.TLongArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.service.SharedThreadPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks a directory tree in several pooled threads: they list the directories and read the attributes of the files.
+ * The files found are passed to the {@link FilesConsumer} in the calling thread directory by directory, so the consumer
+ * may access build storages that are not thread-safe.
+ */
+class ParallelFileScanner {
+  static final int THREADS_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+  private static final File NO_MORE_DIRECTORIES = new File("");
+  private static final Batch NO_MORE_BATCHES = new Batch(null);
+
+  interface DirectoryFilter {
+    /**
+     * Is called from pooled threads.
+     */
+    boolean shouldVisit(@NotNull File dir);
+  }
+
+  interface FilesConsumer {
+    void consume(@NotNull List<File> files, @NotNull TLongArrayList stamps) throws IOException;
+  }
+
+  private final DirectoryFilter myFilter;
+  private final BlockingQueue<File> myDirectories = new LinkedBlockingQueue<File>();
+  private final BlockingQueue<Batch> myBatches = new LinkedBlockingQueue<Batch>();
+  private final AtomicInteger myPendingDirectories = new AtomicInteger();
+  private volatile boolean myCancelled;
+
+  private ParallelFileScanner(@NotNull DirectoryFilter filter) {
+    myFilter = filter;
+  }
+
+  /**
+   * @param root  directory or file to scan
+   * @return number of files passed to the consumer
+   */
+  static int scan(@NotNull File root, @NotNull DirectoryFilter filter, @NotNull FilesConsumer consumer) throws IOException {
+    final FileAttributes attributes = FileSystemUtil.getAttributes(root);
+    if (attributes == null || attributes.type != FileAttributes.Type.DIRECTORY) {
+      final List<File> files = new ArrayList<File>(1);
+      files.add(root);
+      final TLongArrayList stamps = new TLongArrayList(1);
+      stamps.add(attributes != null ? attributes.lastModified : 0);
+      consumer.consume(files, stamps);
+      return 1;
+    }
+    if (!filter.shouldVisit(root)) {
+      return 0;
+    }
+    return new ParallelFileScanner(filter).run(root, consumer);
+  }
+
+  private int run(@NotNull File root, @NotNull FilesConsumer consumer) throws IOException {
+    myPendingDirectories.set(1);
+    myDirectories.add(root);
+    for (int i = 0; i < THREADS_COUNT; i++) {
+      SharedThreadPool.getInstance().executeOnPooledThread(new Runnable() {
+        @Override
+        public void run() {
+          runWorker();
+        }
+      });
+    }
+
+    int filesCount = 0;
+    boolean completed = false;
+    try {
+      while (true) {
+        final Batch batch = myBatches.take();
+        if (batch == NO_MORE_BATCHES) {
+          break;
+        }
+        if (batch.myError != null) {
+          if (batch.myError instanceof IOException) {
+            throw (IOException)batch.myError;
+          }
+          throw new IOException(batch.myError);
+        }
+        filesCount += batch.myFiles.size();
+        consumer.consume(batch.myFiles, batch.myStamps);
+      }
+      completed = true;
+    }
+    catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+    finally {
+      if (!completed) {
+        myCancelled = true;
+      }
+    }
+    return filesCount;
+  }
+
+  private void runWorker() {
+    try {
+      while (true) {
+        final File dir = myDirectories.take();
+        if (dir == NO_MORE_DIRECTORIES) {
+          break;
+        }
+        try {
+          if (!myCancelled) {
+            scanDirectory(dir);
+          }
+        }
+        catch (Throwable e) {
+          myCancelled = true;
+          myBatches.add(new Batch(e));
+        }
+        if (myPendingDirectories.decrementAndGet() == 0) {
+          for (int i = 0; i < THREADS_COUNT; i++) {
+            myDirectories.add(NO_MORE_DIRECTORIES);
+          }
+          myBatches.add(NO_MORE_BATCHES);
+        }
+      }
+    }
+    catch (InterruptedException ignored) {
+    }
+  }
+
+  private void scanDirectory(@NotNull File dir) {
+    final File[] children = dir.listFiles();
+    if (children == null || children.length == 0) {
+      return;
+    }
+    final Batch batch = new Batch(null);
+    for (File child : children) {
+      final FileAttributes attributes = FileSystemUtil.getAttributes(child);
+      if (attributes != null && attributes.type == FileAttributes.Type.DIRECTORY) {
+        if (myFilter.shouldVisit(child)) {
+          myPendingDirectories.incrementAndGet();
+          myDirectories.add(child);
+        }
+      }
+      else {
+        batch.myFiles.add(child);
+        batch.myStamps.add(attributes != null ? attributes.lastModified : 0);
+      }
+    }
+    if (!batch.myFiles.isEmpty()) {
+      myBatches.add(batch);
+    }
+  }
+
+  private static class Batch {
+    private final List<File> myFiles = new ArrayList<File>();
+    private final TLongArrayList myStamps = new TLongArrayList();
+    @Nullable private final Throwable myError;
+
+    private Batch(@Nullable Throwable error) {
+      myError = error;
+    }
+  }
+}
@@ -4,6 +4,7 @@ import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.containers.MultiMap;
+import gnu.trove.THashMap;
 import gnu.trove.THashSet;
 import gnu.trove.TIntObjectHashMap;
 import org.jetbrains.annotations.NotNull;
@@ -33,6 +34,7 @@ import java.util.*;
  */
 public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, ArtifactBuildTarget> {
   public static final String BUILDER_NAME = "Artifacts builder";
+  private static final String PREVIOUS_JARS_DIR = "previous-jars";
 
   public IncArtifactBuilder() {
     super(Collections.singletonList(ArtifactBuildTargetType.INSTANCE));
@@ -59,6 +61,7 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
     }
 
 
+    Map<String, File> previousJars = Collections.emptyMap();
     try {
       final Collection<String> deletedFiles = holder.getRemovedFiles(target);
 
@@ -109,6 +112,11 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
         }
       });
 
+      if (JarsBuilder.INCREMENTAL) {
+        final File previousJarsDir = new File(pd.dataManager.getDataPaths().getTargetDataRoot(target), PREVIOUS_JARS_DIR);
+        previousJars = moveOutdatedJarsAside(filesToDelete.keySet(), pd.getBuildRootIndex().getTargetRoots(target, context),
+                                             previousJarsDir);
+      }
       BuildOperations.cleanOutputsCorrespondingToChangedFiles(context, holder);
       for (String outputPath : changedOutputPaths) {
         outSrcMapping.remove(outputPath);
@@ -144,13 +152,53 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
       }
       context.checkCanceled();
 
-      JarsBuilder builder = new JarsBuilder(changedJars, context, outputConsumer, outSrcMapping);
+      JarsBuilder builder = new JarsBuilder(changedJars, context, outputConsumer, outSrcMapping, previousJars);
       builder.buildJars();
       runArtifactTasks(context, artifact, ArtifactBuildTaskProvider.ArtifactBuildPhase.POST_PROCESSING);
     }
     catch (IOException e) {
       throw new ProjectBuildException(e);
     }
+    finally {
+      for (File file : previousJars.values()) {
+        FileUtil.delete(file);
+      }
+    }
+  }
+
+  /**
+   * Outdated archives are deleted before they are rebuilt. Instead, keep them in the target's data directory, so that
+   * {@link JarsBuilder} can copy their unchanged entries.
+   *
+   * @return output path of archive -> its previous version
+   */
+  private static Map<String, File> moveOutdatedJarsAside(Collection<String> outdatedPaths, Collection<ArtifactRootDescriptor> roots,
+                                                         File previousJarsDir) throws IOException {
+    final Set<String> jarPaths = new THashSet<String>(FileUtil.PATH_HASHING_STRATEGY);
+    for (ArtifactRootDescriptor root : roots) {
+      final DestinationInfo destination = root.getDestinationInfo();
+      if (destination instanceof JarDestinationInfo) {
+        jarPaths.add(FileUtil.toSystemIndependentName(destination.getOutputFilePath()));
+      }
+    }
+
+    // may be left by an interrupted build
+    FileUtil.delete(previousJarsDir);
+
+    final Map<String, File> previousJars = new THashMap<String, File>(FileUtil.PATH_HASHING_STRATEGY);
+    for (String outdatedPath : outdatedPaths) {
+      final String path = FileUtil.toSystemIndependentName(outdatedPath);
+      if (!jarPaths.contains(path) || previousJars.containsKey(path)) continue;
+
+      final File jarFile = new File(FileUtil.toSystemDependentName(path));
+      if (jarFile.isFile()) {
+        FileUtil.createDirectory(previousJarsDir);
+        final File previousJar = FileUtil.createTempFile(previousJarsDir, jarFile.getName(), ".prev", false);
+        FileUtil.rename(jarFile, previousJar);
+        previousJars.put(path, previousJar);
+      }
+    }
+    return previousJars;
   }
 
   private static void runArtifactTasks(CompileContext context, JpsArtifact artifact, ArtifactBuildTaskProvider.ArtifactBuildPhase phase)
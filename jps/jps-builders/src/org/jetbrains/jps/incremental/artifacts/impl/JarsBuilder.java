@@ -26,11 +26,14 @@ import com.intellij.util.ArrayUtil;
 import com.intellij.util.graph.CachingSemiGraph;
 import com.intellij.util.graph.DFSTBuilder;
 import com.intellij.util.graph.GraphGenerator;
-import com.intellij.util.io.ZipUtil;
+import com.intellij.util.io.zip.DosTime;
+import com.intellij.util.io.zip.JBZipEntry;
+import com.intellij.util.io.zip.JBZipFile;
 import gnu.trove.THashSet;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.api.GlobalOptions;
 import org.jetbrains.jps.builders.BuildOutputConsumer;
 import org.jetbrains.jps.builders.logging.ProjectBuilderLogger;
 import org.jetbrains.jps.incremental.CompileContext;
@@ -45,26 +48,41 @@ import org.jetbrains.jps.incremental.messages.ProgressMessage;
 import java.io.*;
 import java.util.*;
 import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 /**
  * @author nik
  */
 public class JarsBuilder {
   private static final Logger LOG = Logger.getInstance("#com.intellij.compiler.impl.packagingCompiler.JarsBuilder");
+  /**
+   * If set, unchanged entries are copied as is from the previous version of an archive
+   */
+  public static final boolean INCREMENTAL = Boolean.parseBoolean(System.getProperty(GlobalOptions.INCREMENTAL_JARS_OPTION, "false"));
+  private static final boolean STORE_UNCOMPRESSED = Boolean.parseBoolean(System.getProperty(GlobalOptions.UNCOMPRESSED_JARS_OPTION, "false"));
   private final Set<JarInfo> myJarsToBuild;
   private final CompileContext myContext;
   private Map<JarInfo, File> myBuiltJars;
   private final BuildOutputConsumer myOutputConsumer;
   private final ArtifactOutputToSourceMapping myOutSrcMapping;
+  private final Map<String, File> myPreviousJars;
 
   public JarsBuilder(Set<JarInfo> jarsToBuild, CompileContext context, BuildOutputConsumer outputConsumer,
                      ArtifactOutputToSourceMapping outSrcMapping) {
+    this(jarsToBuild, context, outputConsumer, outSrcMapping, Collections.<String, File>emptyMap());
+  }
+
+  /**
+   * @param previousJars previous versions of the archives to build, by output path; their unchanged entries are copied without
+   *                     recompression
+   */
+  public JarsBuilder(Set<JarInfo> jarsToBuild, CompileContext context, BuildOutputConsumer outputConsumer,
+                     ArtifactOutputToSourceMapping outSrcMapping, @NotNull Map<String, File> previousJars) {
     myOutputConsumer = outputConsumer;
     myOutSrcMapping = outSrcMapping;
+    myPreviousJars = previousJars;
     DependentJarsEvaluator evaluator = new DependentJarsEvaluator();
     for (JarInfo jarInfo : jarsToBuild) {
       evaluator.addJarWithDependencies(jarInfo);
@@ -149,12 +167,16 @@ public class JarsBuilder {
     final String targetJarPath = jar.getDestination().getOutputFilePath();
     List<String> packedFilePaths = new ArrayList<String>();
     Manifest manifest = loadManifest(jar, packedFilePaths);
-    final JarOutputStream jarOutputStream = createJarOutputStream(jarFile, manifest);
+    final File previousJarFile = jar.getDestination() instanceof ExplodedDestinationInfo
+                                 ? myPreviousJars.get(FileUtil.toSystemIndependentName(targetJarPath)) : null;
+    final JarOutput jarOutputStream = new JarOutput(jarFile, previousJarFile);
 
     final THashSet<String> writtenPaths = new THashSet<String>();
     try {
       if (manifest != null) {
+        addDirectoryEntry(jarOutputStream, "META-INF/", writtenPaths);
         writtenPaths.add(JarFile.MANIFEST_NAME);
+        jarOutputStream.addManifest(manifest);
       }
 
       for (Pair<String, Object> pair : jar.getContent()) {
@@ -215,14 +237,6 @@ public class JarsBuilder {
     }
   }
 
-  private static JarOutputStream createJarOutputStream(File jarFile, @Nullable Manifest manifest) throws IOException {
-    final BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(jarFile));
-    if (manifest != null) {
-      return new JarOutputStream(outputStream, manifest);
-    }
-    return new JarOutputStream(outputStream);
-  }
-
   @Nullable
   private Manifest loadManifest(JarInfo jar, List<String> packedFilePaths) throws IOException {
     for (Pair<String, Object> pair : jar.getContent()) {
@@ -279,7 +293,7 @@ public class JarsBuilder {
     }
   }
 
-  private static void extractFileAndAddToJar(final JarOutputStream jarOutputStream, final JarBasedArtifactRootDescriptor root,
+  private static void extractFileAndAddToJar(final JarOutput jarOutputStream, final JarBasedArtifactRootDescriptor root,
                                              final String relativeOutputPath, final Set<String> writtenPaths)
     throws IOException {
     final long timestamp = FileSystemUtil.lastModified(root.getRootFile());
@@ -293,18 +307,14 @@ public class JarsBuilder {
           addDirectoryEntry(jarOutputStream, pathInJar + "/", writtenPaths);
         }
         else if (writtenPaths.add(pathInJar)) {
-          ZipEntry entry = new ZipEntry(pathInJar);
-          entry.setTime(timestamp);
-          jarOutputStream.putNextEntry(entry);
-          FileUtil.copy(inputStream, jarOutputStream);
-          jarOutputStream.closeEntry();
+          jarOutputStream.addEntry(pathInJar, inputStream, timestamp);
         }
       }
     });
 
   }
 
-  private void addFileToJar(final @NotNull JarOutputStream jarOutputStream, final @NotNull File jarFile, @NotNull File file,
+  private void addFileToJar(final @NotNull JarOutput jarOutputStream, final @NotNull File jarFile, @NotNull File file,
                             SourceFileFilter filter, @NotNull String relativePath, String targetJarPath,
                             final @NotNull Set<String> writtenPaths, List<String> packedFilePaths, final int rootIndex) throws IOException {
     if (!file.exists() || FileUtil.isAncestor(file, jarFile, false)) {
@@ -315,7 +325,7 @@ public class JarsBuilder {
     addFileOrDirRecursively(jarOutputStream, file, filter, relativePath, targetJarPath, writtenPaths, packedFilePaths, rootIndex);
   }
 
-  private void addFileOrDirRecursively(@NotNull ZipOutputStream jarOutputStream,
+  private void addFileOrDirRecursively(@NotNull JarOutput jarOutputStream,
                                        @NotNull File file,
                                        SourceFileFilter filter,
                                        @NotNull String relativePath,
@@ -343,7 +353,10 @@ public class JarsBuilder {
       return;
     }
 
-    final boolean added = ZipUtil.addFileToZip(jarOutputStream, file, relativePath, writtenItemRelativePaths, null);
+    final boolean added = writtenItemRelativePaths.add(relativePath);
+    if (added) {
+      jarOutputStream.addFile(relativePath, file);
+    }
     if (rootIndex != -1) {
       myOutSrcMapping.appendData(targetJarPath, Collections.singletonList(new ArtifactOutputToSourceMapping.SourcePathAndRootIndex(filePath, rootIndex)));
       if (added) {
@@ -353,7 +366,7 @@ public class JarsBuilder {
   }
 
 
-  private static String addParentDirectories(JarOutputStream jarOutputStream, Set<String> writtenPaths, String relativePath) throws IOException {
+  private static String addParentDirectories(JarOutput jarOutputStream, Set<String> writtenPaths, String relativePath) throws IOException {
     while (StringUtil.startsWithChar(relativePath, '/')) {
       relativePath = relativePath.substring(1);
     }
@@ -368,15 +381,131 @@ public class JarsBuilder {
     return relativePath;
   }
 
-  private static void addDirectoryEntry(final ZipOutputStream output, @NonNls final String relativePath, Set<String> writtenPaths) throws IOException {
+  private static void addDirectoryEntry(final JarOutput output, @NonNls final String relativePath, Set<String> writtenPaths) throws IOException {
     if (!writtenPaths.add(relativePath)) return;
 
-    ZipEntry e = new ZipEntry(relativePath);
-    e.setMethod(ZipEntry.STORED);
-    e.setSize(0);
-    e.setCrc(0);
-    output.putNextEntry(e);
-    output.closeEntry();
+    output.addDirectory(relativePath);
+  }
+
+  /**
+   * Writes an archive. If the previous version of the archive is available, its entries for files which haven't changed since
+   * (the same timestamp, size and CRC) are copied as is, without decompressing and compressing them again.
+   */
+  private static class JarOutput {
+    private final JBZipFile myZipFile;
+    @Nullable private final JBZipFile myPreviousZipFile;
+    private int myCopiedEntries;
+    private int myWrittenEntries;
+
+    private JarOutput(@NotNull File jarFile, @Nullable File previousJarFile) throws IOException {
+      myZipFile = new JBZipFile(jarFile);
+      myPreviousZipFile = previousJarFile != null ? openPreviousJar(previousJarFile) : null;
+    }
+
+    @Nullable
+    private static JBZipFile openPreviousJar(File file) {
+      try {
+        return new JBZipFile(file);
+      }
+      catch (IOException e) {
+        LOG.info("Cannot read previous version of archive " + file.getPath() + ": " + e.getMessage());
+        return null;
+      }
+    }
+
+    public void addDirectory(String relativePath) throws IOException {
+      final JBZipEntry entry = myZipFile.getOrCreateEntry(relativePath);
+      entry.setMethod(ZipEntry.STORED);
+      entry.setData(ArrayUtil.EMPTY_BYTE_ARRAY, System.currentTimeMillis());
+    }
+
+    public void addManifest(@NotNull Manifest manifest) throws IOException {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      manifest.write(bytes);
+      final byte[] data = bytes.toByteArray();
+      final JBZipEntry entry = myZipFile.getOrCreateEntry(JarFile.MANIFEST_NAME);
+      entry.setMethod(getMethod(data.length));
+      entry.setData(data, System.currentTimeMillis());
+      myWrittenEntries++;
+    }
+
+    public void addFile(String relativePath, @NotNull File file) throws IOException {
+      final long timestamp = file.lastModified();
+      if (copyFromPreviousJar(relativePath, file, timestamp)) {
+        return;
+      }
+      final InputStream input = new BufferedInputStream(new FileInputStream(file));
+      try {
+        writeEntry(relativePath, input, timestamp, getMethod(file.length()));
+      }
+      finally {
+        input.close();
+      }
+    }
+
+    /**
+     * Entries extracted from other archives are always written, their content would have to be read anyway to check it
+     */
+    public void addEntry(String relativePath, @NotNull InputStream inputStream, long timestamp) throws IOException {
+      writeEntry(relativePath, inputStream, timestamp, getMethod(-1));
+    }
+
+    private boolean copyFromPreviousJar(String relativePath, File file, long timestamp) throws IOException {
+      if (myPreviousZipFile == null) return false;
+
+      final JBZipEntry previous = myPreviousZipFile.getEntry(relativePath);
+      final long size = file.length();
+      if (previous == null || previous.getMethod() != getMethod(size) || previous.getSize() != size
+          || DosTime.javaToDosTime(previous.getTime()) != DosTime.javaToDosTime(timestamp)
+          || previous.getCrc() != computeCrc(file)) {
+        return false;
+      }
+      myZipFile.copyEntry(previous);
+      myCopiedEntries++;
+      return true;
+    }
+
+    private static long computeCrc(File file) throws IOException {
+      final CRC32 crc = new CRC32();
+      final InputStream input = new FileInputStream(file);
+      try {
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+          crc.update(buffer, 0, read);
+        }
+      }
+      finally {
+        input.close();
+      }
+      return crc.getValue();
+    }
+
+    private void writeEntry(String relativePath, InputStream content, long timestamp, int method) throws IOException {
+      final JBZipEntry entry = myZipFile.getOrCreateEntry(relativePath);
+      entry.setMethod(method);
+      entry.setData(content, timestamp);
+      myWrittenEntries++;
+    }
+
+    /**
+     * @param size size of the entry data or -1 if it's unknown
+     */
+    private static int getMethod(long size) {
+      return size == 0 || STORE_UNCOMPRESSED ? ZipEntry.STORED : ZipEntry.DEFLATED;
+    }
+
+    public void close() throws IOException {
+      try {
+        myZipFile.close();
+      }
+      finally {
+        if (myPreviousZipFile != null) {
+          myPreviousZipFile.close();
+          LOG.debug(myCopiedEntries + " entries copied from previous version of archive, " + myWrittenEntries + " entries written");
+        }
+      }
+    }
   }
 
   private class JarsGraph implements GraphGenerator.SemiGraph<JarInfo> {
@@ -4,16 +4,25 @@ import com.intellij.compiler.instrumentation.InstrumentationClassFinder;
 import com.intellij.compiler.instrumentation.InstrumenterClassWriter;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Key;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.asm4.ClassReader;
 import org.jetbrains.asm4.ClassWriter;
 import org.jetbrains.jps.ModuleChunk;
+import org.jetbrains.jps.api.GlobalOptions;
 import org.jetbrains.jps.incremental.BinaryContent;
 import org.jetbrains.jps.incremental.BuilderCategory;
 import org.jetbrains.jps.incremental.CompileContext;
 import org.jetbrains.jps.incremental.CompiledClass;
 import org.jetbrains.jps.incremental.messages.BuildMessage;
 import org.jetbrains.jps.incremental.messages.CompilerMessage;
+import org.jetbrains.jps.service.SharedThreadPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Eugene Zhuravlev
@@ -21,8 +30,15 @@ import org.jetbrains.jps.incremental.messages.CompilerMessage;
  */
 public abstract class BaseInstrumentingBuilder extends ClassProcessingBuilder {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.instrumentation.BaseInstrumentingBuilder");
+  private static final boolean CACHE_INSTRUMENTED_CLASSES =
+    Boolean.parseBoolean(System.getProperty(GlobalOptions.CACHE_INSTRUMENTED_CLASSES_OPTION, "false"));
+  private static final int THREADS_COUNT = Math.min(4, Runtime.getRuntime().availableProcessors());
+  private static final int MIN_CLASSES_TO_INSTRUMENT_IN_PARALLEL = 64;
   // every instance of builder must have its own marker!
   private final Key<Boolean> IS_INSTRUMENTED_KEY = Key.create("_instrumentation_marker_" + getPresentableName());
+  // instrumented class content depends on the hierarchy of the classes it refers to (stack map frames are recomputed),
+  // so the cache is only enabled on demand
+  @Nullable private final InstrumentedClassesCache myCache = CACHE_INSTRUMENTED_CLASSES ? new InstrumentedClassesCache() : null;
 
   public BaseInstrumentingBuilder() {
     super(BuilderCategory.CLASS_INSTRUMENTER);
@@ -30,39 +46,129 @@ public abstract class BaseInstrumentingBuilder extends ClassProcessingBuilder {
 
   @Override
   protected final ExitCode performBuild(CompileContext context, ModuleChunk chunk, InstrumentationClassFinder finder, OutputConsumer outputConsumer) {
-    ExitCode exitCode = ExitCode.NOTHING_DONE;
+    final List<CompiledClass> classes = new ArrayList<CompiledClass>();
     for (CompiledClass compiledClass : outputConsumer.getCompiledClasses().values()) {
-      final BinaryContent originalContent = compiledClass.getContent();
-      final ClassReader reader = new ClassReader(originalContent.getBuffer(), originalContent.getOffset(), originalContent.getLength());
-      final int version = getClassFileVersion(reader);
-      if (IS_INSTRUMENTED_KEY.get(compiledClass, Boolean.FALSE) || !canInstrument(compiledClass, version)) {
+      if (!IS_INSTRUMENTED_KEY.get(compiledClass, Boolean.FALSE)) {
         // do not instrument the same content twice
-        continue;
+        classes.add(compiledClass);
       }
-      final ClassWriter writer = new InstrumenterClassWriter(getAsmClassWriterFlags(version), finder);
-      try {
-        final BinaryContent instrumented = instrument(context, compiledClass, reader, writer, finder);
-        if (instrumented != null) {
-          compiledClass.setContent(instrumented);
-          finder.cleanCachedData(compiledClass.getClassName());
-          IS_INSTRUMENTED_KEY.set(compiledClass, Boolean.TRUE);
-          exitCode = ExitCode.OK;
-        }
+    }
+
+    final String settings = myCache != null ? getInstrumentationSettings(context) : null;
+    final BinaryContent[] instrumented = new BinaryContent[classes.size()];
+    if (isParallelInstrumentationEnabled() && THREADS_COUNT > 1 && classes.size() >= MIN_CLASSES_TO_INSTRUMENT_IN_PARALLEL) {
+      instrumentInParallel(context, classes, finder, settings, instrumented);
+    }
+    else {
+      for (int i = 0; i < instrumented.length; i++) {
+        instrumented[i] = instrumentClass(context, classes.get(i), finder, settings);
+      }
+    }
+
+    ExitCode exitCode = ExitCode.NOTHING_DONE;
+    for (int i = 0; i < instrumented.length; i++) {
+      if (instrumented[i] != null) {
+        final CompiledClass compiledClass = classes.get(i);
+        compiledClass.setContent(instrumented[i]);
+        finder.cleanCachedData(compiledClass.getClassName());
+        IS_INSTRUMENTED_KEY.set(compiledClass, Boolean.TRUE);
+        exitCode = ExitCode.OK;
       }
-      catch (Throwable e) {
-        LOG.info(e);
-        final String message = e.getMessage();
-        if (message != null) {
-          context.processMessage(new CompilerMessage(getPresentableName(), BuildMessage.Kind.ERROR, message, compiledClass.getSourceFile().getPath()));
+    }
+    return exitCode;
+  }
+
+  private static boolean isParallelInstrumentationEnabled() {
+    return Boolean.parseBoolean(System.getProperty(GlobalOptions.INSTRUMENT_CLASSES_IN_PARALLEL_OPTION, "true"));
+  }
+
+  private void instrumentInParallel(final CompileContext context, final List<CompiledClass> classes, final InstrumentationClassFinder finder,
+                                    @Nullable final String settings, final BinaryContent[] instrumented) {
+    final AtomicInteger nextIndex = new AtomicInteger();
+    final List<Future<?>> futures = new ArrayList<Future<?>>(THREADS_COUNT);
+    for (int t = 0; t < THREADS_COUNT; t++) {
+      futures.add(SharedThreadPool.getInstance().executeOnPooledThread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = nextIndex.getAndIncrement(); i < instrumented.length; i = nextIndex.getAndIncrement()) {
+            instrumented[i] = instrumentClass(context, classes.get(i), finder, settings);
+          }
+        }
+      }));
+    }
+
+    boolean interrupted = false;
+    for (Future<?> future : futures) {
+      while (true) {
+        try {
+          future.get();
+          break;
+        }
+        catch (InterruptedException e) {
+          // the workers must finish anyway, otherwise some classes will be left not instrumented
+          interrupted = true;
         }
-        else {
-          context.processMessage(new CompilerMessage(getPresentableName(), e));
+        catch (ExecutionException e) {
+          LOG.error(e);
+          break;
         }
       }
     }
-    return exitCode;
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * May be called from several threads at once for different classes
+   */
+  @Nullable
+  private BinaryContent instrumentClass(CompileContext context, CompiledClass compiledClass, InstrumentationClassFinder finder,
+                                        @Nullable String settings) {
+    final BinaryContent originalContent = compiledClass.getContent();
+    final ClassReader reader = new ClassReader(originalContent.getBuffer(), originalContent.getOffset(), originalContent.getLength());
+    final int version = getClassFileVersion(reader);
+    if (!canInstrument(compiledClass, version)) {
+      return null;
+    }
+
+    final InstrumentedClassesCache.ContentKey contentKey =
+      myCache != null && settings != null ? InstrumentedClassesCache.ContentKey.create(originalContent, settings) : null;
+    if (contentKey != null) {
+      final BinaryContent cached = myCache.get(contentKey);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    final ClassWriter writer = new InstrumenterClassWriter(getAsmClassWriterFlags(version), finder);
+    try {
+      final BinaryContent instrumented = instrument(context, compiledClass, reader, writer, finder);
+      if (instrumented != null && contentKey != null) {
+        myCache.put(contentKey, instrumented);
+      }
+      return instrumented;
+    }
+    catch (Throwable e) {
+      LOG.info(e);
+      final String message = e.getMessage();
+      if (message != null) {
+        context.processMessage(new CompilerMessage(getPresentableName(), BuildMessage.Kind.ERROR, message, compiledClass.getSourceFile().getPath()));
+      }
+      else {
+        context.processMessage(new CompilerMessage(getPresentableName(), e));
+      }
+    }
+    return null;
   }
 
+  /**
+   * Returns the settings of the builder which affect the instrumented content. Cached results of instrumentation are only reused
+   * while the settings stay the same
+   */
+  @NotNull
+  protected abstract String getInstrumentationSettings(CompileContext context);
+
   protected abstract boolean canInstrument(CompiledClass compiledClass, int classFileVersion);
 
   @Nullable
@@ -0,0 +1,76 @@
+package org.jetbrains.jps.incremental.instrumentation;
+
+import com.intellij.util.containers.SLRUMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.incremental.BinaryContent;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Results of instrumentation by the content of the original class and the settings of the builder, so that the classes which are
+ * compiled again to the same bytes are not instrumented again. Is shared between build sessions running in the same process.
+ */
+class InstrumentedClassesCache {
+  private static final int PROTECTED_QUEUE_SIZE = 2048;
+  private static final int PROBATIONAL_QUEUE_SIZE = 1024;
+
+  private final SLRUMap<ContentKey, byte[]> myInstrumented = new SLRUMap<ContentKey, byte[]>(PROTECTED_QUEUE_SIZE, PROBATIONAL_QUEUE_SIZE);
+
+  @Nullable
+  public BinaryContent get(@NotNull ContentKey key) {
+    final byte[] instrumented;
+    synchronized (myInstrumented) {
+      instrumented = myInstrumented.get(key);
+    }
+    return instrumented != null ? new BinaryContent(instrumented) : null;
+  }
+
+  public void put(@NotNull ContentKey key, @NotNull BinaryContent instrumented) {
+    final byte[] bytes = instrumented.toByteArray();
+    synchronized (myInstrumented) {
+      myInstrumented.put(key, bytes);
+    }
+  }
+
+  static final class ContentKey {
+    private final byte[] myDigest;
+    private final int myLength;
+    private final String mySettings;
+    private final int myHashCode;
+
+    private ContentKey(byte[] digest, int length, String settings) {
+      myDigest = digest;
+      myLength = length;
+      mySettings = settings;
+      myHashCode = 31 * (31 * Arrays.hashCode(digest) + length) + settings.hashCode();
+    }
+
+    @NotNull
+    public static ContentKey create(@NotNull BinaryContent content, @NotNull String settings) {
+      try {
+        final MessageDigest md5 = MessageDigest.getInstance("MD5");
+        md5.update(content.getBuffer(), content.getOffset(), content.getLength());
+        return new ContentKey(md5.digest(), content.getLength(), settings);
+      }
+      catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof ContentKey)) return false;
+      final ContentKey key = (ContentKey)o;
+      return myLength == key.myLength && Arrays.equals(myDigest, key.myDigest) && mySettings.equals(key.mySettings);
+    }
+
+    @Override
+    public int hashCode() {
+      return myHashCode;
+    }
+  }
+}
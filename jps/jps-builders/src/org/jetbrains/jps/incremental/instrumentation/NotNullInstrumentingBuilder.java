@@ -44,6 +44,13 @@ public class NotNullInstrumentingBuilder extends BaseInstrumentingBuilder{
     return JpsJavaExtensionService.getInstance().getOrCreateCompilerConfiguration(pd.getProject()).isAddNotNullAssertions();
   }
 
+  @NotNull
+  @Override
+  protected String getInstrumentationSettings(CompileContext context) {
+    final ProjectDescriptor pd = context.getProjectDescriptor();
+    return "addNotNullAssertions=" + JpsJavaExtensionService.getInstance().getOrCreateCompilerConfiguration(pd.getProject()).isAddNotNullAssertions();
+  }
+
   @Override
   protected boolean canInstrument(CompiledClass compiledClass, int classFileVersion) {
     return classFileVersion >= Opcodes.V1_5;
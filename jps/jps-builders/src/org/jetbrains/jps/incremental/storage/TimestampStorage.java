@@ -1,20 +1,27 @@
 package org.jetbrains.jps.incremental.storage;
 
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.io.DataExternalizer;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.api.GlobalOptions;
 import org.jetbrains.jps.builders.BuildTarget;
 
-import java.io.DataInput;
-import java.io.DataOutput;
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * @author Eugene Zhuravlev
  *         Date: 10/7/11
  */
 public class TimestampStorage extends AbstractStateStorage<File, TimestampStorage.TimestampPerTarget[]> implements Timestamps {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.storage.TimestampStorage");
+  /**
+   * If enabled, a hash of the file content is saved along with its timestamp, so that a file whose timestamp is changed
+   * while its content is not (e.g. rewritten by VCS or by a code generator) is not considered dirty
+   */
+  public static final boolean USE_CONTENT_HASHES = Boolean.parseBoolean(System.getProperty(GlobalOptions.USE_CONTENT_HASH_STAMPS_OPTION, "false"));
   private final BuildTargetsState myTargetsState;
 
   public TimestampStorage(File storePath, BuildTargetsState targetsState) throws IOException {
@@ -46,15 +53,67 @@ public class TimestampStorage extends AbstractStateStorage<File, TimestampStorag
     return -1L;
   }
 
+  @Override
+  public long getHash(File file, BuildTarget<?> target) throws IOException {
+    final TimestampPerTarget[] state = getState(file);
+    if (state != null) {
+      int targetId = myTargetsState.getBuildTargetId(target);
+      for (TimestampPerTarget timestampPerTarget : state) {
+        if (timestampPerTarget.targetId == targetId) {
+          return timestampPerTarget.hash;
+        }
+      }
+    }
+    return NO_HASH;
+  }
+
   @Override
   public void saveStamp(File file, BuildTarget<?> buildTarget, long timestamp) throws IOException {
+    saveStamp(file, buildTarget, timestamp, USE_CONTENT_HASHES ? computeHash(file) : NO_HASH);
+  }
+
+  @Override
+  public void saveStamp(File file, BuildTarget<?> buildTarget, long timestamp, long hash) throws IOException {
     int targetId = myTargetsState.getBuildTargetId(buildTarget);
-    update(file, updateTimestamp(getState(file), targetId, timestamp));
+    update(file, updateTimestamp(getState(file), targetId, timestamp, hash));
+  }
+
+  /**
+   * @return first 8 bytes of MD5 digest of the file content or {@link #NO_HASH} if the file cannot be read
+   */
+  public static long computeHash(File file) {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("MD5");
+      final InputStream stream = new FileInputStream(file);
+      try {
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = stream.read(buffer)) > 0) {
+          digest.update(buffer, 0, read);
+        }
+      }
+      finally {
+        stream.close();
+      }
+      final byte[] bytes = digest.digest();
+      long hash = 0;
+      for (int i = 0; i < 8; i++) {
+        hash = (hash << 8) | (bytes[i] & 0xFF);
+      }
+      return hash == NO_HASH ? 1 : hash;
+    }
+    catch (NoSuchAlgorithmException e) {
+      LOG.error(e);
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+    return NO_HASH;
   }
 
   @NotNull
-  private static TimestampPerTarget[] updateTimestamp(TimestampPerTarget[] oldState, final int targetId, long timestamp) {
-    final TimestampPerTarget newItem = new TimestampPerTarget(targetId, timestamp);
+  private static TimestampPerTarget[] updateTimestamp(TimestampPerTarget[] oldState, final int targetId, long timestamp, long hash) {
+    final TimestampPerTarget newItem = new TimestampPerTarget(targetId, timestamp, hash);
     if (oldState == null) {
       return new TimestampPerTarget[]{newItem};
     }
@@ -90,10 +149,12 @@ public class TimestampStorage extends AbstractStateStorage<File, TimestampStorag
   public static class TimestampPerTarget {
     public final int targetId;
     public final long timestamp;
+    public final long hash;
 
-    public TimestampPerTarget(int targetId, long timestamp) {
+    public TimestampPerTarget(int targetId, long timestamp, long hash) {
       this.targetId = targetId;
       this.timestamp = timestamp;
+      this.hash = hash;
     }
   }
 
@@ -103,6 +164,7 @@ public class TimestampStorage extends AbstractStateStorage<File, TimestampStorag
       for (TimestampPerTarget target : value) {
         out.writeInt(target.targetId);
         out.writeLong(target.timestamp);
+        out.writeLong(target.hash);
       }
     }
 
@@ -112,7 +174,8 @@ public class TimestampStorage extends AbstractStateStorage<File, TimestampStorag
       for (int i = 0; i < size; i++) {
         int id = in.readInt();
         long timestamp = in.readLong();
-        targets[i] = new TimestampPerTarget(id, timestamp);
+        long hash = in.readLong();
+        targets[i] = new TimestampPerTarget(id, timestamp, hash);
       }
       return targets;
     }
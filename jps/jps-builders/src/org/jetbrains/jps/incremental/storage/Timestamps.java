@@ -10,13 +10,22 @@ import java.io.IOException;
  *         Date: 4/24/12
  */
 public interface Timestamps {
+  long NO_HASH = 0L;
+
   void force();
 
   void saveStamp(File file, BuildTarget<?> buildTarget, long timestamp) throws IOException;
 
+  void saveStamp(File file, BuildTarget<?> buildTarget, long timestamp, long hash) throws IOException;
+
   void removeStamp(File file, BuildTarget<?> buildTarget) throws IOException;
 
   void clean() throws IOException;
 
   long getStamp(File file, BuildTarget<?> target) throws IOException;
+
+  /**
+   * @return hash of the file content saved along with its stamp or {@link #NO_HASH} if content hashes are not used
+   */
+  long getHash(File file, BuildTarget<?> target) throws IOException;
 }
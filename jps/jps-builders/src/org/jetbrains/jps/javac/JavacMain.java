@@ -2,7 +2,9 @@ package org.jetbrains.jps.javac;
 
 import com.intellij.openapi.util.SystemInfo;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.api.CanceledStatus;
+import org.jetbrains.jps.api.GlobalOptions;
 import org.jetbrains.jps.cmdline.ClasspathBootstrap;
 import org.jetbrains.jps.incremental.LineOutputWriter;
 
@@ -25,6 +27,12 @@ public class JavacMain {
     /*javac options*/  "-verbose", "-proc:only", "-implicit:class", "-implicit:none",
     /*eclipse options*/"-noExit"
   ));
+  // open archives lock the files on Windows, so they are not kept between compilations there by default
+  private static final boolean REUSE_FILE_MANAGERS = Boolean.parseBoolean(
+    System.getProperty(GlobalOptions.REUSE_JAVAC_FILE_MANAGER_OPTION, String.valueOf(!SystemInfo.isWindows))
+  );
+  private static final int MAX_CACHED_FILE_MANAGERS = 4;
+  private static final LinkedList<StandardJavaFileManager> ourCachedFileManagers = new LinkedList<StandardJavaFileManager>();
 
   public static boolean compile(Collection<String> options,
                                 final Collection<File> sources,
@@ -142,11 +150,41 @@ public class JavacMain {
       outConsumer.report(new PlainMessageDiagnostic(Diagnostic.Kind.OTHER, "Compilation was canceled"));
     }
     finally {
-      fileManager.close();
+      if (!cacheFileManager(fileManager.getContext().getStandardFileManager())) {
+        fileManager.close();
+      }
     }
     return false;
   }
 
+  @Nullable
+  private static StandardJavaFileManager getCachedFileManager() {
+    if (!REUSE_FILE_MANAGERS) {
+      return null;
+    }
+    final StandardJavaFileManager manager;
+    synchronized (ourCachedFileManagers) {
+      manager = ourCachedFileManagers.poll();
+    }
+    if (manager != null) {
+      ((ReusableFileManager)manager).prepareForReuse();
+    }
+    return manager;
+  }
+
+  private static boolean cacheFileManager(StandardJavaFileManager manager) {
+    if (!REUSE_FILE_MANAGERS || !(manager instanceof ReusableFileManager)) {
+      return false;
+    }
+    synchronized (ourCachedFileManagers) {
+      if (ourCachedFileManagers.size() >= MAX_CACHED_FILE_MANAGERS) {
+        return false;
+      }
+      ourCachedFileManagers.addFirst(manager);
+    }
+    return true;
+  }
+
   private static boolean isAnnotationProcessingEnabled(final Collection<String> options) {
     for (String option : options) {
       if ("-proc:none".equals(option)) {
@@ -207,7 +245,10 @@ public class JavacMain {
         final Class<StandardJavaFileManager> optimizedManagerClass = ClasspathBootstrap.getOptimizedFileManagerClass();
         if (optimizedManagerClass != null) {
           try {
-            stdManager = optimizedManagerClass.newInstance();
+            stdManager = getCachedFileManager();
+            if (stdManager == null) {
+              stdManager = optimizedManagerClass.newInstance();
+            }
           }
           catch (Throwable e) {
             if (SystemInfo.isWindows) {
@@ -24,11 +24,12 @@ import java.util.*;
  *
  * @noinspection UnusedDeclaration
  */
-class OptimizedFileManager17 extends com.sun.tools.javac.file.JavacFileManager {
+class OptimizedFileManager17 extends com.sun.tools.javac.file.JavacFileManager implements ReusableFileManager {
   private boolean myUseZipFileIndex;
   private final Map<File, Archive> myArchives;
   private final Map<File, Boolean> myIsFile = new HashMap<File, Boolean>();
   private final Map<File, File[]> myDirectoryCache = new HashMap<File, File[]>();
+  private final ReusableFileManagerSupport myReuseSupport = new ReusableFileManagerSupport();
   public static final File[] NULL_FILE_ARRAY = new File[0];
 
   public OptimizedFileManager17() throws Throwable {
@@ -38,6 +39,37 @@ class OptimizedFileManager17 extends com.sun.tools.javac.file.JavacFileManager {
     myArchives = (Map<File, Archive>) archivesField.get(this);
   }
 
+  @Override
+  public void prepareForReuse() {
+    flush();
+    // a fresh context drops the options (-encoding etc.) handled during the previous compilation
+    final Context context = new Context();
+    context.put(JavaFileManager.class, this);
+    setContext(context);
+    myIsFile.clear();
+    myDirectoryCache.clear();
+    for (Archive archive : myReuseSupport.prepareForReuse(this, myArchives)) {
+      try {
+        archive.close();
+      }
+      catch (IOException ignored) {
+      }
+    }
+  }
+
+  @Override
+  protected Archive openArchive(File zipFileName) throws IOException {
+    // the stamp is taken before the archive is read, so that a change made meanwhile is noticed on reuse
+    myReuseSupport.archiveOpened(zipFileName);
+    return super.openArchive(zipFileName);
+  }
+
+  @Override
+  public void close() {
+    myReuseSupport.close();
+    super.close();
+  }
+
   @Override
   public Iterable<? extends JavaFileObject> getJavaFileObjectsFromFiles(Iterable<? extends File> files) {
     java.util.List<InputFileObject> result;
@@ -0,0 +1,13 @@
+package org.jetbrains.jps.javac;
+
+/**
+ * A file manager that can be kept after a compilation and used for the next one, so that the indexes
+ * of the classpath archives it has opened are not read again.
+ */
+interface ReusableFileManager {
+  /**
+   * Is called before the file manager is used for another compilation. Drops the options and caches of the previous
+   * compilation and closes the archives that have changed on disk since they were opened.
+   */
+  void prepareForReuse();
+}
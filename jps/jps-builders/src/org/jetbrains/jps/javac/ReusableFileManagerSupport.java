@@ -0,0 +1,82 @@
+package org.jetbrains.jps.javac;
+
+import javax.tools.JavaFileManager;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The part of {@link ReusableFileManager} implementation shared by the optimized file managers of different javac versions.
+ * Remembers the stamps of the archives at the moment they are opened, so that the archives changed on disk afterwards
+ * are not reused.
+ */
+class ReusableFileManagerSupport {
+  private final Map<File, ArchiveStamp> myArchiveStamps = new HashMap<File, ArchiveStamp>();
+
+  /**
+   * Must be called by the file manager just before it opens an archive
+   */
+  public void archiveOpened(File file) {
+    myArchiveStamps.put(file, new ArchiveStamp(file));
+  }
+
+  /**
+   * Resets the locations set for the previous compilation, removes the archives which have changed on disk since they were opened
+   * from <code>archives</code> and returns them, so that the file manager closes them
+   */
+  public <A> List<A> prepareForReuse(StandardJavaFileManager manager, Map<File, A> archives) {
+    setLocationQuietly(manager, StandardLocation.CLASS_PATH);
+    setLocationQuietly(manager, StandardLocation.ANNOTATION_PROCESSOR_PATH);
+    setLocationQuietly(manager, StandardLocation.PLATFORM_CLASS_PATH);
+
+    final List<A> changed = new ArrayList<A>();
+    for (Iterator<Map.Entry<File, A>> it = archives.entrySet().iterator(); it.hasNext(); ) {
+      final Map.Entry<File, A> entry = it.next();
+      final ArchiveStamp stamp = myArchiveStamps.get(entry.getKey());
+      // an archive opened not through the file manager has no stamp and is not trusted either
+      if (stamp == null || !stamp.equals(new ArchiveStamp(entry.getKey()))) {
+        it.remove();
+        changed.add(entry.getValue());
+      }
+    }
+    myArchiveStamps.keySet().retainAll(archives.keySet());
+    return changed;
+  }
+
+  public void close() {
+    myArchiveStamps.clear();
+  }
+
+  private static void setLocationQuietly(StandardJavaFileManager manager, JavaFileManager.Location location) {
+    try {
+      manager.setLocation(location, null);
+    }
+    catch (IOException ignored) {
+    }
+  }
+
+  private static class ArchiveStamp {
+    private final long myLastModified;
+    private final long myLength;
+
+    ArchiveStamp(File file) {
+      myLastModified = file.lastModified();
+      myLength = file.length();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof ArchiveStamp)) return false;
+      final ArchiveStamp stamp = (ArchiveStamp)o;
+      return myLastModified == stamp.myLastModified && myLength == stamp.myLength;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (int)(myLastModified ^ (myLastModified >>> 32)) + (int)(myLength ^ (myLength >>> 32));
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package org.jetbrains.jps.builders.java;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.PathUtil;
+import org.jetbrains.jps.builders.JpsBuildTestCase;
+import org.jetbrains.jps.model.JpsEncodingConfigurationService;
+import org.jetbrains.jps.model.java.JpsJavaLibraryType;
+import org.jetbrains.jps.model.library.JpsLibrary;
+import org.jetbrains.jps.model.library.JpsOrderRootType;
+import org.jetbrains.jps.model.module.JpsModule;
+import org.jetbrains.jps.util.JpsPathUtil;
+
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import static com.intellij.util.io.TestFileSystemItem.fs;
+
+/**
+ * Pooled javac file managers must not pass the options, classpath and archives of one compilation to the next one.
+ */
+public class JavacFileManagerReuseTest extends JpsBuildTestCase {
+  public void testEncodingOfPreviousChunkIsNotUsed() throws IOException {
+    File utf16Source = new File(getAbsolutePath("utf16/A.java"));
+    FileUtil.writeToFile(utf16Source, "public class A { String s = \"\u00e4\"; }".getBytes("UTF-16"));
+    String defaultSource = createFile("default/B.java", "public class B { A a; }");
+
+    JpsModule first = addModule("first", PathUtil.getParentPath(utf16Source.getPath()));
+    JpsModule second = addModule("second", PathUtil.getParentPath(defaultSource));
+    second.getDependenciesList().addModuleDependency(first);
+    JpsEncodingConfigurationService.getInstance().setEncodingConfiguration(
+      myProject, null, Collections.singletonMap(JpsPathUtil.pathToUrl(getAbsolutePath("utf16")), "UTF-16"));
+
+    // "first" is compiled with -encoding UTF-16, "second" is compiled without -encoding by the same pooled file manager
+    rebuildAll();
+    assertOutput(first, fs().file("A.class"));
+    assertOutput(second, fs().file("B.class"));
+  }
+
+  public void testChangedJarIsReadAgain() throws IOException {
+    File jar = new File(getAbsolutePath("lib/a.jar"));
+    createJar(jar, "A", "public class A { public void foo() {} }");
+    String main = createFile("src/Main.java", "class Main { { new A().foo(); } }");
+    JpsModule module = addModule("main", PathUtil.getParentPath(main));
+    module.getDependenciesList().addLibraryDependency(addLibrary("a", jar));
+    rebuildAll();
+
+    long stamp = jar.lastModified();
+    createJar(jar, "A", "public class A { public void fooBar() {} }");
+    assertTrue(jar.setLastModified(stamp + 2000));
+    change(main, "class Main { { new A().fooBar(); } }");
+    makeAll().assertSuccessful();
+    assertOutput(module, fs().file("Main.class"));
+  }
+
+  public void testClasspathOfPreviousChunkIsNotUsed() throws IOException {
+    File jar = new File(getAbsolutePath("lib/a.jar"));
+    createJar(jar, "A", "public class A {}");
+    JpsModule first = addModule("first", PathUtil.getParentPath(createFile("first/First.java", "class First { A a; }")));
+    first.getDependenciesList().addLibraryDependency(addLibrary("a", jar));
+    // the library is not exported, so "second" must not see class A although its chunk reuses the file manager of "first"
+    JpsModule second = addModule("second", PathUtil.getParentPath(createFile("second/Second.java", "class Second { A a; }")));
+    second.getDependenciesList().addModuleDependency(first);
+
+    makeAll().assertFailed();
+    assertOutput(first, fs().file("First.class"));
+  }
+
+  private JpsLibrary addLibrary(String name, File jar) {
+    JpsLibrary library = myProject.addLibrary(name, JpsJavaLibraryType.INSTANCE);
+    library.addRoot(jar, JpsOrderRootType.COMPILED);
+    return library;
+  }
+
+  private static void createJar(File jar, String className, String text) throws IOException {
+    File classesDir = FileUtil.createTempDirectory("jarClasses", null);
+    try {
+      File source = new File(classesDir, className + ".java");
+      FileUtil.writeToFile(source, text);
+      assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, "-d", classesDir.getPath(), source.getPath()));
+
+      FileUtil.createParentDirs(jar);
+      JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+      try {
+        out.putNextEntry(new ZipEntry(className + ".class"));
+        out.write(FileUtil.loadFileBytes(new File(classesDir, className + ".class")));
+        out.closeEntry();
+      }
+      finally {
+        out.close();
+      }
+    }
+    finally {
+      FileUtil.delete(classesDir);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package org.jetbrains.jps.builders.java;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.jps.api.GlobalOptions;
+import org.jetbrains.jps.builders.JpsBuildTestCase;
+import org.jetbrains.jps.model.java.JpsJavaExtensionService;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Classes instrumented by several threads at once must be the same as the classes instrumented one by one.
+ */
+public class ParallelInstrumentationTest extends JpsBuildTestCase {
+  private static final int CLASSES_COUNT = 100;
+
+  public void testParallelInstrumentationProducesSameClassesAsSequential() throws IOException {
+    createFile("src/org/jetbrains/annotations/NotNull.java", "package org.jetbrains.annotations; public @interface NotNull {}");
+    for (int i = 0; i < CLASSES_COUNT; i++) {
+      createFile("src/p/C" + i + ".java",
+                 "package p; import org.jetbrains.annotations.NotNull; public class C" + i + " {\n" +
+                 "  @NotNull public String foo(@NotNull String s, @NotNull C" + (i + 1) % CLASSES_COUNT + " c) { return s; }\n" +
+                 "}");
+    }
+    addModule("m", getAbsolutePath("src"));
+    JpsJavaExtensionService.getInstance().getOrCreateCompilerConfiguration(myProject).setAddNotNullAssertions(true);
+    File output = new File(getAbsolutePath("out/production/m"));
+
+    String oldValue = System.getProperty(GlobalOptions.INSTRUMENT_CLASSES_IN_PARALLEL_OPTION);
+    try {
+      System.setProperty(GlobalOptions.INSTRUMENT_CLASSES_IN_PARALLEL_OPTION, "true");
+      rebuildAll();
+      Map<String, byte[]> parallel = loadClasses(output);
+
+      System.setProperty(GlobalOptions.INSTRUMENT_CLASSES_IN_PARALLEL_OPTION, "false");
+      rebuildAll();
+      Map<String, byte[]> sequential = loadClasses(output);
+
+      assertEquals(CLASSES_COUNT + 1, sequential.size());
+      assertEquals(sequential.keySet(), parallel.keySet());
+      for (Map.Entry<String, byte[]> entry : sequential.entrySet()) {
+        assertTrue(entry.getKey() + " is not instrumented", entry.getKey().contains("NotNull") || isInstrumented(entry.getValue()));
+        assertTrue(entry.getKey() + " differs", Arrays.equals(entry.getValue(), parallel.get(entry.getKey())));
+      }
+    }
+    finally {
+      if (oldValue != null) {
+        System.setProperty(GlobalOptions.INSTRUMENT_CLASSES_IN_PARALLEL_OPTION, oldValue);
+      }
+      else {
+        System.clearProperty(GlobalOptions.INSTRUMENT_CLASSES_IN_PARALLEL_OPTION);
+      }
+    }
+  }
+
+  private static boolean isInstrumented(byte[] content) throws IOException {
+    return new String(content, "ISO-8859-1").contains("java/lang/IllegalArgumentException");
+  }
+
+  private static Map<String, byte[]> loadClasses(File output) throws IOException {
+    Map<String, byte[]> classes = new HashMap<String, byte[]>();
+    for (File file : FileUtil.findFilesByMask(Pattern.compile(".*\\.class"), output)) {
+      classes.put(FileUtil.getRelativePath(output, file), FileUtil.loadFileBytes(file));
+    }
+    return classes;
+  }
+}
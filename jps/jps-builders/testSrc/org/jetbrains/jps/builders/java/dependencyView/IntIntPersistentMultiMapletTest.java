@@ -0,0 +1,113 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.builders.java.dependencyView;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.IntInlineKeyDescriptor;
+import gnu.trove.TIntHashSet;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+public class IntIntPersistentMultiMapletTest extends TestCase {
+  private File myDir;
+  private File myFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("maplet", null);
+    myFile = new File(myDir, "map.tab");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testValuesAreReadFromSnapshot() throws IOException {
+    IntIntPersistentMultiMaplet maplet = open();
+    maplet.put(1, set(10, 11));
+    maplet.put(2, 20);
+    maplet.close();
+    assertTrue(new File(myFile.getPath() + ".snapshot").exists());
+
+    maplet = open();
+    assertEquals(set(10, 11), maplet.get(1));
+    assertEquals(set(20), maplet.get(2));
+    assertNull(maplet.get(3));
+    assertTrue(maplet.containsKey(1));
+    assertFalse(maplet.containsKey(3));
+
+    maplet.removeFrom(1, 10);
+    maplet.remove(2);
+    maplet.put(3, 30);
+    assertEquals(set(11), maplet.get(1));
+    maplet.close();
+
+    maplet = open();
+    assertEquals(set(11), maplet.get(1));
+    assertNull(maplet.get(2));
+    assertFalse(maplet.containsKey(2));
+    assertEquals(set(30), maplet.get(3));
+    maplet.close();
+  }
+
+  public void testSegmentsAreMerged() throws IOException {
+    for (int session = 0; session < 20; session++) {
+      IntIntPersistentMultiMaplet maplet = open();
+      if (session > 0) {
+        assertEquals(set(session - 1), maplet.get(-1));
+        assertEquals(set(session - 1), maplet.get(session - 1));
+        if (session > 1) {
+          assertNull(maplet.get(session - 2));
+        }
+      }
+      maplet.replace(-1, set(session));
+      maplet.put(session, session);
+      if (session > 0) {
+        maplet.remove(session - 1);
+      }
+      maplet.close();
+    }
+  }
+
+  public void testDroppedSnapshotIsNotUsed() throws IOException {
+    IntIntPersistentMultiMaplet maplet = open();
+    maplet.put(1, 10);
+    maplet.close();
+
+    maplet = open();
+    maplet.dropSnapshot();
+    maplet.put(1, 11);
+    maplet.close();
+    assertFalse(new File(myFile.getPath() + ".snapshot").exists());
+
+    maplet = open();
+    assertEquals(set(10, 11), maplet.get(1));
+    maplet.close();
+  }
+
+  private IntIntPersistentMultiMaplet open() throws IOException {
+    return new IntIntPersistentMultiMaplet(myFile, new IntInlineKeyDescriptor(), true);
+  }
+
+  private static TIntHashSet set(int... values) {
+    return new TIntHashSet(values);
+  }
+}
@@ -0,0 +1,103 @@
+package org.jetbrains.jps.incremental;
+
+import com.intellij.openapi.util.io.FileSystemUtil;
+import com.intellij.openapi.util.io.FileUtil;
+import gnu.trove.TLongArrayList;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+public class ParallelFileScannerTest extends TestCase {
+  private File myRoot;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myRoot = FileUtil.createTempDirectory("scanner", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myRoot);
+    super.tearDown();
+  }
+
+  public void testAllFilesAreFoundWithTheirStamps() throws IOException {
+    final Set<String> expected = new HashSet<String>();
+    for (int i = 0; i < 20; i++) {
+      for (int j = 0; j < 10; j++) {
+        String path = "dir" + i + "/sub" + j % 3 + "/File" + j + ".java";
+        FileUtil.writeToFile(new File(myRoot, path), "class File" + j + " {}");
+        expected.add(path);
+      }
+    }
+    FileUtil.writeToFile(new File(myRoot, "excluded/Excluded.java"), "");
+    FileUtil.writeToFile(new File(myRoot, "Root.java"), "");
+    expected.add("Root.java");
+    new File(myRoot, "empty").mkdir();
+
+    final Map<String, Long> found = new HashMap<String, Long>();
+    int count = ParallelFileScanner.scan(myRoot, new ParallelFileScanner.DirectoryFilter() {
+      @Override
+      public boolean shouldVisit(@NotNull File dir) {
+        return !dir.getName().equals("excluded");
+      }
+    }, new ParallelFileScanner.FilesConsumer() {
+      @Override
+      public void consume(@NotNull List<File> files, @NotNull TLongArrayList stamps) throws IOException {
+        for (int i = 0; i < files.size(); i++) {
+          assertNull(found.put(FileUtil.getRelativePath(myRoot, files.get(i)).replace(File.separatorChar, '/'), stamps.get(i)));
+        }
+      }
+    });
+
+    assertEquals(expected.size(), count);
+    assertEquals(expected, found.keySet());
+    File file = new File(myRoot, "dir5/sub1/File4.java");
+    assertEquals(FileSystemUtil.lastModified(file), found.get("dir5/sub1/File4.java").longValue());
+  }
+
+  public void testConsumerErrorStopsScanning() throws IOException {
+    for (int i = 0; i < 50; i++) {
+      FileUtil.writeToFile(new File(myRoot, "dir" + i + "/A.java"), "");
+    }
+    try {
+      ParallelFileScanner.scan(myRoot, new ParallelFileScanner.DirectoryFilter() {
+        @Override
+        public boolean shouldVisit(@NotNull File dir) {
+          return true;
+        }
+      }, new ParallelFileScanner.FilesConsumer() {
+        @Override
+        public void consume(@NotNull List<File> files, @NotNull TLongArrayList stamps) throws IOException {
+          throw new IOException("stop");
+        }
+      });
+      fail();
+    }
+    catch (IOException e) {
+      assertEquals("stop", e.getMessage());
+    }
+  }
+
+  public void testSingleFileRoot() throws IOException {
+    final File file = new File(myRoot, "A.java");
+    FileUtil.writeToFile(file, "");
+    final List<File> found = new ArrayList<File>();
+    ParallelFileScanner.scan(file, new ParallelFileScanner.DirectoryFilter() {
+      @Override
+      public boolean shouldVisit(@NotNull File dir) {
+        return true;
+      }
+    }, new ParallelFileScanner.FilesConsumer() {
+      @Override
+      public void consume(@NotNull List<File> files, @NotNull TLongArrayList stamps) throws IOException {
+        found.addAll(files);
+      }
+    });
+    assertEquals(Collections.singletonList(file), found);
+  }
+}
@@ -23,6 +23,8 @@ import com.intellij.util.containers.SLRUCache;
 import com.intellij.util.io.AbstractStringEnumerator;
 import com.intellij.util.io.DataInputOutputUtil;
 import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.UnsyncByteArrayInputStream;
+import gnu.trove.TIntArrayList;
 import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TObjectIntHashMap;
 import jsr166e.SequenceLock;
@@ -68,7 +70,12 @@ public class StubSerializationHelper {
     return myNameStorage.enumerate(serializer.getExternalId());
   }
 
-  private void doSerialize(final Stub rootStub, final StubOutputStream stream) throws IOException {
+  private void doSerialize(final Stub rootStub, final StubOutputStream stream, final TIntArrayList offsets, final TIntArrayList subtreeSizes)
+    throws IOException {
+    final int index = offsets.size();
+    offsets.add(stream.size());
+    subtreeSizes.add(1);
+
     final ObjectStubSerializer serializer = StubSerializationUtil.getSerializer(rootStub);
 
     DataInputOutputUtil.writeINT(stream, getClassId(serializer));
@@ -78,23 +85,39 @@ public class StubSerializationHelper {
     final int childrenSize = children.size();
     DataInputOutputUtil.writeINT(stream, childrenSize);
     for (int i = 0; i < childrenSize; ++i) {
-      doSerialize(children.get(i), stream);
+      doSerialize(children.get(i), stream, offsets, subtreeSizes);
     }
+    subtreeSizes.set(index, offsets.size() - index);
   }
 
+  /**
+   * Format: the strings used by stubs, the stub tree in pre-order and a table with the offset and the size of the subtree of
+   * every stub, which allows {@link #deserializeStub} to skip subtrees without reading them.
+   */
   public void serialize(Stub rootStub, OutputStream stream) throws IOException {
     BufferExposingByteArrayOutputStream out = new BufferExposingByteArrayOutputStream();
     FileLocalStringEnumerator storage = new FileLocalStringEnumerator();
     StubOutputStream stubOutputStream = new StubOutputStream(out, storage);
+    TIntArrayList offsets = new TIntArrayList();
+    TIntArrayList subtreeSizes = new TIntArrayList();
 
-    doSerialize(rootStub, stubOutputStream);
+    doSerialize(rootStub, stubOutputStream, offsets, subtreeSizes);
     DataOutputStream resultStream = new DataOutputStream(stream);
     DataInputOutputUtil.writeINT(resultStream, storage.myStrings.size());
     byte[] buffer = IOUtil.allocReadWriteUTFBuffer();
     for(String s:storage.myStrings) {
       IOUtil.writeUTFFast(buffer, resultStream, s);
     }
+    DataInputOutputUtil.writeINT(resultStream, out.size());
     resultStream.write(out.getInternalBuffer(), 0, out.size());
+
+    DataInputOutputUtil.writeINT(resultStream, offsets.size());
+    int previousOffset = 0;
+    for (int i = 0; i < offsets.size(); i++) {
+      DataInputOutputUtil.writeINT(resultStream, offsets.get(i) - previousOffset);
+      DataInputOutputUtil.writeINT(resultStream, subtreeSizes.get(i));
+      previousOffset = offsets.get(i);
+    }
   }
 
   private int getClassId(final ObjectStubSerializer serializer) {
@@ -158,6 +181,55 @@ public class StubSerializationHelper {
   public Stub deserialize(InputStream stream) throws IOException, SerializerNotFoundException {
     FileLocalStringEnumerator storage = new FileLocalStringEnumerator();
     StubInputStream inputStream = new StubInputStream(stream, storage);
+    readStrings(inputStream, storage);
+    DataInputOutputUtil.readINT(inputStream); // tree length
+    return deserialize(inputStream, null);
+  }
+
+  /**
+   * Deserializes a single stub and its ancestors, skipping all other stubs of the tree. The ancestors contain only the children
+   * on the path to the stub, so the result must not be used as a part of a stub tree bound to PSI.
+   *
+   * @param stubIndex index of the stub in pre-order traversal of the tree, i.e. in the plain list of the stub tree
+   * @return null if there is no such stub
+   */
+  @Nullable
+  public Stub deserializeStub(InputStream stream, int stubIndex) throws IOException, SerializerNotFoundException {
+    FileLocalStringEnumerator storage = new FileLocalStringEnumerator();
+    StubInputStream inputStream = new StubInputStream(stream, storage);
+    readStrings(inputStream, storage);
+    final int treeLength = DataInputOutputUtil.readINT(inputStream);
+    final byte[] tree = new byte[treeLength];
+    inputStream.readFully(tree);
+
+    final int stubCount = DataInputOutputUtil.readINT(inputStream);
+    if (stubIndex < 0 || stubIndex >= stubCount) return null;
+    final int[] offsets = new int[stubCount];
+    final int[] subtreeSizes = new int[stubCount];
+    int offset = 0;
+    for (int i = 0; i < stubCount; i++) {
+      offset += DataInputOutputUtil.readINT(inputStream);
+      offsets[i] = offset;
+      subtreeSizes[i] = DataInputOutputUtil.readINT(inputStream);
+    }
+
+    Stub parentStub = null;
+    int index = 0;
+    while (true) {
+      final StubInputStream stubStream = new StubInputStream(new UnsyncByteArrayInputStream(tree, offsets[index], treeLength), storage);
+      final Stub stub = deserializeStubData(stubStream, parentStub);
+      if (index == stubIndex) return stub;
+
+      int child = index + 1;
+      while (child + subtreeSizes[child] <= stubIndex) {
+        child += subtreeSizes[child];
+      }
+      parentStub = stub;
+      index = child;
+    }
+  }
+
+  private void readStrings(StubInputStream inputStream, FileLocalStringEnumerator storage) throws IOException {
     final int size = DataInputOutputUtil.readINT(inputStream);
     byte[] buffer = IOUtil.allocReadWriteUTFBuffer();
 
@@ -168,17 +240,10 @@ public class StubSerializationHelper {
       storage.myEnumerates.put(s, i);
       ++i;
     }
-    return deserialize(inputStream, null);
   }
 
   private Stub deserialize(StubInputStream stream, @Nullable Stub parentStub) throws IOException, SerializerNotFoundException {
-    final int id = DataInputOutputUtil.readINT(stream);
-    final ObjectStubSerializer serializer = getClassById(id);
-    if (serializer == null) {
-      throw new SerializerNotFoundException("No serializer registered for stub: ID=" + id + "; parent stub class=" + (parentStub != null? parentStub.getClass().getName() : "null"));
-    }
-
-    Stub stub = serializer.deserialize(stream, parentStub);
+    Stub stub = deserializeStubData(stream, parentStub);
     int childCount = DataInputOutputUtil.readINT(stream);
     for (int i = 0; i < childCount; i++) {
       deserialize(stream, stub);
@@ -187,6 +252,15 @@ public class StubSerializationHelper {
   }
 
 
+  private Stub deserializeStubData(StubInputStream stream, @Nullable Stub parentStub) throws IOException, SerializerNotFoundException {
+    final int id = DataInputOutputUtil.readINT(stream);
+    final ObjectStubSerializer serializer = getClassById(id);
+    if (serializer == null) {
+      throw new SerializerNotFoundException("No serializer registered for stub: ID=" + id + "; parent stub class=" + (parentStub != null? parentStub.getClass().getName() : "null"));
+    }
+    return serializer.deserialize(stream, parentStub);
+  }
+
   private ObjectStubSerializer getClassById(int id) {
     return myIdToSerializer.get(id);
   }
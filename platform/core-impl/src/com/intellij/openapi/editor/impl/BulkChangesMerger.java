@@ -18,7 +18,9 @@ package com.intellij.openapi.editor.impl;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.TextChange;
 import com.intellij.util.text.CharArrayCharSequence;
+import com.intellij.util.text.CharArrayUtil;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Arrays;
 import java.util.List;
@@ -49,6 +51,17 @@ public class BulkChangesMerger {
   public CharSequence mergeToCharSequence(@NotNull char[] text, int textLength, @NotNull List<? extends TextChange> changes) {
     return new CharArrayCharSequence(mergeToCharArray(text, textLength, changes));
   }
+
+  /**
+   * Same as {@link #mergeToCharSequence(char[], int, List)} but takes document text as returned by
+   * {@link com.intellij.openapi.editor.Document#getCharsSequence()}, so that text of a large document kept in a {@link TextRope}
+   * isn't copied to an intermediate array.
+   */
+  public CharSequence mergeToCharSequence(@NotNull CharSequence text, int textLength, @NotNull List<? extends TextChange> changes) {
+    char[] merged = text instanceof TextRope ? doMerge(null, (TextRope)text, textLength, changes)
+                                             : mergeToCharArray(CharArrayUtil.fromSequence(text), textLength, changes);
+    return new CharArrayCharSequence(merged);
+  }
   
   /**
    * Merges given changes within the given text and returns result as a new char array.
@@ -60,6 +73,10 @@ public class BulkChangesMerger {
    * @return              merge result
    */
   public char[] mergeToCharArray(@NotNull char[] text, int textLength, @NotNull List<? extends TextChange> changes) {
+    return doMerge(text, null, textLength, changes);
+  }
+
+  private static char[] doMerge(@Nullable char[] array, @Nullable TextRope rope, int textLength, @NotNull List<? extends TextChange> changes) {
     int newLength = textLength;
     for (TextChange change : changes) {
       newLength += change.getText().length() - (change.getEnd() - change.getStart());
@@ -72,7 +89,7 @@ public class BulkChangesMerger {
       
       // Copy all unprocessed symbols from initial text that lay after the changed offset.
       int symbolsToMoveNumber = oldEndOffset - change.getEnd();
-      System.arraycopy(text, change.getEnd(), data, newEndOffset - symbolsToMoveNumber, symbolsToMoveNumber);
+      copyText(array, rope, change.getEnd(), data, newEndOffset - symbolsToMoveNumber, symbolsToMoveNumber);
       newEndOffset -= symbolsToMoveNumber;
       
       // Copy all change symbols.
@@ -83,12 +100,22 @@ public class BulkChangesMerger {
     }
     
     if (oldEndOffset > 0) {
-      System.arraycopy(text, 0, data, 0, oldEndOffset);
+      copyText(array, rope, 0, data, 0, oldEndOffset);
     }
     
     return data;
   }
 
+  private static void copyText(@Nullable char[] array, @Nullable TextRope rope, int srcOffset, @NotNull char[] dst, int dstOffset, int length) {
+    if (array != null) {
+      System.arraycopy(array, srcOffset, dst, dstOffset, length);
+    }
+    else {
+      assert rope != null;
+      rope.getChars(srcOffset, srcOffset + length, dst, dstOffset);
+    }
+  }
+
   /**
    * Allows to perform 'in-place' merge of the given changes to the given array.
    * <p/>
@@ -62,6 +62,9 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
 
   private volatile CharSequence myOriginalSequence;
   private volatile char[] myArray;
+  // text of a large document, used instead of myOriginalSequence and myArray (see DocumentImpl#ROPE_THRESHOLD)
+  private volatile TextRope myRope;
+  private volatile char[] myRopeChars; // copy of myRope created on getChars() request
   private volatile Reference<String> myStringRef; // buffers String value - for not to generate it every time
   private volatile int myBufferSize;
   private volatile int myDeferredShift;
@@ -75,7 +78,7 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   // The main idea is to hold all history of bulk processing iteration in order to be able to retrieve it from client and reproduce the
   // problem.
   
-  private final boolean myDebug = isDebug();
+  private final boolean myDebug;
 
   boolean isDebug() {
     return DEBUG_DEFERRED_PROCESSING || DocumentImpl.CHECK_DOCUMENT_CONSISTENCY;
@@ -104,6 +107,7 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     myDeferredChangesStorage = new TextChangesStorage();
     myArray = Arrays.copyOf(data, length);
     myCount = length;
+    myDebug = isDebug();
 
     if (myDebug) {
       myDebugArray = new CharArray(bufferSize, data, length) {
@@ -138,6 +142,26 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     assertConsistency();
   }
 
+  /**
+   * Creates the array which keeps its text in a rope: changes and line lookups take logarithmic time and there is no need
+   * to defer changes.
+   */
+  CharArray(final int bufferSize, @NotNull TextRope text) {
+    myBufferSize = bufferSize;
+    myDeferredChangesStorage = new TextChangesStorage();
+    myRope = text;
+    myCount = text.length();
+    myDebug = false;
+  }
+
+  /**
+   * @return current text if it's kept in a rope, null otherwise
+   */
+  @Nullable
+  TextRope getRope() {
+    return myRope;
+  }
+
   public void setBufferSize(int bufferSize) {
     assert bufferSize >= 0 : bufferSize;
     myBufferSize = bufferSize;
@@ -184,6 +208,11 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   }
 
   private void assertConsistency() {
+    TextRope rope = myRope;
+    if (rope != null) {
+      assert myCount == rope.length();
+      return;
+    }
     if (isDeferredChangeMode()) {
       assert myOriginalSequence == null;
     }
@@ -254,6 +283,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   }
 
   private void doReplace(int startOffset, int endOffset, @NotNull CharSequence newString) {
+    if (myRope != null) {
+      setRope(myRope.replace(startOffset, endOffset, newString));
+      return;
+    }
     prepareForModification();
 
     if (isDeferredChangeMode()) {
@@ -291,6 +324,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     if (startIndex == endIndex) {
       return;
     }
+    if (myRope != null) {
+      setRope(myRope.delete(startIndex, endIndex));
+      return;
+    }
     prepareForModification();
 
     if (isDeferredChangeMode()) {
@@ -319,6 +356,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   }
 
   private void doInsert(@NotNull CharSequence s, final int startIndex) {
+    if (myRope != null) {
+      setRope(myRope.insert(startIndex, s));
+      return;
+    }
     prepareForModification();
 
     if (isDeferredChangeMode()) {
@@ -340,6 +381,13 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     }
   }
 
+  private void setRope(@NotNull TextRope rope) {
+    myRope = rope;
+    myCount = rope.length();
+    myRopeChars = null;
+    myStringRef = null;
+  }
+
   /**
    * Stores given change at collection of deferred changes (merging it with others if necessary) and updates current object
    * state ({@link #length() length} etc).
@@ -381,6 +429,8 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   @NotNull
   public CharSequence getCharArray() {
     assertConsistency();
+    TextRope rope = myRope;
+    if (rope != null) return rope;
     CharSequence originalSequence = myOriginalSequence;
     return originalSequence == null ? this : originalSequence;
   }
@@ -393,6 +443,9 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
         if (myOriginalSequence != null) {
           str = myOriginalSequence.toString();
         }
+        else if (myRope != null) {
+          str = myRope.toString();
+        }
         else {
           str = new String(myArray, myStart, myCount);
         }
@@ -428,6 +481,9 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
       if (myOriginalSequence != null) {
         result = myOriginalSequence.charAt(i);
       }
+      else if (myRope != null) {
+        result = myRope.charAt(i);
+      }
       else {
         result = myArray[i];
       }
@@ -454,6 +510,10 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
     if (myOriginalSequence != null) {
       return myOriginalSequence.subSequence(start, end);
     }
+    TextRope rope = myRope;
+    if (rope != null) {
+      return rope.subSequence(start, end);
+    }
     flushDeferredChanged();
     return new CharArrayCharSequence(myArray, start, end);
   }
@@ -463,6 +523,16 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   public char[] getChars() {
     assertReadAccess();
     assertConsistency();
+    TextRope rope = myRope;
+    if (rope != null) {
+      char[] chars = myRopeChars;
+      if (chars == null) {
+        chars = new char[rope.length()];
+        rope.getChars(0, chars.length, chars, 0);
+        myRopeChars = chars;
+      }
+      return chars;
+    }
     char[] array = myArray;
     CharSequence originalSequence = myOriginalSequence;
     if (myHasDeferredChanges || originalSequence != null && array == null) {
@@ -487,6 +557,11 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   public void getChars(@NotNull final char[] dst, final int dstOffset) {
     assertReadAccess();
     assertConsistency();
+    TextRope rope = myRope;
+    if (rope != null) {
+      rope.getChars(0, rope.length(), dst, dstOffset);
+      return;
+    }
     flushDeferredChanged();
     if (myOriginalSequence == null) {
       System.arraycopy(myArray, myStart, dst, dstOffset, length());
@@ -520,7 +595,11 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
   private CharSequence doSubString(int start, int end) {
     if (start == end) return "";
     final CharSequence result;
-    if (myOriginalSequence == null) {
+    TextRope rope = myRope;
+    if (rope != null) {
+      result = rope.subSequence(start, end);
+    }
+    else if (myOriginalSequence == null) {
       result = myDeferredChangesStorage.substring(myArray, start + myStart, end + myStart);
     }
     else {
@@ -604,7 +683,8 @@ abstract class CharArray implements CharSequenceBackedByArray, Dumpable {
    * @param deferredChangeMode    flag that defines if <code>'defer changes'</code> mode should be used by the current object
    */
   public void setDeferredChangeMode(boolean deferredChangeMode) {
-    if (!DISABLE_DEFERRED_PROCESSING) {
+    // rope changes don't move the rest of the text, so there is nothing to defer
+    if (!DISABLE_DEFERRED_PROCESSING && myRope == null) {
       if (deferredChangeMode) {
         if (myDebug) {
           myDebugArray.setText(myDebugTextOnBatchUpdateStart = toString());
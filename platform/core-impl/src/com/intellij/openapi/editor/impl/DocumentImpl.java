@@ -35,6 +35,7 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.LocalTimeCounter;
 import com.intellij.util.Processor;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.text.CharArrayUtil;
 import org.jetbrains.annotations.NonNls;
@@ -51,13 +52,18 @@ import java.util.List;
 public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.editor.impl.DocumentImpl");
   public static boolean CHECK_DOCUMENT_CONSISTENCY = ApplicationManager.getApplication().isUnitTestMode();
+  /**
+   * Documents of at least that many chars keep their text in a {@link TextRope}. Ropes are off by default (non-positive value)
+   * since line lookups in them are still several times slower than in a {@link LineSet}.
+   */
+  private static final int ROPE_THRESHOLD = SystemProperties.getIntProperty("idea.document.rope.threshold", 0);
 
   private final List<DocumentListener> myDocumentListeners = ContainerUtil.createEmptyCOWList();
   private final RangeMarkerTree<RangeMarkerEx> myRangeMarkers = new RangeMarkerTree<RangeMarkerEx>(this);
   private final List<RangeMarker> myGuardedBlocks = new ArrayList<RangeMarker>();
   private ReadonlyFragmentModificationHandler myReadonlyFragmentModificationHandler;
 
-  private final LineSet myLineSet = new LineSet();
+  private LineSet myLineSet;
   private final CharArray myText;
 
   private boolean myIsReadOnly = false;
@@ -85,8 +91,19 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
   }
 
   public DocumentImpl(@NotNull CharSequence chars, boolean forUseInNonAWTThread) {
+    this(chars, forUseInNonAWTThread, ROPE_THRESHOLD > 0 && chars.length() >= ROPE_THRESHOLD);
+  }
+
+  DocumentImpl(@NotNull CharSequence chars, boolean forUseInNonAWTThread, boolean useRope) {
     assertValidSeparators(chars);
-    myText = new MyCharArray(CharArrayUtil.fromSequence(chars), chars.length());
+    if (useRope) {
+      myText = new MyCharArray(TextRope.create(chars));
+      myLineSet = new RopeLineSet(myText);
+    }
+    else {
+      myText = new MyCharArray(CharArrayUtil.fromSequence(chars), chars.length());
+      myLineSet = new LineSet();
+    }
     myLineSet.documentCreated(this);
     setCyclicBufferSize(0);
     setModificationStamp(LocalTimeCounter.currentTime());
@@ -99,6 +116,11 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
     }
     finally {
       myAcceptSlashR = accept;
+      if (accept && myLineSet instanceof RopeLineSet) {
+        // rope line set knows nothing about '\r' separators
+        myLineSet = new LineSet();
+        myLineSet.documentCreated(this);
+      }
     }
   }
 
@@ -225,6 +247,11 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
     return myRangeMarkers.nodeSize();
   }
 
+  @TestOnly
+  LineSet getLineSet() {
+    return myLineSet;
+  }
+
   @Override
   @NotNull
   public RangeMarker createGuardedBlock(int startOffset, int endOffset) {
@@ -842,6 +869,10 @@ public class DocumentImpl extends UserDataHolderBase implements DocumentEx {
       super(0, chars, length);
     }
 
+    private MyCharArray(@NotNull TextRope text) {
+      super(0, text);
+    }
+
     @Override
     @NotNull
     protected DocumentEvent beforeChangedUpdate(int offset,
@@ -46,28 +46,28 @@ public class LineSet{
     return new LineIteratorImpl(this);
   }
 
-  public final int getLineStart(int index) {
+  public int getLineStart(int index) {
     int lineStart = mySegments.getSegmentStart(index);
     assert lineStart >= 0;
     return lineStart;
   }
 
-  public final int getLineEnd(int index) {
+  public int getLineEnd(int index) {
     return mySegments.getSegmentEnd(index);
   }
 
-  final boolean isModified(int index) {
+  boolean isModified(int index) {
     return (mySegments.getSegmentData(index) & MODIFIED_MASK) != 0;
   }
-  final void setModified(int index) {
+  void setModified(int index) {
     setSegmentModified(mySegments, index);
   }
 
-  final int getSeparatorLength(int index) {
+  int getSeparatorLength(int index) {
     return mySegments.getSegmentData(index) & SEPARATOR_MASK;
   }
 
-  final int getLineCount() {
+  int getLineCount() {
     return mySegments.getSegmentCount();
   }
 
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.impl;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.util.text.StringUtil;
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Line set of a document whose text is kept in a {@link TextRope}. Line boundaries are found by the line feed counts stored
+ * in the rope nodes, so a change updates only modification flags which are kept as ranges of lines.
+ * <p/>
+ * Only '\n' is treated as a line separator, so the document must not accept '\r'.
+ */
+class RopeLineSet extends LineSet {
+  private final CharArray myText;
+  private TIntArrayList myModifiedRanges = new TIntArrayList(); // first and last line of every range, ranges are sorted and disjoint
+
+  RopeLineSet(@NotNull CharArray text) {
+    myText = text;
+  }
+
+  @NotNull
+  private TextRope getRope() {
+    final TextRope rope = myText.getRope();
+    assert rope != null;
+    return rope;
+  }
+
+  @Override
+  public int findLineIndex(int offset) {
+    final TextRope rope = getRope();
+    if (offset < 0 || offset > rope.length()) {
+      throw new IndexOutOfBoundsException("Wrong offset: " + offset + ". Should be in range: [0, " + rope.length() + "]");
+    }
+    return rope.countLineBreaks(offset);
+  }
+
+  @Override
+  public int getLineStart(int index) {
+    final TextRope rope = getRope();
+    checkLineIndex(rope, index);
+    return index == 0 ? 0 : rope.getLineBreakOffset(index - 1) + 1;
+  }
+
+  @Override
+  public int getLineEnd(int index) {
+    final TextRope rope = getRope();
+    checkLineIndex(rope, index);
+    return index < rope.getLineBreakCount() ? rope.getLineBreakOffset(index) + 1 : rope.length();
+  }
+
+  @Override
+  int getSeparatorLength(int index) {
+    final TextRope rope = getRope();
+    checkLineIndex(rope, index);
+    return index < rope.getLineBreakCount() ? 1 : 0;
+  }
+
+  @Override
+  int getLineCount() {
+    final TextRope rope = getRope();
+    return rope.length() == 0 ? 0 : rope.getLineBreakCount() + 1;
+  }
+
+  private static void checkLineIndex(@NotNull TextRope rope, int index) {
+    final int lineCount = rope.length() == 0 ? 0 : rope.getLineBreakCount() + 1;
+    if (index < 0 || index >= lineCount) {
+      throw new IndexOutOfBoundsException("Wrong line: " + index + ". Available lines count: " + lineCount);
+    }
+  }
+
+  @Override
+  public void documentCreated(@NotNull Document document) {
+  }
+
+  @Override
+  public void changedUpdate(DocumentEvent e) {
+    if (e.isWholeTextReplaced()) {
+      clearModificationFlags();
+      return;
+    }
+    final int line = getRope().countLineBreaks(e.getOffset());
+    updateModifiedRanges(line, countLineBreaks(e.getOldFragment()), countLineBreaks(e.getNewFragment()));
+  }
+
+  private static int countLineBreaks(@NotNull CharSequence text) {
+    return text instanceof TextRope ? ((TextRope)text).getLineBreakCount() : StringUtil.countNewLines(text);
+  }
+
+  @Override
+  boolean isModified(int index) {
+    int low = 0;
+    int high = myModifiedRanges.size() / 2 - 1;
+    while (low <= high) {
+      final int mid = (low + high) >>> 1;
+      if (index < myModifiedRanges.get(mid * 2)) {
+        high = mid - 1;
+      }
+      else if (index > myModifiedRanges.get(mid * 2 + 1)) {
+        low = mid + 1;
+      }
+      else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  void setModified(int index) {
+    updateModifiedRanges(index, 0, 0);
+  }
+
+  @Override
+  public void clearModificationFlags() {
+    myModifiedRanges = new TIntArrayList();
+  }
+
+  /**
+   * Lines from <code>line + 1</code> to <code>line + oldCount</code> were replaced by <code>newCount</code> lines: shifts ranges
+   * after the change and marks the changed lines as modified.
+   */
+  private void updateModifiedRanges(int line, int oldCount, int newCount) {
+    final TIntArrayList oldRanges = myModifiedRanges;
+    final TIntArrayList ranges = new TIntArrayList(oldRanges.size() + 2);
+    final int size = oldRanges.size();
+    final int shift = newCount - oldCount;
+    int changedStart = line;
+    int changedEnd = line + newCount;
+
+    int i = 0;
+    for (; i < size && oldRanges.get(i + 1) < line - 1; i += 2) {
+      ranges.add(oldRanges.get(i));
+      ranges.add(oldRanges.get(i + 1));
+    }
+    for (; i < size && oldRanges.get(i) <= line + oldCount + 1; i += 2) { // ranges touching the changed lines are merged with them
+      changedStart = Math.min(changedStart, oldRanges.get(i));
+      changedEnd = Math.max(changedEnd, Math.max(oldRanges.get(i + 1), line + oldCount) + shift);
+    }
+    ranges.add(changedStart);
+    ranges.add(changedEnd);
+    for (; i < size; i += 2) {
+      ranges.add(oldRanges.get(i) + shift);
+      ranges.add(oldRanges.get(i + 1) + shift);
+    }
+    myModifiedRanges = ranges;
+  }
+}
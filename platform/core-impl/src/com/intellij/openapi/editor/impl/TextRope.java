@@ -0,0 +1,342 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.impl;
+
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.text.CharArrayUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Immutable text stored as a height-balanced tree whose leaves are slices of char arrays. A change creates new nodes only on the
+ * paths to the changed offsets and copies at most a couple of leaves, everything else is shared with the previous version of the text.
+ * Every node knows the number of line feeds inside it, so line lookups take logarithmic time as well.
+ * <p/>
+ * Used by {@link CharArray} to keep the text of large documents.
+ */
+abstract class TextRope implements CharSequence {
+  static final int LEAF_SIZE = 2048;
+
+  static final TextRope EMPTY = new Leaf(ArrayUtil.EMPTY_CHAR_ARRAY, 0, 0);
+
+  final int myLength;
+  final int myLineBreaks;
+  final int myDepth;
+
+  private TextRope(int length, int lineBreaks, int depth) {
+    myLength = length;
+    myLineBreaks = lineBreaks;
+    myDepth = depth;
+  }
+
+  @NotNull
+  static TextRope create(@NotNull CharSequence text) {
+    if (text instanceof TextRope) return (TextRope)text;
+    final int length = text.length();
+    if (length == 0) return EMPTY;
+    final char[] chars = new char[length];
+    CharArrayUtil.getChars(text, chars, 0);
+    return create(chars, 0, length);
+  }
+
+  @NotNull
+  private static TextRope create(@NotNull char[] chars, int start, int length) {
+    if (length <= LEAF_SIZE) return new Leaf(chars, start, length);
+    final int half = length >> 1;
+    return new Concat(create(chars, start, half), create(chars, start + half, length - half));
+  }
+
+  @Override
+  public final int length() {
+    return myLength;
+  }
+
+  /**
+   * @return number of line feeds in the text
+   */
+  final int getLineBreakCount() {
+    return myLineBreaks;
+  }
+
+  @NotNull
+  @Override
+  public final TextRope subSequence(int start, int end) {
+    checkRange(start, end);
+    return sub(start, end);
+  }
+
+  @NotNull
+  final TextRope replace(int start, int end, @NotNull CharSequence text) {
+    checkRange(start, end);
+    return concat(concat(sub(0, start), create(text)), sub(end, myLength));
+  }
+
+  @NotNull
+  final TextRope insert(int offset, @NotNull CharSequence text) {
+    return replace(offset, offset, text);
+  }
+
+  @NotNull
+  final TextRope delete(int start, int end) {
+    return replace(start, end, "");
+  }
+
+  /**
+   * @return number of line feeds before the given offset
+   */
+  final int countLineBreaks(int offset) {
+    if (offset < 0 || offset > myLength) throw new IndexOutOfBoundsException("Wrong offset: " + offset + "; length: " + myLength);
+    TextRope node = this;
+    int result = 0;
+    while (node instanceof Concat) {
+      final TextRope left = ((Concat)node).myLeft;
+      if (offset <= left.myLength) {
+        node = left;
+      }
+      else {
+        result += left.myLineBreaks;
+        offset -= left.myLength;
+        node = ((Concat)node).myRight;
+      }
+    }
+    if (offset == 0 || node.myLineBreaks == 0) return result;
+    final int[] lineBreaks = ((Leaf)node).getLineBreakOffsets();
+    final int index = Arrays.binarySearch(lineBreaks, offset);
+    return result + (index >= 0 ? index : -index - 1);
+  }
+
+  /**
+   * @param index index of the line feed among all line feeds of the text
+   * @return offset of the line feed
+   */
+  final int getLineBreakOffset(int index) {
+    if (index < 0 || index >= myLineBreaks) {
+      throw new IndexOutOfBoundsException("Wrong line break index: " + index + "; line breaks: " + myLineBreaks);
+    }
+    TextRope node = this;
+    int offset = 0;
+    while (node instanceof Concat) {
+      final TextRope left = ((Concat)node).myLeft;
+      if (index < left.myLineBreaks) {
+        node = left;
+      }
+      else {
+        index -= left.myLineBreaks;
+        offset += left.myLength;
+        node = ((Concat)node).myRight;
+      }
+    }
+    return offset + ((Leaf)node).getLineBreakOffsets()[index];
+  }
+
+  final void getChars(int start, int end, @NotNull char[] dst, int dstOffset) {
+    checkRange(start, end);
+    doGetChars(start, end, dst, dstOffset);
+  }
+
+  @NotNull
+  @Override
+  public final String toString() {
+    final char[] chars = new char[myLength];
+    doGetChars(0, myLength, chars, 0);
+    return new String(chars);
+  }
+
+  abstract TextRope sub(int start, int end);
+
+  abstract void doGetChars(int start, int end, @NotNull char[] dst, int dstOffset);
+
+  private void checkRange(int start, int end) {
+    if (start < 0 || end > myLength || start > end) {
+      throw new IndexOutOfBoundsException("Wrong range: [" + start + ", " + end + "); length: " + myLength);
+    }
+  }
+
+  private static int countLineBreaks(@NotNull char[] chars, int start, int end) {
+    int result = 0;
+    for (int i = start; i < end; i++) {
+      if (chars[i] == '\n') result++;
+    }
+    return result;
+  }
+
+  /**
+   * Joins two balanced trees into a balanced one, see join of AVL trees.
+   */
+  @NotNull
+  static TextRope concat(@NotNull TextRope left, @NotNull TextRope right) {
+    if (left.myLength == 0) return right;
+    if (right.myLength == 0) return left;
+    if (left instanceof Leaf && right instanceof Leaf && left.myLength + right.myLength <= LEAF_SIZE) {
+      return Leaf.merge((Leaf)left, (Leaf)right);
+    }
+
+    final int diff = left.myDepth - right.myDepth;
+    if (diff > 1) {
+      final Concat node = (Concat)left;
+      return rotate(node.myLeft, concat(node.myRight, right));
+    }
+    if (diff < -1) {
+      final Concat node = (Concat)right;
+      return rotate(concat(left, node.myLeft), node.myRight);
+    }
+    return new Concat(left, right);
+  }
+
+  // depths of the given trees differ by two at most
+  @NotNull
+  private static TextRope rotate(@NotNull TextRope left, @NotNull TextRope right) {
+    final int diff = left.myDepth - right.myDepth;
+    if (diff > 1) {
+      final Concat node = (Concat)left;
+      if (node.myLeft.myDepth >= node.myRight.myDepth) {
+        return new Concat(node.myLeft, new Concat(node.myRight, right));
+      }
+      final Concat inner = (Concat)node.myRight;
+      return new Concat(new Concat(node.myLeft, inner.myLeft), new Concat(inner.myRight, right));
+    }
+    if (diff < -1) {
+      final Concat node = (Concat)right;
+      if (node.myRight.myDepth >= node.myLeft.myDepth) {
+        return new Concat(new Concat(left, node.myLeft), node.myRight);
+      }
+      final Concat inner = (Concat)node.myLeft;
+      return new Concat(new Concat(left, inner.myLeft), new Concat(inner.myRight, node.myRight));
+    }
+    return new Concat(left, right);
+  }
+
+  private static final class Leaf extends TextRope {
+    private final char[] myChars;
+    private final int myStart;
+    private int[] myLineBreakOffsets; // computed on the first line lookup
+
+    private Leaf(@NotNull char[] chars, int start, int length) {
+      super(length, TextRope.countLineBreaks(chars, start, start + length), 0);
+      myChars = chars;
+      myStart = start;
+    }
+
+    @NotNull
+    private static Leaf merge(@NotNull Leaf left, @NotNull Leaf right) {
+      final char[] chars = new char[left.myLength + right.myLength];
+      System.arraycopy(left.myChars, left.myStart, chars, 0, left.myLength);
+      System.arraycopy(right.myChars, right.myStart, chars, left.myLength, right.myLength);
+      return new Leaf(chars, 0, chars.length);
+    }
+
+    @NotNull
+    private int[] getLineBreakOffsets() {
+      int[] offsets = myLineBreakOffsets;
+      if (offsets == null) {
+        offsets = new int[myLineBreaks];
+        for (int i = 0, j = 0; j < offsets.length; i++) {
+          if (myChars[myStart + i] == '\n') offsets[j++] = i;
+        }
+        myLineBreakOffsets = offsets;
+      }
+      return offsets;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index < 0 || index >= myLength) throw new IndexOutOfBoundsException("Wrong offset: " + index + "; length: " + myLength);
+      return myChars[myStart + index];
+    }
+
+    @Override
+    TextRope sub(int start, int end) {
+      if (start == 0 && end == myLength) return this;
+      return new Leaf(myChars, myStart + start, end - start);
+    }
+
+    @Override
+    void doGetChars(int start, int end, @NotNull char[] dst, int dstOffset) {
+      System.arraycopy(myChars, myStart + start, dst, dstOffset, end - start);
+    }
+  }
+
+  private static final class Concat extends TextRope {
+    private final TextRope myLeft;
+    private final TextRope myRight;
+    private LeafPosition myLastLeaf; // speeds up sequential charAt() calls
+
+    private Concat(@NotNull TextRope left, @NotNull TextRope right) {
+      super(left.myLength + right.myLength, left.myLineBreaks + right.myLineBreaks, Math.max(left.myDepth, right.myDepth) + 1);
+      myLeft = left;
+      myRight = right;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index < 0 || index >= myLength) throw new IndexOutOfBoundsException("Wrong offset: " + index + "; length: " + myLength);
+      LeafPosition last = myLastLeaf;
+      if (last == null || index < last.myOffset || index >= last.myOffset + last.myLeaf.myLength) {
+        myLastLeaf = last = findLeaf(index);
+      }
+      return last.myLeaf.myChars[last.myLeaf.myStart + index - last.myOffset];
+    }
+
+    @NotNull
+    private LeafPosition findLeaf(int index) {
+      TextRope node = this;
+      int offset = 0;
+      while (node instanceof Concat) {
+        final TextRope left = ((Concat)node).myLeft;
+        if (index - offset < left.myLength) {
+          node = left;
+        }
+        else {
+          offset += left.myLength;
+          node = ((Concat)node).myRight;
+        }
+      }
+      return new LeafPosition((Leaf)node, offset);
+    }
+
+    @Override
+    TextRope sub(int start, int end) {
+      if (start == 0 && end == myLength) return this;
+      final int leftLength = myLeft.myLength;
+      if (end <= leftLength) return myLeft.sub(start, end);
+      if (start >= leftLength) return myRight.sub(start - leftLength, end - leftLength);
+      return concat(myLeft.sub(start, leftLength), myRight.sub(0, end - leftLength));
+    }
+
+    @Override
+    void doGetChars(int start, int end, @NotNull char[] dst, int dstOffset) {
+      final int leftLength = myLeft.myLength;
+      if (start < leftLength) {
+        myLeft.doGetChars(start, Math.min(end, leftLength), dst, dstOffset);
+      }
+      if (end > leftLength) {
+        final int rightStart = Math.max(start, leftLength);
+        myRight.doGetChars(rightStart - leftLength, end - leftLength, dst, dstOffset + rightStart - start);
+      }
+    }
+  }
+
+  private static final class LeafPosition {
+    private final Leaf myLeaf;
+    private final int myOffset;
+
+    private LeafPosition(@NotNull Leaf leaf, int offset) {
+      myLeaf = leaf;
+      myOffset = offset;
+    }
+  }
+}
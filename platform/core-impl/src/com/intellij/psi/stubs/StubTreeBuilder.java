@@ -17,13 +17,16 @@ package com.intellij.psi.stubs;
 
 import com.intellij.lang.Language;
 import com.intellij.lang.LanguageParserDefinitions;
+import com.intellij.lang.LighterAST;
 import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.fileTypes.LanguageFileType;
 import com.intellij.openapi.util.Key;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.tree.IFileElementType;
+import com.intellij.psi.tree.ILightStubFileElementType;
 import com.intellij.psi.tree.IStubFileElementType;
 import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.FileContentImpl;
 import com.intellij.util.indexing.IndexingDataKeys;
 import com.intellij.util.indexing.SubstitutedFileType;
 import org.jetbrains.annotations.Nullable;
@@ -60,6 +63,12 @@ public class StubTreeBuilder {
         psi.putUserData(IndexingDataKeys.FILE_TEXT_CONTENT_KEY, contentAsText);
 
         try {
+          if (type instanceof ILightStubFileElementType && inputData instanceof FileContentImpl) {
+            LighterAST tree = ((FileContentImpl)inputData).getLighterAST();
+            if (tree != null) {
+              psi.putUserData(LightStubBuilder.FORCED_AST, tree);
+            }
+          }
           if (type instanceof IStubFileElementType) {
             data = ((IStubFileElementType)type).getBuilder().buildStubTree(psi);
           }
@@ -74,6 +83,7 @@ public class StubTreeBuilder {
         }
         finally {
           psi.putUserData(IndexingDataKeys.FILE_TEXT_CONTENT_KEY, null);
+          psi.putUserData(LightStubBuilder.FORCED_AST, null);
         }
       }
 
@@ -21,6 +21,8 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiFile;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
+
 /**
  * @author yole
  */
@@ -35,6 +37,20 @@ public abstract class StubTreeLoader {
 
   @Nullable
   public abstract ObjectStubTree readFromVFile(Project project, final VirtualFile vFile);
+
+  /**
+   * Reads a single stub of the file from the indices. Implementations may deserialize only the stub and its ancestors, so
+   * the result must not be used to navigate to other stubs or to bind PSI.
+   *
+   * @param stubIndex index of the stub in {@link ObjectStubTree#getPlainList()}
+   */
+  @Nullable
+  public Stub readStubFromVFile(Project project, final VirtualFile vFile, int stubIndex) {
+    ObjectStubTree tree = readFromVFile(project, vFile);
+    if (tree == null) return null;
+    List<?> stubs = tree.getPlainList();
+    return stubIndex >= 0 && stubIndex < stubs.size() ? (Stub)stubs.get(stubIndex) : null;
+  }
   
   public abstract void rebuildStubTree(VirtualFile virtualFile);
 
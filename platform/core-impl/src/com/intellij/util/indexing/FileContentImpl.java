@@ -15,7 +15,11 @@
  */
 package com.intellij.util.indexing;
 
+import com.intellij.lang.FileASTNode;
 import com.intellij.lang.Language;
+import com.intellij.lang.LanguageParserDefinitions;
+import com.intellij.lang.LighterAST;
+import com.intellij.lang.ParserDefinition;
 import com.intellij.openapi.fileEditor.impl.LoadTextUtil;
 import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.fileTypes.LanguageFileType;
@@ -27,7 +31,11 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.LanguageSubstitutors;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiFileFactory;
+import com.intellij.psi.stubs.LightStubBuilder;
+import com.intellij.psi.tree.IFileElementType;
+import com.intellij.psi.tree.ILightStubFileElementType;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 
 import java.io.IOException;
@@ -80,6 +88,33 @@ public final class FileContentImpl extends UserDataHolderBase implements FileCon
     return psi;
   }
 
+  private static final Key<LighterAST> CACHED_LIGHTER_AST = Key.create("cached lighter ast from content");
+
+  /**
+   * @return the light tree of the content, built once and shared by all indices and the stub builder,
+   * or null if the language of the file doesn't support light parsing
+   */
+  @Nullable
+  public synchronized LighterAST getLighterAST() {
+    LighterAST tree = getUserData(CACHED_LIGHTER_AST);
+    if (tree == null) {
+      final FileType fileType = getFileType();
+      if (!(fileType instanceof LanguageFileType)) return null;
+
+      final Language language = ((LanguageFileType)fileType).getLanguage();
+      final ParserDefinition parserDefinition = LanguageParserDefinitions.INSTANCE.forLanguage(language);
+      final IFileElementType type = parserDefinition != null ? parserDefinition.getFileNodeType() : null;
+      if (!(type instanceof ILightStubFileElementType)) return null;
+
+      final FileASTNode node = getPsiFile().getNode();
+      if (node == null) return null;
+
+      tree = LightStubBuilder.buildLighterAST(node, (ILightStubFileElementType)type);
+      putUserData(CACHED_LIGHTER_AST, tree);
+    }
+    return tree;
+  }
+
   public static class IllegalDataException extends RuntimeException {
     public IllegalDataException(final String message) {
       super(message);
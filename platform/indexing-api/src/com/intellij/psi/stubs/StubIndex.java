@@ -23,8 +23,10 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.PairProcessor;
 import com.intellij.util.Processor;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
 
@@ -48,6 +50,27 @@ public abstract class StubIndex {
                                                                 GlobalSearchScope scope,
                                                                 @NotNull Processor<? super Psi> processor);
 
+  /**
+   * Processes elements stored under any of the given keys. Lookups are grouped by file, so each stub tree is loaded once
+   * no matter how many of the keys it contains; elements are therefore reported in file order rather than in key order.
+   */
+  public <Key, Psi extends PsiElement> boolean processElements(@NotNull StubIndexKey<Key, Psi> indexKey,
+                                                               @NotNull Collection<Key> keys,
+                                                               @NotNull Project project,
+                                                               @Nullable GlobalSearchScope scope,
+                                                               @NotNull final PairProcessor<Key, ? super Psi> processor) {
+    for (final Key key : keys) {
+      boolean shouldContinue = process(indexKey, key, project, scope, new Processor<Psi>() {
+        @Override
+        public boolean process(Psi psi) {
+          return processor.process(key, psi);
+        }
+      });
+      if (!shouldContinue) return false;
+    }
+    return true;
+  }
+
   @NotNull
   public abstract <Key> Collection<Key> getAllKeys(@NotNull StubIndexKey<Key, ?> indexKey, @NotNull Project project);
 }
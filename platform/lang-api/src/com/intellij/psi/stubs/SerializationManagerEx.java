@@ -15,6 +15,8 @@
  */
 package com.intellij.psi.stubs;
 
+import org.jetbrains.annotations.Nullable;
+
 import java.io.InputStream;
 import java.io.OutputStream;
 
@@ -31,6 +33,12 @@ public abstract class SerializationManagerEx extends SerializationManager {
 
   public abstract Stub deserialize(InputStream stream) throws SerializerNotFoundException;
 
+  /**
+   * Deserializes only the stub with the given pre-order index and its ancestors, see {@link StubSerializationHelper#deserializeStub}.
+   */
+  @Nullable
+  public abstract Stub deserializeStub(InputStream stream, int stubIndex) throws SerializerNotFoundException;
+
   public abstract boolean isNameStorageCorrupted();
 
   public abstract void repairNameStorage();
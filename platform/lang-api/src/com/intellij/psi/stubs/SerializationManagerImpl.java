@@ -170,4 +170,18 @@ public class SerializationManagerImpl extends SerializationManagerEx implements
       throw new RuntimeException(e);
     }
   }
+
+  @Override
+  public Stub deserializeStub(InputStream stream, int stubIndex) throws SerializerNotFoundException {
+    initSerializers();
+
+    try {
+      return myStubSerializationHelper.deserializeStub(stream, stubIndex);
+    }
+    catch (IOException e) {
+      nameStorageCrashed();
+      LOG.info(e);
+      throw new RuntimeException(e);
+    }
+  }
 }
@@ -605,6 +605,8 @@ public class GeneralHighlightingPass extends ProgressableTextEditorHighlightingP
     }, 200);
 
 
+    final boolean timed = HighlightingTimings.ENABLED;
+    final long[] visitorTimes = new long[visitors.length];
     final Runnable action = new Runnable() {
       @Override
       public void run() {
@@ -629,9 +631,10 @@ public class GeneralHighlightingPass extends ProgressableTextEditorHighlightingP
             }
             holder.clear();
 
-            for (final HighlightVisitor visitor : visitors) {
+            for (int v = 0; v < visitors.length; v++) {
+              long start = timed ? System.nanoTime() : 0;
               try {
-                visitor.visit(element);
+                visitors[v].visit(element);
               }
               catch (ProcessCanceledException e) {
                 throw e;
@@ -648,6 +651,9 @@ public class GeneralHighlightingPass extends ProgressableTextEditorHighlightingP
                 }
                 failed = true;
               }
+              if (timed) {
+                visitorTimes[v] += System.nanoTime() - start;
+              }
             }
 
             if (i == nextLimit) {
@@ -705,6 +711,11 @@ public class GeneralHighlightingPass extends ProgressableTextEditorHighlightingP
     };
 
     analyzeByVisitors(progress, visitors, holder, 0, action);
+    if (HighlightingTimings.ENABLED && !progress.isCanceled()) {
+      for (int v = 0; v < visitors.length; v++) {
+        HighlightingTimings.record("visitor", visitors[v].getClass().getName(), visitorTimes[v]);
+      }
+    }
   }
 
   protected void killAbandonedHighlightsUnder(@NotNull final TextRange range,
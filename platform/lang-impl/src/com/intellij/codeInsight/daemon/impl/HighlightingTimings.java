@@ -0,0 +1,159 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.daemon.impl;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.SystemProperties;
+import com.intellij.util.containers.ConcurrentHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Durations of highlighting passes, highlight visitors and local inspections collected over the session.
+ * Every duration goes to a fixed-size histogram of its (category, subject) key, so recording costs two map lookups and
+ * a couple of atomic increments, and the percentiles are accurate to 1/8 of the value.
+ *
+ * Collection is off by default since highlight visitors are timed per element; enable it with -Didea.highlighting.timings=true.
+ * See the "Show Highlighting Timings" and "Dump Highlighting Timings" internal actions.
+ */
+public class HighlightingTimings {
+  public static final boolean ENABLED = SystemProperties.getBooleanProperty("idea.highlighting.timings", false);
+
+  private static final HighlightingTimings ourInstance = new HighlightingTimings();
+
+  // category -> subject -> histogram
+  private final ConcurrentHashMap<String, ConcurrentHashMap<Object, Histogram>> myHistograms =
+    new ConcurrentHashMap<String, ConcurrentHashMap<Object, Histogram>>();
+
+  public static HighlightingTimings getInstance() {
+    return ourInstance;
+  }
+
+  public static void record(@NotNull String category, @NotNull Object subject, long nanos) {
+    if (ENABLED) {
+      ourInstance.add(category, subject, nanos);
+    }
+  }
+
+  public void add(@NotNull String category, @NotNull Object subject, long nanos) {
+    ConcurrentHashMap<Object, Histogram> histograms = myHistograms.get(category);
+    if (histograms == null) {
+      histograms = new ConcurrentHashMap<Object, Histogram>();
+      ConcurrentHashMap<Object, Histogram> prev = myHistograms.putIfAbsent(category, histograms);
+      if (prev != null) histograms = prev;
+    }
+    Histogram histogram = histograms.get(subject);
+    if (histogram == null) {
+      histogram = new Histogram();
+      Histogram prev = histograms.putIfAbsent(subject, histogram);
+      if (prev != null) histogram = prev;
+    }
+    histogram.add(nanos / 1000);
+  }
+
+  public void reset() {
+    myHistograms.clear();
+  }
+
+  @NotNull
+  public String getReport() {
+    final Map<String, Histogram> histograms = new HashMap<String, Histogram>();
+    for (Map.Entry<String, ConcurrentHashMap<Object, Histogram>> category : myHistograms.entrySet()) {
+      for (Map.Entry<Object, Histogram> subject : category.getValue().entrySet()) {
+        histograms.put(category.getKey() + ": " + subject.getKey(), subject.getValue());
+      }
+    }
+    List<String> keys = new ArrayList<String>(histograms.keySet());
+    Collections.sort(keys, new Comparator<String>() {
+      @Override
+      public int compare(String o1, String o2) {
+        long t1 = histograms.get(o1).myTotal.get();
+        long t2 = histograms.get(o2).myTotal.get();
+        return t1 < t2 ? 1 : t1 == t2 ? o1.compareTo(o2) : -1;
+      }
+    });
+
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%10s %10s %8s %8s %8s %8s  %s%n", "total ms", "count", "p50 ms", "p90 ms", "p99 ms", "max ms", "what"));
+    for (String key : keys) {
+      Histogram h = histograms.get(key);
+      sb.append(String.format("%10d %10d %8.1f %8.1f %8.1f %8.1f  %s%n", h.myTotal.get() / 1000, h.myCount.get(),
+                              h.getPercentile(50) / 1000.0, h.getPercentile(90) / 1000.0, h.getPercentile(99) / 1000.0,
+                              h.myMax.get() / 1000.0, key));
+    }
+    return sb.toString();
+  }
+
+  public void dump(@NotNull File file) throws IOException {
+    FileUtil.writeToFile(file, getReport());
+  }
+
+  /**
+   * Counts durations in microseconds: exact below 8, otherwise in 8 buckets per power of two.
+   */
+  static class Histogram {
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private final AtomicLongArray myCounts = new AtomicLongArray(getBucket(Long.MAX_VALUE) + 1);
+    private final AtomicLong myCount = new AtomicLong();
+    private final AtomicLong myTotal = new AtomicLong();
+    private final AtomicLong myMax = new AtomicLong();
+
+    void add(long micros) {
+      if (micros < 0) micros = 0;
+      myCounts.incrementAndGet(getBucket(micros));
+      myCount.incrementAndGet();
+      myTotal.addAndGet(micros);
+      long max;
+      while ((max = myMax.get()) < micros && !myMax.compareAndSet(max, micros));
+    }
+
+    /**
+     * @return the least duration (in microseconds) of the bucket containing the given percentile of the recorded durations
+     */
+    long getPercentile(int percent) {
+      long count = myCount.get();
+      if (count == 0) return 0;
+      long rank = Math.max(1, (count * percent + 99) / 100);
+      long seen = 0;
+      for (int i = 0; i < myCounts.length(); i++) {
+        seen += myCounts.get(i);
+        if (seen >= rank) return Math.min(getBucketStart(i), myMax.get());
+      }
+      return myMax.get();
+    }
+
+    static int getBucket(long micros) {
+      if (micros < SUB_BUCKETS) return (int)micros;
+      int octave = 63 - Long.numberOfLeadingZeros(micros);
+      int sub = (int)(micros >>> (octave - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (octave - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long getBucketStart(int bucket) {
+      if (bucket < SUB_BUCKETS) return bucket;
+      int octave = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+      int sub = bucket % SUB_BUCKETS;
+      return (long)(SUB_BUCKETS + sub) << (octave - SUB_BUCKET_BITS);
+    }
+  }
+}
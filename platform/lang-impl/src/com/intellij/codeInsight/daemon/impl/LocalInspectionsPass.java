@@ -89,6 +89,7 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
   private final SeverityRegistrar mySeverityRegistrar;
   private final InspectionProfileWrapper myProfileWrapper;
   private boolean myFailFastOnAcquireReadAction;
+  private InspectionTimes myTimes;
 
   public LocalInspectionsPass(@NotNull PsiFile file,
                               @Nullable Document document,
@@ -145,7 +146,16 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
   }
 
   public void doInspectInBatch(@NotNull InspectionManagerEx iManager, @NotNull List<LocalInspectionToolWrapper> toolWrappers) {
+    doInspectInBatch(iManager, toolWrappers, null);
+  }
 
+  /**
+   * @param times if not null, receives the time spent by each tool on the file
+   */
+  public void doInspectInBatch(@NotNull InspectionManagerEx iManager,
+                               @NotNull List<LocalInspectionToolWrapper> toolWrappers,
+                               @Nullable InspectionTimes times) {
+    myTimes = times;
     ProgressIndicator progress = ProgressManager.getInstance().getProgressIndicator();
     inspect(new ArrayList<LocalInspectionToolWrapper>(toolWrappers), iManager, false, false, false, progress);
     addDescriptorsFromInjectedResults(iManager);
@@ -310,6 +320,7 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
 
                                                                                    ApplicationManager.getApplication()
                                                                                      .assertReadAccessAllowed();
+                                                                                   final long start = System.nanoTime();
                                                                                    final LocalInspectionToolWrapper wrapper = pair.getKey();
                                                                                    LocalInspectionTool tool = wrapper.getTool();
                                                                                    final boolean[] applyIncrementally = {isOnTheFly};
@@ -330,10 +341,9 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
                                                                                                                     isOnTheFly, session,
                                                                                                                     elements, languages);
 
+                                                                                   InspectionContext context = new InspectionContext(wrapper, holder, visitor, languages);
                                                                                    synchronized (init) {
-                                                                                     init.add(
-                                                                                       new InspectionContext(wrapper, holder, visitor,
-                                                                                                             languages));
+                                                                                     init.add(context);
                                                                                    }
                                                                                    advanceProgress(1);
 
@@ -343,6 +353,7 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
                                                                                    }
                                                                                    applyIncrementally[0] =
                                                                                      false; // do not apply incrementally outside visible range
+                                                                                   context.time = System.nanoTime() - start;
                                                                                    return true;
                                                                                  }
                                                                                });
@@ -384,6 +395,7 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
           
           indicator.checkCanceled();
           ApplicationManager.getApplication().assertReadAccessAllowed();
+          long start = System.nanoTime();
           acceptElements(elements, context.visitor, context.languageIds);
           advanceProgress(1);
           context.tool.getTool().inspectionFinished(session, context.holder);
@@ -391,6 +403,7 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
           if (context.holder.hasResults()) {
             appendDescriptors(myFile, context.holder.getResults(), context.tool);
           }
+          addToolTime(context.tool, context.time + System.nanoTime() - start, isOnTheFly);
           return true;
         }
       };
@@ -401,6 +414,15 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
     inspectInjectedPsi(elements, isOnTheFly, indicator, iManager, false, checkDumbAwareness, wrappers);
   }
 
+  private void addToolTime(@NotNull LocalInspectionToolWrapper wrapper, long nanos, boolean isOnTheFly) {
+    if (myTimes != null) {
+      myTimes.addToolTime(wrapper.getShortName(), nanos);
+    }
+    else if (isOnTheFly) {
+      HighlightingTimings.record("inspection", wrapper.getShortName(), nanos);
+    }
+  }
+
   private static void acceptElements(@NotNull List<PsiElement> elements,
                                      @NotNull PsiElementVisitor elementVisitor,
                                      @Nullable Set<String> languages) {
@@ -808,5 +830,6 @@ public class LocalInspectionsPass extends ProgressableTextEditorHighlightingPass
     final ProblemsHolder holder;
     final PsiElementVisitor visitor;
     final Set<String> languageIds;
+    long time; // spent in the priority range
   }
 }
@@ -354,7 +354,9 @@ public abstract class PassExecutorService implements Disposable {
                 }
 
                 if (!myUpdateProgress.isCanceled()) {
+                  long start = System.nanoTime();
                   myPass.collectInformation(myUpdateProgress);
+                  HighlightingTimings.record("collect", myPass.getClass().getName(), System.nanoTime() - start);
                 }
               }
               catch (ProcessCanceledException e) {
@@ -435,7 +437,9 @@ public abstract class PassExecutorService implements Disposable {
           if (!applied) {
             applied = true;
             log(updateProgress, pass, " Applied");
+            long start = System.nanoTime();
             pass.applyInformationToEditor();
+            HighlightingTimings.record("apply", pass.getClass().getName(), System.nanoTime() - start);
           }
           afterApplyInformationToEditor(pass, fileEditor, updateProgress);
 
@@ -80,7 +80,9 @@ public abstract class DescriptorProviderInspection extends InspectionTool implem
         }
       }
       else {
-        writeOutput(descriptions, refElement);
+        synchronized (lock) {
+          writeOutput(descriptions, refElement);
+        }
       }
     }
     else { //just need to collect problems
@@ -132,12 +134,14 @@ public abstract class DescriptorProviderInspection extends InspectionTool implem
 
   private void collectQuickFixes(final QuickFix[] fixes, final RefEntity refEntity) {
     if (fixes != null && fixes.length != 0) {
-      Set<QuickFix> localQuickFixes = getQuickFixActions().get(refEntity);
-      if (localQuickFixes == null) {
-        localQuickFixes = new HashSet<QuickFix>();
-        getQuickFixActions().put(refEntity, localQuickFixes);
+      synchronized (lock) {
+        Set<QuickFix> localQuickFixes = getQuickFixActions().get(refEntity);
+        if (localQuickFixes == null) {
+          localQuickFixes = new HashSet<QuickFix>();
+          getQuickFixActions().put(refEntity, localQuickFixes);
+        }
+        ContainerUtil.addAll(localQuickFixes, fixes);
       }
-      ContainerUtil.addAll(localQuickFixes, fixes);
     }
   }
 
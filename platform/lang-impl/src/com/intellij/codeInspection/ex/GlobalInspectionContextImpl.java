@@ -55,6 +55,7 @@ import com.intellij.psi.search.scope.packageSet.NamedScope;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.ui.content.*;
 import com.intellij.util.Processor;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.TripleFunction;
 import com.intellij.util.containers.HashMap;
 import com.intellij.util.ui.UIUtil;
@@ -66,6 +67,7 @@ import org.jdom.Element;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
 import java.io.File;
 import java.io.IOException;
@@ -73,6 +75,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class GlobalInspectionContextImpl extends UserDataHolderBase implements GlobalInspectionContext {
   private static final Logger LOG = Logger.getInstance("#com.intellij.codeInspection.ex.GlobalInspectionContextImpl");
@@ -115,6 +118,15 @@ public class GlobalInspectionContextImpl extends UserDataHolderBase implements G
 
   private AnalysisUIOptions myUIOptions;
   @NonNls static final String LOCAL_TOOL_ATTRIBUTE = "is_local_tool";
+  /**
+   * Files of the scope are inspected concurrently, each one in its own read action.
+   */
+  private static final boolean PARALLEL_LOCAL_ANALYSIS = SystemProperties.getBooleanProperty("idea.inspections.parallel", true);
+  private boolean myParallelLocalAnalysis = PARALLEL_LOCAL_ANALYSIS;
+  /**
+   * Files inspected concurrently share resolve caches, so these are dropped after every this many files rather than after each one.
+   */
+  private static final int FILES_PER_RESOLVE_CACHES_DROP = 100;
 
   public GlobalInspectionContextImpl(Project project, NotNullLazyValue<ContentManager> contentManager) {
     myProject = project;
@@ -129,6 +141,11 @@ public class GlobalInspectionContextImpl extends UserDataHolderBase implements G
     }
   }
 
+  @TestOnly
+  public void setParallelLocalAnalysis(boolean parallel) {
+    myParallelLocalAnalysis = parallel;
+  }
+
   @Override
   @NotNull
   public Project getProject() {
@@ -581,7 +598,6 @@ public class GlobalInspectionContextImpl extends UserDataHolderBase implements G
     if (RUN_GLOBAL_TOOLS_ONLY) return;
 
     final PsiManager psiManager = PsiManager.getInstance(myProject);
-    final Set<VirtualFile> localScopeFiles = scope.toSearchScope() instanceof LocalSearchScope ? new THashSet<VirtualFile>() : null;
     for (Tools tools : globalSimpleTools) {
       GlobalInspectionToolWrapper toolWrapper = (GlobalInspectionToolWrapper)tools.getTool();
       GlobalSimpleInspectionTool tool = (GlobalSimpleInspectionTool)toolWrapper.getTool();
@@ -589,62 +605,45 @@ public class GlobalInspectionContextImpl extends UserDataHolderBase implements G
     }
 
     final Map<String, DescriptorProviderInspection> map = getInspectionWrappersMap(localTools);
-    scope.accept(new PsiElementVisitor() {
+    final InspectionTimes times = new InspectionTimes();
+    final List<VirtualFile> files = collectFilesToInspect(scope);
+    final AtomicInteger inspectedFiles = new AtomicInteger();
+    final Processor<VirtualFile> processor = new Processor<VirtualFile>() {
       @Override
-      public void visitFile(final PsiFile file) {
-        final VirtualFile virtualFile = file.getVirtualFile();
-        if (virtualFile != null) {
-          incrementJobDoneAmount(LOCAL_ANALYSIS, ProjectUtil.calcRelativeToProjectPath(virtualFile, myProject));
-          if (SingleRootFileViewProvider.isTooLargeForIntelligence(virtualFile)) return;
-          if (localScopeFiles != null && !localScopeFiles.add(virtualFile)) return;
-        }
-
-        final FileViewProvider viewProvider = psiManager.findViewProvider(virtualFile);
-        final com.intellij.openapi.editor.Document document = viewProvider == null ? null : viewProvider.getDocument();
-        if (document == null || virtualFile.getFileType().isBinary()) return; //do not inspect binary files
-        final LocalInspectionsPass pass = new LocalInspectionsPass(file, document, 0,
-                                                                   file.getTextLength(), LocalInspectionsPass.EMPTY_PRIORITY_RANGE, true);
-        try {
-          final List<LocalInspectionToolWrapper> lTools = new ArrayList<LocalInspectionToolWrapper>();
-          for (Tools tool : localTools) {
-            final LocalInspectionToolWrapper enabledTool = (LocalInspectionToolWrapper)tool.getEnabledTool(file);
-            if (enabledTool != null) {
-              lTools.add(enabledTool);
+      public boolean process(final VirtualFile virtualFile) {
+        final Runnable action = new Runnable() {
+          @Override
+          public void run() {
+            final PsiFile file = virtualFile.isValid() ? psiManager.findFile(virtualFile) : null;
+            if (file != null) {
+              inspectFile(file, manager, localTools, globalSimpleTools, map, times);
             }
           }
-          pass.doInspectInBatch((InspectionManagerEx)manager, lTools);
-
-          JobLauncher.getInstance().invokeConcurrentlyUnderProgress(globalSimpleTools, myProgressIndicator, false, new Processor<Tools>() {
-            @Override
-            public boolean process(Tools tools) {
-              GlobalInspectionToolWrapper toolWrapper = (GlobalInspectionToolWrapper)tools.getTool();
-              GlobalSimpleInspectionTool tool = (GlobalSimpleInspectionTool)toolWrapper.getTool();
-              ProblemsHolder problemsHolder = new ProblemsHolder(manager, file, false);
-              GlobalInspectionToolWrapper problemDescriptionProcessor = getProblemDescriptionProcessor(toolWrapper, map);
-              tool.checkFile(file, manager, problemsHolder, GlobalInspectionContextImpl.this, problemDescriptionProcessor);
-              LocalInspectionToolWrapper.addProblemDescriptors(problemsHolder.getResults(), false, GlobalInspectionContextImpl.this, null,
-                                                               CONVERT, toolWrapper);
-              return true;
-            }
-          });
-        }
-        catch (ProcessCanceledException e) {
-          throw e;
-        }
-        catch (IndexNotReadyException e) {
-          throw e;
-        }
-        catch (Exception e) {
-          LOG.error("In file: " + file, e);
+        };
+        if (ApplicationManager.getApplication().isReadAccessAllowed()) {
+          action.run();
         }
-        catch (AssertionError e) {
-          LOG.error("In file: " + file, e);
+        else {
+          PsiDocumentManager.getInstance(myProject).commitAndRunReadAction(action);
         }
-        finally {
-          InjectedLanguageManager.getInstance(myProject).dropFileCaches(file);
+        if (!myParallelLocalAnalysis || inspectedFiles.incrementAndGet() % FILES_PER_RESOLVE_CACHES_DROP == 0) {
+          psiManager.dropResolveCaches();
         }
+        return true;
       }
-    });
+    };
+    if (myParallelLocalAnalysis) {
+      if (!JobLauncher.getInstance().invokeConcurrentlyUnderProgress(files, myProgressIndicator, false, processor)) {
+        throw new ProcessCanceledException();
+      }
+    }
+    else {
+      for (VirtualFile file : files) {
+        processor.process(file);
+      }
+    }
+    times.report();
+    psiManager.dropResolveCaches();
     for (Tools tools : globalSimpleTools) {
       GlobalInspectionToolWrapper toolWrapper = (GlobalInspectionToolWrapper)tools.getTool();
       GlobalSimpleInspectionTool tool = (GlobalSimpleInspectionTool)toolWrapper.getTool();
@@ -653,6 +652,86 @@ public class GlobalInspectionContextImpl extends UserDataHolderBase implements G
     }
   }
 
+  @NotNull
+  private List<VirtualFile> collectFilesToInspect(@NotNull AnalysisScope scope) {
+    final List<VirtualFile> files = new ArrayList<VirtualFile>();
+    final Set<VirtualFile> localScopeFiles = scope.toSearchScope() instanceof LocalSearchScope ? new THashSet<VirtualFile>() : null;
+    scope.accept(new PsiElementVisitor() {
+      @Override
+      public void visitFile(final PsiFile file) {
+        final VirtualFile virtualFile = file.getVirtualFile();
+        if (virtualFile == null) return;
+        if (SingleRootFileViewProvider.isTooLargeForIntelligence(virtualFile) || virtualFile.getFileType().isBinary()) {
+          incrementJobDoneAmount(LOCAL_ANALYSIS, ProjectUtil.calcRelativeToProjectPath(virtualFile, myProject));
+          return;
+        }
+        if (localScopeFiles != null && !localScopeFiles.add(virtualFile)) return;
+        files.add(virtualFile);
+      }
+    });
+    return files;
+  }
+
+  private void inspectFile(@NotNull final PsiFile file,
+                           @NotNull final InspectionManager manager,
+                           @NotNull List<Tools> localTools,
+                           @NotNull List<Tools> globalSimpleTools,
+                           @NotNull final Map<String, DescriptorProviderInspection> map,
+                           @NotNull final InspectionTimes times) {
+    final VirtualFile virtualFile = file.getVirtualFile();
+    final String path = ProjectUtil.calcRelativeToProjectPath(virtualFile, myProject);
+    incrementJobDoneAmount(LOCAL_ANALYSIS, path);
+
+    final FileViewProvider viewProvider = file.getViewProvider();
+    final com.intellij.openapi.editor.Document document = viewProvider.getDocument();
+    if (document == null) return;
+    final long start = System.nanoTime();
+    final LocalInspectionsPass pass = new LocalInspectionsPass(file, document, 0,
+                                                               file.getTextLength(), LocalInspectionsPass.EMPTY_PRIORITY_RANGE, true);
+    try {
+      final List<LocalInspectionToolWrapper> lTools = new ArrayList<LocalInspectionToolWrapper>();
+      for (Tools tool : localTools) {
+        final LocalInspectionToolWrapper enabledTool = (LocalInspectionToolWrapper)tool.getEnabledTool(file);
+        if (enabledTool != null) {
+          lTools.add(enabledTool);
+        }
+      }
+      pass.doInspectInBatch((InspectionManagerEx)manager, lTools, times);
+
+      JobLauncher.getInstance().invokeConcurrentlyUnderProgress(globalSimpleTools, myProgressIndicator, false, new Processor<Tools>() {
+        @Override
+        public boolean process(Tools tools) {
+          final long toolStart = System.nanoTime();
+          GlobalInspectionToolWrapper toolWrapper = (GlobalInspectionToolWrapper)tools.getTool();
+          GlobalSimpleInspectionTool tool = (GlobalSimpleInspectionTool)toolWrapper.getTool();
+          ProblemsHolder problemsHolder = new ProblemsHolder(manager, file, false);
+          GlobalInspectionToolWrapper problemDescriptionProcessor = getProblemDescriptionProcessor(toolWrapper, map);
+          tool.checkFile(file, manager, problemsHolder, GlobalInspectionContextImpl.this, problemDescriptionProcessor);
+          LocalInspectionToolWrapper.addProblemDescriptors(problemsHolder.getResults(), false, GlobalInspectionContextImpl.this, null,
+                                                           CONVERT, toolWrapper);
+          times.addToolTime(toolWrapper.getShortName(), System.nanoTime() - toolStart);
+          return true;
+        }
+      });
+    }
+    catch (ProcessCanceledException e) {
+      throw e;
+    }
+    catch (IndexNotReadyException e) {
+      throw e;
+    }
+    catch (Exception e) {
+      LOG.error("In file: " + file, e);
+    }
+    catch (AssertionError e) {
+      LOG.error("In file: " + file, e);
+    }
+    finally {
+      times.addFileTime(path, System.nanoTime() - start);
+      InjectedLanguageManager.getInstance(myProject).dropFileCaches(file);
+    }
+  }
+
   private static GlobalInspectionToolWrapper getProblemDescriptionProcessor(@NotNull final GlobalInspectionToolWrapper toolWrapper,
                                                                             final Map<String, DescriptorProviderInspection> wrappersMap) {
 
@@ -810,7 +889,7 @@ public class GlobalInspectionContextImpl extends UserDataHolderBase implements G
   }
 
   @Override
-  public void incrementJobDoneAmount(JobDescriptor job, String message) {
+  public synchronized void incrementJobDoneAmount(JobDescriptor job, String message) {
     if (myProgressIndicator == null) return;
 
     ProgressManager.checkCanceled();
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInspection.ex;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Pair;
+import gnu.trove.TObjectLongHashMap;
+import gnu.trove.TObjectLongProcedure;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Collects the time spent by every inspection tool and the slowest files of a batch inspection run.
+ * Tools and files may report concurrently; the totals are written to the log by {@link #report()}.
+ */
+public class InspectionTimes {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.codeInspection.ex.InspectionTimes");
+  private static final int SLOWEST_FILES_COUNT = 20;
+  private static final Comparator<Pair<String, Long>> BY_TIME = new Comparator<Pair<String, Long>>() {
+    @Override
+    public int compare(Pair<String, Long> o1, Pair<String, Long> o2) {
+      return o1.second.compareTo(o2.second);
+    }
+  };
+
+  private final TObjectLongHashMap<String> myToolTimes = new TObjectLongHashMap<String>();
+  private final PriorityQueue<Pair<String, Long>> mySlowestFiles = new PriorityQueue<Pair<String, Long>>(SLOWEST_FILES_COUNT, BY_TIME);
+
+  public void addToolTime(@NotNull String shortName, long nanos) {
+    synchronized (myToolTimes) {
+      if (!myToolTimes.adjustValue(shortName, nanos)) {
+        myToolTimes.put(shortName, nanos);
+      }
+    }
+  }
+
+  public void addFileTime(@NotNull String path, long nanos) {
+    synchronized (mySlowestFiles) {
+      if (mySlowestFiles.size() == SLOWEST_FILES_COUNT) {
+        if (mySlowestFiles.peek().second >= nanos) return;
+        mySlowestFiles.poll();
+      }
+      mySlowestFiles.add(Pair.create(path, nanos));
+    }
+  }
+
+  @NotNull
+  List<Pair<String, Long>> getToolTimes() {
+    final List<Pair<String, Long>> result = new ArrayList<Pair<String, Long>>();
+    synchronized (myToolTimes) {
+      myToolTimes.forEachEntry(new TObjectLongProcedure<String>() {
+        @Override
+        public boolean execute(String shortName, long nanos) {
+          result.add(Pair.create(shortName, nanos));
+          return true;
+        }
+      });
+    }
+    Collections.sort(result, Collections.reverseOrder(BY_TIME));
+    return result;
+  }
+
+  @NotNull
+  List<Pair<String, Long>> getSlowestFiles() {
+    final List<Pair<String, Long>> result;
+    synchronized (mySlowestFiles) {
+      result = new ArrayList<Pair<String, Long>>(mySlowestFiles);
+    }
+    Collections.sort(result, Collections.reverseOrder(BY_TIME));
+    return result;
+  }
+
+  public void report() {
+    final List<Pair<String, Long>> tools = getToolTimes();
+    if (tools.isEmpty()) return;
+
+    final StringBuilder sb = new StringBuilder("Inspection times:");
+    for (Pair<String, Long> tool : tools) {
+      append(sb, tool);
+    }
+    sb.append("\nSlowest files:");
+    for (Pair<String, Long> file : getSlowestFiles()) {
+      append(sb, file);
+    }
+    LOG.info(sb.toString());
+  }
+
+  private static void append(@NotNull StringBuilder sb, @NotNull Pair<String, Long> entry) {
+    sb.append("\n  ").append(entry.second / 1000000).append(" ms\t").append(entry.first);
+  }
+}
@@ -32,12 +32,15 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public abstract class RefEntityImpl implements RefEntity {
   private static final String NO_NAME = InspectionsBundle.message("inspection.reference.noname");
   private RefEntityImpl myOwner;
   protected ArrayList<RefEntity> myChildren;
+  // unmodifiable copy of myChildren, made on the first request after the children change
+  private volatile List<RefEntity> myChildrenSnapshot;
   private final String myName;
   private THashMap myUserMap = null;
   protected int myFlags = 0;
@@ -59,7 +62,22 @@ public abstract class RefEntityImpl implements RefEntity {
   }
 
   public List<RefEntity> getChildren() {
-    return myChildren;
+    List<RefEntity> snapshot = myChildrenSnapshot;
+    if (snapshot != null) return snapshot;
+    synchronized (this) {
+      if (myChildren == null) return null;
+      if (myChildrenSnapshot == null) {
+        myChildrenSnapshot = Collections.unmodifiableList(new ArrayList<RefEntity>(myChildren));
+      }
+      return myChildrenSnapshot;
+    }
+  }
+
+  /**
+   * Must be called under the lock of the entity whenever myChildren is modified
+   */
+  protected void childrenChanged() {
+    myChildrenSnapshot = null;
   }
 
   public RefEntity getOwner() {
@@ -70,18 +88,20 @@ public abstract class RefEntityImpl implements RefEntity {
     myOwner = owner;
   }
 
-  public void add(RefEntity child) {
+  public synchronized void add(RefEntity child) {
     if (myChildren == null) {
       myChildren = new ArrayList<RefEntity>();
     }
 
     myChildren.add(child);
+    childrenChanged();
     ((RefEntityImpl)child).setOwner(this);
   }
 
-  protected void removeChild(RefEntity child) {
+  protected synchronized void removeChild(RefEntity child) {
     if (myChildren != null) {
       myChildren.remove(child);
+      childrenChanged();
       ((RefEntityImpl)child).setOwner(null);
     }
   }
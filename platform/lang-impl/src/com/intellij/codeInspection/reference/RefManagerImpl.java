@@ -48,6 +48,7 @@ import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
 import com.intellij.psi.impl.light.LightElement;
+import com.intellij.util.containers.ConcurrentHashMap;
 import com.intellij.util.containers.ContainerUtil;
 import gnu.trove.THashMap;
 import org.jdom.Element;
@@ -55,6 +56,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class RefManagerImpl extends RefManager {
@@ -65,7 +67,8 @@ public class RefManagerImpl extends RefManager {
   private final Project myProject;
   private AnalysisScope myScope;
   private RefProject myRefProject;
-  private Map<PsiAnchor, RefElement> myRefTable = new THashMap<PsiAnchor, RefElement>();
+  // files are inspected concurrently, so elements are looked up and created without locking
+  private ConcurrentMap<PsiAnchor, RefElement> myRefTable = new ConcurrentHashMap<PsiAnchor, RefElement>();
 
   private Map<Module, RefModule> myModules;
   private final ProjectIterator myProjectIterator;
@@ -436,6 +439,11 @@ public class RefManagerImpl extends RefManager {
       return null;
     }
 
+    return createReference(elem);
+  }
+
+  @Nullable
+  private RefElement createReference(final PsiElement elem) {
     final RefElementImpl refElement = ApplicationManager.getApplication().runReadAction(new Computable<RefElementImpl>() {
       @Override
       @Nullable
@@ -456,7 +464,15 @@ public class RefManagerImpl extends RefManager {
     });
     if (refElement == null) return null;
 
-    putToRefTable(elem, refElement);
+    final RefElement existing = putToRefTableIfAbsent(elem, refElement);
+    if (existing != null) {
+      // another thread has created the element meanwhile, the constructor of this one has already added it to its owner
+      final RefEntity owner = refElement.getOwner();
+      if (owner != null) {
+        ((RefEntityImpl)owner).removeChild(refElement);
+      }
+      return existing;
+    }
 
     ApplicationManager.getApplication().runReadAction(new Runnable() {
       @Override
@@ -504,37 +520,30 @@ public class RefManagerImpl extends RefManager {
   }
 
   protected RefElement getFromRefTable(final PsiElement element) {
-    myLock.readLock().lock();
-    try {
-      return getRefTable().get(ApplicationManager.getApplication().runReadAction(
-          new Computable<PsiAnchor>() {
-            @Override
-            public PsiAnchor compute() {
-              return PsiAnchor.create(element);
-            }
-          }
-      ));
-    }
-    finally {
-      myLock.readLock().unlock();
-    }
+    return myRefTable.get(createAnchor(element));
   }
 
   protected void putToRefTable(final PsiElement element, final RefElement ref) {
-    myLock.writeLock().lock();
-    try {
-      getRefTable().put(ApplicationManager.getApplication().runReadAction(
-          new Computable<PsiAnchor>() {
-            @Override
-            public PsiAnchor compute() {
-              return PsiAnchor.create(element);
-            }
+    myRefTable.put(createAnchor(element), ref);
+  }
+
+  /**
+   * @return the element already in the table, or null if <code>ref</code> has been put
+   */
+  @Nullable
+  private RefElement putToRefTableIfAbsent(final PsiElement element, final RefElement ref) {
+    return myRefTable.putIfAbsent(createAnchor(element), ref);
+  }
+
+  private static PsiAnchor createAnchor(final PsiElement element) {
+    return ApplicationManager.getApplication().runReadAction(
+        new Computable<PsiAnchor>() {
+          @Override
+          public PsiAnchor compute() {
+            return PsiAnchor.create(element);
           }
-      ), ref);
-    }
-    finally {
-      myLock.writeLock().unlock();
-    }
+        }
+    );
   }
 
   @Override
@@ -23,20 +23,22 @@ public class RefModuleImpl extends RefEntityImpl implements RefModule {
     ((RefProjectImpl)manager.getRefProject()).add(this);
   }
 
-  public void add(RefEntity child) {
+  public synchronized void add(RefEntity child) {
     if (myChildren == null) {
        myChildren = new ArrayList<RefEntity>();
     }
     myChildren.add(child);
+    childrenChanged();
 
     if (child.getOwner() == null) {
       ((RefEntityImpl)child).setOwner(this);
     }
   }
 
-  protected void removeChild(RefEntity child) {
+  protected synchronized void removeChild(RefEntity child) {
     if (myChildren != null) {
       myChildren.remove(child);
+      childrenChanged();
     }
   }
 
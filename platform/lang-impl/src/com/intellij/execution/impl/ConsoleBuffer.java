@@ -223,6 +223,89 @@ public class ConsoleBuffer {
     }
   }
 
+  /**
+   * Removes leading part of the deferred output, so that a great amount of text may be pushed to the document by chunks instead
+   * of a single huge insertion.
+   * <p/>
+   * The removed part ends at a line break when there is one within the given length and never ends inside a hyperlink.
+   *
+   * @param maxLength desired max length of the removed text
+   * @return removed text and its tokens (their offsets are anchored to the removed text)
+   */
+  @NotNull
+  public Pair<String, List<TokenInfo>> cutHead(int maxLength) {
+    if (maxLength >= myDeferredOutputLength) {
+      Pair<String, List<TokenInfo>> result = Pair.<String, List<TokenInfo>>create(getText(), new ArrayList<TokenInfo>(myDeferredTokens));
+      clear(false);
+      return result;
+    }
+
+    int length = maxLength;
+    int offset = 0;
+    for (StringBuilder builder : myDeferredOutput) {
+      for (int i = 0; i < builder.length() && offset + i < maxLength; i++) {
+        char c = builder.charAt(i);
+        if (c == '\n') {
+          length = offset + i + 1;
+        }
+        else if (c == '\r' && offset + i > 0) {
+          // Carriage return removes the last line of the document, so, keep it at the start of the next chunk.
+          length = offset + i;
+        }
+      }
+      offset += builder.length();
+      if (offset >= maxLength) {
+        break;
+      }
+    }
+
+    int removedTokensNumber = 0;
+    for (TokenInfo token : myDeferredTokens) {
+      if (token.endOffset > length) {
+        if (token.startOffset < length && token.getHyperlinkInfo() != null) {
+          length = token.endOffset;
+          removedTokensNumber++;
+        }
+        break;
+      }
+      removedTokensNumber++;
+    }
+
+    List<TokenInfo> tokens = new ArrayList<TokenInfo>(myDeferredTokens.subList(0, removedTokensNumber));
+    myDeferredTokens.subList(0, removedTokensNumber).clear();
+    if (!myDeferredTokens.isEmpty() && myDeferredTokens.get(0).startOffset < length) {
+      TokenInfo token = myDeferredTokens.get(0);
+      tokens.add(new TokenInfo(token.contentType, token.startOffset, length));
+    }
+    myDeferredTypes.clear();
+    for (TokenInfo token : myDeferredTokens) {
+      token.startOffset = Math.max(0, token.startOffset - length);
+      token.endOffset -= length;
+      myDeferredTypes.add(token.contentType);
+    }
+
+    StringBuilder text = new StringBuilder(length);
+    int remaining = length;
+    while (remaining > 0 && !myDeferredOutput.isEmpty()) {
+      StringBuilder first = myDeferredOutput.getFirst();
+      if (first.length() <= remaining) {
+        text.append(first);
+        remaining -= first.length();
+        myDeferredOutput.removeFirst();
+      }
+      else {
+        text.append(first, 0, remaining);
+        first.delete(0, remaining);
+        remaining = 0;
+      }
+    }
+    if (myDeferredOutput.isEmpty()) {
+      myDeferredOutput.add(new StringBuilder(myCyclicBufferUnitSize));
+    }
+    myDeferredOutputLength -= length;
+    return Pair.create(text.toString(), tokens);
+  }
+
   @Nullable
   public String cutFirstUserInputLine() {
     final String text = myDeferredUserInput.substring(0, myDeferredUserInput.length());
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.execution.impl;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+
+/**
+ * Copy of everything printed to a console, kept in a temporary file. The console itself keeps only the tail of the output
+ * within its cyclic buffer, so that's the way to get the full output of a process that prints a lot.
+ */
+class ConsoleOutputSpill {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.execution.impl.ConsoleOutputSpill");
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File myFile;
+  @Nullable private Writer myWriter;
+
+  private ConsoleOutputSpill(@NotNull File file) throws IOException {
+    myFile = file;
+    myWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), CharsetToolkit.UTF8_CHARSET), BUFFER_SIZE);
+  }
+
+  @Nullable
+  static ConsoleOutputSpill create() {
+    try {
+      return new ConsoleOutputSpill(FileUtil.createTempFile("console", ".log", true));
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      return null;
+    }
+  }
+
+  synchronized void write(@NotNull String s) {
+    if (myWriter == null) return;
+    try {
+      myWriter.write(s);
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      close();
+    }
+  }
+
+  /**
+   * @return the file with all the text written so far
+   */
+  @NotNull
+  synchronized File getFile() {
+    if (myWriter != null) {
+      try {
+        myWriter.flush();
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+    }
+    return myFile;
+  }
+
+  synchronized void close() {
+    if (myWriter == null) return;
+    try {
+      myWriter.close();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+    myWriter = null;
+  }
+}
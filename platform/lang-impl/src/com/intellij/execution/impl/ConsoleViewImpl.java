@@ -82,6 +82,7 @@ import java.awt.*;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.Transferable;
 import java.awt.event.MouseEvent;
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.List;
@@ -92,6 +93,22 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
   private static final Logger LOG = Logger.getInstance("#com.intellij.execution.impl.ConsoleViewImpl");
 
   private static final int DEFAULT_FLUSH_DELAY = SystemProperties.getIntProperty("console.flush.delay.ms", 200);
+  /**
+   * Deferred text is pushed to the document by chunks of (approximately) this number of symbols, and a single flush stops pushing
+   * them after {@link #FLUSH_TIME_BUDGET} milliseconds, leaving the rest to the next flush. That keeps EDT responsive when the managed
+   * process outputs faster than the document accepts the text.
+   */
+  private static final int FLUSH_CHUNK_SIZE = SystemProperties.getIntProperty("console.flush.chunk.size", 64 * 1024);
+  private static final int FLUSH_TIME_BUDGET = SystemProperties.getIntProperty("console.flush.budget.ms", 50);
+  /**
+   * When enabled, a thread printing process output waits until EDT flushes the deferred text if there are more than
+   * {@link #BACKPRESSURE_THRESHOLD} deferred symbols, at most for {@link #BACKPRESSURE_MAX_WAIT} milliseconds per print.
+   * Disabled by default since it slows down the process output readers.
+   */
+  private static final boolean BACKPRESSURE = SystemProperties.getBooleanProperty("console.backpressure", false);
+  private static final int BACKPRESSURE_THRESHOLD = SystemProperties.getIntProperty("console.backpressure.threshold", 256 * 1024);
+  private static final int BACKPRESSURE_MAX_WAIT = SystemProperties.getIntProperty("console.backpressure.max.wait.ms", 1000);
+  private static final boolean SPILL_TO_DISK = SystemProperties.getBooleanProperty("console.spill.to.disk", false);
 
   public static final Key<ConsoleViewImpl> CONSOLE_VIEW_IN_EDITOR_VIEW = Key.create("CONSOLE_VIEW_IN_EDITOR_VIEW");
 
@@ -124,6 +141,8 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
   private final Runnable               myFinishProgress;
   private boolean myAllowHeavyFilters = false;
   private final int myFlushDelay = DEFAULT_FLUSH_DELAY;
+  @Nullable
+  private final ConsoleOutputSpill mySpill = SPILL_TO_DISK ? ConsoleOutputSpill.create() : null;
 
   public Editor getEditor() {
     return myEditor;
@@ -341,6 +360,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
       myContentSize = 0;
       myBuffer.clear();
       myFolding.clear();
+      LOCK.notifyAll();
 
       final EditorHyperlinkSupport hyperlinks = myHyperlinks;
       if (hyperlinks != null) {
@@ -502,10 +522,14 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
       disposeEditor();
       synchronized (LOCK) {
         myBuffer.clear();
+        LOCK.notifyAll();
       }
       myEditor = null;
       myHyperlinks = null;
     }
+    if (mySpill != null) {
+      mySpill.close();
+    }
     }
 
   private void cancelAllFlushRequests() {
@@ -542,8 +566,23 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     }
   }
 
+  /**
+   * @return file that holds everything printed to the console if the <code>'console.spill.to.disk'</code> property is set,
+   *         i.e. including the text that is already stripped by the cyclic buffer
+   */
+  @Nullable
+  public File getFullOutputFile() {
+    return mySpill == null ? null : mySpill.getFile();
+  }
+
   private void printHyperlink(String s, ConsoleViewContentType contentType, HyperlinkInfo info) {
+    if (mySpill != null) {
+      mySpill.write(s);
+    }
     synchronized (LOCK) {
+      if (contentType != ConsoleViewContentType.USER_INPUT) {
+        waitForDeferredTextFlush();
+      }
       Pair<String, Integer> pair = myBuffer.print(s, contentType, info);
       s = pair.first;
       myContentSize += s.length() - pair.second;
@@ -560,6 +599,35 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     }
   }
 
+  /**
+   * Makes the thread that reads the managed process output wait while there is too much deferred text, so that a process that
+   * outputs faster than EDT pushes the text to the document is slowed down instead of having its output stripped by the cyclic
+   * buffer (or kept in memory when the cyclic buffer is disabled).
+   * <p/>
+   * The wait is bounded and is skipped by the threads that may hold EDT (EDT itself and the threads holding read action).
+   */
+  private void waitForDeferredTextFlush() {
+    if (!BACKPRESSURE || BACKPRESSURE_THRESHOLD <= 0 || myBuffer.getLength() < BACKPRESSURE_THRESHOLD
+        || ApplicationManager.getApplication().isReadAccessAllowed()) {
+      return;
+    }
+    long deadline = System.currentTimeMillis() + BACKPRESSURE_MAX_WAIT;
+    while (myBuffer.getLength() >= BACKPRESSURE_THRESHOLD && myEditor != null && !myOutputPaused && !myFlushAlarm.isDisposed()) {
+      long timeout = deadline - System.currentTimeMillis();
+      if (timeout <= 0) {
+        break;
+      }
+      addFlushRequest(new MyFlushRunnable());
+      try {
+        LOCK.wait(timeout);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+  }
+
   protected void beforeExternalAddContentToDocument(int length, ConsoleViewContentType contentType) {
     synchronized (LOCK) {
       myContentSize += length;
@@ -598,14 +666,36 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
   }
 
   private void flushDeferredText(boolean clear) {
+    flushDeferredText(clear, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Pushes deferred text to the document by chunks until it's all pushed or the {@link #FLUSH_TIME_BUDGET} is exhausted,
+   * in the latter case the next flush is requested.
+   */
+  private void flushDeferredTextWithinBudget() {
+    long deadline = System.currentTimeMillis() + FLUSH_TIME_BUDGET;
+    while (flushDeferredText(false, FLUSH_CHUNK_SIZE)) {
+      if (System.currentTimeMillis() >= deadline) {
+        requestFlushImmediately();
+        return;
+      }
+    }
+  }
+
+  /**
+   * @param maxLength max number of deferred symbols to push to the document
+   * @return <code>true</code> if there is deferred text left
+   */
+  private boolean flushDeferredText(boolean clear, int maxLength) {
     ApplicationManager.getApplication().assertIsDispatchThread();
     if (myProject.isDisposed()) {
-      return;
+      return false;
     }
     EditorEx editor = myEditor;
     if (editor == null) {
       //already disposed
-      return;
+      return false;
     }
     if (clear) {
       final DocumentEx document;
@@ -635,19 +725,24 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     final String text;
     final Collection<ConsoleViewContentType> contentTypes;
     int deferredTokensSize;
+    boolean hasMore;
     synchronized (LOCK) {
-      if (myOutputPaused) return;
-      if (myBuffer.isEmpty()) return;
+      if (myOutputPaused) return false;
+      if (myBuffer.isEmpty()) return false;
 
-      text = myBuffer.getText();
+      Pair<String, List<TokenInfo>> head = myBuffer.cutHead(maxLength);
+      text = head.first;
 
-      contentTypes = Collections.unmodifiableCollection(new HashSet<ConsoleViewContentType>(myBuffer.getDeferredTokenTypes()));
-      List<TokenInfo> deferredTokens = myBuffer.getDeferredTokens();
+      Set<ConsoleViewContentType> types = new HashSet<ConsoleViewContentType>();
+      List<TokenInfo> deferredTokens = head.second;
       for (TokenInfo deferredToken : deferredTokens) {
         addToken(deferredToken.getLength(), deferredToken.getHyperlinkInfo(), deferredToken.contentType);
+        types.add(deferredToken.contentType);
       }
+      contentTypes = Collections.unmodifiableCollection(types);
       deferredTokensSize = deferredTokens.size();
-      myBuffer.clear(false);
+      hasMore = myBuffer.getLength() > 0;
+      LOCK.notifyAll();
       cancelHeavyAlarm();
     }
     final Document document = myEditor.getDocument();
@@ -717,6 +812,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     if (isAtEndOfDocument) {
       EditorUtil.scrollToTheEnd(myEditor);
     }
+    return hasMore;
   }
 
   private void cancelHeavyAlarm() {
@@ -1777,7 +1873,7 @@ public class ConsoleViewImpl extends JPanel implements ConsoleView, ObservableCo
     }
 
     protected void doRun() {
-      flushDeferredText();
+      flushDeferredTextWithinBudget();
     }
 
     public void invalidate() {
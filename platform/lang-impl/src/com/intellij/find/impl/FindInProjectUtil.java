@@ -18,6 +18,7 @@ package com.intellij.find.impl;
 
 import com.intellij.BundleBase;
 import com.intellij.find.*;
+import com.intellij.find.ngrams.RegExpLiterals;
 import com.intellij.find.ngrams.TrigramIndex;
 import com.intellij.navigation.ItemPresentation;
 import com.intellij.openapi.actionSystem.DataContext;
@@ -491,27 +492,24 @@ public class FindInProjectUtil {
       scope = ProjectScope.getContentScope(project);
     }
 
-    Set<Integer> keys = new THashSet<Integer>(30);
     final Set<PsiFile> resultFiles = new THashSet<PsiFile>();
     boolean fast = false;
 
     String stringToFind = findModel.getStringToFind();
-    if (TrigramIndex.ENABLED) {
-      TIntHashSet trigrams = TrigramBuilder.buildTrigram(stringToFind);
-      TIntIterator it = trigrams.iterator();
-      while (it.hasNext()) {
-        keys.add(it.next());
+    if (findModel.isRegularExpressions()) {
+      // words of a regular expression are not the text being searched, only its literal parts can narrow the search
+      if (TrigramIndex.ENABLED) {
+        fast = addFilesWithTrigrams(RegExpLiterals.getRequiredTrigrams(stringToFind), scope, pm, resultFiles);
+        filterMaskedFiles(resultFiles, fileMaskRegExp);
       }
+      return new Pair<Boolean, Collection<PsiFile>>(fast, resultFiles);
+    }
 
-      if (!keys.isEmpty()) {
+    boolean trigramsUsed = false;
+    if (TrigramIndex.ENABLED) {
+      trigramsUsed = addFilesWithTrigrams(TrigramBuilder.buildTrigram(stringToFind), scope, pm, resultFiles);
+      if (trigramsUsed) {
         fast = true;
-        List<VirtualFile> hits = new ArrayList<VirtualFile>();
-        FileBasedIndex.getInstance().getFilesWithKey(TrigramIndex.INDEX_ID, keys, new CommonProcessors.CollectProcessor<VirtualFile>(hits), scope);
-
-        for (VirtualFile hit : hits) {
-          resultFiles.add(pm.findFile(hit));
-        }
-
         filterMaskedFiles(resultFiles, fileMaskRegExp);
         if (resultFiles.isEmpty()) return new Pair<Boolean, Collection<PsiFile>>(true, resultFiles);
       }
@@ -536,7 +534,7 @@ public class FindInProjectUtil {
 
       final List<PsiFile> psiFiles = Arrays.asList(files);
 
-      if (i == 0 && keys.isEmpty()) {
+      if (i == 0 && !trigramsUsed) {
         resultFiles.addAll(psiFiles);
       }
       else {
@@ -573,6 +571,30 @@ public class FindInProjectUtil {
     return new Pair<Boolean, Collection<PsiFile>>(fast, resultFiles);
   }
 
+  /**
+   * @return false if there are no trigrams to narrow the search with, files are not added in that case
+   */
+  private static boolean addFilesWithTrigrams(@NotNull TIntHashSet trigrams,
+                                              @NotNull GlobalSearchScope scope,
+                                              @NotNull PsiManager pm,
+                                              @NotNull Set<PsiFile> resultFiles) {
+    if (trigrams.isEmpty()) return false;
+
+    Set<Integer> keys = new THashSet<Integer>(trigrams.size());
+    TIntIterator it = trigrams.iterator();
+    while (it.hasNext()) {
+      keys.add(it.next());
+    }
+
+    List<VirtualFile> hits = new ArrayList<VirtualFile>();
+    FileBasedIndex.getInstance().getFilesWithKey(TrigramIndex.INDEX_ID, keys, new CommonProcessors.CollectProcessor<VirtualFile>(hits), scope);
+
+    for (VirtualFile hit : hits) {
+      ContainerUtil.addIfNotNull(resultFiles, pm.findFile(hit));
+    }
+    return true;
+  }
+
   private static void filterMaskedFiles(@NotNull final Set<PsiFile> resultFiles, @Nullable final Pattern fileMaskRegExp) {
     if (fileMaskRegExp != null) {
       for (Iterator<PsiFile> iterator = resultFiles.iterator(); iterator.hasNext();) {
@@ -585,7 +607,8 @@ public class FindInProjectUtil {
   }
 
   private static boolean canOptimizeForFastWordSearch(@NotNull final FindModel findModel) {
-    return !findModel.isRegularExpressions()
+    // for regular expressions fast search is possible only with trigrams, see getFilesForFastWordSearch
+    return (!findModel.isRegularExpressions() || TrigramIndex.ENABLED)
            && (findModel.getCustomScope() == null || findModel.getCustomScope() instanceof GlobalSearchScope);
   }
 
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import com.intellij.openapi.util.text.TrigramBuilder;
+import gnu.trove.TIntHashSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decomposes a {@link java.util.regex.Pattern java.util.regex} expression into literal fragments which occur in every match, so that
+ * {@link TrigramIndex} can be queried for candidate files. Analysis is conservative: constructs which are not understood
+ * (alternations, optional groups, character classes, etc.) are treated as gaps between fragments.
+ */
+public class RegExpLiterals {
+  private RegExpLiterals() {
+  }
+
+  /**
+   * @return trigrams every file matching the regexp contains, empty set if nothing can be required
+   */
+  @NotNull
+  public static TIntHashSet getRequiredTrigrams(@NotNull String regexp) {
+    TIntHashSet result = new TIntHashSet();
+    for (String literal : getRequiredLiterals(regexp)) {
+      if (literal.length() >= 3) {
+        result.addAll(TrigramBuilder.buildTrigram(literal).toArray());
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  public static List<String> getRequiredLiterals(@NotNull String regexp) {
+    List<String> result = new ArrayList<String>();
+    try {
+      if (!parseAlternation(regexp, 0, regexp.length(), result)) return Collections.emptyList();
+    }
+    catch (IllegalArgumentException e) {
+      return Collections.emptyList(); // malformed expression, the search will report it
+    }
+    return result;
+  }
+
+  private static boolean parseAlternation(@NotNull String s, int from, int to, @NotNull List<String> result) {
+    if (findTopLevelBar(s, from, to) >= 0) return true; // any branch may match, nothing is required
+    return parseSequence(s, from, to, result);
+  }
+
+  /**
+   * @return false if the expression can't be analyzed at all (e.g. uses comments mode)
+   */
+  private static boolean parseSequence(@NotNull String s, int from, int to, @NotNull List<String> result) {
+    StringBuilder run = new StringBuilder();
+    int i = from;
+    while (i < to) {
+      char c = s.charAt(i);
+      boolean literal = false;
+      int atomEnd;
+
+      if (c == '\\') {
+        if (i + 1 >= to) throw new IllegalArgumentException();
+        char next = s.charAt(i + 1);
+        if (next == 'Q') {
+          int end = s.indexOf("\\E", i + 2);
+          if (end < 0 || end > to) end = to;
+          if (end > i + 2) {
+            // quantifier after \Q..\E applies to the last quoted char only
+            run.append(s, i + 2, end - 1);
+            c = s.charAt(end - 1);
+            literal = true;
+          }
+          atomEnd = Math.min(end + 2, to);
+        }
+        else if (Character.isLetterOrDigit(next)) {
+          atomEnd = skipEscape(s, i + 1, to);
+        }
+        else {
+          c = next;
+          literal = true;
+          atomEnd = i + 2;
+        }
+      }
+      else if (c == '[') {
+        atomEnd = skipCharClass(s, i, to);
+      }
+      else if (c == '(') {
+        int close = findClosingParenthesis(s, i, to);
+        int contentStart = i + 1;
+        boolean zeroWidth = false;
+        if (contentStart < close && s.charAt(contentStart) == '?') {
+          char kind = contentStart + 1 < close ? s.charAt(contentStart + 1) : ')';
+          if (kind == ':' || kind == '>') {
+            contentStart += 2;
+          }
+          else if (kind == '<' && contentStart + 2 < close && Character.isLetter(s.charAt(contentStart + 2))) {
+            contentStart = s.indexOf('>', contentStart) + 1; // named group
+          }
+          else if (kind == '=' || kind == '!' || kind == '<') {
+            zeroWidth = true; // lookaround
+          }
+          else {
+            // inline flags: (?idmsux-idmsux) or (?idmsux-idmsux:X)
+            int j = contentStart + 1;
+            while (j < close && s.charAt(j) != ':') {
+              if (s.charAt(j) == 'x') return false; // whitespace and comments are not literal in this mode
+              j++;
+            }
+            if (j == close) {
+              zeroWidth = true;
+            }
+            else {
+              contentStart = j + 1;
+            }
+          }
+        }
+        atomEnd = close + 1;
+        int quantifierEnd = skipQuantifier(s, atomEnd, to);
+        flush(run, result);
+        if (!zeroWidth && minRepetitions(s, atomEnd, quantifierEnd) > 0) {
+          if (!parseAlternation(s, contentStart, close, result)) return false;
+        }
+        i = quantifierEnd;
+        continue;
+      }
+      else if (c == ')') {
+        throw new IllegalArgumentException();
+      }
+      else {
+        literal = c != '.' && c != '^' && c != '$' && c != '\r' && c != '\n';
+        atomEnd = i + 1;
+      }
+
+      int quantifierEnd = skipQuantifier(s, atomEnd, to);
+      if (quantifierEnd == atomEnd) {
+        if (literal) {
+          run.append(c);
+        }
+        else {
+          flush(run, result);
+        }
+      }
+      else if (minRepetitions(s, atomEnd, quantifierEnd) == 0) {
+        flush(run, result);
+      }
+      else if (literal) {
+        // the char is repeated: it is adjacent to the preceding text on the left and to the following text on the right
+        run.append(c);
+        flush(run, result);
+        run.append(c);
+      }
+      else {
+        flush(run, result);
+      }
+      i = quantifierEnd;
+    }
+    flush(run, result);
+    return true;
+  }
+
+  private static void flush(@NotNull StringBuilder run, @NotNull List<String> result) {
+    if (run.length() > 0) {
+      result.add(run.toString());
+      run.setLength(0);
+    }
+  }
+
+  private static int skipEscape(@NotNull String s, int i, int to) {
+    char c = s.charAt(i);
+    int end = i + 1;
+    switch (c) {
+      case 'x':
+        if (end < to && s.charAt(end) == '{') return closing(s, end, '}', to);
+        return Math.min(end + 2, to);
+      case 'u':
+        return Math.min(end + 4, to);
+      case 'c':
+        return Math.min(end + 1, to);
+      case '0':
+        while (end < to && end < i + 4 && s.charAt(end) >= '0' && s.charAt(end) <= '7') end++;
+        return end;
+      case 'p':
+      case 'P':
+        if (end < to && s.charAt(end) == '{') return closing(s, end, '}', to);
+        return Math.min(end + 1, to);
+      case 'k':
+        return closing(s, end, '>', to);
+      default:
+        if (Character.isDigit(c)) {
+          while (end < to && Character.isDigit(s.charAt(end))) end++;
+        }
+        return end;
+    }
+  }
+
+  private static int closing(@NotNull String s, int from, char closing, int to) {
+    int idx = s.indexOf(closing, from);
+    if (idx < 0 || idx >= to) throw new IllegalArgumentException();
+    return idx + 1;
+  }
+
+  private static int skipCharClass(@NotNull String s, int i, int to) {
+    int depth = 0;
+    int j = i;
+    while (j < to) {
+      char c = s.charAt(j);
+      if (c == '\\') {
+        j += 2;
+        continue;
+      }
+      if (c == '[') {
+        depth++;
+        if (j + 1 < to && s.charAt(j + 1) == '^') j++;
+        if (j + 1 < to && s.charAt(j + 1) == ']') j++; // leading ']' is literal
+      }
+      else if (c == ']') {
+        if (--depth == 0) return j + 1;
+      }
+      j++;
+    }
+    throw new IllegalArgumentException();
+  }
+
+  private static int findClosingParenthesis(@NotNull String s, int i, int to) {
+    int depth = 0;
+    int j = i;
+    while (j < to) {
+      char c = s.charAt(j);
+      if (c == '\\') {
+        if (j + 1 < to && s.charAt(j + 1) == 'Q') {
+          int end = s.indexOf("\\E", j + 2);
+          j = end < 0 ? to : end + 2;
+        }
+        else {
+          j += 2;
+        }
+        continue;
+      }
+      if (c == '[') {
+        j = skipCharClass(s, j, to);
+        continue;
+      }
+      if (c == '(') {
+        depth++;
+      }
+      else if (c == ')') {
+        if (--depth == 0) return j;
+      }
+      j++;
+    }
+    throw new IllegalArgumentException();
+  }
+
+  private static int findTopLevelBar(@NotNull String s, int from, int to) {
+    int j = from;
+    while (j < to) {
+      char c = s.charAt(j);
+      if (c == '\\') {
+        if (j + 1 < to && s.charAt(j + 1) == 'Q') {
+          int end = s.indexOf("\\E", j + 2);
+          j = end < 0 ? to : end + 2;
+        }
+        else {
+          j += 2;
+        }
+        continue;
+      }
+      if (c == '[') {
+        j = skipCharClass(s, j, to);
+        continue;
+      }
+      if (c == '(') {
+        j = findClosingParenthesis(s, j, to) + 1;
+        continue;
+      }
+      if (c == '|') return j;
+      j++;
+    }
+    return -1;
+  }
+
+  private static int skipQuantifier(@NotNull String s, int i, int to) {
+    if (i >= to) return i;
+    char c = s.charAt(i);
+    int end;
+    if (c == '?' || c == '*' || c == '+') {
+      end = i + 1;
+    }
+    else if (c == '{') {
+      end = closing(s, i, '}', to);
+    }
+    else {
+      return i;
+    }
+    if (end < to && (s.charAt(end) == '?' || s.charAt(end) == '+')) end++; // reluctant or possessive
+    return end;
+  }
+
+  private static int minRepetitions(@NotNull String s, int quantifierStart, int quantifierEnd) {
+    if (quantifierStart == quantifierEnd) return 1;
+    char c = s.charAt(quantifierStart);
+    if (c == '+') return 1;
+    if (c != '{') return 0;
+    int j = quantifierStart + 1;
+    int min = 0;
+    while (j < quantifierEnd && Character.isDigit(s.charAt(j))) {
+      min = min * 10 + s.charAt(j) - '0';
+      if (min > 1) return min;
+      j++;
+    }
+    if (j == quantifierStart + 1) throw new IllegalArgumentException();
+    return min;
+  }
+}
@@ -24,15 +24,17 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.indexing.*;
 import com.intellij.util.io.EnumeratorIntegerDescriptor;
 import com.intellij.util.io.KeyDescriptor;
-import gnu.trove.THashMap;
-import gnu.trove.TIntHashSet;
-import gnu.trove.TIntProcedure;
+import com.intellij.util.SystemProperties;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Map;
+import java.util.*;
 
+/**
+ * Maps case-insensitive trigrams (see {@link TrigramBuilder}) to files containing them, used to narrow the set of files
+ * Find in Path has to scan for plain text and regular expression (see {@link RegExpLiterals}) searches.
+ */
 public class TrigramIndex extends ScalarIndexExtension<Integer> {
-  public static final boolean ENABLED = "true".equals(System.getProperty("idea.internal.trigramindex.enabled"));
+  public static final boolean ENABLED = SystemProperties.getBooleanProperty("idea.internal.trigramindex.enabled", false);
 
   public static final ID<Integer,Void> INDEX_ID = ID.create("Trigram.Index");
 
@@ -62,16 +64,9 @@ public class TrigramIndex extends ScalarIndexExtension<Integer> {
       @Override
       @NotNull
       public Map<Integer, Void> map(FileContent inputData) {
-        final Map<Integer, Void> result = new THashMap<Integer, Void>();
-        TIntHashSet built = TrigramBuilder.buildTrigram(inputData.getContentAsText());
-        built.forEach(new TIntProcedure() {
-          @Override
-          public boolean execute(int value) {
-            result.put(value, null);
-            return true;
-          }
-        });
-        return result;
+        int[] trigrams = TrigramBuilder.buildTrigram(inputData.getContentAsText()).toArray();
+        Arrays.sort(trigrams);
+        return new TrigramMap(trigrams);
       }
     };
   }
@@ -98,6 +93,68 @@ public class TrigramIndex extends ScalarIndexExtension<Integer> {
 
   @Override
   public int getVersion() {
-    return ENABLED ? 2 : 1;
+    return ENABLED ? 3 : 1;
+  }
+
+  /**
+   * Read-only key set over sorted trigrams of a file, files often contain thousands of trigrams, so no hash table and no boxed keys
+   * are retained per file.
+   */
+  private static class TrigramMap extends AbstractMap<Integer, Void> {
+    private final int[] myTrigrams;
+
+    private TrigramMap(@NotNull int[] sortedTrigrams) {
+      myTrigrams = sortedTrigrams;
+    }
+
+    @Override
+    public int size() {
+      return myTrigrams.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return key instanceof Integer && Arrays.binarySearch(myTrigrams, ((Integer)key).intValue()) >= 0;
+    }
+
+    @Override
+    public Void get(Object key) {
+      return null;
+    }
+
+    @NotNull
+    @Override
+    public Set<Entry<Integer, Void>> entrySet() {
+      return new AbstractSet<Entry<Integer, Void>>() {
+        @NotNull
+        @Override
+        public Iterator<Entry<Integer, Void>> iterator() {
+          return new Iterator<Entry<Integer, Void>>() {
+            private int myIndex;
+
+            @Override
+            public boolean hasNext() {
+              return myIndex < myTrigrams.length;
+            }
+
+            @Override
+            public Entry<Integer, Void> next() {
+              if (myIndex >= myTrigrams.length) throw new NoSuchElementException();
+              return new SimpleImmutableEntry<Integer, Void>(myTrigrams[myIndex++], null);
+            }
+
+            @Override
+            public void remove() {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return myTrigrams.length;
+        }
+      };
+    }
   }
 }
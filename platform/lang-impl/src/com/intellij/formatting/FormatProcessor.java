@@ -341,7 +341,7 @@ class FormatProcessor {
         whiteSpace.getEndOffset(), false
       );
       if (changes.size() > 10000) {
-        CharSequence mergeResult = BulkChangesMerger.INSTANCE.mergeToCharSequence(document.getChars(), document.getTextLength(), changes);
+        CharSequence mergeResult = BulkChangesMerger.INSTANCE.mergeToCharSequence(document.getCharsSequence(), document.getTextLength(), changes);
         document.replaceString(0, document.getTextLength(), mergeResult);
         shift += currentIterationShift;
         currentIterationShift = 0;
@@ -351,7 +351,7 @@ class FormatProcessor {
       currentIterationShift += change.getDiff();
       changes.add(change);
     }
-    CharSequence mergeResult = BulkChangesMerger.INSTANCE.mergeToCharSequence(document.getChars(), document.getTextLength(), changes);
+    CharSequence mergeResult = BulkChangesMerger.INSTANCE.mergeToCharSequence(document.getCharsSequence(), document.getTextLength(), changes);
     document.replaceString(0, document.getTextLength(), mergeResult);
     cleanupBlocks(blocksToModify);
     return true;
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.internal;
+
+import com.intellij.codeInsight.daemon.impl.HighlightingTimings;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.ui.Messages;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the durations of highlighting passes, visitors and inspections collected so far to the log directory.
+ */
+public class DumpHighlightingTimingsAction extends AnAction implements DumbAware {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.internal.DumpHighlightingTimingsAction");
+
+  @Override
+  public void actionPerformed(AnActionEvent e) {
+    final File file = new File(PathManager.getLogPath(), "highlighting-timings-" + System.currentTimeMillis() + ".txt");
+    try {
+      HighlightingTimings.getInstance().dump(file);
+      Messages.showInfoMessage("Highlighting timings are written to " + file.getPath(), "Highlighting Timings");
+    }
+    catch (IOException ex) {
+      LOG.error(ex);
+    }
+  }
+
+  @Override
+  public void update(AnActionEvent e) {
+    e.getPresentation().setEnabled(HighlightingTimings.ENABLED);
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.internal;
+
+import com.intellij.codeInsight.daemon.impl.HighlightingTimings;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileTypes.PlainTextFileType;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.testFramework.LightVirtualFile;
+
+/**
+ * Opens the durations of highlighting passes, visitors and inspections collected so far in an editor.
+ */
+public class ShowHighlightingTimingsAction extends AnAction implements DumbAware {
+  @Override
+  public void actionPerformed(AnActionEvent e) {
+    final Project project = e.getData(PlatformDataKeys.PROJECT);
+    if (project == null) return;
+    final String report = HighlightingTimings.getInstance().getReport();
+    final LightVirtualFile file = new LightVirtualFile("Highlighting Timings", PlainTextFileType.INSTANCE, report);
+    file.setWritable(false);
+    FileEditorManager.getInstance(project).openFile(file, true);
+  }
+
+  @Override
+  public void update(AnActionEvent e) {
+    e.getPresentation().setEnabled(HighlightingTimings.ENABLED && e.getData(PlatformDataKeys.PROJECT) != null);
+  }
+}
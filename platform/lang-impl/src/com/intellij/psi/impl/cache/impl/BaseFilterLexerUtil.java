@@ -36,7 +36,6 @@ public class BaseFilterLexerUtil {
   public static ScanContent scanContent(FileContent content, IdAndToDoScannerBasedOnFilterLexer indexer) {
     ScanContent data = content.getUserData(scanContentKey);
     if (data != null) {
-      content.putUserData(scanContentKey, null);
       return data;
     }
 
@@ -65,7 +64,8 @@ public class BaseFilterLexerUtil {
       consumer != null? consumer.getResult():Collections.<IdIndexEntry, Integer>emptyMap(),
       todoMap != null ? todoMap: Collections.<TodoIndexEntry,Integer>emptyMap()
     );
-    if (needIdIndex && needTodo) content.putUserData(scanContentKey, data);
+    // the content lives as long as its file is being indexed, so the scan is shared by the id and todo indices
+    content.putUserData(scanContentKey, data);
     return data;
   }
 
@@ -28,6 +28,7 @@ import com.intellij.openapi.fileTypes.FileTypes;
 import com.intellij.openapi.fileTypes.LanguageFileType;
 import com.intellij.openapi.fileTypes.StdFileTypes;
 import com.intellij.openapi.fileTypes.impl.CustomSyntaxTableFileType;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.CustomHighlighterTokenType;
 import com.intellij.psi.impl.cache.impl.BaseFilterLexer;
@@ -61,6 +62,7 @@ public abstract class PlatformIdTableBuilding {
     new HashMap<FileType, DataIndexer<TodoIndexEntry, Integer, FileContent>>();
   private static final TokenSet ABSTRACT_FILE_COMMENT_TOKENS =
     TokenSet.create(CustomHighlighterTokenType.LINE_COMMENT, CustomHighlighterTokenType.MULTI_LINE_COMMENT);
+  private static final Key<EditorHighlighter> HIGHLIGHTER_FOR_INDEXING = Key.create("highlighter.for.indexing");
 
   private PlatformIdTableBuilding() {}
 
@@ -101,6 +103,27 @@ public abstract class PlatformIdTableBuilding {
     return null;
   }
 
+  /**
+   * @return highlighter over the indexed content: the editor one if it is up to date, otherwise the content is lexed once
+   * and the tokens are shared by all indexers of this content
+   */
+  @NotNull
+  public static EditorHighlighter getHighlighterForIndexing(@NotNull FileContent content, @NotNull VirtualFile file) {
+    final CharSequence chars = content.getContentAsText();
+    final EditorHighlighter editorHighlighter = content.getUserData(FileBasedIndexImpl.EDITOR_HIGHLIGHTER);
+    if (editorHighlighter != null && checkCanUseCachedEditorHighlighter(chars, editorHighlighter)) {
+      return editorHighlighter;
+    }
+
+    EditorHighlighter highlighter = content.getUserData(HIGHLIGHTER_FOR_INDEXING);
+    if (highlighter == null) {
+      highlighter = HighlighterFactory.createHighlighter(null, file);
+      highlighter.setText(chars);
+      content.putUserData(HIGHLIGHTER_FOR_INDEXING, highlighter);
+    }
+    return highlighter;
+  }
+
   public static boolean checkCanUseCachedEditorHighlighter(final CharSequence chars, final EditorHighlighter editorHighlighter) {
     assert editorHighlighter instanceof LexerEditorHighlighter;
     final boolean b = ((LexerEditorHighlighter)editorHighlighter).checkContentIsEqualTo(chars);
@@ -161,16 +184,7 @@ public abstract class PlatformIdTableBuilding {
       if (IndexPatternUtil.getIndexPatternCount() > 0) {
         final CharSequence chars = inputData.getContentAsText();
         final OccurrenceConsumer occurrenceConsumer = new OccurrenceConsumer(null, true);
-        EditorHighlighter highlighter;
-
-        final EditorHighlighter editorHighlighter = inputData.getUserData(FileBasedIndexImpl.EDITOR_HIGHLIGHTER);
-        if (editorHighlighter != null && checkCanUseCachedEditorHighlighter(chars, editorHighlighter)) {
-          highlighter = editorHighlighter;
-        }
-        else {
-          highlighter = HighlighterFactory.createHighlighter(null, myFile);
-          highlighter.setText(chars);
-        }
+        final EditorHighlighter highlighter = getHighlighterForIndexing(inputData, myFile);
 
         final int documentLength = chars.length();
         BaseFilterLexer.TodoScanningData[] todoScanningDatas = null;
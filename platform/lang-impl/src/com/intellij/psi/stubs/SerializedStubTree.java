@@ -59,6 +59,15 @@ public class SerializedStubTree {
     return SerializationManagerEx.getInstanceEx().deserialize(new UnsyncByteArrayInputStream(myBytes));
   }
 
+  /**
+   * @param stubIndex index of the stub in the plain list of the tree
+   * @return the stub with parents deserialized up to the root but without siblings, null if there is no such stub
+   */
+  @Nullable
+  public Stub getStub(int stubIndex) throws SerializerNotFoundException {
+    return SerializationManagerEx.getInstanceEx().deserializeStub(new UnsyncByteArrayInputStream(myBytes), stubIndex);
+  }
+
   public boolean equals(final Object that) {
     if (this == that) {
       return true;
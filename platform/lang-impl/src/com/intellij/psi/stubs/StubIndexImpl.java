@@ -27,7 +27,9 @@ import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.components.*;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.extensions.Extensions;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.newvfs.ManagingFS;
@@ -43,12 +45,14 @@ import com.intellij.psi.tree.IElementType;
 import com.intellij.psi.tree.IStubFileElementType;
 import com.intellij.psi.util.PsiUtilCore;
 import com.intellij.util.CommonProcessors;
+import com.intellij.util.PairProcessor;
 import com.intellij.util.Processor;
 import com.intellij.util.SmartList;
 import com.intellij.util.indexing.*;
 import com.intellij.util.io.DataExternalizer;
 import com.intellij.util.io.DataInputOutputUtil;
 import gnu.trove.THashMap;
+import gnu.trove.TIntObjectHashMap;
 import gnu.trove.TObjectIntHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -219,6 +223,12 @@ public class StubIndexImpl extends StubIndex implements ApplicationComponent, Pe
         final ValueContainer<StubIdList> container = index.getData(key);
 
         final FileBasedIndexImpl.ProjectIndexableFilesFilter projectFilesFilter = fileBasedIndex.projectIndexableFiles(project);
+        final PairProcessor<Key, Psi> keyIgnoringProcessor = new PairProcessor<Key, Psi>() {
+          @Override
+          public boolean process(Key key, Psi psi) {
+            return processor.process(psi);
+          }
+        };
 
         return container.forEach(new ValueContainer.ContainerAction<StubIdList>() {
           @Override
@@ -228,99 +238,83 @@ public class StubIndexImpl extends StubIndex implements ApplicationComponent, Pe
             if (file == null || scope != null && !scope.contains(file)) {
               return true;
             }
-            StubTree stubTree = null;
+            return processInFile(project, psiManager, fileBasedIndex, file, Collections.singletonList(Pair.create(key, value)),
+                                 keyIgnoringProcessor);
+          }
+        });
+      }
+      finally {
+        index.getReadLock().unlock();
+        FileBasedIndexImpl.enableUpToDateCheckForCurrentThread();
+      }
+    }
+    catch (StorageException e) {
+      forceRebuild(e);
+    }
+    catch (RuntimeException e) {
+      final Throwable cause = FileBasedIndexImpl.getCauseToRebuildIndex(e);
+      if (cause != null) {
+        forceRebuild(cause);
+      }
+      else {
+        throw e;
+      }
+    }
 
-            final PsiFile _psifile = psiManager.findFile(file);
-            PsiFileWithStubSupport psiFile = null;
+    return true;
+  }
 
-            if (_psifile != null && !(_psifile instanceof PsiPlainTextFile)) {
-              if (_psifile instanceof PsiFileWithStubSupport) {
-                psiFile = (PsiFileWithStubSupport)_psifile;
-                stubTree = psiFile.getStubTree();
-                if (stubTree == null && psiFile instanceof PsiFileImpl) {
-                  stubTree = ((PsiFileImpl)psiFile).calcStubTree();
-                }
-              }
-            }
+  @Override
+  public <Key, Psi extends PsiElement> boolean processElements(@NotNull final StubIndexKey<Key, Psi> indexKey,
+                                                               @NotNull final Collection<Key> keys,
+                                                               @NotNull final Project project,
+                                                               @Nullable final GlobalSearchScope scope,
+                                                               @NotNull final PairProcessor<Key, ? super Psi> processor) {
+    final FileBasedIndexImpl fileBasedIndex = (FileBasedIndexImpl)FileBasedIndex.getInstance();
+    fileBasedIndex.ensureUpToDate(StubUpdatingIndex.INDEX_ID, project, scope);
 
-            if (stubTree == null && psiFile == null) {
-              return true;
-            }
-            if (stubTree == null) {
-              ObjectStubTree objectStubTree = StubTreeLoader.getInstance().readFromVFile(project, file);
-              if (!(objectStubTree instanceof ObjectStubTree)) {
-                return true;
-              }
-              stubTree = (StubTree)objectStubTree;
-              final List<StubElement<?>> plained = stubTree.getPlainList();
-              for (int i = 0, size = value.size(); i < size; i++) {
-                final StubElement<?> stub = plained.get(value.get(i));
-                final ASTNode tree = psiFile.findTreeForStub(stubTree, stub);
-
-                if (tree != null) {
-                  if (tree.getElementType() == stubType(stub)) {
-                    Psi psi = (Psi)tree.getPsi();
-                    if (!processor.process(psi)) return false;
-                  }
-                  else {
-                    String persistedStubTree = ((PsiFileStubImpl)stubTree.getRoot()).printTree();
-
-                    String stubTreeJustBuilt =
-                      ((PsiFileStubImpl)((IStubFileElementType)((PsiFileImpl)psiFile).getContentElementType()).getBuilder()
-                        .buildStubTree(psiFile)).printTree();
-
-                    StringBuilder builder = new StringBuilder();
-                    builder.append("Oops\n");
-
-
-                    builder.append("Recorded stub:-----------------------------------\n");
-                    builder.append(persistedStubTree);
-                    builder.append("\nAST built stub: ------------------------------------\n");
-                    builder.append(stubTreeJustBuilt);
-                    builder.append("\n");
-                    LOG.info(builder.toString());
-
-                    // requestReindex() may want to acquire write lock (for indices not requiring content loading)
-                    // thus, because here we are under read lock, need to use invoke later
-                    ApplicationManager.getApplication().invokeLater(new Runnable() {
-                      @Override
-                      public void run() {
-                        fileBasedIndex.requestReindex(file);
-                      }
-                    }, ModalityState.NON_MODAL);
-                  }
-                }
-              }
-            }
-            else {
-              final List<StubElement<?>> plained = stubTree.getPlainList();
-              for (int i = 0, size = value.size(); i < size; i++) {
-                final int stubTreeIndex = value.get(i);
-                if (stubTreeIndex >= plained.size()) {
-                  final VirtualFile virtualFile = psiFile.getVirtualFile();
-                  StubTree stubTreeFromIndex = (StubTree)StubTreeLoader.getInstance().readFromVFile(project, file);
-                  LOG.error(LogMessageEx.createEvent("PSI and index do not match: PSI " + psiFile + ", first stub " + plained.get(0),
-                                                     "Please report the problem to JetBrains with the file attached",
-                                                     new Attachment(virtualFile != null ? virtualFile.getPath() : "vFile.txt", psiFile.getText()),
-                                                     new Attachment("stubTree.txt", ((PsiFileStubImpl)stubTree.getRoot()).printTree()),
-                                                     new Attachment("stubTreeFromIndex.txt", stubTreeFromIndex == null ? "null" : ((PsiFileStubImpl)stubTreeFromIndex.getRoot()).printTree())));
-
-                  ApplicationManager.getApplication().invokeLater(new Runnable() {
-                    @Override
-                    public void run() {
-                      fileBasedIndex.requestReindex(file);
-                    }
-                  }, ModalityState.NON_MODAL);
-
-                  break;
-                }
-                Psi psi = (Psi)plained.get(stubTreeIndex).getPsi();
-                if (!processor.process(psi)) return false;
+    final PersistentFS fs = (PersistentFS)ManagingFS.getInstance();
+    final PsiManager psiManager = PsiManager.getInstance(project);
+
+    final MyIndex<Key> index = (MyIndex<Key>)myIndices.get(indexKey);
+
+    try {
+      try {
+        // disable up-to-date check to avoid locks on attempt to acquire index write lock while holding at the same time the readLock for this index
+        FileBasedIndexImpl.disableUpToDateCheckForCurrentThread();
+        index.getReadLock().lock();
+
+        final FileBasedIndexImpl.ProjectIndexableFilesFilter projectFilesFilter = fileBasedIndex.projectIndexableFiles(project);
+        final TIntObjectHashMap<List<Pair<Key, StubIdList>>> hitsByFile = new TIntObjectHashMap<List<Pair<Key, StubIdList>>>();
+        for (final Key key : keys) {
+          ProgressManager.checkCanceled();
+          index.getData(key).forEach(new ValueContainer.ContainerAction<StubIdList>() {
+            @Override
+            public boolean perform(int id, StubIdList value) {
+              if (projectFilesFilter != null && !projectFilesFilter.contains(id)) return true;
+              List<Pair<Key, StubIdList>> hits = hitsByFile.get(id);
+              if (hits == null) {
+                hitsByFile.put(id, hits = new SmartList<Pair<Key, StubIdList>>());
               }
+              hits.add(Pair.create(key, value));
+              return true;
             }
-            return true;
+          });
+        }
+
+        final int[] fileIds = hitsByFile.keys();
+        Arrays.sort(fileIds);
+        for (int id : fileIds) {
+          ProgressManager.checkCanceled();
+          final VirtualFile file = IndexInfrastructure.findFileByIdIfCached(fs, id);
+          if (file == null || scope != null && !scope.contains(file)) {
+            continue;
           }
-        });
+          if (!processInFile(project, psiManager, fileBasedIndex, file, hitsByFile.get(id), processor)) {
+            return false;
+          }
+        }
+        return true;
       }
       finally {
         index.getReadLock().unlock();
@@ -343,6 +337,148 @@ public class StubIndexImpl extends StubIndex implements ApplicationComponent, Pe
     return true;
   }
 
+  private static <Key, Psi extends PsiElement> boolean processInFile(@NotNull Project project,
+                                                                     @NotNull PsiManager psiManager,
+                                                                     @NotNull final FileBasedIndexImpl fileBasedIndex,
+                                                                     @NotNull final VirtualFile file,
+                                                                     @NotNull List<Pair<Key, StubIdList>> hits,
+                                                                     @NotNull PairProcessor<Key, ? super Psi> processor) {
+    StubTree stubTree = null;
+
+    final PsiFile _psifile = psiManager.findFile(file);
+    PsiFileWithStubSupport psiFile = null;
+
+    if (_psifile != null && !(_psifile instanceof PsiPlainTextFile)) {
+      if (_psifile instanceof PsiFileWithStubSupport) {
+        psiFile = (PsiFileWithStubSupport)_psifile;
+        stubTree = psiFile.getStubTree();
+        if (stubTree == null && psiFile instanceof PsiFileImpl) {
+          stubTree = ((PsiFileImpl)psiFile).calcStubTree();
+        }
+      }
+    }
+
+    if (stubTree == null && psiFile == null) {
+      return true;
+    }
+    if (stubTree == null && psiFile instanceof PsiFileImpl && hits.size() == 1 && hits.get(0).second.size() == 1) {
+      // a single stub is needed to find its AST, don't deserialize the whole tree for that
+      final int stubIndex = hits.get(0).second.get(0);
+      final Stub stub = StubTreeLoader.getInstance().readStubFromVFile(project, file, stubIndex);
+      if (stub instanceof StubElement) {
+        final ASTNode tree = findTreeForStubIndex(psiFile, stubIndex);
+        if (tree != null && tree.getElementType() == stubType((StubElement<?>)stub)) {
+          return processor.process(hits.get(0).first, (Psi)tree.getPsi());
+        }
+      }
+      // otherwise load the whole tree to report the mismatch
+    }
+    if (stubTree == null) {
+      ObjectStubTree objectStubTree = StubTreeLoader.getInstance().readFromVFile(project, file);
+      if (!(objectStubTree instanceof ObjectStubTree)) {
+        return true;
+      }
+      stubTree = (StubTree)objectStubTree;
+      final List<StubElement<?>> plained = stubTree.getPlainList();
+      for (Pair<Key, StubIdList> hit : hits) {
+        final StubIdList value = hit.second;
+        for (int i = 0, size = value.size(); i < size; i++) {
+          final StubElement<?> stub = plained.get(value.get(i));
+          final ASTNode tree = psiFile.findTreeForStub(stubTree, stub);
+
+          if (tree != null) {
+            if (tree.getElementType() == stubType(stub)) {
+              Psi psi = (Psi)tree.getPsi();
+              if (!processor.process(hit.first, psi)) return false;
+            }
+            else {
+              String persistedStubTree = ((PsiFileStubImpl)stubTree.getRoot()).printTree();
+
+              String stubTreeJustBuilt =
+                ((PsiFileStubImpl)((IStubFileElementType)((PsiFileImpl)psiFile).getContentElementType()).getBuilder()
+                  .buildStubTree(psiFile)).printTree();
+
+              StringBuilder builder = new StringBuilder();
+              builder.append("Oops\n");
+
+
+              builder.append("Recorded stub:-----------------------------------\n");
+              builder.append(persistedStubTree);
+              builder.append("\nAST built stub: ------------------------------------\n");
+              builder.append(stubTreeJustBuilt);
+              builder.append("\n");
+              LOG.info(builder.toString());
+
+              // requestReindex() may want to acquire write lock (for indices not requiring content loading)
+              // thus, because here we are under read lock, need to use invoke later
+              ApplicationManager.getApplication().invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                  fileBasedIndex.requestReindex(file);
+                }
+              }, ModalityState.NON_MODAL);
+            }
+          }
+        }
+      }
+    }
+    else {
+      final List<StubElement<?>> plained = stubTree.getPlainList();
+      for (Pair<Key, StubIdList> hit : hits) {
+        final StubIdList value = hit.second;
+        for (int i = 0, size = value.size(); i < size; i++) {
+          final int stubTreeIndex = value.get(i);
+          if (stubTreeIndex >= plained.size()) {
+            final VirtualFile virtualFile = psiFile.getVirtualFile();
+            StubTree stubTreeFromIndex = (StubTree)StubTreeLoader.getInstance().readFromVFile(project, file);
+            LOG.error(LogMessageEx.createEvent("PSI and index do not match: PSI " + psiFile + ", first stub " + plained.get(0),
+                                               "Please report the problem to JetBrains with the file attached",
+                                               new Attachment(virtualFile != null ? virtualFile.getPath() : "vFile.txt", psiFile.getText()),
+                                               new Attachment("stubTree.txt", ((PsiFileStubImpl)stubTree.getRoot()).printTree()),
+                                               new Attachment("stubTreeFromIndex.txt", stubTreeFromIndex == null ? "null" : ((PsiFileStubImpl)stubTreeFromIndex.getRoot()).printTree())));
+
+            ApplicationManager.getApplication().invokeLater(new Runnable() {
+              @Override
+              public void run() {
+                fileBasedIndex.requestReindex(file);
+              }
+            }, ModalityState.NON_MODAL);
+
+            return true;
+          }
+          Psi psi = (Psi)plained.get(stubTreeIndex).getPsi();
+          if (!processor.process(hit.first, psi)) return false;
+        }
+      }
+    }
+    return true;
+
+  }
+
+  /**
+   * Same as {@link PsiFileImpl#findTreeForStub} but takes the index of the stub in the plain list instead of the stub itself.
+   */
+  @Nullable
+  private static ASTNode findTreeForStubIndex(@NotNull PsiFile psiFile, int stubIndex) {
+    final ASTNode root = psiFile.getNode();
+    if (root == null || stubIndex == 0) return root;
+    return findTreeForStubIndex(root, new int[]{0}, stubIndex);
+  }
+
+  @Nullable
+  private static ASTNode findTreeForStubIndex(@NotNull ASTNode tree, @NotNull int[] lastIndex, int stubIndex) {
+    final IElementType type = tree.getElementType();
+    if (type instanceof IStubElementType && ((IStubElementType)type).shouldCreateStub(tree)) {
+      if (++lastIndex[0] == stubIndex) return tree;
+    }
+
+    for (ASTNode node : tree.getChildren(null)) {
+      final ASTNode treeForStub = findTreeForStubIndex(node, lastIndex, stubIndex);
+      if (treeForStub != null) return treeForStub;
+    }
+    return null;
+  }
+
   private static IElementType stubType(@NotNull final StubElement<?> stub) {
     if (stub instanceof PsiFileStub) {
       return ((PsiFileStub)stub).getType();
@@ -83,6 +83,41 @@ public class StubTreeLoaderImpl extends StubTreeLoader {
   @Override
   @Nullable
   public ObjectStubTree readFromVFile(Project project, final VirtualFile vFile) {
+    final SerializedStubTree serializedTree = readSerializedTree(project, vFile);
+    if (serializedTree == null) {
+      return null;
+    }
+
+    Stub stub;
+    try {
+      stub = serializedTree.getStub(false);
+    }
+    catch (SerializerNotFoundException e) {
+      processError(vFile, "No stub serializer: " + vFile.getPresentableUrl() + ": " + e.getMessage(), e);
+      return null;
+    }
+    return stub instanceof PsiFileStub ? new StubTree((PsiFileStub)stub) : new ObjectStubTree((ObjectStubBase)stub, true);
+  }
+
+  @Override
+  @Nullable
+  public Stub readStubFromVFile(Project project, VirtualFile vFile, int stubIndex) {
+    final SerializedStubTree serializedTree = readSerializedTree(project, vFile);
+    if (serializedTree == null) {
+      return null;
+    }
+
+    try {
+      return serializedTree.getStub(stubIndex);
+    }
+    catch (SerializerNotFoundException e) {
+      processError(vFile, "No stub serializer: " + vFile.getPresentableUrl() + ": " + e.getMessage(), e);
+      return null;
+    }
+  }
+
+  @Nullable
+  private static SerializedStubTree readSerializedTree(Project project, final VirtualFile vFile) {
     if (DumbService.getInstance(project).isDumb()) {
       return null;
     }
@@ -97,18 +132,11 @@ public class StubTreeLoaderImpl extends StubTreeLoader {
     final int size = datas.size();
 
     if (size == 1) {
-      Stub stub;
-      try {
-        stub = datas.get(0).getStub(false);
-      }
-      catch (SerializerNotFoundException e) {
-        return processError(vFile, "No stub serializer: " + vFile.getPresentableUrl() + ": " + e.getMessage(), e);
-      }
-      return stub instanceof PsiFileStub ? new StubTree((PsiFileStub)stub) : new ObjectStubTree((ObjectStubBase)stub, true);
+      return datas.get(0);
     }
     else if (size != 0) {
-      return processError(vFile, "Twin stubs: " + vFile.getPresentableUrl() + " has " + size + " stub versions. Should only have one. id=" + id,
-                          null);
+      processError(vFile, "Twin stubs: " + vFile.getPresentableUrl() + " has " + size + " stub versions. Should only have one. id=" + id,
+                   null);
     }
 
     return null;
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import com.intellij.util.ArrayUtil;
+import gnu.trove.TIntHashSet;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Set of input ids stored as a sorted sequence of deltas in 7-bit groups, so an id usually takes a single byte for keys which occur
+ * in many files. The sequence is split into blocks of {@link #BLOCK_SIZE} ids whose first ids and offsets are kept aside: a lookup is
+ * a binary search over blocks and decoding of a single block.
+ * Ids appended in ascending order (e.g. when a container is loaded from disk) go to the sequence directly, other changes are collected
+ * in hash sets and merged once their number reaches 1/8 of the sequence length. Reading doesn't modify the set.
+ */
+final class CompressedIdSet implements Cloneable {
+  private static final int BLOCK_SHIFT = 6;
+  private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+  private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+  private static final int MERGE_SHIFT = 3;
+
+  private byte[] myData = ArrayUtil.EMPTY_BYTE_ARRAY; // deltas of ids which don't start a block
+  private int myDataLength;
+  private int[] myBlockFirstIds = ArrayUtil.EMPTY_INT_ARRAY;
+  private int[] myBlockOffsets = ArrayUtil.EMPTY_INT_ARRAY;
+  private int myCount; // number of ids in the sequence
+  private int myLast;
+  private TIntHashSet myAdded; // ids missing in the sequence
+  private TIntHashSet myRemoved; // ids of the sequence which are not in the set
+
+  public int size() {
+    return myCount + (myAdded != null ? myAdded.size() : 0) - (myRemoved != null ? myRemoved.size() : 0);
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public boolean contains(int id) {
+    if (myAdded != null && myAdded.contains(id)) return true;
+    return sequenceContains(id) && (myRemoved == null || !myRemoved.contains(id));
+  }
+
+  public boolean add(int id) {
+    if (!hasPendingChanges() && (myCount == 0 || id > myLast)) {
+      append(id);
+      return true;
+    }
+    if (myRemoved != null && myRemoved.remove(id)) return true;
+    if (sequenceContains(id)) return false;
+
+    if (myAdded == null) myAdded = new TIntHashSet();
+    if (!myAdded.add(id)) return false;
+    mergeIfNeeded();
+    return true;
+  }
+
+  public boolean remove(int id) {
+    if (myAdded != null && myAdded.remove(id)) return true;
+    if (!sequenceContains(id)) return false;
+
+    if (myRemoved == null) myRemoved = new TIntHashSet();
+    if (!myRemoved.add(id)) return false;
+    mergeIfNeeded();
+    return true;
+  }
+
+  /**
+   * Releases unused capacity if there is a lot of it.
+   */
+  public void compact() {
+    if (myData.length - myDataLength > (myDataLength >> 2) + 16) {
+      myData = Arrays.copyOf(myData, myDataLength);
+    }
+    final int blocks = blocksCount();
+    if (myBlockFirstIds.length - blocks > (blocks >> 2) + 4) {
+      myBlockFirstIds = Arrays.copyOf(myBlockFirstIds, blocks);
+      myBlockOffsets = Arrays.copyOf(myBlockOffsets, blocks);
+    }
+  }
+
+  /**
+   * @return ids in ascending order
+   */
+  public ValueContainer.IntIterator iterator() {
+    return hasPendingChanges() ? new MergingIterator() : new SequenceIterator();
+  }
+
+  public int[] toArray() {
+    final int[] result = new int[size()];
+    int i = 0;
+    for (ValueContainer.IntIterator iterator = iterator(); iterator.hasNext();) {
+      result[i++] = iterator.next();
+    }
+    return result;
+  }
+
+  @Override
+  public CompressedIdSet clone() {
+    final CompressedIdSet copy;
+    try {
+      copy = (CompressedIdSet)super.clone();
+    }
+    catch (CloneNotSupportedException e) {
+      throw new RuntimeException(e);
+    }
+    final int blocks = blocksCount();
+    copy.myData = Arrays.copyOf(myData, myDataLength);
+    copy.myBlockFirstIds = Arrays.copyOf(myBlockFirstIds, blocks);
+    copy.myBlockOffsets = Arrays.copyOf(myBlockOffsets, blocks);
+    copy.myAdded = myAdded != null ? (TIntHashSet)myAdded.clone() : null;
+    copy.myRemoved = myRemoved != null ? (TIntHashSet)myRemoved.clone() : null;
+    return copy;
+  }
+
+  private boolean hasPendingChanges() {
+    return myAdded != null && !myAdded.isEmpty() || myRemoved != null && !myRemoved.isEmpty();
+  }
+
+  private void mergeIfNeeded() {
+    final int pending = (myAdded != null ? myAdded.size() : 0) + (myRemoved != null ? myRemoved.size() : 0);
+    if (pending > myCount >> MERGE_SHIFT) {
+      final int[] ids = toArray();
+      myAdded = null;
+      myRemoved = null;
+      rebuild(ids);
+    }
+  }
+
+  private void rebuild(int[] sortedIds) {
+    int length = 0;
+    for (int i = 0; i < sortedIds.length; i++) {
+      if ((i & BLOCK_MASK) != 0) length += encodedLength(sortedIds[i] - sortedIds[i - 1]);
+    }
+    final int blocks = (sortedIds.length + BLOCK_MASK) >> BLOCK_SHIFT;
+    myData = length > 0 ? new byte[length] : ArrayUtil.EMPTY_BYTE_ARRAY;
+    myBlockFirstIds = blocks > 0 ? new int[blocks] : ArrayUtil.EMPTY_INT_ARRAY;
+    myBlockOffsets = blocks > 0 ? new int[blocks] : ArrayUtil.EMPTY_INT_ARRAY;
+    myDataLength = 0;
+    myCount = 0;
+    for (int id : sortedIds) {
+      append(id);
+    }
+  }
+
+  private void append(int id) {
+    if ((myCount & BLOCK_MASK) == 0) {
+      final int block = myCount >> BLOCK_SHIFT;
+      if (block == myBlockFirstIds.length) {
+        final int newLength = Math.max(4, block + (block >> 1));
+        myBlockFirstIds = Arrays.copyOf(myBlockFirstIds, newLength);
+        myBlockOffsets = Arrays.copyOf(myBlockOffsets, newLength);
+      }
+      myBlockFirstIds[block] = id;
+      myBlockOffsets[block] = myDataLength;
+    }
+    else {
+      int delta = id - myLast;
+      if (myDataLength + 5 > myData.length) {
+        myData = Arrays.copyOf(myData, Math.max(16, Math.max(myDataLength + 5, myData.length + (myData.length >> 1))));
+      }
+      while ((delta & ~0x7F) != 0) {
+        myData[myDataLength++] = (byte)(delta & 0x7F | 0x80);
+        delta >>>= 7;
+      }
+      myData[myDataLength++] = (byte)delta;
+    }
+    myLast = id;
+    myCount++;
+  }
+
+  private static int encodedLength(int delta) {
+    int length = 1;
+    while ((delta & ~0x7F) != 0) {
+      delta >>>= 7;
+      length++;
+    }
+    return length;
+  }
+
+  private int blocksCount() {
+    return (myCount + BLOCK_MASK) >> BLOCK_SHIFT;
+  }
+
+  private boolean sequenceContains(int id) {
+    if (myCount == 0 || id < myBlockFirstIds[0] || id > myLast) return false;
+
+    int low = 0;
+    int high = blocksCount() - 1;
+    while (low < high) { // last block with first id <= id
+      final int mid = (low + high + 1) >>> 1;
+      if (myBlockFirstIds[mid] <= id) {
+        low = mid;
+      }
+      else {
+        high = mid - 1;
+      }
+    }
+
+    int current = myBlockFirstIds[low];
+    int offset = myBlockOffsets[low];
+    int remaining = Math.min(BLOCK_SIZE, myCount - (low << BLOCK_SHIFT)) - 1;
+    while (current < id && remaining-- > 0) {
+      int delta = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = myData[offset++];
+        delta |= (b & 0x7F) << shift;
+        shift += 7;
+      }
+      while (b < 0);
+      current += delta;
+    }
+    return current == id;
+  }
+
+  private class SequenceIterator implements ValueContainer.IntIterator {
+    private int myIndex;
+    private int myOffset;
+    private int myCurrent;
+
+    @Override
+    public boolean hasNext() {
+      return myIndex < myCount;
+    }
+
+    @Override
+    public int next() {
+      if (myIndex >= myCount) throw new NoSuchElementException();
+      if ((myIndex & BLOCK_MASK) == 0) {
+        myCurrent = myBlockFirstIds[myIndex >> BLOCK_SHIFT];
+        myOffset = myBlockOffsets[myIndex >> BLOCK_SHIFT];
+      }
+      else {
+        int delta = 0;
+        int shift = 0;
+        byte b;
+        do {
+          b = myData[myOffset++];
+          delta |= (b & 0x7F) << shift;
+          shift += 7;
+        }
+        while (b < 0);
+        myCurrent += delta;
+      }
+      myIndex++;
+      return myCurrent;
+    }
+
+    @Override
+    public int size() {
+      return myCount;
+    }
+  }
+
+  private class MergingIterator implements ValueContainer.IntIterator {
+    private final SequenceIterator mySequence = new SequenceIterator();
+    private final int[] myAddedIds;
+    private final int mySize;
+    private int myAddedIndex;
+    private int myNextFromSequence;
+    private boolean myHasNextFromSequence;
+
+    private MergingIterator() {
+      myAddedIds = myAdded != null ? myAdded.toArray() : ArrayUtil.EMPTY_INT_ARRAY;
+      Arrays.sort(myAddedIds);
+      mySize = CompressedIdSet.this.size();
+      advanceSequence();
+    }
+
+    private void advanceSequence() {
+      while (mySequence.hasNext()) {
+        final int id = mySequence.next();
+        if (myRemoved == null || !myRemoved.contains(id)) {
+          myNextFromSequence = id;
+          myHasNextFromSequence = true;
+          return;
+        }
+      }
+      myHasNextFromSequence = false;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return myHasNextFromSequence || myAddedIndex < myAddedIds.length;
+    }
+
+    @Override
+    public int next() {
+      if (myHasNextFromSequence && (myAddedIndex == myAddedIds.length || myNextFromSequence < myAddedIds[myAddedIndex])) {
+        final int next = myNextFromSequence;
+        advanceSequence();
+        return next;
+      }
+      if (myAddedIndex == myAddedIds.length) throw new NoSuchElementException();
+      return myAddedIds[myAddedIndex++];
+    }
+
+    @Override
+    public int size() {
+      return mySize;
+    }
+  }
+}
@@ -973,8 +973,8 @@ public class FileBasedIndexImpl extends FileBasedIndex {
                                                       @Nullable Condition<V> valueChecker,
                                                       @NotNull final Processor<VirtualFile> processor) {
     ProjectIndexableFilesFilter filesSet = projectIndexableFiles(filter.getProject());
-    final TIntHashSet set = collectFileIdsContainingAllKeys(indexId, dataKeys, filter, valueChecker, filesSet);
-    return set != null && processVirtualFiles(set, filter, processor);
+    final int[] ids = collectFileIdsContainingAllKeys(indexId, dataKeys, filter, valueChecker, filesSet);
+    return ids != null && processVirtualFiles(ids, filter, processor);
   }
 
   private static final Key<SoftReference<ProjectIndexableFilesFilter>> ourProjectFilesSetKey = Key.create("projectFiles");
@@ -1028,6 +1028,37 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     }
   }
 
+  void resetIndexingStatistics() {
+    for (Pair<UpdatableIndex<?, ?, FileContent>, InputFilter> pair : myIndices.values()) {
+      if (pair.getFirst() instanceof MapReduceIndex) {
+        ((MapReduceIndex)pair.getFirst()).getStatistics().reset();
+      }
+    }
+  }
+
+  void logIndexingStatistics() {
+    List<Pair<ID<?, ?>, IndexingStatistics>> statistics = new ArrayList<Pair<ID<?, ?>, IndexingStatistics>>();
+    for (Map.Entry<ID<?, ?>, Pair<UpdatableIndex<?, ?, FileContent>, InputFilter>> entry : myIndices.entrySet()) {
+      UpdatableIndex<?, ?, FileContent> index = entry.getValue().getFirst();
+      if (index instanceof MapReduceIndex && ((MapReduceIndex)index).getStatistics().getFilesCount() > 0) {
+        statistics.add(Pair.<ID<?, ?>, IndexingStatistics>create(entry.getKey(), ((MapReduceIndex)index).getStatistics()));
+      }
+    }
+    Collections.sort(statistics, new Comparator<Pair<ID<?, ?>, IndexingStatistics>>() {
+      @Override
+      public int compare(Pair<ID<?, ?>, IndexingStatistics> o1, Pair<ID<?, ?>, IndexingStatistics> o2) {
+        long time1 = o1.second.getMapTimeMs() + o1.second.getCommitTimeMs();
+        long time2 = o2.second.getMapTimeMs() + o2.second.getCommitTimeMs();
+        return time1 < time2 ? 1 : time1 == time2 ? 0 : -1;
+      }
+    });
+    StringBuilder builder = new StringBuilder("Indexing statistics:");
+    for (Pair<ID<?, ?>, IndexingStatistics> pair : statistics) {
+      builder.append("\n  ").append(pair.first).append(": ").append(pair.second);
+    }
+    LOG.info(builder.toString());
+  }
+
   private final Lock myCalcIndexableFilesLock = new SequenceLock();
 
   @Nullable
@@ -1071,23 +1102,27 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     return null; // ok, no filtering
   }
 
+  /**
+   * @return sorted ids of files containing all the keys
+   */
   @Nullable
-  private <K, V> TIntHashSet collectFileIdsContainingAllKeys(@NotNull final ID<K, V> indexId,
-                                                             @NotNull final Collection<K> dataKeys,
-                                                             @NotNull final GlobalSearchScope filter,
-                                                             @Nullable final Condition<V> valueChecker,
-                                                             @Nullable final ProjectIndexableFilesFilter projectFilesFilter) {
-    final ThrowableConvertor<UpdatableIndex<K, V, FileContent>, TIntHashSet, StorageException> convertor =
-      new ThrowableConvertor<UpdatableIndex<K, V, FileContent>, TIntHashSet, StorageException>() {
+  private <K, V> int[] collectFileIdsContainingAllKeys(@NotNull final ID<K, V> indexId,
+                                                       @NotNull final Collection<K> dataKeys,
+                                                       @NotNull final GlobalSearchScope filter,
+                                                       @Nullable final Condition<V> valueChecker,
+                                                       @Nullable final ProjectIndexableFilesFilter projectFilesFilter) {
+    final ThrowableConvertor<UpdatableIndex<K, V, FileContent>, int[], StorageException> convertor =
+      new ThrowableConvertor<UpdatableIndex<K, V, FileContent>, int[], StorageException>() {
         @Nullable
         @Override
-        public TIntHashSet convert(@NotNull UpdatableIndex<K, V, FileContent> index) throws StorageException {
-          TIntHashSet mainIntersection = null;
+        public int[] convert(@NotNull UpdatableIndex<K, V, FileContent> index) throws StorageException {
+          int[] mainIntersection = null;
 
           for (K dataKey : dataKeys) {
             ProgressManager.checkCanceled();
-            final TIntHashSet copy = new TIntHashSet();
+            final TIntArrayList copy = new TIntArrayList();
             final ValueContainer<V> container = index.getData(dataKey);
+            int matchedValues = 0;
 
             for (final Iterator<V> valueIt = container.getValueIterator(); valueIt.hasNext(); ) {
               final V value = valueIt.next();
@@ -1095,34 +1130,41 @@ public class FileBasedIndexImpl extends FileBasedIndex {
                 continue;
               }
 
+              final int sizeBefore = copy.size();
               ValueContainer.IntIterator iterator = container.getInputIdsIterator(value);
 
-              if (mainIntersection == null || iterator.size() < mainIntersection.size()) {
+              if (mainIntersection == null) {
                 while (iterator.hasNext()) {
                   final int id = iterator.next();
-                  if (mainIntersection == null && (projectFilesFilter == null || projectFilesFilter.contains(id)) ||
-                      mainIntersection != null && mainIntersection.contains(id)
-                    ) {
+                  if (projectFilesFilter == null || projectFilesFilter.contains(id)) {
                     copy.add(id);
                   }
                 }
               }
+              else if (iterator.size() < mainIntersection.length << 3) {
+                // both sequences are sorted, merge them
+                int i = 0;
+                while (iterator.hasNext() && i < mainIntersection.length) {
+                  final int id = iterator.next();
+                  i = skipLessThan(mainIntersection, i, id);
+                  if (i < mainIntersection.length && mainIntersection[i] == id) copy.add(id);
+                }
+              }
               else {
-                mainIntersection.forEach(new TIntProcedure() {
-                  final ValueContainer.IntPredicate predicate = container.getValueAssociationPredicate(value);
-
-                  @Override
-                  public boolean execute(int id) {
-                    if (predicate.contains(id)) copy.add(id);
-                    return true;
-                  }
-                });
+                final ValueContainer.IntPredicate predicate = container.getValueAssociationPredicate(value);
+                for (int id : mainIntersection) {
+                  if (predicate.contains(id)) copy.add(id);
+                }
               }
+              if (copy.size() > sizeBefore) matchedValues++;
             }
 
-            mainIntersection = copy;
-            if (mainIntersection.isEmpty()) {
-              return new TIntHashSet();
+            if (matchedValues > 1) {
+              copy.sort(); // ids of a file are associated with a single value, so the sets of different values don't intersect
+            }
+            mainIntersection = copy.toNativeArray();
+            if (mainIntersection.length == 0) {
+              return mainIntersection;
             }
           }
 
@@ -1134,21 +1176,42 @@ public class FileBasedIndexImpl extends FileBasedIndex {
     return processExceptions(indexId, null, filter, convertor);
   }
 
-  private static boolean processVirtualFiles(@NotNull TIntHashSet ids,
+  /**
+   * @return index of the first element of the sorted array not less than the id, starting from the given one
+   */
+  static int skipLessThan(@NotNull int[] sorted, int from, int id) {
+    int step = 1;
+    int high = from;
+    while (high < sorted.length && sorted[high] < id) {
+      from = high + 1;
+      high += step;
+      step <<= 1;
+    }
+    high = Math.min(high, sorted.length);
+    while (from < high) {
+      final int mid = (from + high) >>> 1;
+      if (sorted[mid] < id) {
+        from = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return from;
+  }
+
+  private static boolean processVirtualFiles(@NotNull int[] ids,
                                              @NotNull final GlobalSearchScope filter,
                                              @NotNull final Processor<VirtualFile> processor) {
     final PersistentFS fs = (PersistentFS)ManagingFS.getInstance();
-    return ids.forEach(new TIntProcedure() {
-      @Override
-      public boolean execute(int id) {
-        ProgressManager.checkCanceled();
-        VirtualFile file = IndexInfrastructure.findFileByIdIfCached(fs, id);
-        if (file != null && filter.accept(file)) {
-          return processor.process(file);
-        }
-        return true;
+    for (int id : ids) {
+      ProgressManager.checkCanceled();
+      VirtualFile file = IndexInfrastructure.findFileByIdIfCached(fs, id);
+      if (file != null && filter.accept(file) && !processor.process(file)) {
+        return false;
       }
-    });
+    }
+    return true;
   }
 
   @Nullable
@@ -1657,6 +1720,8 @@ public class FileBasedIndexImpl extends FileBasedIndex {
             catch (IOException e) {
               currentBytes = ArrayUtil.EMPTY_BYTE_ARRAY;
             }
+            // the content is shared by all indices of the file, so its text, psi, lexer scans and, for languages with light stubs,
+            // the light tree (FileContentImpl.getLighterAST()) are computed once and dropped when the file is indexed
             fc = new FileContentImpl(file, currentBytes);
 
             psiFile = content.getUserData(IndexingDataKeys.PSI_FILE);
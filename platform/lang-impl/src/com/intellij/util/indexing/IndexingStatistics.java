@@ -0,0 +1,60 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time an index spends in {@link DataIndexer#map} and in storage updates, summed over all indexing threads.
+ */
+public class IndexingStatistics {
+  private final AtomicInteger myFilesCount = new AtomicInteger();
+  private final AtomicLong myMapTime = new AtomicLong();
+  private final AtomicLong myCommitTime = new AtomicLong(); // includes committing queued updates of other threads
+
+  void fileIndexed(long mapNanos, long commitNanos) {
+    myFilesCount.incrementAndGet();
+    myMapTime.addAndGet(mapNanos);
+    myCommitTime.addAndGet(commitNanos);
+  }
+
+  public void reset() {
+    myFilesCount.set(0);
+    myMapTime.set(0);
+    myCommitTime.set(0);
+  }
+
+  public int getFilesCount() {
+    return myFilesCount.get();
+  }
+
+  public long getMapTimeMs() {
+    return TimeUnit.NANOSECONDS.toMillis(myMapTime.get());
+  }
+
+  public long getCommitTimeMs() {
+    return TimeUnit.NANOSECONDS.toMillis(myCommitTime.get());
+  }
+
+  @Override
+  public String toString() {
+    long totalMs = getMapTimeMs() + getCommitTimeMs();
+    return getFilesCount() + " files, map " + getMapTimeMs() + " ms, storage update " + getCommitTimeMs() + " ms" +
+           (totalMs > 0 ? ", " + getFilesCount() * 1000L / totalMs + " files/s per thread" : "");
+  }
+}
@@ -32,7 +32,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -47,6 +49,10 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
   @Nullable private PersistentHashMap<Integer, Collection<Key>> myInputsIndex;
 
   private final ReentrantReadWriteLock myLock = new ReentrantReadWriteLock();
+
+  private final Queue<PendingUpdate> myPendingUpdates = new ConcurrentLinkedQueue<PendingUpdate>();
+  private final Lock myCommitLock = new ReentrantLock();
+  private final IndexingStatistics myStatistics = new IndexingStatistics();
   
   private Factory<PersistentHashMap<Integer, Collection<Key>>> myInputsIndexFactory;
 
@@ -62,6 +68,11 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
     return myStorage;
   }
 
+  @NotNull
+  public IndexingStatistics getStatistics() {
+    return myStatistics;
+  }
+
   @Override
   public void clear() throws StorageException {
     try {
@@ -208,19 +219,81 @@ public class MapReduceIndex<Key, Value, Input> implements UpdatableIndex<Key,Val
     return null;
   }
 
+  /**
+   * Input is mapped in the calling thread, so indexing threads map in parallel, while storage updates are applied by a single
+   * writer: whichever thread holds the commit lock applies the queued updates in order up to its own one. The update of the
+   * caller is committed when the method returns, its failure is rethrown to the caller.
+   */
   @Override
   public final void update(final int inputId, @Nullable Input content) throws StorageException {
     assert myInputsIndex != null;
 
+    final long started = System.nanoTime();
     final Map<Key, Value> data = content != null ? myIndexer.map(content) : Collections.<Key, Value>emptyMap();
+    final long mapped = System.nanoTime();
+
+    final PendingUpdate update = new PendingUpdate(inputId, data);
+    myPendingUpdates.add(update);
+    try {
+      commitPendingUpdates(update);
+    }
+    finally {
+      myStatistics.fileIndexed(mapped - started, System.nanoTime() - mapped);
+    }
+    update.rethrowFailure();
+  }
+
+  private void commitPendingUpdates(@NotNull PendingUpdate own) {
+    myCommitLock.lock();
+    try {
+      // the queue is FIFO, so updates queued after the own one are left to their threads
+      while (!own.myCommitted) {
+        final PendingUpdate update = myPendingUpdates.poll();
+        assert update != null;
+        update.commit();
+      }
+    }
+    finally {
+      myCommitLock.unlock();
+    }
+  }
+
+  private class PendingUpdate {
+    private final int myInputId;
+    private final Map<Key, Value> myData;
+    private boolean myCommitted; // guarded by myCommitLock
+    private Throwable myFailure; // guarded by myCommitLock
+
+    private PendingUpdate(int inputId, @NotNull Map<Key, Value> data) {
+      myInputId = inputId;
+      myData = data;
+    }
 
-    updateWithMap(inputId, data, new Callable<Collection<Key>>() {
-      @Override
-      public Collection<Key> call() throws Exception {
-        final Collection<Key> oldKeys = myInputsIndex.get(inputId);
-        return oldKeys == null? Collections.<Key>emptyList() : oldKeys;
+    private void commit() {
+      try {
+        updateWithMap(myInputId, myData, new Callable<Collection<Key>>() {
+          @Override
+          public Collection<Key> call() throws Exception {
+            final Collection<Key> oldKeys = myInputsIndex.get(myInputId);
+            return oldKeys == null ? Collections.<Key>emptyList() : oldKeys;
+          }
+        });
+      }
+      catch (Throwable e) {
+        // errors too: the committing thread may not be the requesting one, the failure must not be lost
+        myFailure = e;
+      }
+      finally {
+        myCommitted = true;
       }
-    });
+    }
+
+    private void rethrowFailure() throws StorageException {
+      if (myFailure instanceof StorageException) throw (StorageException)myFailure;
+      if (myFailure instanceof RuntimeException) throw (RuntimeException)myFailure;
+      if (myFailure instanceof Error) throw (Error)myFailure;
+      if (myFailure != null) throw new StorageException(myFailure);
+    }
   }
 
   protected void updateWithMap(final int inputId, @NotNull Map<Key, Value> newData, @NotNull Callable<Collection<Key>> oldKeysGetter) throws StorageException {
@@ -59,6 +59,7 @@ public class UnindexedFilesUpdater implements CacheUpdater {
 
     LOG.info("Unindexed files update started: " + files.size() + " files to update");
     myFinishedUpdate.set(false);
+    myIndex.resetIndexingStatistics();
     myStarted = System.currentTimeMillis();
     return VfsUtilCore.toVirtualFileArray(files);
   }
@@ -74,6 +75,7 @@ public class UnindexedFilesUpdater implements CacheUpdater {
     if (myFinishedUpdate.compareAndSet(false, true)) {
       myIndex.filesUpdateFinished();
       LOG.info("Unindexed files update done in " + (System.currentTimeMillis() - myStarted) + " ms");
+      myIndex.logIndexingStatistics();
     }
   }
 
@@ -24,6 +24,9 @@ import java.util.List;
  *         Date: Dec 14, 2007
  */
 public abstract class ValueContainer<Value> {
+  /**
+   * Iterates input ids in ascending order.
+   */
   interface IntIterator {
     boolean hasNext();
     
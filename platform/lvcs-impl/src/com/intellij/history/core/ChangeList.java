@@ -23,7 +23,7 @@ import com.intellij.history.utils.LocalHistoryLog;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.util.Clock;
 import com.intellij.util.Consumer;
-import gnu.trove.TIntHashSet;
+import gnu.trove.TLongHashSet;
 import org.jetbrains.annotations.TestOnly;
 
 import java.util.ArrayList;
@@ -117,7 +117,7 @@ public class ChangeList {
     return new Iterable<ChangeSet>() {
       public Iterator<ChangeSet> iterator() {
         return new Iterator<ChangeSet>() {
-          private final TIntHashSet recursionGuard = new TIntHashSet(1000);
+          private final TLongHashSet recursionGuard = new TLongHashSet(1000);
 
           private ChangeSetHolder currentBlock;
           private ChangeSet next = fetchNext();
@@ -18,7 +18,7 @@ package com.intellij.history.core;
 
 import com.intellij.history.core.changes.ChangeSet;
 import com.intellij.util.Consumer;
-import gnu.trove.TIntHashSet;
+import gnu.trove.TLongHashSet;
 import org.jetbrains.annotations.Nullable;
 
 public interface ChangeListStorage {
@@ -27,7 +27,7 @@ public interface ChangeListStorage {
   long nextId();
 
   @Nullable
-  ChangeSetHolder readPrevious(int id, TIntHashSet recursionGuard);
+  ChangeSetHolder readPrevious(long id, TLongHashSet recursionGuard);
 
   void purge(long period, int intervalBetweenActivities, Consumer<ChangeSet> processor);
 
@@ -25,12 +25,13 @@ import com.intellij.notification.NotificationListener;
 import com.intellij.notification.NotificationType;
 import com.intellij.notification.Notifications;
 import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.util.Clock;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.newvfs.ManagingFS;
 import com.intellij.util.Consumer;
 import com.intellij.util.io.storage.AbstractStorage;
-import gnu.trove.TIntHashSet;
+import gnu.trove.TLongHashSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -40,13 +41,32 @@ import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.MessageFormat;
-
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps change sets in segments, each segment is a separate {@link LocalHistoryStorage} with the change sets of about a day.
+ * Purging drops obsolete segments as a whole instead of deleting their records one by one, so the storage never has
+ * to be compacted.
+ * <p/>
+ * Record ids given out by the storage are (segment number << 32) | (record id in the segment), segment numbers only grow,
+ * so the ids stay valid as long as their records exist.
+ */
 public class ChangeListStorageImpl implements ChangeListStorage {
-  private static final int VERSION = 5;
+  private static final int VERSION = 6;
   private static final String STORAGE_FILE = "changes";
+  private static final Pattern SEGMENT_NAME = Pattern.compile(Pattern.quote(STORAGE_FILE) + "\\.(\\d+)" +
+                                                              Pattern.quote(AbstractStorage.INDEX_EXTENSION));
+
+  private static final long SEGMENT_PERIOD = 24 * 60 * 60 * 1000L;
 
   private final File myStorageDir;
-  private LocalHistoryStorage myStorage;
+  // segment number -> segment, the last one is written to
+  private TreeMap<Integer, LocalHistoryStorage> mySegments;
   private long myLastId;
 
   private boolean isCompletelyBroken = false;
@@ -57,32 +77,74 @@ public class ChangeListStorageImpl implements ChangeListStorage {
   }
 
   private synchronized void initStorage(File storageDir) throws IOException {
-    String path = storageDir.getPath() + "/" + STORAGE_FILE;
-
-    LocalHistoryStorage result = new LocalHistoryStorage(path);
-
     long fsTimestamp = getVFSTimestamp();
 
-    int storedVersion = result.getVersion();
-    boolean versionMismatch = storedVersion != VERSION;
-    boolean timestampMismatch = result.getFSTimestamp() != fsTimestamp;
+    TreeMap<Integer, LocalHistoryStorage> segments = new TreeMap<Integer, LocalHistoryStorage>();
+    boolean versionMismatch = false;
+    boolean timestampMismatch = false;
+    int storedVersion = VERSION;
+
+    // storages of the previous versions were not segmented
+    String unsegmentedPath = storageDir.getPath() + "/" + STORAGE_FILE;
+    if (new File(unsegmentedPath + AbstractStorage.INDEX_EXTENSION).exists()) {
+      LocalHistoryStorage unsegmented = new LocalHistoryStorage(unsegmentedPath);
+      storedVersion = unsegmented.getVersion();
+      versionMismatch = true;
+      unsegmented.dispose();
+    }
+    File[] files = storageDir.listFiles();
+    if (files != null) {
+      for (File each : files) {
+        Matcher matcher = SEGMENT_NAME.matcher(each.getName());
+        if (!matcher.matches()) continue;
+        int number = Integer.parseInt(matcher.group(1));
+        LocalHistoryStorage segment = new LocalHistoryStorage(getSegmentPath(storageDir, number));
+        segments.put(number, segment);
+        if (segment.getVersion() != VERSION) {
+          storedVersion = segment.getVersion();
+          versionMismatch = true;
+        }
+        if (segment.getFSTimestamp() != fsTimestamp) timestampMismatch = true;
+      }
+    }
+
     if (versionMismatch || timestampMismatch) {
       if (versionMismatch) {
         LocalHistoryLog.LOG.info(MessageFormat.format(
           "local history version mismatch (was: {0}, expected: {1}), rebuilding...", storedVersion, VERSION));
       }
       if (timestampMismatch) LocalHistoryLog.LOG.info("FS has been rebuild, rebuilding local history...");
-      result.dispose();
+      dispose(segments);
       if (!FileUtil.delete(storageDir)) {
         throw new IOException("cannot clear storage dir: " + storageDir);
       }
-      result = new LocalHistoryStorage(path);
-      result.setVersion(VERSION);
-      result.setFSTimestamp(fsTimestamp);
+      segments.clear();
+    }
+
+    mySegments = segments;
+    myLastId = segments.isEmpty() ? 0 : segments.lastEntry().getValue().getLastId();
+    if (segments.isEmpty()) {
+      createSegment(1);
     }
+  }
+
+  private static String getSegmentPath(File storageDir, int number) {
+    return storageDir.getPath() + "/" + STORAGE_FILE + "." + number;
+  }
 
-    myLastId = result.getLastId();
-    myStorage = result;
+  private LocalHistoryStorage createSegment(int number) throws IOException {
+    LocalHistoryStorage result = new LocalHistoryStorage(getSegmentPath(myStorageDir, number));
+    result.setVersion(VERSION);
+    result.setFSTimestamp(getVFSTimestamp());
+    result.setLastId(myLastId);
+    mySegments.put(number, result);
+    return result;
+  }
+
+  private static void dispose(Map<Integer, LocalHistoryStorage> segments) {
+    for (LocalHistoryStorage each : segments.values()) {
+      each.dispose();
+    }
   }
 
   private static long getVFSTimestamp() {
@@ -96,7 +158,7 @@ public class ChangeListStorageImpl implements ChangeListStorage {
     long timestamp = System.currentTimeMillis();
 
     try {
-      storageTimestamp = myStorage.getFSTimestamp();
+      storageTimestamp = mySegments.lastEntry().getValue().getFSTimestamp();
     }
     catch (Exception ex) {
       LocalHistoryLog.LOG.warn("cannot read storage timestamp", ex);
@@ -108,7 +170,7 @@ public class ChangeListStorageImpl implements ChangeListStorage {
                               ",storage timestamp:" + DateFormat.getDateTimeInstance().format(storageTimestamp) +
                               ",vfs timestamp:" + DateFormat.getDateTimeInstance().format(vfsTimestamp) + ")\n" + message, e);
 
-    myStorage.dispose();
+    dispose(mySegments);
     try {
       FileUtil.delete(myStorageDir);
       initStorage(myStorageDir);
@@ -150,7 +212,7 @@ public class ChangeListStorageImpl implements ChangeListStorage {
   }
 
   public synchronized void close() {
-    myStorage.dispose();
+    dispose(mySegments);
   }
 
   public synchronized long nextId() {
@@ -158,12 +220,12 @@ public class ChangeListStorageImpl implements ChangeListStorage {
   }
 
   @Nullable
-  public synchronized ChangeSetHolder readPrevious(int id, TIntHashSet recursionGuard) {
+  public synchronized ChangeSetHolder readPrevious(long id, TLongHashSet recursionGuard) {
     if (isCompletelyBroken) return null;
 
-    int prevId = 0;
+    long prevId = 0;
     try {
-      prevId = id == -1 ? myStorage.getLastRecord() : doReadPrevSafely(id, recursionGuard);
+      prevId = id == -1 ? getLastRecord() : doReadPrevSafely(id, recursionGuard);
       if (prevId == 0) return null;
 
       return doReadBlock(prevId);
@@ -172,11 +234,11 @@ public class ChangeListStorageImpl implements ChangeListStorage {
       String message = null;
       if (prevId != 0) {
         try {
-          Pair<Long, Integer> prevOS = myStorage.getOffsetAndSize(prevId);
-          long prevRecordTimestamp = myStorage.getTimestamp(prevId);
-          int lastRecord = myStorage.getLastRecord();
-          Pair<Long, Integer> lastOS = myStorage.getOffsetAndSize(lastRecord);
-          long lastRecordTimestamp = myStorage.getTimestamp(lastRecord);
+          Pair<Long, Integer> prevOS = getSegment(prevId).getOffsetAndSize(getRecord(prevId));
+          long prevRecordTimestamp = getTimestamp(prevId);
+          long lastRecord = getLastRecord();
+          Pair<Long, Integer> lastOS = getSegment(lastRecord).getOffsetAndSize(getRecord(lastRecord));
+          long lastRecordTimestamp = getTimestamp(lastRecord);
 
           message = "invalid record is: " + prevId + " offset: " + prevOS.first + " size: " + prevOS.second
                     + " (created " + DateFormat.getDateTimeInstance().format(prevRecordTimestamp) + ") "
@@ -194,8 +256,8 @@ public class ChangeListStorageImpl implements ChangeListStorage {
   }
 
   @NotNull
-  private ChangeSetHolder doReadBlock(int id) throws IOException {
-    DataInputStream in = myStorage.readStream(id);
+  private ChangeSetHolder doReadBlock(long id) throws IOException {
+    DataInputStream in = getSegment(id).readStream(getRecord(id));
     try {
       return new ChangeSetHolder(id, new ChangeSet(in));
     }
@@ -208,15 +270,16 @@ public class ChangeListStorageImpl implements ChangeListStorage {
     if (isCompletelyBroken) return;
 
     try {
-      AbstractStorage.StorageDataOutput out = myStorage.writeStream(myStorage.createNextRecord(), true);
+      LocalHistoryStorage segment = getSegmentToWrite();
+      AbstractStorage.StorageDataOutput out = segment.writeStream(segment.createNextRecord(), true);
       try {
         changeSet.write(out);
       }
       finally {
         out.close();
       }
-      myStorage.setLastId(myLastId);
-      myStorage.force();
+      segment.setLastId(myLastId);
+      segment.force();
     }
     catch (IOException e) {
       handleError(e, null);
@@ -226,33 +289,44 @@ public class ChangeListStorageImpl implements ChangeListStorage {
   public synchronized void purge(long period, int intervalBetweenActivities, Consumer<ChangeSet> processor) {
     if (isCompletelyBroken) return;
 
-    TIntHashSet recursionGuard = new TIntHashSet(1000);
+    TLongHashSet recursionGuard = new TLongHashSet(1000);
 
     try {
-      int firstObsoleteId = findFirstObsoleteBlock(period, intervalBetweenActivities, recursionGuard);
+      long firstObsoleteId = findFirstObsoleteBlock(period, intervalBetweenActivities, recursionGuard);
       if (firstObsoleteId == 0) return;
 
-      int eachBlockId = firstObsoleteId;
+      long eachBlockId = firstObsoleteId;
 
       while (eachBlockId != 0) {
         processor.consume(doReadBlock(eachBlockId).changeSet);
         eachBlockId = doReadPrevSafely(eachBlockId, recursionGuard);
       }
-      myStorage.deleteRecordsUpTo(firstObsoleteId);
-      myStorage.force();
+
+      int segmentNumber = getSegmentNumber(firstObsoleteId);
+      for (int each : new ArrayList<Integer>(mySegments.headMap(segmentNumber).keySet())) {
+        dropSegment(each);
+      }
+      LocalHistoryStorage segment = mySegments.get(segmentNumber);
+      segment.deleteRecordsUpTo(getRecord(firstObsoleteId));
+      if (segment.getLastRecord() == 0 && segmentNumber != mySegments.lastKey()) {
+        dropSegment(segmentNumber);
+      }
+      else {
+        segment.force();
+      }
     }
     catch (IOException e) {
       handleError(e, null);
     }
   }
 
-  private int findFirstObsoleteBlock(long period, int intervalBetweenActivities, TIntHashSet recursionGuard) throws IOException {
+  private long findFirstObsoleteBlock(long period, int intervalBetweenActivities, TLongHashSet recursionGuard) throws IOException {
     long prevTimestamp = 0;
     long length = 0;
 
-    int last = myStorage.getLastRecord();
+    long last = getLastRecord();
     while (last != 0) {
-      long t = myStorage.getTimestamp(last);
+      long t = getTimestamp(last);
       if (prevTimestamp == 0) prevTimestamp = t;
 
       long delta = prevTimestamp - t;
@@ -269,10 +343,60 @@ public class ChangeListStorageImpl implements ChangeListStorage {
     return 0;
   }
 
-  private int doReadPrevSafely(int id, TIntHashSet recursionGuard) throws IOException {
+  private long doReadPrevSafely(long id, TLongHashSet recursionGuard) throws IOException {
     recursionGuard.add(id);
-    int prev = myStorage.getPrevRecord(id);
+    int segmentNumber = getSegmentNumber(id);
+    int prevRecord = getSegment(id).getPrevRecord(getRecord(id));
+    long prev = prevRecord != 0 ? toId(segmentNumber, prevRecord) : getLastRecord(mySegments.headMap(segmentNumber, false));
     if (!recursionGuard.add(prev)) throw new IOException("Recursive records found");
     return prev;
   }
-}
\ No newline at end of file
+
+  private long getLastRecord() {
+    return getLastRecord(mySegments);
+  }
+
+  private static long getLastRecord(NavigableMap<Integer, LocalHistoryStorage> segments) {
+    for (Map.Entry<Integer, LocalHistoryStorage> each : segments.descendingMap().entrySet()) {
+      int record = each.getValue().getLastRecord();
+      if (record != 0) return toId(each.getKey(), record);
+    }
+    return 0;
+  }
+
+  private long getTimestamp(long id) throws IOException {
+    return getSegment(id).getTimestamp(getRecord(id));
+  }
+
+  private LocalHistoryStorage getSegmentToWrite() throws IOException {
+    Map.Entry<Integer, LocalHistoryStorage> last = mySegments.lastEntry();
+    LocalHistoryStorage segment = last.getValue();
+    int first = segment.getFirstRecord();
+    if (first == 0 || Clock.getTime() - segment.getTimestamp(first) < SEGMENT_PERIOD) return segment;
+
+    return createSegment(last.getKey() + 1);
+  }
+
+  private void dropSegment(int number) {
+    mySegments.remove(number).dispose();
+    AbstractStorage.deleteFiles(getSegmentPath(myStorageDir, number));
+  }
+
+  private LocalHistoryStorage getSegment(long id) throws IOException {
+    LocalHistoryStorage result = mySegments.get(getSegmentNumber(id));
+    if (result == null) throw new IOException("Segment not found for record " + id);
+    return result;
+  }
+
+  private static long toId(int segmentNumber, int record) {
+    return ((long)segmentNumber << 32) | record;
+  }
+
+  private static int getSegmentNumber(long id) {
+    return (int)(id >>> 32);
+  }
+
+  private static int getRecord(long id) {
+    return (int)id;
+  }
+}
@@ -21,10 +21,10 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class ChangeSetHolder {
-  public final int id;
+  public final long id;
   public final ChangeSet changeSet;
 
-  public ChangeSetHolder(int id, ChangeSet changeSet) {
+  public ChangeSetHolder(long id, ChangeSet changeSet) {
     this.id = id;
     this.changeSet = changeSet;
   }
@@ -17,7 +17,7 @@ package com.intellij.history.core;
 
 import com.intellij.history.core.changes.ChangeSet;
 import com.intellij.util.Consumer;
-import gnu.trove.TIntHashSet;
+import gnu.trove.TLongHashSet;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
@@ -38,10 +38,10 @@ public class InMemoryChangeListStorage implements ChangeListStorage {
 
   @Override
   @Nullable
-  public ChangeSetHolder readPrevious(int id, TIntHashSet recursionGuard) {
+  public ChangeSetHolder readPrevious(long id, TLongHashSet recursionGuard) {
     if (mySets.isEmpty()) return null;
     if (id == -1) return new ChangeSetHolder(mySets.size() - 1, mySets.get(mySets.size() - 1));
-    return id == 0 ? null : new ChangeSetHolder(id -1, mySets.get(id - 1));
+    return id == 0 ? null : new ChangeSetHolder(id -1, mySets.get((int)id - 1));
   }
 
   @Override
@@ -36,6 +36,7 @@ import com.intellij.openapi.project.DumbAwareRunnable;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.tree.IElementType;
 import com.intellij.util.ArrayUtil;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.ui.UIUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -45,6 +46,9 @@ import java.util.Map;
 
 public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDocumentListener {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.editor.ex.util.LexerEditorHighlighter");
+  private static final boolean USE_CHECKPOINTS = SystemProperties.getBooleanProperty("idea.lexer.checkpoints", true);
+  private static final int CHECKPOINT_INTERVAL = 64;
+  private static final int CONVERGENCE_CHECK_TOKENS = 16;
   private HighlighterClient myEditor;
   private final Lexer myLexer;
   private final Map<IElementType, TextAttributes> myAttributesMap = new HashMap<IElementType, TextAttributes>();
@@ -52,6 +56,8 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
   private final SyntaxHighlighter myHighlighter;
   private EditorColorsScheme myScheme;
   private final int myInitialState;
+  private final Checkpoints myCheckpoints = new Checkpoints();
+  private boolean myCheckpointsEnabled = USE_CHECKPOINTS;
 
   public LexerEditorHighlighter(@NotNull SyntaxHighlighter highlighter, @NotNull EditorColorsScheme scheme) {
     myScheme = scheme;
@@ -143,6 +149,7 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
 
     if (document instanceof DocumentEx && ((DocumentEx)document).isInBulkUpdate()) {
       mySegments.removeAll();
+      myCheckpoints.clear();
       return;
     }
 
@@ -151,6 +158,23 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
       return;
     }
 
+    if (!relex(e, myCheckpointsEnabled)) {
+      LOG.debug("Lexer state snapshots are not restartable, checkpoints disabled. Lexer: " + myLexer);
+      myCheckpointsEnabled = false;
+      myCheckpoints.clear();
+      relex(e, false);
+    }
+  }
+
+  /**
+   * Relexes the changed part of the document: from the last token started in the initial lexer state (or the last checkpoint,
+   * whichever is closer) up to the first token after the change which starts in the same state as the old token at that place.
+   *
+   * @return false if the lexer restarted from a checkpoint produced tokens different from the unchanged ones,
+   * nothing is modified in this case
+   */
+  private boolean relex(DocumentEvent e, boolean useCheckpoints) {
+    final Document document = e.getDocument();
     CharSequence text = document.getCharsSequence();
     int oldStartOffset = e.getOffset();
 
@@ -164,18 +188,36 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
     final int oldStartIndex = Math.max(0, segmentIndex);
     int startIndex = oldStartIndex;
 
+    int checkpoint = -1;
+    int checkpointIndex = 0;
+    if (useCheckpoints) {
+      checkpoint = myCheckpoints.findLastNotAfter(mySegments.getSegmentStart(oldStartIndex));
+      if (checkpoint >= 0) {
+        checkpointIndex = mySegments.findSegmentIndex(myCheckpoints.getOffset(checkpoint));
+        if (mySegments.getSegmentStart(checkpointIndex) != myCheckpoints.getOffset(checkpoint)) {
+          checkpoint = -1;
+          checkpointIndex = 0;
+        }
+      }
+    }
+
     int data;
     do {
       data = mySegments.getSegmentData(startIndex);
-      if (isInitialState(data)|| startIndex == 0) break;
+      if (isInitialState(data)|| startIndex == checkpointIndex) break;
       startIndex--;
     }
     while (true);
 
     int startOffset = mySegments.getSegmentStart(startIndex);
+    int startState = myInitialState;
+    boolean fromCheckpoint = checkpoint >= 0 && !isInitialState(data);
+    if (fromCheckpoint) {
+      startState = myCheckpoints.getState(checkpoint);
+    }
     int newEndOffset = e.getOffset() + e.getNewLength();
 
-    myLexer.start(text, startOffset, text.length(), myInitialState);
+    myLexer.start(text, startOffset, text.length(), startState);
 
     int lastTokenStart = -1;
     int lastLexerState = -1;
@@ -195,6 +237,7 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
       if (mySegments.getSegmentStart(startIndex) != tokenStart ||
           mySegments.getSegmentEnd(startIndex) != tokenEnd ||
           mySegments.getSegmentData(startIndex) != data) {
+        if (fromCheckpoint) return false;
         break;
       }
       startIndex++;
@@ -208,6 +251,11 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
     int insertSegmentCount = 0;
     int oldEndIndex = -1;
     SegmentArrayWithData insertSegments = new SegmentArrayWithData();
+    Checkpoints insertCheckpoints = new Checkpoints();
+    final int shift = e.getNewLength() - e.getOldLength();
+    // the old token at a checkpoint which starts in the same state as the current one, confirmed by the tokens following it
+    int candidateIndex = -1;
+    int candidateInsertCount = 0;
 
     while(myLexer.getTokenType() != null) {
       int tokenStart = myLexer.getTokenStart();
@@ -222,21 +270,49 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
 
       int tokenEnd = myLexer.getTokenEnd();
       data = packData(myLexer.getTokenType(), lexerState);
-      if(tokenStart >= newEndOffset && lexerState == myInitialState) {
-        int shiftedTokenStart = tokenStart - e.getNewLength() + e.getOldLength();
-        int index = mySegments.findSegmentIndex(shiftedTokenStart);
-        if (mySegments.getSegmentStart(index) == shiftedTokenStart && mySegments.getSegmentData(index) == data) {
-          repaintEnd = tokenStart;
-          oldEndIndex = index;
+      if (candidateIndex >= 0) {
+        int index = candidateIndex + insertSegmentCount - candidateInsertCount;
+        if (index >= mySegments.getSegmentCount() ||
+            mySegments.getSegmentStart(index) + shift != tokenStart ||
+            mySegments.getSegmentEnd(index) + shift != tokenEnd ||
+            mySegments.getSegmentData(index) != data) {
+          candidateIndex = -1;
+        }
+        else if (insertSegmentCount - candidateInsertCount >= CONVERGENCE_CHECK_TOKENS) {
           break;
         }
       }
+      if (candidateIndex < 0 && tokenStart >= newEndOffset) {
+        int shiftedTokenStart = tokenStart - shift;
+        if (lexerState == myInitialState || myCheckpointsEnabled && myCheckpoints.hasState(shiftedTokenStart, lexerState)) {
+          int index = mySegments.findSegmentIndex(shiftedTokenStart);
+          if (mySegments.getSegmentStart(index) == shiftedTokenStart && mySegments.getSegmentData(index) == data) {
+            if (lexerState == myInitialState) {
+              repaintEnd = tokenStart;
+              oldEndIndex = index;
+              break;
+            }
+            candidateIndex = index;
+            candidateInsertCount = insertSegmentCount;
+          }
+        }
+      }
+      if (myCheckpointsEnabled && lexerState != myInitialState && insertSegmentCount % CHECKPOINT_INTERVAL == 0) {
+        insertCheckpoints.add(tokenStart, lexerState);
+      }
       insertSegments.setElementAt(insertSegmentCount, tokenStart, tokenEnd, data);
       insertSegmentCount++;
       myLexer.advance();
     }
 
-    final int shift = e.getNewLength() - e.getOldLength();
+    if (candidateIndex >= 0 &&
+        (myLexer.getTokenType() != null || candidateIndex + insertSegmentCount - candidateInsertCount == mySegments.getSegmentCount())) {
+      repaintEnd = insertSegmentCount > candidateInsertCount ? insertSegments.getSegmentStart(candidateInsertCount) : text.length();
+      oldEndIndex = candidateIndex;
+      insertSegments.remove(candidateInsertCount, insertSegmentCount);
+      insertSegmentCount = candidateInsertCount;
+    }
+
     if (repaintEnd > 0) {
       while (insertSegmentCount > 0 && oldEndIndex > startIndex) {
         if (!segmentsEqual(mySegments, oldEndIndex - 1, insertSegments, insertSegmentCount - 1, shift)) {
@@ -256,15 +332,20 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
     if (oldEndIndex < 0){
       oldEndIndex = mySegments.getSegmentCount();
     }
+    if (myCheckpointsEnabled) {
+      int oldEndOffset = oldEndIndex < mySegments.getSegmentCount() ? mySegments.getSegmentStart(oldEndIndex) : Integer.MAX_VALUE;
+      myCheckpoints.replace(startOffset, oldEndOffset, shift, insertCheckpoints);
+    }
     mySegments.shiftSegments(oldEndIndex, shift);
     mySegments.replace(startIndex, oldEndIndex, insertSegments);
 
     if (insertSegmentCount == 0 ||
         oldEndIndex == startIndex + 1 && insertSegmentCount == 1 && data == mySegments.getSegmentData(startIndex)) {
-      return;
+      return true;
     }
 
     myEditor.repaint(startOffset, repaintEnd);
+    return true;
   }
 
   @Override
@@ -306,12 +387,17 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
     final TokenProcessor processor = createTokenProcessor(0);
     myLexer.start(text, 0, text.length(),myInitialState);
     mySegments.removeAll();
+    myCheckpoints.clear();
     int i = 0;
     while (true) {
       final IElementType tokenType = myLexer.getTokenType();
       if (tokenType == null) break;
 
-      int data = packData(tokenType, myLexer.getState());
+      int state = myLexer.getState();
+      if (myCheckpointsEnabled && state != myInitialState && i % CHECKPOINT_INTERVAL == 0) {
+        myCheckpoints.add(myLexer.getTokenStart(), state);
+      }
+      int data = packData(tokenType, state);
       processor.addToken(i, myLexer.getTokenStart(), myLexer.getTokenEnd(), data, tokenType);
       i++;
       myLexer.advance();
@@ -408,4 +494,101 @@ public class LexerEditorHighlighter implements EditorHighlighter, PrioritizedDoc
   public SegmentArrayWithData getSegments() {
     return mySegments;
   }
+
+  /**
+   * Lexer states remembered at the starts of every {@link #CHECKPOINT_INTERVAL}-th token lexed in a non-initial state.
+   * Relexing may restart at such a token (see {@link Lexer#start(CharSequence, int, int, int)}) and stop at one when the state
+   * after the change is the same, so languages whose lexers rarely return to the initial state don't need to be relexed
+   * up to the end of the file on every keystroke.
+   */
+  static class Checkpoints {
+    private int[] myOffsets = ArrayUtil.EMPTY_INT_ARRAY;
+    private int[] myStates = ArrayUtil.EMPTY_INT_ARRAY;
+    private int myCount;
+
+    int size() {
+      return myCount;
+    }
+
+    int getOffset(int i) {
+      return myOffsets[i];
+    }
+
+    int getState(int i) {
+      return myStates[i];
+    }
+
+    void clear() {
+      myOffsets = ArrayUtil.EMPTY_INT_ARRAY;
+      myStates = ArrayUtil.EMPTY_INT_ARRAY;
+      myCount = 0;
+    }
+
+    /**
+     * Offsets must be added in ascending order.
+     */
+    void add(int offset, int state) {
+      if (myCount == myOffsets.length) {
+        int newLength = Math.max(16, myCount * 3 / 2);
+        myOffsets = ArrayUtil.realloc(myOffsets, newLength);
+        myStates = ArrayUtil.realloc(myStates, newLength);
+      }
+      myOffsets[myCount] = offset;
+      myStates[myCount] = state;
+      myCount++;
+    }
+
+    /**
+     * @return index of the last checkpoint at or before the offset, or -1
+     */
+    int findLastNotAfter(int offset) {
+      int low = 0;
+      int high = myCount - 1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (myOffsets[mid] <= offset) {
+          low = mid + 1;
+        }
+        else {
+          high = mid - 1;
+        }
+      }
+      return high;
+    }
+
+    boolean hasState(int offset, int state) {
+      int i = findLastNotAfter(offset);
+      return i >= 0 && myOffsets[i] == offset && myStates[i] == state;
+    }
+
+    /**
+     * Replaces the checkpoints in [startOffset, endOffset) with the given ones which are before {@code endOffset + shift}
+     * and moves the checkpoints after it by {@code shift}.
+     */
+    void replace(int startOffset, int endOffset, int shift, @NotNull Checkpoints inserted) {
+      int from = findLastNotAfter(startOffset - 1) + 1;
+      int to = findLastNotAfter(endOffset - 1) + 1;
+      int insertCount = inserted.findLastNotAfter(endOffset == Integer.MAX_VALUE ? Integer.MAX_VALUE : endOffset + shift - 1) + 1;
+      int newCount = myCount - (to - from) + insertCount;
+
+      int[] offsets = myOffsets;
+      int[] states = myStates;
+      if (newCount > myOffsets.length) {
+        offsets = new int[Math.max(16, newCount * 3 / 2)];
+        states = new int[offsets.length];
+        System.arraycopy(myOffsets, 0, offsets, 0, from);
+        System.arraycopy(myStates, 0, states, 0, from);
+      }
+      System.arraycopy(myOffsets, to, offsets, from + insertCount, myCount - to);
+      System.arraycopy(myStates, to, states, from + insertCount, myCount - to);
+      System.arraycopy(inserted.myOffsets, 0, offsets, from, insertCount);
+      System.arraycopy(inserted.myStates, 0, states, from, insertCount);
+      for (int i = from + insertCount; i < newCount; i++) {
+        offsets[i] += shift;
+      }
+      myOffsets = offsets;
+      myStates = states;
+      myCount = newCount;
+    }
+  }
 }
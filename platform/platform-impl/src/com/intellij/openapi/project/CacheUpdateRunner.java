@@ -142,7 +142,8 @@ class CacheUpdateRunner {
     try {
       int threadsCount = Registry.intValue("caches.indexerThreadsCount");
       if (threadsCount <= 0) {
-        threadsCount = Math.min(PROC_COUNT, 4);
+        // storage updates of an index are applied by a single writer while its threads map in parallel, so mapping scales further
+        threadsCount = Math.min(PROC_COUNT, 8);
       }
       if (threadsCount == 1) {
         Runnable process = new MyRunnable(innerIndicator, queue, isFinished, progressUpdater, processInReadAction, application);
@@ -20,6 +20,7 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.registry.Registry;
 import com.intellij.openapi.vfs.InvalidVirtualFileAccessException;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
@@ -28,9 +29,11 @@ import org.jetbrains.annotations.Nullable;
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
 * @author peter
@@ -51,23 +54,24 @@ public class FileContentQueue {
   private volatile boolean myContentLoadingThreadTerminated = false;
 
   public void queue(final Collection<VirtualFile> files, @NotNull final ProgressIndicator indicator) {
+    final Iterator<VirtualFile> filesIterator = files.iterator();
+    final int loadersCount = getContentLoadingThreadsCount(files.size());
+    final AtomicInteger activeLoaders = new AtomicInteger(loadersCount);
+
     final Runnable contentLoadingRunnable = new Runnable() {
       public void run() {
+        boolean completed = false;
         try {
-          for (VirtualFile file : files) {
-            if (indicator != null) {
-              indicator.checkCanceled();
+          while (true) {
+            final VirtualFile file;
+            synchronized (filesIterator) {
+              if (!filesIterator.hasNext()) break;
+              file = filesIterator.next();
             }
+            indicator.checkCanceled();
             addLast(file, indicator);
           }
-
-          // put end-of-queue marker only if not canceled
-          try {
-            myQueue.put(new FileContent(null));
-          }
-          catch (InterruptedException e) {
-            LOG.error(e);
-          }
+          completed = true;
         }
         catch (ProcessCanceledException e) {
           // Do nothing, exit the thread.
@@ -76,12 +80,34 @@ public class FileContentQueue {
           LOG.error(e);
         }
         finally {
-          myContentLoadingThreadTerminated = true;
+          if (activeLoaders.decrementAndGet() == 0) {
+            // the last loader puts end-of-queue marker, only if not canceled
+            if (completed) {
+              try {
+                myQueue.put(new FileContent(null));
+              }
+              catch (InterruptedException e) {
+                LOG.error(e);
+              }
+            }
+            myContentLoadingThreadTerminated = true;
+          }
         }
       }
     };
 
-    ApplicationManager.getApplication().executeOnPooledThread(contentLoadingRunnable);
+    for (int i = 0; i < loadersCount; i++) {
+      ApplicationManager.getApplication().executeOnPooledThread(contentLoadingRunnable);
+    }
+  }
+
+  private static int getContentLoadingThreadsCount(int filesCount) {
+    int threadsCount = Registry.intValue("caches.contentLoaderThreadsCount");
+    if (threadsCount <= 0) {
+      // loading is mostly I/O bound, a couple of threads is enough to keep indexers busy
+      threadsCount = Math.min(Runtime.getRuntime().availableProcessors() / 4 + 1, 4);
+    }
+    return Math.max(1, Math.min(threadsCount, filesCount));
   }
 
   private void addLast(VirtualFile file, @NotNull final ProgressIndicator indicator) throws InterruptedException {
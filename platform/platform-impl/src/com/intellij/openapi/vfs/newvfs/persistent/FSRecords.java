@@ -31,6 +31,7 @@ import com.intellij.openapi.util.io.ByteSequence;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.containers.IntArrayList;
+import com.intellij.util.containers.SLRUMap;
 import com.intellij.util.io.*;
 import com.intellij.util.io.DataOutputStream;
 import com.intellij.util.io.storage.*;
@@ -42,7 +43,17 @@ import org.jetbrains.annotations.Nullable;
 import javax.swing.*;
 import java.awt.*;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 @SuppressWarnings({"PointlessArithmeticExpression", "HardCodedStringLiteral"})
@@ -85,8 +96,16 @@ public class FSRecords implements Forceable {
 
   private static final String CHILDREN_ATT = "FsRecords.DIRECTORY_CHILDREN";
 
+  private static final ReentrantReadWriteLock ourLock;
   private static final ReentrantReadWriteLock.ReadLock r;
   private static final ReentrantReadWriteLock.WriteLock w;
+  private static final ConcurrentHashMap<String, LockWaitCounter> ourLockWaits = new ConcurrentHashMap<String, LockWaitCounter>();
+
+  // guards (file, attribute) pages against reading while AttributeOutputStream rewrites them outside of the write lock
+  private static final Object[] ourAttributeLocks = new Object[64];
+
+  // recently stored unlinked contents (content hash -> content record), equal contents share the record
+  private static final SLRUMap<Integer, Integer> ourUnlinkedContents = new SLRUMap<Integer, Integer>(500, 500);
 
   private static volatile int ourLocalModificationCount = 0;
   private static volatile boolean ourIsDisposed;
@@ -98,9 +117,79 @@ public class FSRecords implements Forceable {
     //noinspection ConstantConditions
     assert HEADER_SIZE <= RECORD_SIZE;
 
-    ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-    r = lock.readLock();
-    w = lock.writeLock();
+    ourLock = new ReentrantReadWriteLock();
+    r = ourLock.readLock();
+    w = ourLock.writeLock();
+
+    for (int i = 0; i < ourAttributeLocks.length; i++) {
+      ourAttributeLocks[i] = new Object();
+    }
+  }
+
+  private static void readLock(@NotNull String operation) {
+    if (!ourLock.isWriteLocked() && !ourLock.hasQueuedThreads() || ourLock.isWriteLockedByCurrentThread()) {
+      r.lock();
+      return;
+    }
+    long started = System.nanoTime();
+    r.lock();
+    lockWaited(operation, System.nanoTime() - started);
+  }
+
+  private static void writeLock(@NotNull String operation) {
+    if (ourLock.getReadLockCount() == 0 && !ourLock.isWriteLocked() || ourLock.isWriteLockedByCurrentThread()) {
+      w.lock();
+      return;
+    }
+    long started = System.nanoTime();
+    w.lock();
+    lockWaited(operation, System.nanoTime() - started);
+  }
+
+  private static void lockWaited(@NotNull String operation, long nanos) {
+    LockWaitCounter counter = ourLockWaits.get(operation);
+    if (counter == null) {
+      LockWaitCounter newCounter = new LockWaitCounter();
+      counter = ourLockWaits.putIfAbsent(operation, newCounter);
+      if (counter == null) counter = newCounter;
+    }
+    counter.myCount.incrementAndGet();
+    counter.myNanos.addAndGet(nanos);
+  }
+
+  private static class LockWaitCounter {
+    private final AtomicInteger myCount = new AtomicInteger();
+    private final AtomicLong myNanos = new AtomicLong();
+  }
+
+  /**
+   * @return time spent waiting for the records lock by each operation, since startup. Acquisitions which didn't have to wait
+   * aren't counted.
+   */
+  @NotNull
+  public static String getLockContentionStatistics() {
+    List<Map.Entry<String, LockWaitCounter>> entries = new ArrayList<Map.Entry<String, LockWaitCounter>>(ourLockWaits.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, LockWaitCounter>>() {
+      @Override
+      public int compare(Map.Entry<String, LockWaitCounter> o1, Map.Entry<String, LockWaitCounter> o2) {
+        long nanos1 = o1.getValue().myNanos.get();
+        long nanos2 = o2.getValue().myNanos.get();
+        return nanos1 < nanos2 ? 1 : nanos1 == nanos2 ? 0 : -1;
+      }
+    });
+    StringBuilder result = new StringBuilder("FSRecords lock waits:");
+    for (Map.Entry<String, LockWaitCounter> entry : entries) {
+      int count = entry.getValue().myCount.get();
+      long ms = TimeUnit.NANOSECONDS.toMillis(entry.getValue().myNanos.get());
+      result.append("\n  ").append(entry.getKey()).append(": ").append(count).append(" waits, ").append(ms).append(" ms total, ")
+        .append(count > 0 ? entry.getValue().myNanos.get() / count / 1000 : 0).append(" us average");
+    }
+    return result.toString();
+  }
+
+  @NotNull
+  private static Object getAttributeLock(int fileId, @NotNull String attId) {
+    return ourAttributeLocks[(fileId * 31 + attId.hashCode() & Integer.MAX_VALUE) % ourAttributeLocks.length];
   }
 
   static class DbConnection {
@@ -113,7 +202,8 @@ public class FSRecords implements Forceable {
     private static ResizeableMappedFile myRecords;
     private static final TIntArrayList myFreeRecords = new TIntArrayList();
 
-    private static boolean myDirty = false;
+    private static volatile boolean myDirty = false;
+    private static final Object ourFlushLock = new Object();
     private static ScheduledFuture<?> myFlushingFuture;
     private static boolean myCorrupted = false;
 
@@ -122,7 +212,7 @@ public class FSRecords implements Forceable {
 
     public static void connect() {
       try {
-        w.lock();
+        writeLock("connect");
         if (!ourInitialized) {
           init();
           setupFlushing();
@@ -347,19 +437,22 @@ public class FSRecords implements Forceable {
 
     public static void force() {
       try {
-        w.lock();
-        if (myRecords != null) {
-          markClean();
-        }
-        if (myNames != null) {
-          myNames.force();
-          myAttributes.force();
-          myContents.force();
-          myRecords.force();
+        // flushing doesn't need to stop readers, only modifications
+        readLock("force");
+        synchronized (ourFlushLock) {
+          if (myRecords != null) {
+            markClean();
+          }
+          if (myNames != null) {
+            myNames.force();
+            myAttributes.force();
+            myContents.force();
+            myRecords.force();
+          }
         }
       }
       finally {
-        w.unlock();
+        r.unlock();
       }
     }
 
@@ -367,21 +460,23 @@ public class FSRecords implements Forceable {
       if (!isDirty() || HeavyProcessLatch.INSTANCE.isRunning()) return;
 
       try {
-        w.lock();
-        if (myFlushingFuture == null) {
-          return; // avoid NPE when close has already taken place
-        }
-        myNames.force();
+        readLock("flushSome");
+        synchronized (ourFlushLock) {
+          if (myFlushingFuture == null) {
+            return; // avoid NPE when close has already taken place
+          }
+          myNames.force();
 
-        final boolean attribsFlushed = myAttributes.flushSome();
-        final boolean contentsFlushed = myContents.flushSome();
-        if (attribsFlushed && contentsFlushed) {
-          markClean();
-          myRecords.force();
+          final boolean attribsFlushed = myAttributes.flushSome();
+          final boolean contentsFlushed = myContents.flushSome();
+          if (attribsFlushed && contentsFlushed) {
+            markClean();
+            myRecords.force();
+          }
         }
       }
       finally {
-        w.unlock();
+        r.unlock();
       }
     }
 
@@ -458,14 +553,17 @@ public class FSRecords implements Forceable {
     }
 
     private static int getAttributeId(String attId) throws IOException {
-      if (myAttributeIds.containsKey(attId)) {
-        return myAttributeIds.get(attId);
-      }
+      // called under read lock as well, so concurrently
+      synchronized (myAttributeIds) {
+        if (myAttributeIds.containsKey(attId)) {
+          return myAttributeIds.get(attId);
+        }
 
-      int id = myNames.enumerate(attId);
-      myAttributeIds.put(attId, id);
+        int id = myNames.enumerate(attId);
+        myAttributeIds.put(attId, id);
 
-      return id;
+        return id;
+      }
     }
 
     private static RuntimeException handleError(final Throwable e) {
@@ -504,7 +602,7 @@ public class FSRecords implements Forceable {
 
   public static long getCreationTimestamp() {
     try {
-      r.lock();
+      readLock("getCreationTimestamp");
       return DbConnection.getTimestamp();
     }
     finally {
@@ -530,7 +628,7 @@ public class FSRecords implements Forceable {
 
   public static int createRecord() {
     try {
-      w.lock();
+      writeLock("createRecord");
       DbConnection.markDirty();
 
       final int free = DbConnection.getFreeRecord();
@@ -557,7 +655,7 @@ public class FSRecords implements Forceable {
 
   public static void deleteRecordRecursively(int id) {
     try {
-      w.lock();
+      writeLock("deleteRecordRecursively");
       incModCount(id);
       doDeleteRecursively(id);
     }
@@ -579,7 +677,7 @@ public class FSRecords implements Forceable {
 
   private static void deleteRecord(final int id) {
     try {
-      w.lock();
+      writeLock("deleteRecord");
       DbConnection.markDirty();
       deleteContentAndAttributes(id);
 
@@ -621,7 +719,7 @@ public class FSRecords implements Forceable {
   public static int[] listRoots() throws IOException {
     try {
       try {
-        r.lock();
+        readLock("listRoots");
         final DataInputStream input = readAttribute(1, CHILDREN_ATT);
         if (input == null) return ArrayUtil.EMPTY_INT_ARRAY;
 
@@ -660,7 +758,7 @@ public class FSRecords implements Forceable {
   public static int findRootRecord(String rootUrl) throws IOException {
     try {
       try {
-        w.lock();
+        writeLock("findRootRecord");
         DbConnection.markDirty();
         final int root = getNames().enumerate(rootUrl);
 
@@ -719,7 +817,7 @@ public class FSRecords implements Forceable {
   public static void deleteRootRecord(int id) throws IOException {
     try {
       try {
-        w.lock();
+        writeLock("deleteRootRecord");
         DbConnection.markDirty();
         final DataInputStream input = readAttribute(1, CHILDREN_ATT);
         assert input != null;
@@ -769,7 +867,7 @@ public class FSRecords implements Forceable {
 
   public static int[] list(int id) {
     try {
-      r.lock();
+      readLock("list");
       try {
         final DataInputStream input = readAttribute(id, CHILDREN_ATT);
         if (input == null) return ArrayUtil.EMPTY_INT_ARRAY;
@@ -795,7 +893,7 @@ public class FSRecords implements Forceable {
 
   public static Pair<String[],int[]> listAll(int parentId) {
     try {
-      r.lock();
+      readLock("listAll");
       try {
         final DataInputStream input = readAttribute(parentId, CHILDREN_ATT);
         if (input == null) return Pair.create(ArrayUtil.EMPTY_STRING_ARRAY, ArrayUtil.EMPTY_INT_ARRAY);
@@ -823,7 +921,7 @@ public class FSRecords implements Forceable {
 
   public static boolean wereChildrenAccessed(int id) {
     try {
-      r.lock();
+      readLock("wereChildrenAccessed");
       try {
         return findAttributePage(id, CHILDREN_ATT, false) != 0;
       } finally {
@@ -837,7 +935,7 @@ public class FSRecords implements Forceable {
 
   public static void updateList(int id, @NotNull int[] children) {
     try {
-      w.lock();
+      writeLock("updateList");
       DbConnection.markDirty();
       final DataOutputStream record = writeAttribute(id, CHILDREN_ATT, false);
       DataInputOutputUtil.writeINT(record, children.length);
@@ -884,7 +982,7 @@ public class FSRecords implements Forceable {
 
   public static int getModCount() {
     try {
-      r.lock();
+      readLock("getModCount");
       return getRecords().getInt(HEADER_GLOBAL_MOD_COUNT_OFFSET);
     }
     finally {
@@ -894,7 +992,7 @@ public class FSRecords implements Forceable {
 
   public static int getParent(int id) {
     try {
-      r.lock();
+      readLock("getParent");
       try {
         final int parentId = getRecordInt(id, PARENT_OFFSET);
         if (parentId == id) {
@@ -920,7 +1018,7 @@ public class FSRecords implements Forceable {
     }
 
     try {
-      w.lock();
+      writeLock("setParent");
       incModCount(id);
       putRecordInt(id, PARENT_OFFSET, parent);
     }
@@ -934,7 +1032,7 @@ public class FSRecords implements Forceable {
 
   public static String getName(int id) {
     try {
-      r.lock();
+      readLock("getName");
       try {
         final int nameId = getRecordInt(id, NAME_OFFSET);
         return nameId != 0 ? getNames().valueOf(nameId) : "";
@@ -950,7 +1048,7 @@ public class FSRecords implements Forceable {
 
   public static void setName(int id, String name) {
     try {
-      w.lock();
+      writeLock("setName");
       incModCount(id);
       putRecordInt(id, NAME_OFFSET, getNames().enumerate(name));
     }
@@ -964,7 +1062,7 @@ public class FSRecords implements Forceable {
 
   public static int getFlags(int id) {
     try {
-      r.lock();
+      readLock("getFlags");
       return getRecordInt(id, FLAGS_OFFSET);
     }
     finally {
@@ -974,7 +1072,7 @@ public class FSRecords implements Forceable {
 
   public static void setFlags(int id, int flags, final boolean markAsChange) {
     try {
-      w.lock();
+      writeLock("setFlags");
       if (markAsChange) {
         incModCount(id);
       }
@@ -990,7 +1088,7 @@ public class FSRecords implements Forceable {
 
   public static long getLength(int id) {
     try {
-      r.lock();
+      readLock("getLength");
       return getRecords().getLong(getOffset(id, LENGTH_OFFSET));
     }
     finally {
@@ -1000,7 +1098,7 @@ public class FSRecords implements Forceable {
 
   public static void setLength(int id, long len) {
     try {
-      w.lock();
+      writeLock("setLength");
       incModCount(id);
       getRecords().putLong(getOffset(id, LENGTH_OFFSET), len);
     }
@@ -1014,7 +1112,7 @@ public class FSRecords implements Forceable {
 
   public static long getTimestamp(int id) {
     try {
-      r.lock();
+      readLock("getTimestamp");
       return getRecords().getLong(getOffset(id, TIMESTAMP_OFFSET));
     }
     finally {
@@ -1024,7 +1122,7 @@ public class FSRecords implements Forceable {
 
   public static void setTimestamp(int id, long value) {
     try {
-      w.lock();
+      writeLock("setTimestamp");
       incModCount(id);
       getRecords().putLong(getOffset(id, TIMESTAMP_OFFSET), value);
     }
@@ -1038,7 +1136,7 @@ public class FSRecords implements Forceable {
 
   public static int getModCount(int id) {
     try {
-      r.lock();
+      readLock("getModCount");
       return getRecordInt(id, MOD_COUNT_OFFSET);
     }
     finally {
@@ -1083,7 +1181,7 @@ public class FSRecords implements Forceable {
     try {
       int page;
       try {
-        r.lock();
+        readLock("readContent");
         page = findContentPage(fileId, false);
         if (page == 0) return null;
       }
@@ -1110,9 +1208,9 @@ public class FSRecords implements Forceable {
   @Nullable
   static DataInputStream readAttributeWithLock(int fileId, String attId) {
     try {
-      synchronized (attId) {
+      synchronized (getAttributeLock(fileId, attId)) {
         try {
-          r.lock();
+          readLock("readAttributeWithLock");
           return readAttribute(fileId, attId);
         }
         finally {
@@ -1201,7 +1299,7 @@ public class FSRecords implements Forceable {
 
   public static int acquireFileContent(int fileId) {
     try {
-      w.lock();
+      writeLock("acquireFileContent");
       int record = getContentRecordId(fileId);
       if (record > 0) getContentStorage().acquireRecord(record);
       return record;
@@ -1225,7 +1323,7 @@ public class FSRecords implements Forceable {
 
   public static int getContentId(int fileId) {
     try {
-      r.lock();
+      readLock("getContentId");
       try {
         return getContentRecordId(fileId);
       }
@@ -1249,10 +1347,17 @@ public class FSRecords implements Forceable {
 
   public static int storeUnlinkedContent(byte[] bytes) {
     try {
-      int recordId = getContentStorage().acquireNewRecord();
+      int hash = Arrays.hashCode(bytes);
+      int recordId = acquireUnlinkedContent(hash, bytes);
+      if (recordId > 0) return recordId;
+
+      recordId = getContentStorage().acquireNewRecord();
       AbstractStorage.StorageDataOutput output = getContentStorage().writeStream(recordId, true);
       output.write(bytes);
       output.close();
+      synchronized (ourUnlinkedContents) {
+        ourUnlinkedContents.put(hash, recordId);
+      }
       return recordId;
     }
     catch (IOException e) {
@@ -1260,6 +1365,29 @@ public class FSRecords implements Forceable {
     }
   }
 
+  // returns the acquired record of the same content stored before, or 0 if there is no such record any more
+  private static int acquireUnlinkedContent(int hash, byte[] bytes) throws IOException {
+    Integer recordId;
+    synchronized (ourUnlinkedContents) {
+      recordId = ourUnlinkedContents.get(hash);
+    }
+    if (recordId == null || !getContentStorage().acquireRecordIfAlive(recordId)) return 0;
+
+    // the record may have been released and reused for another content meanwhile
+    DataInputStream stream = getContentStorage().readStream(recordId);
+    boolean same;
+    try {
+      same = Arrays.equals(bytes, FileUtil.loadBytes(stream));
+    }
+    finally {
+      stream.close();
+    }
+    if (same) return recordId;
+
+    getContentStorage().releaseRecord(recordId);
+    return 0;
+  }
+
   @NotNull
   public static DataOutputStream writeAttribute(final int fileId, final String attId, boolean fixedSize) {
     return new AttributeOutputStream(fileId, attId, fixedSize);
@@ -1291,7 +1419,7 @@ public class FSRecords implements Forceable {
 
     @Override
     protected void doFlush() throws IOException {
-      synchronized (myAttributeId) {
+      synchronized (getAttributeLock(myFileId, myAttributeId)) {
         super.doFlush();
       }
     }
@@ -1337,7 +1465,7 @@ public class FSRecords implements Forceable {
     public void writeBytes(ByteSequence bytes, int fileId) throws IOException {
       final int page;
       try {
-        w.lock();
+        writeLock("writeBytes");
         incModCount(fileId);
         page = findOrCreatePage();
       }
@@ -1355,9 +1483,10 @@ public class FSRecords implements Forceable {
 
   public static void dispose() {
     try {
-      w.lock();
+      writeLock("dispose");
       DbConnection.force();
       DbConnection.closeFiles();
+      LOG.info(getLockContentionStatistics());
     }
     catch (Throwable e) {
       throw DbConnection.handleError(e);
@@ -1376,7 +1505,7 @@ public class FSRecords implements Forceable {
     long t = System.currentTimeMillis();
 
     try {
-      r.lock();
+      readLock("checkSanity");
       final int fileLength = (int)getRecords().length();
       assert fileLength % RECORD_SIZE == 0;
       int recordCount = fileLength / RECORD_SIZE;
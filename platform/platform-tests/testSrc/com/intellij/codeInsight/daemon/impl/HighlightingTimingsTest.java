@@ -0,0 +1,51 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.daemon.impl;
+
+import junit.framework.TestCase;
+
+public class HighlightingTimingsTest extends TestCase {
+  public void testBucketsCoverAllDurations() {
+    int prev = -1;
+    for (long micros = 0; micros < 100000; micros++) {
+      int bucket = HighlightingTimings.Histogram.getBucket(micros);
+      assertTrue(bucket == prev || bucket == prev + 1);
+      long start = HighlightingTimings.Histogram.getBucketStart(bucket);
+      assertTrue(start <= micros);
+      assertTrue(micros - start <= micros / 8);
+      prev = bucket;
+    }
+  }
+
+  public void testPercentiles() {
+    HighlightingTimings.Histogram histogram = new HighlightingTimings.Histogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.add(i * 1000);
+    }
+    assertEquals(50, histogram.getPercentile(50) / 1000, 50 / 8);
+    assertEquals(90, histogram.getPercentile(90) / 1000, 90 / 8);
+    assertEquals(100000, histogram.getPercentile(100), 100000 / 8);
+  }
+
+  public void testReport() {
+    HighlightingTimings timings = new HighlightingTimings();
+    timings.add("pass", "Slow", 5000000);
+    timings.add("pass", "Fast", 1000000);
+    timings.add("pass", "Fast", 1000000);
+    String report = timings.getReport();
+    assertTrue(report, report.indexOf("pass: Slow") < report.indexOf("pass: Fast"));
+  }
+}
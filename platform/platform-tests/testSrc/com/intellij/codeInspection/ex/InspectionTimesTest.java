@@ -0,0 +1,47 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInspection.ex;
+
+import com.intellij.openapi.util.Pair;
+import junit.framework.TestCase;
+
+import java.util.List;
+
+public class InspectionTimesTest extends TestCase {
+  public void testToolTimesAreSummedAndSorted() {
+    InspectionTimes times = new InspectionTimes();
+    times.addToolTime("a", 10);
+    times.addToolTime("b", 15);
+    times.addToolTime("a", 10);
+
+    List<Pair<String, Long>> tools = times.getToolTimes();
+    assertEquals(2, tools.size());
+    assertEquals(Pair.create("a", 20L), tools.get(0));
+    assertEquals(Pair.create("b", 15L), tools.get(1));
+  }
+
+  public void testOnlySlowestFilesAreKept() {
+    InspectionTimes times = new InspectionTimes();
+    for (int i = 0; i < 100; i++) {
+      times.addFileTime("file" + i, i);
+    }
+
+    List<Pair<String, Long>> files = times.getSlowestFiles();
+    assertEquals(20, files.size());
+    assertEquals(Pair.create("file99", 99L), files.get(0));
+    assertEquals(Pair.create("file80", 80L), files.get(19));
+  }
+}
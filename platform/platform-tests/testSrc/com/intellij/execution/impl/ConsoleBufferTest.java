@@ -1,7 +1,10 @@
 package com.intellij.execution.impl;
 
+import com.intellij.execution.filters.HyperlinkInfo;
 import com.intellij.execution.ui.ConsoleViewContentType;
 import com.intellij.openapi.editor.markup.TextAttributes;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Pair;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Before;
 import org.junit.Test;
@@ -10,6 +13,7 @@ import java.util.*;
 
 import static com.intellij.execution.impl.ConsoleViewImpl.TokenInfo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 /**
  * @author Denis Zhdanov
@@ -113,6 +117,57 @@ public class ConsoleBufferTest {
     );
   }
   
+  @Test
+  public void cutHeadAtLineBreak() throws Exception {
+    myBufferSize = 100;
+    init();
+    myBuffer.print("ab\n", NORMAL_OUTPUT, null);
+    myBuffer.print("cd\nef", BORING_OUTPUT, null);
+
+    Pair<String, List<TokenInfo>> head = myBuffer.cutHead(7);
+    assertEquals("ab\ncd\n", head.first);
+    checkTokens(head.second, new TokenInfo(NORMAL_OUTPUT, 0, 3), new TokenInfo(BORING_OUTPUT, 3, 6));
+    assertEquals(2, myBuffer.getLength());
+    checkState(s("ef"), new TokenInfo(BORING_OUTPUT, 0, 2));
+
+    head = myBuffer.cutHead(7);
+    assertEquals("ef", head.first);
+    checkTokens(head.second, new TokenInfo(BORING_OUTPUT, 0, 2));
+    assertEquals(0, myBuffer.getLength());
+  }
+
+  @Test
+  public void cutHeadKeepsCarriageReturnForNextChunk() throws Exception {
+    myBufferSize = 100;
+    init();
+    myBuffer.print("abcd\refgh", NORMAL_OUTPUT, null);
+
+    Pair<String, List<TokenInfo>> head = myBuffer.cutHead(7);
+    assertEquals("abcd", head.first);
+    checkTokens(head.second, new TokenInfo(NORMAL_OUTPUT, 0, 4));
+    checkState(s("\re", "fgh"), new TokenInfo(NORMAL_OUTPUT, 0, 5));
+  }
+
+  @Test
+  public void cutHeadDoesNotSplitHyperlink() throws Exception {
+    myBufferSize = 100;
+    init();
+    HyperlinkInfo info = new HyperlinkInfo() {
+      @Override
+      public void navigate(Project project) {
+      }
+    };
+    myBuffer.print("abc", NORMAL_OUTPUT, null);
+    myBuffer.print("defg", NORMAL_OUTPUT, info);
+    myBuffer.print("hi", NORMAL_OUTPUT, null);
+
+    Pair<String, List<TokenInfo>> head = myBuffer.cutHead(5);
+    assertEquals("abcdefg", head.first);
+    checkTokens(head.second, new TokenInfo(NORMAL_OUTPUT, 0, 3), new TokenInfo(NORMAL_OUTPUT, 3, 7));
+    assertSame(info, head.second.get(1).getHyperlinkInfo());
+    checkState(s("hi"), new TokenInfo(NORMAL_OUTPUT, 0, 2));
+  }
+
   private static List<String> s(String ... strings) {
     return Arrays.asList(strings);
   }
@@ -126,19 +181,24 @@ public class ConsoleBufferTest {
       assertEquals(expected, actual.toString());
     }
 
-    List<TokenInfo> actualTokens = myBuffer.getDeferredTokens();
-    assertEquals(expectedTokens.length, actualTokens.size());
-    i = 0;
+    checkTokens(myBuffer.getDeferredTokens(), expectedTokens);
     Set<ConsoleViewContentType> contentTypes = new HashSet<ConsoleViewContentType>();
+    for (TokenInfo expected : expectedTokens) {
+      contentTypes.add(expected.contentType);
+    }
+    
+    assertEquals(contentTypes, myBuffer.getDeferredTokenTypes());
+  }
+
+  private static void checkTokens(@NotNull List<TokenInfo> actualTokens, @NotNull TokenInfo ... expectedTokens) {
+    assertEquals(expectedTokens.length, actualTokens.size());
+    int i = 0;
     for (TokenInfo actual : actualTokens) {
       TokenInfo expected = expectedTokens[i++];
       assertEquals(expected.contentType, actual.contentType);
       assertEquals(expected.startOffset, actual.startOffset);
       assertEquals(expected.endOffset, actual.endOffset);
-      contentTypes.add(expected.contentType);
     }
-    
-    assertEquals(contentTypes, myBuffer.getDeferredTokenTypes());
   }
   
   private void init() throws Exception {
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.execution.impl;
+
+import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import com.intellij.util.ui.UIUtil;
+
+public class ConsoleViewImplTest extends LightPlatformTestCase {
+  private static final int LINES = 10000;
+  private static final int THROUGHPUT_LINES = 200000;
+
+  public void testPrintingFromBackgroundThreadKeepsAllLines() throws Exception {
+    final ConsoleViewImpl console = new ConsoleViewImpl(getProject(), false);
+    console.getComponent();
+    try {
+      printFromBackgroundThread(console, LINES);
+
+      StringBuilder expected = new StringBuilder();
+      for (int i = 0; i < LINES; i++) {
+        expected.append(line(i));
+      }
+      assertEquals(expected.toString(), console.getEditor().getDocument().getText());
+    }
+    finally {
+      Disposer.dispose(console);
+    }
+  }
+
+  public void testPrintingThroughput() throws Exception {
+    final ConsoleViewImpl console = new ConsoleViewImpl(getProject(), false);
+    console.getComponent();
+    try {
+      PlatformTestUtil.startPerformanceTest("printing " + THROUGHPUT_LINES + " lines to console", 10000, new ThrowableRunnable() {
+        @Override
+        public void run() throws Throwable {
+          long start = System.currentTimeMillis();
+          printFromBackgroundThread(console, THROUGHPUT_LINES);
+          long elapsed = Math.max(1, System.currentTimeMillis() - start);
+          System.out.println(THROUGHPUT_LINES * 1000L / elapsed + " lines/sec");
+
+          assertTrue(console.getEditor().getDocument().getText().endsWith(line(THROUGHPUT_LINES - 1)));
+        }
+      }).setup(new ThrowableRunnable() {
+        @Override
+        public void run() throws Throwable {
+          console.clear();
+          while (console.getEditor().getDocument().getTextLength() > 0) {
+            UIUtil.dispatchAllInvocationEvents();
+            Thread.sleep(1);
+          }
+        }
+      }).assertTiming();
+    }
+    finally {
+      Disposer.dispose(console);
+    }
+  }
+
+  private static void printFromBackgroundThread(final ConsoleViewImpl console, final int lines) throws InterruptedException {
+    Thread printer = new Thread("console printer") {
+      @Override
+      public void run() {
+        for (int i = 0; i < lines; i++) {
+          console.print(line(i), ConsoleViewContentType.NORMAL_OUTPUT);
+        }
+      }
+    };
+    printer.start();
+    while (printer.isAlive() || console.hasDeferredOutput()) {
+      UIUtil.dispatchAllInvocationEvents();
+      Thread.sleep(1);
+    }
+  }
+
+  private static String line(int i) {
+    return "line " + i + " of the output of a process that prints a lot\n";
+  }
+}
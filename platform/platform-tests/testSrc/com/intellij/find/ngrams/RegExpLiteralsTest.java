@@ -0,0 +1,71 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class RegExpLiteralsTest extends TestCase {
+  public void testPlainText() {
+    assertLiterals("foo bar", "foo bar");
+  }
+
+  public void testMetaCharsSplitLiterals() {
+    assertLiterals("foo.*bar\\s+baz", "foo", "bar", "baz");
+    assertLiterals("^public [a-z]+ class$", "public ", " class");
+  }
+
+  public void testEscapedChars() {
+    assertLiterals("a\\.b\\(c\\)", "a.b(c)");
+    assertLiterals("get\\QValue()\\E;", "getValue();");
+    assertLiterals("\\x41bc\\u0041def\\p{Lu}ghi\\012jkl", "bc", "def", "ghi", "jkl");
+  }
+
+  public void testQuantifiers() {
+    assertLiterals("colou?r", "colo", "r");
+    assertLiterals("ab*c", "a", "c");
+    assertLiterals("ab+c", "ab", "bc");
+    assertLiterals("ab{0,2}c", "a", "c");
+    assertLiterals("ab{2}c", "ab", "bc");
+    assertLiterals("ab*?c", "a", "c");
+  }
+
+  public void testGroups() {
+    assertLiterals("foo(bar)baz", "foo", "bar", "baz");
+    assertLiterals("foo(?:bar)?baz", "foo", "baz");
+    assertLiterals("foo(bar|qux)baz", "foo", "baz");
+    assertLiterals("foo(?<name>bar)+", "foo", "bar");
+    assertLiterals("(?i)foo(?=bar)", "foo");
+    assertLiterals("[(|]foo[)]", "foo");
+  }
+
+  public void testNothingRequired() {
+    assertLiterals("foo|bar");
+    assertLiterals("(?x)foo bar");
+    assertLiterals("foo(");
+    assertLiterals(".*");
+  }
+
+  public void testTrigrams() {
+    assertTrue(RegExpLiterals.getRequiredTrigrams("a.b.c").isEmpty());
+    assertEquals(2, RegExpLiterals.getRequiredTrigrams("Tria.*grAm").size());
+  }
+
+  private static void assertLiterals(String regexp, String... expected) {
+    assertEquals(Arrays.asList(expected), RegExpLiterals.getRequiredLiterals(regexp));
+  }
+}
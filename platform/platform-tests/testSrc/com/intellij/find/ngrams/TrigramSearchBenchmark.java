@@ -0,0 +1,122 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.find.ngrams;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.TrigramBuilder;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntObjectHashMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Compares candidate file counts and latency of trigram filtered search with the linear scan Find in Path does without the index.
+ * Usage: TrigramSearchBenchmark &lt;root&gt; [plain:text | regexp:expression]...
+ */
+public class TrigramSearchBenchmark {
+  private static final List<String> DEFAULT_QUERIES = Arrays.asList(
+    "plain:trigram", "plain:ProfilingUtil.captureCPUSnapshot();", "plain:some text that most probably doesn't exist",
+    "regexp:getInstance\\(\\)\\.get\\w+", "regexp:class \\w+Index extends", "regexp:TODO.*fix(me)?");
+
+  public static void main(String[] args) throws IOException {
+    List<File> files = new ArrayList<File>();
+    List<String> texts = new ArrayList<String>();
+    collect(new File(args[0]), files, texts);
+
+    long start = System.nanoTime();
+    TIntObjectHashMap<TIntArrayList> index = new TIntObjectHashMap<TIntArrayList>();
+    for (int i = 0; i < texts.size(); i++) {
+      for (int trigram : TrigramBuilder.buildTrigram(texts.get(i)).toArray()) {
+        TIntArrayList postings = index.get(trigram);
+        if (postings == null) index.put(trigram, postings = new TIntArrayList());
+        postings.add(i);
+      }
+    }
+    System.out.println("Indexed " + files.size() + " files, " + index.size() + " trigrams in " + (System.nanoTime() - start) / 1000000 + " ms.");
+
+    List<String> queries = args.length > 1 ? Arrays.asList(args).subList(1, args.length) : DEFAULT_QUERIES;
+    for (String query : queries) {
+      boolean regexp = query.startsWith("regexp:");
+      String text = query.substring(query.indexOf(':') + 1);
+      Pattern pattern = Pattern.compile(regexp ? text : Pattern.quote(text), Pattern.CASE_INSENSITIVE);
+
+      start = System.nanoTime();
+      int scanMatches = 0;
+      for (String fileText : texts) {
+        if (pattern.matcher(fileText).find()) scanMatches++;
+      }
+      long scanTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      TIntHashSet trigrams = regexp ? RegExpLiterals.getRequiredTrigrams(text) : TrigramBuilder.buildTrigram(text);
+      int[] candidates = lookup(index, trigrams, texts.size());
+      int indexMatches = 0;
+      for (int candidate : candidates) {
+        if (pattern.matcher(texts.get(candidate)).find()) indexMatches++;
+      }
+      long indexTime = System.nanoTime() - start;
+
+      System.out.println(query + ": scan " + texts.size() + " files in " + scanTime / 1000000 + " ms, trigrams " + trigrams.size() +
+                         " -> " + candidates.length + " candidates in " + indexTime / 1000000 + " ms, matches " + indexMatches +
+                         (indexMatches != scanMatches ? " (MISSED " + (scanMatches - indexMatches) + ")" : ""));
+    }
+  }
+
+  private static int[] lookup(TIntObjectHashMap<TIntArrayList> index, TIntHashSet trigrams, int filesCount) {
+    if (trigrams.isEmpty()) {
+      int[] all = new int[filesCount];
+      for (int i = 0; i < filesCount; i++) all[i] = i;
+      return all;
+    }
+    TIntHashSet result = null;
+    for (int trigram : trigrams.toArray()) {
+      TIntArrayList postings = index.get(trigram);
+      if (postings == null) return new int[0];
+      if (result == null) {
+        result = new TIntHashSet(postings.toNativeArray());
+      }
+      else {
+        result.retainAll(postings.toNativeArray());
+      }
+    }
+    return result.toArray();
+  }
+
+  private static void collect(File root, List<File> files, List<String> texts) throws IOException {
+    if (root.isDirectory()) {
+      if (root.getName().startsWith(".")) return;
+      File[] children = root.listFiles();
+      if (children != null) {
+        for (File child : children) {
+          collect(child, files, texts);
+        }
+      }
+    }
+    else if (root.length() < 1024 * 1024) {
+      String text = FileUtil.loadFile(root);
+      if (text.indexOf('\0') < 0) { // skip binaries
+        files.add(root);
+        texts.add(text);
+      }
+    }
+  }
+}
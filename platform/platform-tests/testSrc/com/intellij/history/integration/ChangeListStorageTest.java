@@ -0,0 +1,128 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.history.integration;
+
+import com.intellij.history.core.ChangeListStorageImpl;
+import com.intellij.history.core.ChangeSetHolder;
+import com.intellij.history.core.changes.ChangeSet;
+import com.intellij.openapi.util.Clock;
+import com.intellij.util.Consumer;
+import gnu.trove.TLongHashSet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ChangeListStorageTest extends IntegrationTestCase {
+  private static final long DAY = 24 * 60 * 60 * 1000L;
+
+  private File myDir;
+  private ChangeListStorageImpl myStorage;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    myDir = new File(myRoot.getPath(), "changes");
+    myStorage = new ChangeListStorageImpl(myDir);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myStorage.close();
+    super.tearDown();
+  }
+
+  public void testReadingAcrossSegments() throws Exception {
+    for (int day = 0; day < 3; day++) {
+      Clock.setTime(day * DAY);
+      writeSet();
+      writeSet();
+    }
+    assertEquals(3, countSegments());
+    assertIds(6, 5, 4, 3, 2, 1);
+
+    myStorage.close();
+    myStorage = new ChangeListStorageImpl(myDir);
+    assertIds(6, 5, 4, 3, 2, 1);
+    assertEquals(7, myStorage.nextId());
+  }
+
+  public void testIdsStayValidWhenSegmentsAreAdded() throws Exception {
+    Clock.setTime(0);
+    writeSet();
+    writeSet();
+    ChangeSetHolder last = myStorage.readPrevious(-1, new TLongHashSet());
+    assertEquals(2, last.changeSet.getId());
+
+    for (int day = 1; day < 100; day++) {
+      Clock.setTime(day * DAY);
+      writeSet();
+    }
+    assertEquals(100, countSegments());
+
+    ChangeSetHolder prev = myStorage.readPrevious(last.id, new TLongHashSet());
+    assertEquals(1, prev.changeSet.getId());
+  }
+
+  public void testPurgingDropsObsoleteSegments() throws Exception {
+    for (int day = 0; day < 4; day++) {
+      Clock.setTime(day * DAY);
+      writeSet();
+      Clock.setTime(day * DAY + 1000);
+      writeSet();
+    }
+    assertEquals(4, countSegments());
+
+    final List<Long> purged = new ArrayList<Long>();
+    // a day of activity counts as 1000 ms plus 1 ms of the gap to the next day
+    myStorage.purge(2003, 10000, new Consumer<ChangeSet>() {
+      public void consume(ChangeSet changeSet) {
+        purged.add(changeSet.getId());
+      }
+    });
+
+    assertEquals(3, purged.size());
+    assertIds(8, 7, 6, 5, 4);
+    assertEquals(3, countSegments());
+  }
+
+  private void writeSet() {
+    myStorage.writeNextSet(new ChangeSet(myStorage.nextId(), Clock.getTime()));
+  }
+
+  private void assertIds(long... expected) {
+    TLongHashSet recursionGuard = new TLongHashSet();
+    List<Long> actual = new ArrayList<Long>();
+    ChangeSetHolder each = myStorage.readPrevious(-1, recursionGuard);
+    while (each != null) {
+      actual.add(each.changeSet.getId());
+      each = myStorage.readPrevious(each.id, recursionGuard);
+    }
+    List<Long> expectedList = new ArrayList<Long>();
+    for (long id : expected) {
+      expectedList.add(id);
+    }
+    assertEquals(expectedList, actual);
+  }
+
+  private int countSegments() {
+    int result = 0;
+    for (String each : myDir.list()) {
+      if (each.endsWith(".storageData")) result++;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.ex.util;
+
+import com.intellij.lang.Language;
+import com.intellij.lexer.Lexer;
+import com.intellij.lexer.LexerBase;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.editor.highlighter.HighlighterClient;
+import com.intellij.openapi.editor.impl.DocumentImpl;
+import com.intellij.openapi.fileTypes.SyntaxHighlighterBase;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.testFramework.LightPlatformTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Random;
+
+public class LexerEditorHighlighterTest extends LightPlatformTestCase {
+  private static final IElementType LPAREN = new IElementType("LPAREN", Language.ANY);
+  private static final IElementType RPAREN = new IElementType("RPAREN", Language.ANY);
+  private static final IElementType WORD = new IElementType("WORD", Language.ANY);
+  private static final IElementType SPACE = new IElementType("SPACE", Language.ANY);
+
+  public void testCheckpointsReplace() {
+    LexerEditorHighlighter.Checkpoints checkpoints = new LexerEditorHighlighter.Checkpoints();
+    for (int i = 0; i < 10; i++) {
+      checkpoints.add(i * 10, i + 1);
+    }
+    LexerEditorHighlighter.Checkpoints inserted = new LexerEditorHighlighter.Checkpoints();
+    inserted.add(25, 100);
+    inserted.add(60, 200); // beyond the replaced range, must be dropped
+
+    checkpoints.replace(20, 50, 5, inserted);
+
+    assertEquals(8, checkpoints.size());
+    assertTrue(checkpoints.hasState(10, 2));
+    assertTrue(checkpoints.hasState(25, 100));
+    assertTrue(checkpoints.hasState(55, 6));
+    assertTrue(checkpoints.hasState(95, 10));
+    assertFalse(checkpoints.hasState(20, 3));
+    assertEquals(-1, checkpoints.findLastNotAfter(-1));
+    assertEquals(2, checkpoints.findLastNotAfter(54));
+  }
+
+  public void testIncrementalRelexingMatchesFullRelexing() {
+    Random random = new Random(42);
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      text.append("(a b)\n");
+    }
+    final Document document = new DocumentImpl("(" + text + ")");
+    LexerEditorHighlighter highlighter = createHighlighter(document, new ParenLexer());
+
+    for (int i = 0; i < 500; i++) {
+      final int offset = random.nextInt(document.getTextLength() + 1);
+      final int end = Math.min(document.getTextLength(), offset + random.nextInt(3));
+      final String s = random.nextBoolean() ? String.valueOf("( )ab\n".charAt(random.nextInt(6))) : "";
+      ApplicationManager.getApplication().runWriteAction(new Runnable() {
+        @Override
+        public void run() {
+          document.replaceString(offset, end, s);
+        }
+      });
+
+      LexerEditorHighlighter expected = new LexerEditorHighlighter(new ParenHighlighter(new ParenLexer()), getScheme());
+      expected.setText(document.getCharsSequence());
+      assertSegmentsEqual(expected.getSegments(), highlighter.getSegments());
+    }
+  }
+
+  public void testTypingRelexesBoundedWindow() {
+    StringBuilder text = new StringBuilder("(");
+    for (int i = 0; i < 20000; i++) {
+      text.append("(a b c)\n");
+    }
+    text.append(")");
+    final Document document = new DocumentImpl(text);
+    ParenLexer lexer = new ParenLexer();
+    createHighlighter(document, lexer);
+
+    lexer.myTokenCount = 0;
+    for (int i = 0; i < 10; i++) {
+      final int offset = document.getTextLength() / 2 + i;
+      ApplicationManager.getApplication().runWriteAction(new Runnable() {
+        @Override
+        public void run() {
+          document.insertString(offset, "x");
+        }
+      });
+    }
+    assertTrue(String.valueOf(lexer.myTokenCount), lexer.myTokenCount < 10 * 4 * 64);
+  }
+
+  private static void assertSegmentsEqual(SegmentArrayWithData expected, SegmentArrayWithData actual) {
+    assertEquals(expected.getSegmentCount(), actual.getSegmentCount());
+    for (int i = 0; i < expected.getSegmentCount(); i++) {
+      assertEquals(expected.getSegmentStart(i), actual.getSegmentStart(i));
+      assertEquals(expected.getSegmentEnd(i), actual.getSegmentEnd(i));
+      assertEquals(expected.getSegmentData(i), actual.getSegmentData(i));
+    }
+  }
+
+  private static LexerEditorHighlighter createHighlighter(@NotNull final Document document, @NotNull Lexer lexer) {
+    LexerEditorHighlighter highlighter = new LexerEditorHighlighter(new ParenHighlighter(lexer), getScheme());
+    highlighter.setText(document.getCharsSequence());
+    highlighter.setEditor(new HighlighterClient() {
+      @Override
+      public Project getProject() {
+        return LightPlatformTestCase.getProject();
+      }
+
+      @Override
+      public void repaint(int start, int end) {
+      }
+
+      @Override
+      public Document getDocument() {
+        return document;
+      }
+    });
+    document.addDocumentListener(highlighter);
+    return highlighter;
+  }
+
+  private static EditorColorsScheme getScheme() {
+    return EditorColorsManager.getInstance().getGlobalScheme();
+  }
+
+  private static class ParenHighlighter extends SyntaxHighlighterBase {
+    private final Lexer myLexer;
+
+    private ParenHighlighter(Lexer lexer) {
+      myLexer = lexer;
+    }
+
+    @NotNull
+    @Override
+    public Lexer getHighlightingLexer() {
+      return myLexer;
+    }
+
+    @NotNull
+    @Override
+    public TextAttributesKey[] getTokenHighlights(IElementType tokenType) {
+      return EMPTY;
+    }
+  }
+
+  /**
+   * The state is the parenthesis nesting depth, so everything inside an unclosed parenthesis is lexed in a non-initial state.
+   */
+  private static class ParenLexer extends LexerBase {
+    private CharSequence myBuffer;
+    private int myEnd;
+    private int myTokenStart;
+    private int myTokenEnd;
+    private int myState;
+    private int myTokenState;
+    private int myTokenCount;
+
+    @Override
+    public void start(@NotNull CharSequence buffer, int startOffset, int endOffset, int initialState) {
+      myBuffer = buffer;
+      myEnd = endOffset;
+      myState = initialState;
+      myTokenEnd = startOffset;
+      advance();
+    }
+
+    @Override
+    public int getState() {
+      return myTokenState;
+    }
+
+    @Override
+    public IElementType getTokenType() {
+      if (myTokenStart >= myEnd) return null;
+      char c = myBuffer.charAt(myTokenStart);
+      if (c == '(') return LPAREN;
+      if (c == ')') return RPAREN;
+      return Character.isWhitespace(c) ? SPACE : WORD;
+    }
+
+    @Override
+    public int getTokenStart() {
+      return myTokenStart;
+    }
+
+    @Override
+    public int getTokenEnd() {
+      return myTokenEnd;
+    }
+
+    @Override
+    public void advance() {
+      myTokenStart = myTokenEnd;
+      myTokenState = myState;
+      if (myTokenStart >= myEnd) return;
+      myTokenCount++;
+      char c = myBuffer.charAt(myTokenStart);
+      myTokenEnd = myTokenStart + 1;
+      if (c == '(') {
+        myState++;
+      }
+      else if (c == ')') {
+        myState = Math.max(0, myState - 1);
+      }
+      else {
+        boolean space = Character.isWhitespace(c);
+        while (myTokenEnd < myEnd && myBuffer.charAt(myTokenEnd) != '(' && myBuffer.charAt(myTokenEnd) != ')' &&
+               Character.isWhitespace(myBuffer.charAt(myTokenEnd)) == space) {
+          myTokenEnd++;
+        }
+      }
+    }
+
+    @NotNull
+    @Override
+    public CharSequence getBufferSequence() {
+      return myBuffer;
+    }
+
+    @Override
+    public int getBufferEnd() {
+      return myEnd;
+    }
+  }
+}
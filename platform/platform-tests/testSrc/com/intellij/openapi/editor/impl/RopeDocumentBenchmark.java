@@ -0,0 +1,116 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.impl;
+
+import com.intellij.mock.MockApplication;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.Disposer;
+
+import java.util.Random;
+
+/**
+ * Compares documents keeping their text in a flat array and in a {@link TextRope}: load time and retained heap, random single line
+ * and multi-line edits and offset to line conversions on generated files of the given sizes.
+ * Usage: RopeDocumentBenchmark [file size in MB]...; 500 MB files need -Xmx4g or more.
+ */
+public class RopeDocumentBenchmark {
+  private static final int EDITS = 2000;
+  private static final int LOOKUPS = 1000000;
+
+  public static void main(String[] args) {
+    Disposable disposable = Disposer.newDisposable();
+    ApplicationManager.setApplication(new MockApplication(disposable), disposable);
+    DocumentImpl.CHECK_DOCUMENT_CONSISTENCY = false;
+    try {
+      String[] sizes = args.length > 0 ? args : new String[]{"10", "50", "200", "500"};
+      for (String size : sizes) {
+        String text = generateText(Integer.parseInt(size) * 1024 * 1024);
+        System.out.println(size + " MB, " + text.length() + " chars:");
+        run("  array", text, false);
+        run("  rope ", text, true);
+      }
+    }
+    finally {
+      Disposer.dispose(disposable);
+    }
+  }
+
+  private static void run(String name, String text, boolean useRope) {
+    long before = usedMemory();
+    long start = System.nanoTime();
+    DocumentImpl document = new DocumentImpl(text, true, useRope);
+    long loadTime = System.nanoTime() - start;
+    long memory = usedMemory() - before;
+
+    Random random = new Random(1);
+    start = System.nanoTime();
+    for (int i = 0; i < EDITS; i++) {
+      int offset = random.nextInt(document.getTextLength());
+      switch (i % 4) {
+        case 0:
+          document.insertString(offset, "x");
+          break;
+        case 1:
+          document.deleteString(offset, offset + 1);
+          break;
+        case 2:
+          document.insertString(offset, "line\n");
+          break;
+        default:
+          int line = document.getLineNumber(offset);
+          if (line + 1 < document.getLineCount()) {
+            document.deleteString(document.getLineStartOffset(line), document.getLineStartOffset(line + 1));
+          }
+      }
+    }
+    long editTime = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    long checksum = 0;
+    for (int i = 0; i < LOOKUPS; i++) {
+      int line = document.getLineNumber(random.nextInt(document.getTextLength()));
+      checksum += document.getLineStartOffset(line);
+    }
+    long lookupTime = System.nanoTime() - start;
+
+    System.out.println(name + ": load " + loadTime / 1000000 + " ms, " + memory / 1024 / 1024 + " MB retained; " + EDITS + " edits " +
+                       editTime / 1000000 + " ms; " + LOOKUPS + " offset to line lookups " + lookupTime / 1000000 + " ms (" +
+                       checksum % 10 + ")");
+  }
+
+  private static String generateText(int length) {
+    Random random = new Random(length);
+    StringBuilder result = new StringBuilder(length);
+    while (result.length() < length) {
+      int lineLength = 20 + random.nextInt(100);
+      for (int i = 0; i < lineLength; i++) {
+        result.append((char)('a' + random.nextInt(26)));
+      }
+      result.append('\n');
+    }
+    result.setLength(length);
+    return result.toString();
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
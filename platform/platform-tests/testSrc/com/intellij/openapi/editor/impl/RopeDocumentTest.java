@@ -0,0 +1,163 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.impl;
+
+import com.intellij.mock.MockApplication;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.ex.LineIterator;
+import com.intellij.testFramework.UsefulTestCase;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class RopeDocumentTest extends UsefulTestCase {
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    ApplicationManager.setApplication(new MockApplication(getTestRootDisposable()), getTestRootDisposable());
+  }
+
+  public void testLinesOfEmptyDocument() {
+    DocumentImpl document = new DocumentImpl("", true, true);
+    assertEquals(0, document.getLineCount());
+    assertEquals(0, document.getLineNumber(0));
+    assertEquals(0, document.getLineStartOffset(0));
+    assertEquals(0, document.getLineEndOffset(0));
+
+    document.insertString(0, "a\n");
+    assertSameLines(new DocumentImpl("a\n", true, false), document);
+  }
+
+  public void testRandomChangesKeepLinesOfArrayDocument() {
+    Random random = new Random(7);
+    String text = generateText(random, 30000);
+    DocumentImpl arrayDocument = new DocumentImpl(text, true, false);
+    DocumentImpl ropeDocument = new DocumentImpl(text, true, true);
+    assertSameLines(arrayDocument, ropeDocument);
+
+    for (int i = 0; i < 500; i++) {
+      int start = random.nextInt(arrayDocument.getTextLength() + 1);
+      int end = Math.min(arrayDocument.getTextLength(), start + random.nextInt(random.nextInt(10) == 0 ? 3000 : 30));
+      String newText = random.nextBoolean() ? "" : generateText(random, random.nextInt(random.nextInt(10) == 0 ? 3000 : 30));
+      switch (random.nextInt(3)) {
+        case 0:
+          arrayDocument.insertString(start, newText);
+          ropeDocument.insertString(start, newText);
+          break;
+        case 1:
+          arrayDocument.deleteString(start, end);
+          ropeDocument.deleteString(start, end);
+          break;
+        default:
+          arrayDocument.replaceString(start, end, newText);
+          ropeDocument.replaceString(start, end, newText);
+      }
+      if (i % 50 == 0) {
+        assertSameLines(arrayDocument, ropeDocument);
+      }
+    }
+    assertSameLines(arrayDocument, ropeDocument);
+  }
+
+  public void testModifiedLines() {
+    DocumentImpl document = new DocumentImpl("0\n1\n2\n3\n4\n5\n6", true, true);
+    LineSet lineSet = document.getLineSet();
+    document.insertString(document.getLineStartOffset(1), "x");
+    document.insertString(document.getLineStartOffset(4), "y\nz\n");
+    assertModifiedLines(lineSet, 1, 4, 5, 6);
+
+    document.deleteString(document.getLineStartOffset(2), document.getLineStartOffset(4));
+    assertModifiedLines(lineSet, 1, 2, 3, 4);
+
+    document.clearLineModificationFlagsExcept(3);
+    assertModifiedLines(lineSet, 3);
+    document.replaceString(0, document.getTextLength(), "a\nb");
+    assertModifiedLines(lineSet);
+  }
+
+  public void testSwitchesToLineSetWhenSlashRIsAccepted() {
+    DocumentImpl arrayDocument = new DocumentImpl("a\nb", true, false);
+    DocumentImpl ropeDocument = new DocumentImpl("a\nb", true, true);
+    for (DocumentImpl document : new DocumentImpl[]{arrayDocument, ropeDocument}) {
+      document.setAcceptSlashR(true);
+      document.insertString(3, "\r\nc");
+    }
+    assertEquals(3, ropeDocument.getLineCount());
+    assertEquals(2, ropeDocument.getLineSeparatorLength(1));
+    assertSameLines(arrayDocument, ropeDocument);
+  }
+
+  public void testBulkMergeReadsRopeTextWithoutCopy() {
+    String text = generateText(new Random(11), 20000);
+    DocumentImpl arrayDocument = new DocumentImpl(text, true, false);
+    DocumentImpl ropeDocument = new DocumentImpl(text, true, true);
+    List<TextChangeImpl> changes = Arrays.asList(new TextChangeImpl("x", 0, 5), new TextChangeImpl("", 100, 1000),
+                                                 new TextChangeImpl("yy\nzz", 15000, 15000), new TextChangeImpl("", 19990, 20000));
+    for (DocumentImpl document : new DocumentImpl[]{arrayDocument, ropeDocument}) {
+      CharSequence merged = BulkChangesMerger.INSTANCE.mergeToCharSequence(document.getCharsSequence(), document.getTextLength(), changes);
+      document.replaceString(0, document.getTextLength(), merged);
+    }
+    assertEquals(BulkChangesMerger.INSTANCE.mergeToCharSequence(text.toCharArray(), text.length(), changes).toString(), ropeDocument.getText());
+    assertSameLines(arrayDocument, ropeDocument);
+  }
+
+  private static void assertModifiedLines(LineSet lineSet, int... lines) {
+    int next = 0;
+    for (int line = 0; line < lineSet.getLineCount(); line++) {
+      boolean expected = next < lines.length && lines[next] == line;
+      assertEquals("line " + line, expected, lineSet.isModified(line));
+      if (expected) next++;
+    }
+    assertEquals(lines.length, next);
+  }
+
+  private static void assertSameLines(DocumentImpl expected, DocumentImpl actual) {
+    assertEquals(expected.getText(), actual.getText());
+    assertEquals(expected.getText(), actual.getCharsSequence().toString());
+    assertEquals(expected.getLineCount(), actual.getLineCount());
+    for (int line = 0; line < expected.getLineCount(); line++) {
+      assertEquals(expected.getLineStartOffset(line), actual.getLineStartOffset(line));
+      assertEquals(expected.getLineEndOffset(line), actual.getLineEndOffset(line));
+      assertEquals(expected.getLineSeparatorLength(line), actual.getLineSeparatorLength(line));
+    }
+    for (int offset = 0; offset <= expected.getTextLength(); offset += 7) {
+      assertEquals(expected.getLineNumber(offset), actual.getLineNumber(offset));
+    }
+    assertEquals(expected.getLineNumber(expected.getTextLength()), actual.getLineNumber(actual.getTextLength()));
+
+    LineIterator expectedIterator = expected.createLineIterator();
+    LineIterator actualIterator = actual.createLineIterator();
+    expectedIterator.start(expected.getTextLength() / 2);
+    actualIterator.start(actual.getTextLength() / 2);
+    while (!expectedIterator.atEnd()) {
+      assertFalse(actualIterator.atEnd());
+      assertEquals(expectedIterator.getStart(), actualIterator.getStart());
+      assertEquals(expectedIterator.getEnd(), actualIterator.getEnd());
+      expectedIterator.advance();
+      actualIterator.advance();
+    }
+    assertTrue(actualIterator.atEnd());
+  }
+
+  private static String generateText(Random random, int length) {
+    StringBuilder result = new StringBuilder(length);
+    while (result.length() < length) {
+      result.append(random.nextInt(10) == 0 ? '\n' : (char)('a' + random.nextInt(26)));
+    }
+    return result.toString();
+  }
+}
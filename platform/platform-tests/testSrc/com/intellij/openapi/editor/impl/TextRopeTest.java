@@ -0,0 +1,115 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.editor.impl;
+
+import com.intellij.openapi.util.text.StringUtil;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class TextRopeTest extends TestCase {
+  public void testSmallText() {
+    TextRope rope = TextRope.create("ab\ncd");
+    assertEquals("ab\ncd", rope.toString());
+    assertEquals(1, rope.getLineBreakCount());
+    assertEquals(2, rope.getLineBreakOffset(0));
+    assertEquals(0, rope.countLineBreaks(2));
+    assertEquals(1, rope.countLineBreaks(3));
+
+    rope = rope.insert(5, "\n").delete(0, 1).replace(1, 1, "xyz");
+    assertEquals("bxyz\ncd\n", rope.toString());
+    assertEquals(2, rope.getLineBreakCount());
+    assertEquals("cd", rope.subSequence(5, 7).toString());
+    assertSame(TextRope.EMPTY, TextRope.create(""));
+  }
+
+  public void testLargeTextIsSharedBetweenVersions() {
+    String text = generateText(new Random(1), 100000);
+    TextRope rope = TextRope.create(text);
+    TextRope changed = rope.insert(50000, "inserted\n");
+    assertEquals(text, rope.toString());
+    assertEquals(text.substring(0, 50000) + "inserted\n" + text.substring(50000), changed.toString());
+    assertEquals(rope.getLineBreakCount() + 1, changed.getLineBreakCount());
+    assertBalanced(rope);
+    assertBalanced(changed);
+  }
+
+  public void testRandomChanges() {
+    Random random = new Random(42);
+    StringBuilder expected = new StringBuilder(generateText(random, 20000));
+    TextRope rope = TextRope.create(expected);
+    for (int i = 0; i < 3000; i++) {
+      int start = random.nextInt(expected.length() + 1);
+      int end = Math.min(expected.length(), start + (random.nextInt(10) == 0 ? random.nextInt(10000) : random.nextInt(20)));
+      String text = random.nextInt(3) == 0 ? "" : generateText(random, random.nextInt(10) == 0 ? 5000 : 10);
+      rope = rope.replace(start, end, text);
+      expected.replace(start, end, text);
+      if (i % 100 == 0) {
+        assertContent(expected.toString(), rope);
+      }
+    }
+    assertContent(expected.toString(), rope);
+  }
+
+  public void testDeleteEverything() {
+    TextRope rope = TextRope.create(generateText(new Random(2), 50000));
+    while (rope.length() > 0) {
+      rope = rope.delete(0, Math.min(rope.length(), 777));
+      assertBalanced(rope);
+    }
+    assertEquals(0, rope.getLineBreakCount());
+    assertEquals(0, rope.countLineBreaks(0));
+  }
+
+  private static void assertContent(String expected, TextRope rope) {
+    assertEquals(expected, rope.toString());
+    assertEquals(expected.length(), rope.length());
+    assertEquals(StringUtil.countNewLines(expected), rope.getLineBreakCount());
+    assertBalanced(rope);
+
+    for (int i = 0; i < expected.length(); i++) {
+      assertEquals(expected.charAt(i), rope.charAt(i));
+    }
+    int lineBreaks = 0;
+    for (int offset = 0; offset <= expected.length(); offset++) {
+      assertEquals(lineBreaks, rope.countLineBreaks(offset));
+      if (offset < expected.length() && expected.charAt(offset) == '\n') {
+        assertEquals(offset, rope.getLineBreakOffset(lineBreaks));
+        lineBreaks++;
+      }
+    }
+
+    int start = expected.length() / 3;
+    int end = expected.length() * 2 / 3;
+    assertEquals(expected.substring(start, end), rope.subSequence(start, end).toString());
+    char[] chars = new char[end - start + 1];
+    rope.getChars(start, end, chars, 1);
+    assertEquals(expected.substring(start, end), new String(chars, 1, end - start));
+  }
+
+  private static void assertBalanced(TextRope rope) {
+    int leaves = Math.max(1, rope.length() / (TextRope.LEAF_SIZE / 4));
+    assertTrue("Depth " + rope.myDepth + " for " + rope.length() + " chars", rope.myDepth <= 1.45 * (Math.log(leaves) / Math.log(2)) + 2);
+  }
+
+  private static String generateText(Random random, int length) {
+    StringBuilder result = new StringBuilder(length);
+    while (result.length() < length) {
+      result.append(random.nextInt(8) == 0 ? '\n' : (char)('a' + random.nextInt(26)));
+    }
+    return result.toString();
+  }
+}
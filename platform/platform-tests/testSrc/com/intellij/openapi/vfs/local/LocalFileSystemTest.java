@@ -217,6 +217,24 @@ public class LocalFileSystemTest extends PlatformLangTestCase {
     assertEquals(11, virtualFile.getLength());
   }
 
+  public void testEqualUnlinkedContentsShareRecord() throws Exception {
+    PersistentFS fs = PersistentFS.getInstance();
+    int id1 = fs.storeUnlinkedContent("content".getBytes());
+    int id2 = fs.storeUnlinkedContent("content".getBytes());
+    int other = fs.storeUnlinkedContent("other content".getBytes());
+    assertEquals(id1, id2);
+    assertFalse(id1 == other);
+
+    fs.releaseContent(id1);
+    assertEquals("content", new String(fs.contentsToByteArray(id2)));
+    fs.releaseContent(id2);
+    fs.releaseContent(other);
+
+    int id3 = fs.storeUnlinkedContent("content".getBytes());
+    assertEquals("content", new String(fs.contentsToByteArray(id3)));
+    fs.releaseContent(id3);
+  }
+
   public void testHardLinks() throws Exception {
     if (!SystemInfo.isWindows && !SystemInfo.isUnix) {
       System.err.println(getName() + " skipped: " + SystemInfo.OS_NAME);
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import gnu.trove.TIntHashSet;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class CompressedIdSetTest extends TestCase {
+  public void testAscendingAppend() {
+    CompressedIdSet set = new CompressedIdSet();
+    for (int i = 1; i < 1000; i += 3) {
+      assertTrue(set.add(i));
+    }
+    assertFalse(set.add(1));
+    assertFalse(set.add(997));
+    assertEquals(333, set.size());
+    assertTrue(set.contains(1));
+    assertTrue(set.contains(4));
+    assertTrue(set.contains(997));
+    assertFalse(set.contains(0));
+    assertFalse(set.contains(2));
+    assertFalse(set.contains(998));
+
+    int expected = 1;
+    for (ValueContainer.IntIterator iterator = set.iterator(); iterator.hasNext(); expected += 3) {
+      assertEquals(expected, iterator.next());
+    }
+    assertEquals(1000, expected);
+  }
+
+  public void testLargeDeltas() {
+    CompressedIdSet set = new CompressedIdSet();
+    int[] ids = {1, 2, 200, 70000, 70001, 20000000, Integer.MAX_VALUE - 1, Integer.MAX_VALUE};
+    for (int i = ids.length - 1; i >= 0; i--) {
+      set.add(ids[i]);
+    }
+    assertTrue(Arrays.equals(ids, set.toArray()));
+    for (int id : ids) {
+      assertTrue(set.contains(id));
+    }
+    assertFalse(set.contains(70002));
+  }
+
+  public void testRandomChanges() {
+    Random random = new Random(42);
+    CompressedIdSet set = new CompressedIdSet();
+    TIntHashSet expected = new TIntHashSet();
+    for (int i = 0; i < 100000; i++) {
+      int id = 1 + random.nextInt(5000);
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(id), set.remove(id));
+      }
+      else {
+        assertEquals(expected.add(id), set.add(id));
+      }
+      if (i % 997 == 0) {
+        set.compact();
+        assertContent(expected, set);
+        assertContent(expected, set.clone());
+      }
+    }
+    assertContent(expected, set);
+  }
+
+  public void testCloneIsIndependent() {
+    CompressedIdSet set = new CompressedIdSet();
+    for (int i = 1; i <= 100; i++) set.add(i * 2);
+    set.remove(50);
+    CompressedIdSet clone = set.clone();
+    set.add(51);
+    clone.remove(52);
+    assertTrue(set.contains(52));
+    assertFalse(clone.contains(51));
+    assertFalse(clone.contains(50));
+    assertEquals(100, set.size());
+    assertEquals(98, clone.size());
+  }
+
+  private static void assertContent(TIntHashSet expected, CompressedIdSet set) {
+    int[] sorted = expected.toArray();
+    Arrays.sort(sorted);
+    assertEquals(sorted.length, set.size());
+    assertEquals(sorted.length, set.iterator().size());
+    assertTrue(Arrays.equals(sorted, set.toArray()));
+    for (int id = 0; id <= 5001; id++) {
+      assertEquals(expected.contains(id), set.contains(id));
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.indexing;
+
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIterator;
+import gnu.trove.TIntProcedure;
+
+import java.util.Random;
+
+/**
+ * Compares heap footprint and two-key intersection speed of input id sets stored the way {@link ValueContainerImpl} used to
+ * (TIntHashSet with 0.98 load factor) and as {@link CompressedIdSet}, on a synthetic index of a million files whose key frequencies
+ * follow Zipf's law, like words in IdIndex do.
+ * Usage: ValueContainerBenchmark [files count] [keys count]; run with -Xmx1g or more.
+ */
+public class ValueContainerBenchmark {
+  public static void main(String[] args) {
+    int filesCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int keysCount = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+    long postings = 0;
+    int[] sizes = new int[keysCount];
+    for (int key = 0; key < keysCount; key++) {
+      sizes[key] = Math.max(2, filesCount / (key + 1));
+      postings += sizes[key];
+    }
+    System.out.println(filesCount + " files, " + keysCount + " keys, " + postings + " postings");
+
+    long before = usedMemory();
+    TIntHashSet[] hashSets = new TIntHashSet[keysCount];
+    for (int key = 0; key < keysCount; key++) {
+      hashSets[key] = new TIntHashSet(3, 0.98f);
+      for (int id : generateIds(key, sizes[key], filesCount)) {
+        hashSets[key].add(id);
+      }
+    }
+    long hashSetsMemory = usedMemory() - before;
+
+    before = usedMemory();
+    CompressedIdSet[] compressedSets = new CompressedIdSet[keysCount];
+    for (int key = 0; key < keysCount; key++) {
+      CompressedIdSet set = new CompressedIdSet();
+      for (int id : generateIds(key, sizes[key], filesCount)) {
+        set.add(id);
+      }
+      compressedSets[key] = set.clone(); // containers are copied when cached, which drops unused capacity
+    }
+    long compressedMemory = usedMemory() - before;
+    System.out.println("Heap: TIntHashSet " + hashSetsMemory / 1024 / 1024 + " MB (" + bytesPerPosting(hashSetsMemory, postings) +
+                       " bytes per id), CompressedIdSet " + compressedMemory / 1024 / 1024 + " MB (" +
+                       bytesPerPosting(compressedMemory, postings) + " bytes per id)");
+
+    Random random = new Random(1);
+    int[][] pairs = new int[2000][];
+    for (int i = 0; i < pairs.length; i++) {
+      pairs[i] = new int[]{random.nextInt(100), random.nextInt(keysCount)}; // a frequent word and an arbitrary one
+    }
+    for (int round = 0; round < 3; round++) {
+      long start = System.nanoTime();
+      long hashMatches = 0;
+      for (int[] pair : pairs) {
+        hashMatches += intersect(hashSets[pair[0]], hashSets[pair[1]]);
+      }
+      long hashTime = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      long compressedMatches = 0;
+      for (int[] pair : pairs) {
+        compressedMatches += intersect(compressedSets[pair[0]], compressedSets[pair[1]]);
+      }
+      long compressedTime = System.nanoTime() - start;
+      System.out.println("Intersection of " + pairs.length + " key pairs: TIntHashSet " + hashTime / 1000000 + " ms, CompressedIdSet " +
+                         compressedTime / 1000000 + " ms" + (hashMatches != compressedMatches ? " (RESULTS DIFFER)" : ""));
+    }
+  }
+
+  // files are indexed in the order of their ids
+  private static int[] generateIds(int key, int size, int filesCount) {
+    Random random = new Random(key);
+    double step = (double)filesCount / size;
+    int[] ids = new int[size];
+    for (int i = 0; i < size; i++) {
+      ids[i] = 1 + (int)(i * step + random.nextDouble() * (step - 1));
+    }
+    return ids;
+  }
+
+  // the way FileBasedIndexImpl used to collect files containing both keys
+  private static int intersect(TIntHashSet first, final TIntHashSet second) {
+    TIntHashSet main = new TIntHashSet();
+    for (TIntIterator iterator = first.iterator(); iterator.hasNext();) {
+      main.add(iterator.next());
+    }
+    final TIntHashSet result = new TIntHashSet();
+    if (second.size() < main.size()) {
+      for (TIntIterator iterator = second.iterator(); iterator.hasNext();) {
+        int id = iterator.next();
+        if (main.contains(id)) result.add(id);
+      }
+    }
+    else {
+      main.forEach(new TIntProcedure() {
+        @Override
+        public boolean execute(int id) {
+          if (second.contains(id)) result.add(id);
+          return true;
+        }
+      });
+    }
+    return result.size();
+  }
+
+  // see FileBasedIndexImpl.collectFileIdsContainingAllKeys
+  private static int intersect(CompressedIdSet first, CompressedIdSet second) {
+    TIntArrayList copy = new TIntArrayList();
+    for (ValueContainer.IntIterator iterator = first.iterator(); iterator.hasNext();) {
+      copy.add(iterator.next());
+    }
+    int[] main = copy.toNativeArray();
+    TIntArrayList result = new TIntArrayList();
+    ValueContainer.IntIterator iterator = second.iterator();
+    if (iterator.size() < main.length << 3) {
+      int i = 0;
+      while (iterator.hasNext() && i < main.length) {
+        int id = iterator.next();
+        i = FileBasedIndexImpl.skipLessThan(main, i, id);
+        if (i < main.length && main[i] == id) result.add(id);
+      }
+    }
+    else {
+      for (int id : main) {
+        if (second.contains(id)) result.add(id);
+      }
+    }
+    return result.size();
+  }
+
+  private static String bytesPerPosting(long memory, long postings) {
+    return String.format("%.2f", (double)memory / postings);
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
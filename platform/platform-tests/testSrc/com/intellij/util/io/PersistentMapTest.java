@@ -7,9 +7,7 @@ import com.intellij.util.containers.IntObjectCache;
 import com.intellij.util.io.storage.Storage;
 import junit.framework.TestCase;
 
-import java.io.File;
-import java.io.FileFilter;
-import java.io.IOException;
+import java.io.*;
 import java.util.*;
 
 /**
@@ -248,6 +246,147 @@ public class PersistentMapTest extends TestCase {
     }
   }
 
+  public void testIncrementalCompaction() throws IOException {
+    final int stringsCount = 1000;
+    Map<String, String> expected = new HashMap<String, String>();
+    for (int i = 0; i < stringsCount; ++i) {
+      final String key = createRandomString();
+      expected.put(key, key + "_value");
+      myMap.put(key, key + "_garbage");
+      myMap.put(key, key + "_value");
+    }
+    final long dataFileSize = myDataFile.length();
+
+    assertTrue(myMap.startIncrementalCompaction());
+    assertFalse(myMap.startIncrementalCompaction());
+
+    int steps = 0;
+    List<String> keys = new ArrayList<String>(expected.keySet());
+    while (!myMap.performIncrementalCompactionStep(1024)) {
+      // map stays usable between the steps
+      String key = keys.get(steps % keys.size());
+      assertEquals(expected.get(key), myMap.get(key));
+      if (steps % 3 == 0) {
+        myMap.put(key, key + "_updated");
+        expected.put(key, key + "_updated");
+      }
+      else if (steps % 3 == 1) {
+        myMap.remove(key);
+        expected.remove(key);
+      }
+      final String newKey = createRandomString();
+      myMap.put(newKey, newKey + "_value");
+      expected.put(newKey, newKey + "_value");
+      ++steps;
+    }
+    assertTrue(steps > 0);
+    assertFalse(myMap.isCompactionInProgress());
+    assertEquals(1.0, myMap.getCompactionProgress());
+    assertEquals(0, myMap.getGarbageSize());
+    assertTrue(myDataFile.length() < dataFileSize);
+
+    for (int i = 0; i < 2; ++i) {
+      assertEquals(expected.keySet(), new HashSet<String>(myMap.getAllKeysWithExistingMapping()));
+      for (Map.Entry<String, String> entry : expected.entrySet()) {
+        assertEquals(entry.getValue(), myMap.get(entry.getKey()));
+      }
+      myMap.close();
+      myMap = new PersistentHashMap<String, String>(myFile, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+    }
+  }
+
+  public void testIncrementalCompactionInterruptedByForceAndClose() throws IOException {
+    Map<String, String> expected = new HashMap<String, String>();
+    for (int i = 0; i < 1000; ++i) {
+      final String key = createRandomString();
+      expected.put(key, key + "_value");
+      myMap.put(key, key + "_garbage");
+      myMap.put(key, key + "_value");
+    }
+
+    assertTrue(myMap.startIncrementalCompaction());
+    assertFalse(myMap.performIncrementalCompactionStep(1024));
+    myMap.force();
+    assertFalse(myMap.isCompactionInProgress());
+    assertFalse(myMap.isDirty());
+
+    assertTrue(myMap.startIncrementalCompaction());
+    assertFalse(myMap.performIncrementalCompactionStep(1024));
+    final String newKey = createRandomString();
+    myMap.put(newKey, newKey + "_value");
+    expected.put(newKey, newKey + "_value");
+    myMap.close();
+    assertFalse(new File(myDataFile.getPath() + ".new").exists());
+
+    myMap = new PersistentHashMap<String, String>(myFile, new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+    assertEquals(expected.keySet(), new HashSet<String>(myMap.getAllKeysWithExistingMapping()));
+    for (Map.Entry<String, String> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), myMap.get(entry.getKey()));
+    }
+  }
+
+  public void testIncrementalCompactionWithAppendedData() throws IOException {
+    File file = FileUtil.createTempFile("persistent", "map");
+
+    PersistentHashMap<Integer, String> map = new PersistentHashMap<Integer, String>(file, new IntInlineKeyDescriptor(), new DataExternalizer<String>() {
+      @Override
+      public void save(DataOutput out, String value) throws IOException {
+        out.writeUTF(value);
+      }
+
+      @Override
+      public String read(DataInput in) throws IOException {
+        StringBuilder result = new StringBuilder();
+        try {
+          while (true) {
+            result.append(in.readUTF());
+          }
+        }
+        catch (EOFException ignored) {
+        }
+        return result.toString();
+      }
+    });
+    try {
+      for (int i = 0; i < 100; ++i) {
+        map.put(i, "a");
+      }
+      map.close(); // drop cached appenders
+      map = new PersistentHashMap<Integer, String>(file, new IntInlineKeyDescriptor(), map.myValueExternalizer);
+
+      assertTrue(map.startIncrementalCompaction());
+      for (int i = 0; i < 100; i += 2) {
+        map.appendData(i, new PersistentHashMap.ValueDataAppender() {
+          @Override
+          public void append(DataOutput out) throws IOException {
+            out.writeUTF("b");
+          }
+        });
+      }
+      while (!map.performIncrementalCompactionStep(16)) {
+        map.appendData(1, new PersistentHashMap.ValueDataAppender() {
+          @Override
+          public void append(DataOutput out) throws IOException {
+            out.writeUTF("c");
+          }
+        });
+      }
+
+      for (int i = 0; i < 100; ++i) {
+        String value = map.get(i);
+        if (i == 1) {
+          assertTrue(value, value.matches("ac+"));
+        }
+        else {
+          assertEquals(i % 2 == 0 ? "ab" : "a", value);
+        }
+      }
+    }
+    finally {
+      clearMap(file, map);
+    }
+  }
+
   public void testPerformance() throws IOException {
     final IntObjectCache<String> stringCache = new IntObjectCache<String>(2000);
     final IntObjectCache.DeletedPairsListener listener = new IntObjectCache.DeletedPairsListener() {
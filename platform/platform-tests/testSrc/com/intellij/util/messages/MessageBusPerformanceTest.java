@@ -0,0 +1,106 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.messages;
+
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import com.intellij.util.messages.impl.MessageBusImpl;
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MessageBusPerformanceTest extends TestCase {
+  private static final int MESSAGES_COUNT = 100000;
+  private static final int SUBSCRIBERS_COUNT = 4;
+
+  public interface Listener {
+    void changed(int value);
+  }
+
+  private static final Topic<Listener> SYNC_TOPIC = Topic.create("Sync performance", Listener.class);
+  private static final Topic<Listener> BACKGROUND_TOPIC = Topic.createDeliveredInBackground("Background performance", Listener.class);
+
+  private MessageBusImpl myBus;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myBus = (MessageBusImpl)MessageBusFactory.newMessageBus(this);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myBus.dispose();
+    super.tearDown();
+  }
+
+  public void testPublishToSyncTopic() {
+    final AtomicInteger delivered = subscribe(SYNC_TOPIC);
+    final Listener publisher = myBus.syncPublisher(SYNC_TOPIC);
+    // subscribers of a sync topic are called by the publisher, so the publishing time includes the delivery
+    PlatformTestUtil.startPerformanceTest("publishing to sync topic", 500, new ThrowableRunnable() {
+      @Override
+      public void run() {
+        publish(publisher);
+      }
+    }).setup(new ThrowableRunnable() {
+      @Override
+      public void run() {
+        delivered.set(0);
+      }
+    }).cpuBound().assertTiming();
+    assertEquals(MESSAGES_COUNT * SUBSCRIBERS_COUNT, delivered.get());
+  }
+
+  public void testPublishToBackgroundTopic() {
+    final AtomicInteger delivered = subscribe(BACKGROUND_TOPIC);
+    final Listener publisher = myBus.syncPublisher(BACKGROUND_TOPIC);
+    // only the publishing is timed, the messages of the previous attempt are delivered before the next one starts
+    PlatformTestUtil.startPerformanceTest("publishing to background topic", 1000, new ThrowableRunnable() {
+      @Override
+      public void run() {
+        publish(publisher);
+      }
+    }).setup(new ThrowableRunnable() {
+      @Override
+      public void run() {
+        myBus.waitForBackgroundDelivery();
+        delivered.set(0);
+      }
+    }).cpuBound().assertTiming();
+    myBus.waitForBackgroundDelivery();
+    assertEquals(MESSAGES_COUNT * SUBSCRIBERS_COUNT, delivered.get());
+  }
+
+  private AtomicInteger subscribe(Topic<Listener> topic) {
+    final AtomicInteger delivered = new AtomicInteger();
+    for (int i = 0; i < SUBSCRIBERS_COUNT; i++) {
+      myBus.connect().subscribe(topic, new Listener() {
+        @Override
+        public void changed(int value) {
+          delivered.incrementAndGet();
+        }
+      });
+    }
+    return delivered;
+  }
+
+  private static void publish(Listener publisher) {
+    for (int i = 0; i < MESSAGES_COUNT; i++) {
+      publisher.changed(i);
+    }
+  }
+}
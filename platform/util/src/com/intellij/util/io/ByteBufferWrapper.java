@@ -61,6 +61,10 @@ public abstract class ByteBufferWrapper {
                    : new ReadWriteMappedBufferWrapper(file, offset, length);
   }
 
+  public static ByteBufferWrapper readWriteMapped(final File file, final int offset, final int length) {
+    return new ReadWriteMappedBufferWrapper(file, offset, length);
+  }
+
   public static ByteBufferWrapper readWriteDirect(final File file, final int offset, final int length) {
     return new ReadWriteDirectBufferWrapper(file, offset, length);
   }
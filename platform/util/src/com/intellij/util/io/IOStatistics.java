@@ -2,6 +2,8 @@ package com.intellij.util.io;
 
 import com.intellij.openapi.diagnostic.Logger;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 class IOStatistics {
   static final boolean DEBUG = System.getProperty("io.access.debug") != null;
   static final int MIN_IO_TIME_TO_REPORT = 100;
@@ -11,4 +13,24 @@ class IOStatistics {
   static void dump(String msg) {
     LOG.info(msg);
   }
+
+  // PagedFileStorage page cache: pages found in cache, pages read or mapped, loads of pages evicted earlier, evictions
+  static final AtomicLong ourPageHits = new AtomicLong();
+  static final AtomicLong ourPageLoads = new AtomicLong();
+  static final AtomicLong ourPageRefaults = new AtomicLong();
+  static final AtomicLong ourPageEvictions = new AtomicLong();
+  static final AtomicLong ourLoadedBytes = new AtomicLong();
+  private static final int PAGE_LOADS_TO_REPORT = 1000;
+
+  static void pageLoaded(long length) {
+    ourLoadedBytes.addAndGet(length);
+    if (ourPageLoads.incrementAndGet() % PAGE_LOADS_TO_REPORT == 0 && DEBUG) {
+      dump(pageCacheStatistics());
+    }
+  }
+
+  static String pageCacheStatistics() {
+    return "Page cache: hits " + ourPageHits.get() + ", loads " + ourPageLoads.get() + " (" + ourLoadedBytes.get() / PagedFileStorage.MB +
+           " MB), refaults " + ourPageRefaults.get() + ", evictions " + ourPageEvictions.get();
+  }
 }
@@ -20,6 +20,9 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.SystemInfo;
 import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.hash.LinkedHashMap;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntProcedure;
 import jsr166e.SequenceLock;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -33,6 +36,7 @@ import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author max
@@ -45,6 +49,12 @@ public class PagedFileStorage implements Forceable {
   private final static int LOWER_LIMIT;
   private final static int UPPER_LIMIT;
   public final static int BUFFER_SIZE;
+
+  // pages are mapped with FileChannel.map instead of being read into direct buffers, so they are backed by the OS page cache
+  // and limited by a budget shared by all storage locks rather than by direct memory
+  private static final boolean USE_MMAP = SystemProperties.getBooleanProperty("idea.paged.storage.mmap", false);
+  private static final long MAPPED_LIMIT;
+  private static final AtomicLong ourMappedSize = new AtomicLong();
   private static final int UNKNOWN_PAGE = -1;
 
   static {
@@ -62,10 +72,14 @@ public class PagedFileStorage implements Forceable {
       UPPER_LIMIT = Math.max(LOWER_LIMIT, SystemProperties.getIntProperty("idea.max.paged.storage.cache", upper) * MB);
     }
 
+    MAPPED_LIMIT = Math.max(UPPER_LIMIT, (long)SystemProperties.getIntProperty("idea.max.paged.storage.mapped.cache",
+                                                                                SystemInfo.is64Bit ? 2048 : 256) * MB);
+
     LOG.info("lower=" + (LOWER_LIMIT / MB) +
              "; upper=" + (UPPER_LIMIT / MB) +
              "; buffer=" + (BUFFER_SIZE / MB) +
-             "; mmap=" + (!ByteBufferWrapper.NO_MMAP));
+             "; mmap=" + (!ByteBufferWrapper.NO_MMAP) +
+             (USE_MMAP ? "; mapped pages limit=" + (MAPPED_LIMIT / MB) : ""));
   }
 
   private final StorageLockContext myStorageLockContext;
@@ -91,6 +105,13 @@ public class PagedFileStorage implements Forceable {
     myStorageLockContext.myLock.unlock();
   }
 
+  /**
+   * @return hit, load, refault (load of a page evicted before) and eviction counts of page caches of all storages
+   */
+  public static String getPageCacheStatistics() {
+    return IOStatistics.pageCacheStatistics() + (USE_MMAP || ourMappedSize.get() > 0 ? ", mapped " + ourMappedSize.get() / MB + " MB" : "");
+  }
+
   public StorageLockContext getStorageLockContext() {
     return myStorageLockContext;
   }
@@ -308,6 +329,9 @@ public class PagedFileStorage implements Forceable {
     final long started = IOStatistics.DEBUG ? System.currentTimeMillis():0;
     myStorageLockContext.myStorageLock.invalidateBuffer((int)(myStorageIndex | (mySize / myPageSize)));
     //unmapAll(); // we do not need it since all page alighned buffers can be reused
+    if (myStorageLockContext.myStorageLock.myUseMmap && newSize < oldSize) {
+      unmapAll(); // mapped regions can't be truncated on some platforms
+    }
     final long unmapAllFinished = IOStatistics.DEBUG ? System.currentTimeMillis():0;
 
     resizeFile(newSize);
@@ -438,6 +462,7 @@ public class PagedFileStorage implements Forceable {
     private static final int FILE_INDEX_MASK = 0xFFFF0000;
     private static final int FILE_INDEX_SHIFT = 16;
     private final boolean checkThreadAccess;
+    private final boolean myUseMmap;
     public final StorageLockContext myDefaultStorageLockContext;
     private final ConcurrentHashMap<Integer, PagedFileStorage> myIndex2Storage = new ConcurrentHashMap<Integer, PagedFileStorage>();
 
@@ -449,20 +474,39 @@ public class PagedFileStorage implements Forceable {
     private volatile long mySize;
     private volatile long mySizeLimit;
     private volatile int myMappingChangeCount;
+    private final TIntHashSet myEvictedPages = new TIntHashSet(); // guarded by mySegmentsAccessLock
+    private boolean myEvicting; // guarded by mySegmentsAccessLock
 
     public StorageLock() {
       this(true);
     }
 
     public StorageLock(boolean checkThreadAccess) {
+      this(checkThreadAccess, USE_MMAP);
+    }
+
+    // the page backend is chosen per lock so that tests can cover both of them
+    StorageLock(boolean checkThreadAccess, boolean useMmap) {
       this.checkThreadAccess = checkThreadAccess;
+      myUseMmap = useMmap;
       myDefaultStorageLockContext = new StorageLockContext(this);
 
-      mySizeLimit = UPPER_LIMIT;
+      mySizeLimit = myUseMmap ? MAPPED_LIMIT : UPPER_LIMIT;
       mySegments = new LinkedHashMap<Integer, ByteBufferWrapper>(10, 0.75f) {
         @Override
         protected boolean removeEldestEntry(Map.Entry<Integer, ByteBufferWrapper> eldest) {
-          return mySize > mySizeLimit;
+          return isOverLimit(mySizeLimit);
+        }
+
+        @Override
+        public void doRemoveEldestEntry() {
+          myEvicting = true;
+          try {
+            super.doRemoveEldestEntry();
+          }
+          finally {
+            myEvicting = false;
+          }
         }
 
         @Nullable
@@ -474,6 +518,11 @@ public class PagedFileStorage implements Forceable {
             ++myMappingChangeCount;
             mySegmentsToRemove.offer(wrapper);
             mySize -= wrapper.myLength;
+            if (myUseMmap) ourMappedSize.addAndGet(-wrapper.myLength);
+            if (myEvicting) {
+              myEvictedPages.add((Integer)key);
+              IOStatistics.ourPageEvictions.incrementAndGet();
+            }
           }
           return wrapper;
         }
@@ -504,12 +553,21 @@ public class PagedFileStorage implements Forceable {
       return myIndex2Storage.get(index);
     }
 
+    // the newest segment is never evicted: it is about to be used
+    private boolean isOverLimit(long sizeLimit) {
+      if (mySegments.size() <= 1) return false;
+      return mySize > sizeLimit || myUseMmap && ourMappedSize.get() > MAPPED_LIMIT;
+    }
+
     private ByteBufferWrapper get(Integer key) {
       ByteBufferWrapper wrapper;
       try {         // fast path
         mySegmentsAccessLock.lock();
         wrapper = mySegments.get(key);
-        if (wrapper != null) return wrapper;
+        if (wrapper != null) {
+          IOStatistics.ourPageHits.incrementAndGet();
+          return wrapper;
+        }
       }
       finally {
         mySegmentsAccessLock.unlock();
@@ -528,6 +586,7 @@ public class PagedFileStorage implements Forceable {
 
         long started = IOStatistics.DEBUG ? System.currentTimeMillis() : 0;
         wrapper = createValue(key);
+        IOStatistics.pageLoaded(wrapper.myLength);
 
         if (IOStatistics.DEBUG) {
           long finished = System.currentTimeMillis();
@@ -539,8 +598,12 @@ public class PagedFileStorage implements Forceable {
 
         mySegmentsAccessLock.lock();
         try {
+          if (myEvictedPages.remove(key)) {
+            IOStatistics.ourPageRefaults.incrementAndGet();
+          }
           mySegments.put(key, wrapper);
           mySize += wrapper.myLength;
+          if (myUseMmap) ourMappedSize.addAndGet(wrapper.myLength);
         }
         finally {
           mySegmentsAccessLock.unlock();
@@ -569,7 +632,7 @@ public class PagedFileStorage implements Forceable {
 
       try {
         mySegmentsAccessLock.lock();
-        while (mySize > sizeLimit) {
+        while (isOverLimit(sizeLimit)) {
           // we still have to drop something
           mySegments.doRemoveEldestEntry();
         }
@@ -592,7 +655,8 @@ public class PagedFileStorage implements Forceable {
       }
 
       int min = Math.min((int)(owner.length() - off), owner.myPageSize);
-      ByteBufferWrapper wrapper = ByteBufferWrapper.readWriteDirect(owner.myFile, off, min);
+      ByteBufferWrapper wrapper = myUseMmap ? ByteBufferWrapper.readWriteMapped(owner.myFile, off, min)
+                                           : ByteBufferWrapper.readWriteDirect(owner.myFile, off, min);
       Throwable oome = null;
       while (true) {
         try {
@@ -658,7 +722,7 @@ public class PagedFileStorage implements Forceable {
       }
     }
 
-    private void unmapBuffersForOwner(int index, StorageLockContext storageLockContext) {
+    private void unmapBuffersForOwner(final int index, StorageLockContext storageLockContext) {
       final Map<Integer, ByteBufferWrapper> buffers = getBuffersOrderedForOwner(index, storageLockContext);
 
       if (buffers != null) {
@@ -679,6 +743,23 @@ public class PagedFileStorage implements Forceable {
           mySegmentsAllocationLock.unlock();
         }
       }
+
+      // the index is reused by the next registered storage, whose pages were never evicted
+      mySegmentsAccessLock.lock();
+      try {
+        final TIntArrayList evictedByOwner = new TIntArrayList();
+        myEvictedPages.forEach(new TIntProcedure() {
+          @Override
+          public boolean execute(int key) {
+            if ((key & FILE_INDEX_MASK) == index) evictedByOwner.add(key);
+            return true;
+          }
+        });
+        myEvictedPages.removeAll(evictedByOwner.toNativeArray());
+      }
+      finally {
+        mySegmentsAccessLock.unlock();
+      }
     }
 
     private void flushBuffersForOwner(int index, StorageLockContext storageLockContext) {
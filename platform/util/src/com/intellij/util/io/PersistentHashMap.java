@@ -20,9 +20,13 @@ import com.intellij.openapi.util.LowMemoryWatcher;
 import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.CommonProcessors;
+import com.intellij.util.ConcurrencyUtil;
 import com.intellij.util.Processor;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.containers.LimitedPool;
 import com.intellij.util.containers.SLRUCache;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntHashSet;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -31,6 +35,8 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Eugene Zhuravlev
@@ -63,6 +69,14 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   private boolean myIntAddressForNewRecord;
   private static final boolean doHardConsistencyChecks = false;
 
+  // when enabled, garbage is collected by background compaction in bounded slices instead of stop-the-world compact() on open
+  private static final boolean INCREMENTAL_COMPACTION = SystemProperties.getBooleanProperty("idea.phm.incremental.compaction", false);
+  private static final int COMPACTION_SLICE_SIZE = 1024 * 1024;
+  private static final int COMPACTION_SLICE_DELAY_MS = 50;
+
+  // non-null while incremental compaction is in progress, guarded by myEnumerator
+  @Nullable private IncrementalCompaction myCompaction;
+
   private static class AppendStream extends DataOutputStream {
     private AppendStream() {
       super(null);
@@ -100,7 +114,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         final int id = enumerate(key);
         long oldHeaderRecord = readValueId(id);
 
-        long headerRecord = myValueStorage.appendBytes(bytes.getInternalBuffer(), 0, bytes.size(), oldHeaderRecord);
+        long headerRecord = appendValueBytes(bytes.getInternalBuffer(), 0, bytes.size(), oldHeaderRecord);
 
         updateValueId(id, headerRecord, oldHeaderRecord, key, 0);
         if (oldHeaderRecord == NULL_ADDR) {
@@ -182,7 +196,12 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
       myCanReEnumerate = myEnumerator.canReEnumerate();
 
       if (makesSenseToCompact()) {
-        compact();
+        if (INCREMENTAL_COMPACTION) {
+          scheduleIncrementalCompaction();
+        }
+        else {
+          compact();
+        }
       }
     }
     catch (IOException e) {
@@ -222,6 +241,17 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     return (int)myLiveAndGarbageKeysCounter;
   }
 
+  /**
+   * @return part of the stored values (approximated by keys count) which are not reachable anymore and will be dropped by compaction
+   */
+  public double getGarbageRatio() {
+    synchronized (myEnumerator) {
+      int liveKeys = (int)(myLiveAndGarbageKeysCounter / LIVE_KEY_MASK);
+      int deadKeys = (int)(myLiveAndGarbageKeysCounter & 0xFFFFFFFF);
+      return liveKeys + deadKeys == 0 ? 0 : (double)deadKeys / (liveKeys + deadKeys);
+    }
+  }
+
   public File getBaseFile() {
     return myEnumerator.myFile;
   }
@@ -303,7 +333,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
       }
 
-      long header = myValueStorage.appendBytes(bytes.getInternalBuffer(), 0, bytes.size(), 0);
+      long header = appendValueBytes(bytes.getInternalBuffer(), 0, bytes.size(), NULL_ADDR);
 
       updateValueId(id, header, oldheader, key, 0);
     }
@@ -315,7 +345,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   @Override
   public final int enumerate(Key name) throws IOException {
     synchronized (myEnumerator) {
-      myIntAddressForNewRecord = canUseIntAddressForNewRecord(myValueStorage.getSize());
+      myIntAddressForNewRecord = canUseIntAddressForNewRecord(getValueStorageSize());
       return super.enumerate(name);
     }
   }
@@ -395,7 +425,7 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         return null;
       }
 
-      PersistentHashMapValueStorage.ReadResult readResult = myValueStorage.readBytes(oldHeader);
+      PersistentHashMapValueStorage.ReadResult readResult = readValueBytes(oldHeader);
       if (readResult.offset != oldHeader) {
         myEnumerator.markDirty(true);
 
@@ -485,10 +515,25 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     try {
       try {
         clearAppenderCaches();
+        // records of the running compaction may point to the not yet swapped storage, and only the swapped state can be saved clean
+        if (myCompaction != null) {
+          finishIncrementalCompactionOrAbort();
+        }
+      }
+      catch (IOException e) {
+        LOG.error(e);
       }
       finally {
         super.force();
       }
+      if (INCREMENTAL_COMPACTION && myCompaction == null && makesSenseToCompact()) {
+        try {
+          scheduleIncrementalCompaction();
+        }
+        catch (IOException e) {
+          LOG.info("Cannot start compaction of " + getBaseFile().getPath(), e);
+        }
+      }
     }
     finally {
       myEnumerator.unlockStorage();
@@ -498,6 +543,9 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   private void clearAppenderCaches() {
     myAppendCache.clear();
     myValueStorage.force();
+    if (myCompaction != null) {
+      myCompaction.myStorage.force();
+    }
   }
 
   @Override
@@ -513,6 +561,9 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
       try {
         myAppendCacheFlusher.stop();
         myAppendCache.clear();
+        if (myCompaction != null) {
+          finishIncrementalCompactionOrAbort();
+        }
         final PersistentHashMapValueStorage valueStorage = myValueStorage;
         if (valueStorage != null) {
           valueStorage.dispose();
@@ -530,6 +581,11 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
   // made public for tests
   public void compact() throws IOException {
     synchronized (myEnumerator) {
+      if (myCompaction != null) {
+        // all values will be relocated by the running compaction anyway
+        finishIncrementalCompactionOrAbort();
+        return;
+      }
       final long now = System.currentTimeMillis();
       final String newPath = getDataFile(myEnumerator.myFile).getPath() + ".new";
       final PersistentHashMapValueStorage newStorage = PersistentHashMapValueStorage.create(newPath);
@@ -567,6 +623,258 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
     }
   }
 
+  /**
+   * Starts compaction which copies live values to the new storage in bounded slices (see {@link #performIncrementalCompactionStep(int)}),
+   * so that the map stays accessible in between. Values written meanwhile go to the new storage directly; when all live values are
+   * copied the storages are swapped under the map lock. Only the swapped state can be saved, so {@link #force()} and {@link #close()}
+   * copy the rest of the values at once.
+   *
+   * @return false if compaction is already in progress
+   */
+  public boolean startIncrementalCompaction() throws IOException {
+    synchronized (myEnumerator) {
+      if (myCompaction != null || isClosed()) return false;
+      myEnumerator.lockStorage();
+      try {
+        myAppendCache.clear();
+        myValueStorage.force();
+
+        final TIntArrayList records = new TIntArrayList();
+        traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
+          @Override
+          public boolean process(final int keyId) throws IOException {
+            if (readValueId(keyId) != NULL_ADDR) {
+              records.add(keyId);
+              records.add(getCurrentKey());
+            }
+            return true;
+          }
+        });
+
+        final File newFile = new File(getDataFile(myEnumerator.myFile).getPath() + ".new");
+        FileUtil.delete(newFile);
+        // new storage is addressed after the end of the current one, so address tells which storage holds the value
+        myCompaction = new IncrementalCompaction(PersistentHashMapValueStorage.create(newFile.getPath()), myValueStorage.getSize(), records);
+        myValueStorage.switchToCompactionMode();
+        myEnumerator.markDirty(true);
+        return true;
+      }
+      finally {
+        myEnumerator.unlockStorage();
+      }
+    }
+  }
+
+  /**
+   * Copies live values of the old storage to the new one until approximately maxBytes are copied, swaps storages when everything is
+   * copied.
+   *
+   * @return true if compaction is completed (or was not started)
+   */
+  public boolean performIncrementalCompactionStep(int maxBytes) throws IOException {
+    synchronized (myEnumerator) {
+      final IncrementalCompaction compaction = myCompaction;
+      if (compaction == null) return true;
+
+      myEnumerator.lockStorage();
+      try {
+        final TIntArrayList records = compaction.myRecords;
+        int copied = 0;
+        while (copied < maxBytes && compaction.myCursor < records.size()) {
+          int keyId = records.getQuick(compaction.myCursor++);
+          int processingKey = records.getQuick(compaction.myCursor++);
+          if (compaction.myStaleRecords.contains(keyId)) continue;
+          copied += relocateValue(compaction, keyId, processingKey);
+        }
+        compaction.myCopiedBytes += copied;
+
+        if (IOStatistics.DEBUG) {
+          IOStatistics.dump("Compaction of " + getBaseFile().getPath() + ": " + (int)(getCompactionProgress() * 100) + "%, copied " +
+                            compaction.myCopiedBytes + " bytes");
+        }
+
+        if (compaction.myCursor < records.size()) return false;
+        finishIncrementalCompactionOrAbort();
+        return true;
+      }
+      finally {
+        myEnumerator.unlockStorage();
+      }
+    }
+  }
+
+  public boolean isCompactionInProgress() {
+    synchronized (myEnumerator) {
+      return myCompaction != null;
+    }
+  }
+
+  /**
+   * @return part of the live values already copied by the running incremental compaction, 1 when there is no compaction in progress
+   */
+  public double getCompactionProgress() {
+    synchronized (myEnumerator) {
+      final IncrementalCompaction compaction = myCompaction;
+      if (compaction == null || compaction.myRecords.isEmpty()) return 1;
+      return (double)compaction.myCursor / compaction.myRecords.size();
+    }
+  }
+
+  private void scheduleIncrementalCompaction() throws IOException {
+    if (!startIncrementalCompaction()) return;
+    CompactionScheduler.ourExecutor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (!isClosed() && !performIncrementalCompactionStep(COMPACTION_SLICE_SIZE)) {
+            CompactionScheduler.ourExecutor.schedule(this, COMPACTION_SLICE_DELAY_MS, TimeUnit.MILLISECONDS);
+          }
+        }
+        catch (IOException e) {
+          LOG.info("Compaction of " + getBaseFile().getPath() + " failed", e);
+        }
+      }
+    }, COMPACTION_SLICE_DELAY_MS, TimeUnit.MILLISECONDS);
+  }
+
+  // should be invoked under myEnumerator lock, returns number of copied bytes
+  private int relocateValue(@NotNull IncrementalCompaction compaction, int keyId, int processingKey) throws IOException {
+    final long record = readValueId(keyId);
+    if (record == NULL_ADDR || record >= compaction.myBase) return 0; // removed or rewritten after compaction start
+
+    PersistentHashMapValueStorage.ReadResult readResult = myValueStorage.readBytes(record);
+    long value = compaction.myStorage.appendBytes(readResult.buffer, 0, readResult.buffer.length, 0);
+    updateValueId(keyId, compaction.myBase + value, record, null, processingKey);
+    return readResult.buffer.length;
+  }
+
+  // should be invoked under myEnumerator lock, on failure the map is left marked corrupted and the new storage is deleted
+  private void finishIncrementalCompactionOrAbort() throws IOException {
+    final IncrementalCompaction compaction = myCompaction;
+    assert compaction != null;
+    try {
+      finishIncrementalCompaction();
+    }
+    catch (IOException e) {
+      abortIncrementalCompaction(compaction);
+      throw e;
+    }
+    catch (RuntimeException e) {
+      abortIncrementalCompaction(compaction);
+      throw e;
+    }
+  }
+
+  private void abortIncrementalCompaction(@NotNull IncrementalCompaction compaction) {
+    // some records may already point to the new storage, so the map can't be saved clean anymore
+    myEnumerator.markCorrupted();
+    if (myCompaction == compaction) {
+      myCompaction = null;
+      compaction.myStorage.dispose();
+      FileUtil.delete(new File(getDataFile(myEnumerator.myFile).getPath() + ".new"));
+    }
+  }
+
+  private void finishIncrementalCompaction() throws IOException {
+    final IncrementalCompaction compaction = myCompaction;
+    assert compaction != null;
+    final long now = System.currentTimeMillis();
+    myAppendCache.clear();
+
+    myLiveAndGarbageKeysCounter = 0;
+    myReadCompactionGarbageSize = 0;
+    final TIntHashSet reenumerated = new TIntHashSet();
+    traverseAllRecords(new PersistentEnumerator.RecordsProcessor() {
+      @Override
+      public boolean process(final int keyId) throws IOException {
+        if (reenumerated.contains(keyId)) return true; // already points to the new storage
+        final long record = readValueId(keyId);
+        if (record != NULL_ADDR) {
+          final long value;
+          if (record < compaction.myBase) {
+            // not copied yet: compaction is finished ahead of its slices on close or force, or the record was abandoned by reenumeration
+            PersistentHashMapValueStorage.ReadResult readResult = myValueStorage.readBytes(record);
+            value = compaction.myStorage.appendBytes(readResult.buffer, 0, readResult.buffer.length, 0);
+            compaction.myCopiedBytes += readResult.buffer.length;
+          }
+          else {
+            value = record - compaction.myBase;
+          }
+          final int newKeyId = updateValueId(keyId, value, record, null, getCurrentKey());
+          if (newKeyId != keyId) reenumerated.add(newKeyId);
+          myLiveAndGarbageKeysCounter += LIVE_KEY_MASK;
+        }
+        return true;
+      }
+    });
+
+    myCompaction = null;
+    compaction.myStorage.dispose();
+    myValueStorage.dispose();
+
+    final File dataFile = getDataFile(myEnumerator.myFile);
+    FileUtil.rename(new File(dataFile.getPath() + ".new"), dataFile);
+
+    myValueStorage = PersistentHashMapValueStorage.create(dataFile.getPath());
+    LOG.info("Incrementally compacted " + myEnumerator.myFile.getPath() + ", copied " + compaction.myCopiedBytes + " bytes in " +
+             (now - compaction.myStarted) + "ms, swapped in " + (System.currentTimeMillis() - now) + "ms.");
+
+    myEnumerator.putMetaData(myLiveAndGarbageKeysCounter);
+  }
+
+  private long getValueStorageSize() {
+    final IncrementalCompaction compaction = myCompaction;
+    return compaction != null ? compaction.myBase + compaction.myStorage.getSize() : myValueStorage.getSize();
+  }
+
+  private PersistentHashMapValueStorage.ReadResult readValueBytes(long address) throws IOException {
+    final IncrementalCompaction compaction = myCompaction;
+    if (compaction != null && address >= compaction.myBase) {
+      PersistentHashMapValueStorage.ReadResult result = compaction.myStorage.readBytes(address - compaction.myBase);
+      return new PersistentHashMapValueStorage.ReadResult(compaction.myBase + result.offset, result.buffer);
+    }
+    return myValueStorage.readBytes(address);
+  }
+
+  private long appendValueBytes(byte[] data, int offset, int dataLength, long prevChunkAddress) throws IOException {
+    final IncrementalCompaction compaction = myCompaction;
+    if (compaction == null) {
+      return myValueStorage.appendBytes(data, offset, dataLength, prevChunkAddress);
+    }
+
+    if (prevChunkAddress != NULL_ADDR && prevChunkAddress < compaction.myBase) {
+      // chunks in the new storage never refer to the old one: merge appended data with the old value
+      byte[] oldValue = myValueStorage.readBytes(prevChunkAddress).buffer;
+      byte[] merged = new byte[oldValue.length + dataLength];
+      System.arraycopy(oldValue, 0, merged, 0, oldValue.length);
+      System.arraycopy(data, offset, merged, oldValue.length, dataLength);
+      return compaction.myBase + compaction.myStorage.appendBytes(merged, 0, merged.length, 0);
+    }
+    long prevChunk = prevChunkAddress != NULL_ADDR ? prevChunkAddress - compaction.myBase : 0;
+    return compaction.myBase + compaction.myStorage.appendBytes(data, offset, dataLength, prevChunk);
+  }
+
+  private static class IncrementalCompaction {
+    private final PersistentHashMapValueStorage myStorage;
+    private final long myBase;
+    private final TIntArrayList myRecords; // pairs of record id and processing key
+    private final TIntHashSet myStaleRecords = new TIntHashSet(); // records abandoned due to reenumeration
+    private final long myStarted = System.currentTimeMillis();
+    private int myCursor;
+    private long myCopiedBytes;
+
+    private IncrementalCompaction(@NotNull PersistentHashMapValueStorage storage, long base, @NotNull TIntArrayList records) {
+      myStorage = storage;
+      myBase = base;
+      myRecords = records;
+    }
+  }
+
+  private static class CompactionScheduler {
+    private static final ScheduledExecutorService ourExecutor =
+      ConcurrencyUtil.newSingleScheduledThreadExecutor("PersistentHashMap compaction", Thread.MIN_PRIORITY + 1);
+  }
+
   private long readValueId(final int keyId) {
     long address = myEnumerator.myStorage.getInt(keyId + myParentValueRefOffset);
     if (address == 0 || address == -POSITIVE_VALUE_SHIFT) {
@@ -605,8 +913,12 @@ public class PersistentHashMap<Key, Value> extends PersistentEnumeratorDelegate<
         if (keyId < myLargeIndexWatermarkId && (oldValue == NULL_ADDR || canUseIntAddressForNewRecord(oldValue))) {
           // keyId is result of enumerate, if we do reenumerate then it is no longer accessible unless somebody cached it
           myIntAddressForNewRecord = false;
+          int oldKeyId = keyId;
           keyId = myEnumerator.reenumerate(key == null ? myEnumerator.getValue(keyId, processingKey) : key);
           ++transformedKeys;
+          if (myCompaction != null) {
+            myCompaction.myStaleRecords.add(oldKeyId);
+          }
         }
       }
     }
@@ -194,6 +194,19 @@ public class RefCountingStorage extends AbstractStorage {
     }
   }
 
+  /**
+   * Acquires the record unless it has already been released by all its owners.
+   */
+  public boolean acquireRecordIfAlive(int record) throws IOException {
+    waitForPendingWriteForRecord(record);
+    synchronized (myLock) {
+      RefCountingRecordsTable table = (RefCountingRecordsTable)myRecordsTable;
+      if (record > table.getRecordsCount() || table.getRefCount(record) <= 0) return false;
+      table.incRefCount(record);
+      return true;
+    }
+  }
+
   public void releaseRecord(int record) throws IOException {
     waitForPendingWriteForRecord(record);
     synchronized (myLock) {
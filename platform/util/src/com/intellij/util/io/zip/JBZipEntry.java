@@ -383,6 +383,13 @@ public class JBZipEntry implements Cloneable {
     }
   }
 
+  /**
+   * @return the data of the entry as it is stored in the archive, i.e. compressed if the entry is compressed
+   */
+  InputStream getRawInputStream() throws IOException {
+    return new BoundedInputStream(calcDataOffset(), getCompressedSize());
+  }
+
   /**
    * Returns the extra field data for the entry, or null if none.
    *
@@ -445,6 +452,15 @@ public class JBZipEntry implements Cloneable {
     stream.putNextEntryBytes(this, bytes);
   }
 
+  /**
+   * Writes the data read from the stream without loading it to memory as a whole.
+   */
+  public void setData(InputStream stream, long timestamp) throws IOException {
+    time = timestamp;
+    JBZipOutputStream output = myFile.getOutputStream();
+    output.putNextEntryContent(this, stream);
+  }
+
   public void setData(byte[] bytes) throws IOException {
     setData(bytes, time);
   }
@@ -23,6 +23,7 @@ import com.intellij.util.ArrayUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
@@ -443,6 +444,36 @@ public class JBZipFile {
     }
   }
 
+  /**
+   * Adds a copy of an entry of another archive. The data of the entry is copied as is, without decompressing and compressing it again.
+   *
+   * @param source the entry to copy
+   * @return the created entry
+   * @throws IOException if an error occurs reading the source archive or writing this one
+   */
+  public JBZipEntry copyEntry(JBZipEntry source) throws IOException {
+    final JBZipEntry entry = getOrCreateEntry(source.getName());
+    entry.setMethod(source.getMethod());
+    entry.setTime(source.getTime());
+    entry.setCrc(source.getCrc());
+    entry.setSize(source.getSize());
+    entry.setCompressedSize(source.getCompressedSize());
+    entry.setExtra(source.getExtra());
+    entry.setComment(source.getComment());
+    entry.setPlatform(source.getPlatform());
+    entry.setInternalAttributes(source.getInternalAttributes());
+    entry.setExternalAttributes(source.getExternalAttributes());
+
+    final InputStream data = source.getRawInputStream();
+    try {
+      getOutputStream().putNextEntryRawData(entry, data);
+    }
+    finally {
+      data.close();
+    }
+    return entry;
+  }
+
   public void eraseEntry(JBZipEntry entry) throws IOException {
     getOutputStream(); // Ensure OutputStream created, so we'll print out central directory at the end;
     entries.remove(entry);
@@ -452,6 +483,7 @@ public class JBZipFile {
   JBZipOutputStream getOutputStream() throws IOException {
     if (myOutputStream == null) {
       myOutputStream = new JBZipOutputStream(this, currentcfdfoffset);
+      myOutputStream.setEncoding(encoding);
     }
     return myOutputStream;
   }
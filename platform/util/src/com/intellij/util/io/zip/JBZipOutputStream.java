@@ -23,6 +23,8 @@ package com.intellij.util.io.zip;
 import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.util.List;
@@ -36,6 +38,8 @@ class JBZipOutputStream {
    */
   public static final int DEFAULT_COMPRESSION = Deflater.DEFAULT_COMPRESSION;
 
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
   /**
    * The file comment.
    *
@@ -401,6 +405,7 @@ class JBZipOutputStream {
     final byte[] outputBytes;
     final int outputBytesLength;
     if (entry.getMethod() == ZipEntry.DEFLATED) {
+      def.reset();
       def.setLevel(level);
       final BufferExposingByteArrayOutputStream compressedBytesStream = new BufferExposingByteArrayOutputStream();
       final DeflaterOutputStream stream = new DeflaterOutputStream(compressedBytesStream, def);
@@ -422,4 +427,91 @@ class JBZipOutputStream {
     writeLocalFileHeader(entry);
     writeOut(outputBytes, 0, outputBytesLength);
   }
+
+  /**
+   * Writes an entry whose data is read from the stream, so the data isn't loaded to memory as a whole. CRC and sizes of the entry
+   * are computed while the data is written and are stored to its local file header afterwards.
+   */
+  public void putNextEntryContent(JBZipEntry entry, InputStream content) throws IOException {
+    if (entry.getMethod() == -1) {
+      entry.setMethod(method);
+    }
+
+    if (entry.getTime() == -1) {
+      entry.setTime(System.currentTimeMillis());
+    }
+
+    entry.setCrc(0);
+    entry.setSize(0);
+    entry.setCompressedSize(0);
+    writeLocalFileHeader(entry);
+    final long dataOffset = written;
+
+    crc.reset();
+    long size = 0;
+    final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+    if (entry.getMethod() == ZipEntry.DEFLATED) {
+      def.reset();
+      def.setLevel(level);
+      final DeflaterOutputStream stream = new DeflaterOutputStream(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          writeOut(new byte[]{(byte)b});
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          writeOut(b, off, len);
+        }
+      }, def);
+      try {
+        int read;
+        while ((read = content.read(buffer)) > 0) {
+          crc.update(buffer, 0, read);
+          stream.write(buffer, 0, read);
+          size += read;
+        }
+      }
+      finally {
+        stream.close();
+      }
+    }
+    else {
+      int read;
+      while ((read = content.read(buffer)) > 0) {
+        crc.update(buffer, 0, read);
+        writeOut(buffer, 0, read);
+        size += read;
+      }
+    }
+
+    entry.setCrc(crc.getValue());
+    entry.setSize(size);
+    entry.setCompressedSize(written - dataOffset);
+
+    flushBuffer();
+    // CRC, compressed size and size follow the signature, versions, flag, method and time in the local file header
+    raf.seek(entry.getHeaderOffset() + 14);
+    raf.write(ZipLong.getBytes(entry.getCrc()));
+    raf.write(ZipLong.getBytes(entry.getCompressedSize()));
+    raf.write(ZipLong.getBytes(entry.getSize()));
+    raf.seek(written);
+  }
+
+  /**
+   * Writes an entry whose CRC, sizes and compression method are already set and whose data is already compressed.
+   */
+  public void putNextEntryRawData(JBZipEntry entry, InputStream data) throws IOException {
+    writeLocalFileHeader(entry);
+    final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+    long remaining = entry.getCompressedSize();
+    while (remaining > 0) {
+      final int read = data.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+      if (read < 0) {
+        throw new ZipException("Unexpected end of data of entry " + entry.getName());
+      }
+      writeOut(buffer, 0, read);
+      remaining -= read;
+    }
+  }
 }
@@ -34,15 +34,24 @@ public class Topic<L> {
   private final String myDisplayName;
   private final Class<L> myListenerClass;
   private final BroadcastDirection myBroadcastDirection;
+  private final boolean myDeliveredInBackground;
 
   public Topic(@NonNls @NotNull String displayName, @NotNull Class<L> listenerClass) {
     this(displayName, listenerClass, BroadcastDirection.TO_CHILDREN);
   }
 
   public Topic(@NonNls @NotNull String displayName, @NotNull Class<L> listenerClass, final BroadcastDirection broadcastDirection) {
+    this(displayName, listenerClass, broadcastDirection, false);
+  }
+
+  public Topic(@NonNls @NotNull String displayName,
+               @NotNull Class<L> listenerClass,
+               final BroadcastDirection broadcastDirection,
+               boolean deliveredInBackground) {
     myDisplayName = displayName;
     myListenerClass = listenerClass;
     myBroadcastDirection = broadcastDirection;
+    myDeliveredInBackground = deliveredInBackground;
   }
 
   /**
@@ -86,6 +95,27 @@ public class Topic<L> {
     return new Topic<L>(displayName, listenerClass, direction);
   }
 
+  /**
+   * Creates a topic whose messages are delivered in a background thread, see {@link #isDeliveredInBackground()}.
+   */
+  public static <L> Topic<L> createDeliveredInBackground(@NonNls @NotNull String displayName, @NotNull Class<L> listenerClass) {
+    return new Topic<L>(displayName, listenerClass, BroadcastDirection.TO_CHILDREN, true);
+  }
+
+  /**
+   * Messages sent to such topic are not delivered in the publisher's thread. They are queued and delivered in a single
+   * background thread of the message bus, the messages queued for the same subscriber are delivered one after another.
+   * The order of messages is preserved for each subscriber, but not between different subscribers. Sending a message is
+   * cheap unless the queue is full; then the publisher waits for it to be drained for a while.
+   * <p/>
+   * Subscribers of such topics must be thread-safe and must not expect to be called in the EDT or inside read or write action.
+   *
+   * @return    <code>true</code> if messages of the current topic are delivered in the background thread
+   */
+  public boolean isDeliveredInBackground() {
+    return myDeliveredInBackground;
+  }
+
   /**
    * @return    broadcasting strategy configured for the current topic. Default value is {@link BroadcastDirection#TO_CHILDREN}
    * @see BroadcastDirection
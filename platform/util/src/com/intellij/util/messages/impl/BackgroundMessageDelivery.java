@@ -0,0 +1,223 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.messages.impl;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.ConcurrencyUtil;
+import com.intellij.util.SystemProperties;
+import com.intellij.util.messages.Topic;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers messages of the {@link Topic#isDeliveredInBackground() background topics} of a message bus hierarchy in a single thread.
+ * The messages queued by the time a delivery round starts are grouped by subscriber, so every subscriber receives its messages
+ * one after another.
+ */
+class BackgroundMessageDelivery {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.util.messages.impl.BackgroundMessageDelivery");
+  private static final int QUEUE_CAPACITY = SystemProperties.getIntProperty("messagebus.background.queue.capacity", 100000);
+  private static final int MAX_PUBLISHER_WAIT = SystemProperties.getIntProperty("messagebus.background.max.wait.ms", 100);
+  private static final int MAX_BATCH_SIZE = 1000;
+
+  private final ExecutorService myExecutor = ConcurrencyUtil.newSingleThreadExecutor("Message bus background delivery");
+  private final Queue<PendingMessage> myQueue = new ConcurrentLinkedQueue<PendingMessage>();
+  private final AtomicInteger myQueueSize = new AtomicInteger();
+  private final AtomicBoolean myDeliveryScheduled = new AtomicBoolean();
+  private final Object myLock = new Object();
+  private final ConcurrentMap<Topic, TopicDeliveryStatistics> myStatistics = new ConcurrentHashMap<Topic, TopicDeliveryStatistics>();
+  private final Runnable myDeliveryRunnable = new Runnable() {
+    @Override
+    public void run() {
+      deliverPendingMessages();
+    }
+  };
+  private volatile Thread myDeliveryThread;
+  private volatile boolean myDisposed;
+
+  void post(@NotNull MessageBusConnectionImpl connection, @NotNull Message message) {
+    if (myDisposed) return;
+
+    if (myQueueSize.get() >= QUEUE_CAPACITY && Thread.currentThread() != myDeliveryThread) {
+      waitForFreeSpace();
+    }
+    myQueueSize.incrementAndGet();
+    myQueue.offer(new PendingMessage(connection, message, System.nanoTime()));
+    if (myDeliveryScheduled.compareAndSet(false, true)) {
+      myExecutor.execute(myDeliveryRunnable);
+    }
+  }
+
+  /**
+   * The publisher may hold a lock the subscribers need, so it doesn't wait for ever; the queue grows over its capacity then.
+   */
+  private void waitForFreeSpace() {
+    final long deadline = System.currentTimeMillis() + MAX_PUBLISHER_WAIT;
+    synchronized (myLock) {
+      long toWait;
+      while (myQueueSize.get() >= QUEUE_CAPACITY && !myDisposed && (toWait = deadline - System.currentTimeMillis()) > 0) {
+        try {
+          myLock.wait(toWait);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  private void deliverPendingMessages() {
+    myDeliveryThread = Thread.currentThread();
+    try {
+      //noinspection StatementWithEmptyBody
+      while (deliverBatch()) ;
+    }
+    finally {
+      myDeliveryScheduled.set(false);
+      if (!myQueue.isEmpty() && !myDisposed && myDeliveryScheduled.compareAndSet(false, true)) {
+        myExecutor.execute(myDeliveryRunnable);
+      }
+    }
+  }
+
+  /**
+   * @return false if there were no messages to deliver
+   */
+  private boolean deliverBatch() {
+    final Map<MessageBusConnectionImpl, List<PendingMessage>> bySubscriber = new LinkedHashMap<MessageBusConnectionImpl, List<PendingMessage>>();
+    int count = 0;
+    PendingMessage pending;
+    while (count < MAX_BATCH_SIZE && !myDisposed && (pending = myQueue.poll()) != null) {
+      List<PendingMessage> messages = bySubscriber.get(pending.myConnection);
+      if (messages == null) {
+        messages = new ArrayList<PendingMessage>();
+        bySubscriber.put(pending.myConnection, messages);
+      }
+      messages.add(pending);
+      count++;
+    }
+    if (count == 0) {
+      return false;
+    }
+
+    final Set<Topic> topics = new HashSet<Topic>();
+    Throwable error = null;
+    try {
+      for (Map.Entry<MessageBusConnectionImpl, List<PendingMessage>> entry : bySubscriber.entrySet()) {
+        final MessageBusConnectionImpl connection = entry.getKey();
+        for (PendingMessage message : entry.getValue()) {
+          final Topic topic = message.myMessage.getTopic();
+          try {
+            connection.deliverInBackground(message.myMessage);
+          }
+          catch (Throwable e) {
+            // the rest of the batch is already taken from the queue, so it's delivered anyway and the error is reported afterwards
+            if (error == null) {
+              error = e;
+            }
+          }
+          finally {
+            myQueueSize.decrementAndGet();
+            final long now = System.nanoTime();
+            getOrCreateStatistics(topic).messageDelivered(now - message.myPostedNanos, now);
+            topics.add(topic);
+          }
+        }
+      }
+    }
+    finally {
+      for (Topic topic : topics) {
+        getOrCreateStatistics(topic).batchDelivered();
+      }
+      synchronized (myLock) {
+        myLock.notifyAll();
+      }
+    }
+    if (error != null) {
+      LOG.error(error);
+    }
+    return true;
+  }
+
+  @NotNull
+  private TopicDeliveryStatistics getOrCreateStatistics(@NotNull Topic topic) {
+    TopicDeliveryStatistics statistics = myStatistics.get(topic);
+    if (statistics == null) {
+      statistics = ConcurrencyUtil.cacheOrGet(myStatistics, topic, new TopicDeliveryStatistics(topic.getDisplayName()));
+    }
+    return statistics;
+  }
+
+  @Nullable
+  TopicDeliveryStatistics getStatistics(@NotNull Topic topic) {
+    return myStatistics.get(topic);
+  }
+
+  /**
+   * Waits until all the messages queued so far are delivered
+   */
+  void waitForDelivery() {
+    if (Thread.currentThread() == myDeliveryThread) return;
+    synchronized (myLock) {
+      while (myQueueSize.get() > 0 && !myDisposed) {
+        try {
+          myLock.wait();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  void dispose() {
+    myDisposed = true;
+    myExecutor.shutdown();
+    int dropped = 0;
+    while (myQueue.poll() != null) {
+      myQueueSize.decrementAndGet();
+      dropped++;
+    }
+    if (dropped > 0) {
+      LOG.info(dropped + " messages were not delivered in background");
+    }
+    synchronized (myLock) {
+      myLock.notifyAll();
+    }
+  }
+
+  private static class PendingMessage {
+    private final MessageBusConnectionImpl myConnection;
+    private final Message myMessage;
+    private final long myPostedNanos;
+
+    private PendingMessage(MessageBusConnectionImpl connection, Message message, long postedNanos) {
+      myConnection = connection;
+      myMessage = message;
+      myPostedNanos = postedNanos;
+    }
+  }
+}
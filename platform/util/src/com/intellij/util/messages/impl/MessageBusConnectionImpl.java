@@ -25,9 +25,9 @@ import com.intellij.util.messages.MessageHandler;
 import com.intellij.util.messages.Topic;
 
 import java.lang.reflect.Method;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class MessageBusConnectionImpl implements MessageBusConnection {
@@ -36,7 +36,8 @@ public class MessageBusConnectionImpl implements MessageBusConnection {
   private final MessageBusImpl myBus;
   private final ThreadLocal<Queue<Message>> myPendingMessages = new QueueThreadLocal();
   private MessageHandler myDefaultHandler;
-  private final Map<Topic, Object> mySubscriptions = new HashMap<Topic, Object>();
+  private final Map<Topic, Object> mySubscriptions = new ConcurrentHashMap<Topic, Object>();
+  private volatile boolean myDisconnected;
 
   public MessageBusConnectionImpl(MessageBusImpl bus) {
     myBus = bus;
@@ -72,6 +73,7 @@ public class MessageBusConnectionImpl implements MessageBusConnection {
 
   @Override
   public void disconnect() {
+    myDisconnected = true;
     Queue<Message> jobs = myPendingMessages.get();
     myPendingMessages.remove();
     myBus.notifyConnectionTerminated(this);
@@ -96,6 +98,16 @@ public class MessageBusConnectionImpl implements MessageBusConnection {
     final Message messageOnLocalQueue = myPendingMessages.get().poll();
     assert messageOnLocalQueue == message;
 
+    invokeHandler(message);
+  }
+
+  void deliverInBackground(Message message) {
+    if (!myDisconnected) {
+      invokeHandler(message);
+    }
+  }
+
+  private void invokeHandler(Message message) {
     final Topic topic = message.getTopic();
     final Object handler = mySubscriptions.get(topic);
 
@@ -29,6 +29,7 @@ import com.intellij.util.messages.MessageBusConnection;
 import com.intellij.util.messages.Topic;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
@@ -61,6 +62,7 @@ public class MessageBusImpl implements MessageBus {
   @SuppressWarnings({"UnusedDeclaration", "FieldCanBeLocal"})
   private final Object myOwner;
   private boolean myDisposed;
+  private volatile BackgroundMessageDelivery myBackgroundDelivery;
 
   @SuppressWarnings("UnusedDeclaration")
   public MessageBusImpl() {
@@ -176,6 +178,9 @@ public class MessageBusImpl implements MessageBus {
       myParentBus.notifyChildBusDisposed(this);
       myParentBus = null;
     }
+    else if (myBackgroundDelivery != null) {
+      myBackgroundDelivery.dispose();
+    }
     myDisposed = true;
   }
 
@@ -188,9 +193,17 @@ public class MessageBusImpl implements MessageBus {
     final Topic topic = message.getTopic();
     final List<MessageBusConnectionImpl> topicSubscribers = mySubscribers.get(topic);
     if (topicSubscribers != null) {
-      for (MessageBusConnectionImpl subscriber : topicSubscribers) {
-        myMessageQueue.get().offer(new DeliveryJob(subscriber, message));
-        subscriber.scheduleMessageDelivery(message);
+      if (topic.isDeliveredInBackground()) {
+        final BackgroundMessageDelivery delivery = getBackgroundDelivery();
+        for (MessageBusConnectionImpl subscriber : topicSubscribers) {
+          delivery.post(subscriber, message);
+        }
+      }
+      else {
+        for (MessageBusConnectionImpl subscriber : topicSubscribers) {
+          myMessageQueue.get().offer(new DeliveryJob(subscriber, message));
+          subscriber.scheduleMessageDelivery(message);
+        }
       }
     }
 
@@ -208,11 +221,65 @@ public class MessageBusImpl implements MessageBus {
   }
 
   private void sendMessage(Message message) {
+    if (message.getTopic().isDeliveredInBackground()) {
+      postMessage(message);
+      return;
+    }
     pumpMessages();
     postMessage(message);
     pumpMessages();
   }
 
+  /**
+   * The messages of the background topics of the whole bus hierarchy are delivered by the root bus
+   */
+  @NotNull
+  private BackgroundMessageDelivery getBackgroundDelivery() {
+    if (myParentBus != null) {
+      return myParentBus.getBackgroundDelivery();
+    }
+    BackgroundMessageDelivery delivery = myBackgroundDelivery;
+    if (delivery == null) {
+      synchronized (this) {
+        delivery = myBackgroundDelivery;
+        if (delivery == null) {
+          myBackgroundDelivery = delivery = new BackgroundMessageDelivery();
+        }
+      }
+    }
+    return delivery;
+  }
+
+  /**
+   * @return the delivery of the background topics if any messages of them have been posted, without creating it
+   */
+  @Nullable
+  private BackgroundMessageDelivery getExistingBackgroundDelivery() {
+    return myParentBus != null ? myParentBus.getExistingBackgroundDelivery() : myBackgroundDelivery;
+  }
+
+  /**
+   * @return statistics of the delivery of the messages of the given {@link Topic#isDeliveredInBackground() background topic}
+   * or null if no messages of the topic have been delivered yet
+   */
+  @Nullable
+  public TopicDeliveryStatistics getBackgroundDeliveryStatistics(@NotNull Topic topic) {
+    checkNotDisposed();
+    final BackgroundMessageDelivery delivery = getExistingBackgroundDelivery();
+    return delivery != null ? delivery.getStatistics(topic) : null;
+  }
+
+  /**
+   * Blocks until all the messages of the background topics sent so far are delivered
+   */
+  public void waitForBackgroundDelivery() {
+    checkNotDisposed();
+    final BackgroundMessageDelivery delivery = getExistingBackgroundDelivery();
+    if (delivery != null) {
+      delivery.waitForDelivery();
+    }
+  }
+
   private void pumpMessages() {
     checkNotDisposed();
     if (myParentBus != null) {
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.messages.impl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statistics of the background delivery of the messages of a single topic.
+ * Delivery latency is the time between sending a message and calling the subscriber.
+ */
+public final class TopicDeliveryStatistics {
+  private final String myTopicName;
+  private long myDeliveredCount;
+  private long myBatchCount;
+  private long myTotalLatencyNanos;
+  private long myMaxLatencyNanos;
+  private long myFirstDeliveryNanos;
+  private long myLastDeliveryNanos;
+
+  TopicDeliveryStatistics(String topicName) {
+    myTopicName = topicName;
+  }
+
+  synchronized void messageDelivered(long latencyNanos, long deliveryNanos) {
+    if (myDeliveredCount == 0) {
+      myFirstDeliveryNanos = deliveryNanos;
+    }
+    myLastDeliveryNanos = deliveryNanos;
+    myDeliveredCount++;
+    myTotalLatencyNanos += latencyNanos;
+    myMaxLatencyNanos = Math.max(myMaxLatencyNanos, latencyNanos);
+  }
+
+  synchronized void batchDelivered() {
+    myBatchCount++;
+  }
+
+  public synchronized long getDeliveredCount() {
+    return myDeliveredCount;
+  }
+
+  /**
+   * @return number of delivery rounds the messages were delivered in
+   */
+  public synchronized long getBatchCount() {
+    return myBatchCount;
+  }
+
+  public synchronized long getAverageLatency(TimeUnit unit) {
+    return myDeliveredCount == 0 ? 0 : unit.convert(myTotalLatencyNanos / myDeliveredCount, TimeUnit.NANOSECONDS);
+  }
+
+  public synchronized long getMaxLatency(TimeUnit unit) {
+    return unit.convert(myMaxLatencyNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return messages delivered per second between the first and the last delivery
+   */
+  public synchronized long getThroughput() {
+    final long elapsed = myLastDeliveryNanos - myFirstDeliveryNanos;
+    return elapsed <= 0 ? myDeliveredCount : myDeliveredCount * TimeUnit.SECONDS.toNanos(1) / elapsed;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return myTopicName + ": " + myDeliveredCount + " messages in " + myBatchCount + " batches, average latency " +
+           getAverageLatency(TimeUnit.MICROSECONDS) + " us, max latency " + getMaxLatency(TimeUnit.MICROSECONDS) + " us, " +
+           getThroughput() + " messages/sec";
+  }
+}
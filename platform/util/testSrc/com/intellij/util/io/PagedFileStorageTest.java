@@ -84,6 +84,52 @@ public class PagedFileStorageTest extends TestCase {
     }
   }
 
+  public void testPageCacheStatistics() throws IOException {
+    lock.lock();
+    try {
+      checkPageLoads(s);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void testMappedPages() throws IOException {
+    final PagedFileStorage.StorageLock mappedLock = new PagedFileStorage.StorageLock(true, true);
+    final File file = FileUtil.createTempFile("mapped", ".tmp");
+    mappedLock.lock();
+    try {
+      final PagedFileStorage storage = new PagedFileStorage(file, mappedLock);
+      try {
+        storage.resize(1000);
+        for (int i = 0; i < 1000; i++) {
+          assertEquals(0, storage.get(i));
+        }
+        storage.resize(0);
+        checkPageLoads(storage);
+        assertTrue(PagedFileStorage.getPageCacheStatistics(), PagedFileStorage.getPageCacheStatistics().contains("mapped"));
+
+        storage.resize(123);
+        assertEquals(123, file.length());
+      }
+      finally {
+        storage.close();
+      }
+    } finally {
+      mappedLock.unlock();
+      FileUtil.delete(file);
+      FileUtil.delete(new File(file.getPath() + ".len"));
+    }
+  }
+
+  private static void checkPageLoads(PagedFileStorage storage) throws IOException {
+    long loads = IOStatistics.ourPageLoads.get();
+    storage.resize(1000);
+    storage.putInt(0, 42);
+    assertEquals(42, storage.getInt(0));
+    assertEquals(loads + 1, IOStatistics.ourPageLoads.get());
+    assertTrue(PagedFileStorage.getPageCacheStatistics(), PagedFileStorage.getPageCacheStatistics().contains("loads " + (loads + 1)));
+  }
+
   public void testResizeableMappedFile() throws Exception {
     lock.lock();
     try {
@@ -107,7 +107,73 @@ public class UpdateableZipTest extends TestCase {
     assertNull(removedEntry);
     utilZip.close();
   }
-  
+
+  public void testCopyEntry() throws Exception {
+    File zipFile = createTestUtilZip();
+    JBZipFile jbZip = new JBZipFile(zipFile);
+    JBZipEntry deflated = jbZip.getOrCreateEntry("/deflated");
+    deflated.setMethod(ZipEntry.DEFLATED);
+    deflated.setData("deflated deflated deflated".getBytes());
+    jbZip.close();
+
+    File copyFile = FileUtil.createTempFile("copy", ".zip");
+    try {
+      JBZipFile source = new JBZipFile(zipFile);
+      JBZipFile copy = new JBZipFile(copyFile);
+      copy.copyEntry(source.getEntry("/second"));
+      copy.copyEntry(source.getEntry("/deflated"));
+      copy.close();
+      source.close();
+
+      ZipFile utilZip = new ZipFile(copyFile);
+      assertNull(utilZip.getEntry("/first"));
+      assertEquals("second", FileUtil.loadTextAndClose(new InputStreamReader(utilZip.getInputStream(utilZip.getEntry("/second")))));
+      ZipEntry copied = utilZip.getEntry("/deflated");
+      assertEquals(ZipEntry.DEFLATED, copied.getMethod());
+      assertEquals("deflated deflated deflated", FileUtil.loadTextAndClose(new InputStreamReader(utilZip.getInputStream(copied))));
+      utilZip.close();
+    }
+    finally {
+      FileUtil.delete(copyFile);
+    }
+  }
+
+  public void testStreamEntryData() throws Exception {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      text.append("line ").append(i).append('\n');
+    }
+    byte[] content = text.toString().getBytes();
+
+    File zipFile = createTestUtilZip();
+    JBZipFile jbZip = new JBZipFile(zipFile);
+    JBZipEntry deflated = jbZip.getOrCreateEntry("/deflated");
+    deflated.setMethod(ZipEntry.DEFLATED);
+    deflated.setData(new ByteArrayInputStream(content), 0);
+    JBZipEntry stored = jbZip.getOrCreateEntry("/stored");
+    stored.setMethod(ZipEntry.STORED);
+    stored.setData(new ByteArrayInputStream(content), 0);
+    jbZip.getOrCreateEntry("/third").setData("third".getBytes());
+    jbZip.close();
+
+    CRC32 crc = new CRC32();
+    crc.update(content);
+    ZipFile utilZip = new ZipFile(zipFile);
+    for (String name : new String[]{"/deflated", "/stored"}) {
+      ZipEntry entry = utilZip.getEntry(name);
+      assertEquals(content.length, entry.getSize());
+      assertEquals(crc.getValue(), entry.getCrc());
+      assertEquals(text.toString(), FileUtil.loadTextAndClose(new InputStreamReader(utilZip.getInputStream(entry))));
+    }
+    assertTrue(utilZip.getEntry("/deflated").getCompressedSize() < content.length);
+    utilZip.close();
+
+    jbZip = new JBZipFile(zipFile);
+    assertEntryWithContentExists(jbZip, "/deflated", text.toString());
+    assertEntryWithContentExists(jbZip, "/third", "third");
+    jbZip.close();
+  }
+
   /*
   public void testAppendToIdeaJar() throws Exception {
     //ProfilingUtil.startCPUProfiling();
@@ -20,10 +20,14 @@
 package com.intellij.util.messages;
 
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.messages.impl.MessageBusImpl;
+import com.intellij.util.messages.impl.TopicDeliveryStatistics;
 import junit.framework.TestCase;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 public class MessageBusTest extends TestCase {
   private MessageBus myBus;
@@ -41,6 +45,7 @@ public class MessageBusTest extends TestCase {
 
   private static final Topic<T1Listener> TOPIC1 = new Topic<T1Listener>("T1", T1Listener.class);
   private static final Topic<T2Listener> TOPIC2 = new Topic<T2Listener>("T2", T2Listener.class);
+  private static final Topic<T1Listener> BACKGROUND_TOPIC = Topic.createDeliveredInBackground("Background", T1Listener.class);
 
   private class T1Handler implements T1Listener {
     private final String id;
@@ -196,7 +201,108 @@ public class MessageBusTest extends TestCase {
                  "inside:t11:done",
                  "C2T1Handler:t12");
   }
-  
+
+  public void testBackgroundDelivery() {
+    final Thread testThread = Thread.currentThread();
+    final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+    for (final String id : new String[]{"c1", "c2"}) {
+      myBus.connect().subscribe(BACKGROUND_TOPIC, new T1Listener() {
+        @Override
+        public void t11() {
+          log.add(id + ":t11:" + (Thread.currentThread() == testThread));
+        }
+
+        @Override
+        public void t12() {
+          log.add(id + ":t12:" + (Thread.currentThread() == testThread));
+        }
+      });
+    }
+
+    final T1Listener publisher = myBus.syncPublisher(BACKGROUND_TOPIC);
+    for (int i = 0; i < 100; i++) {
+      publisher.t11();
+      publisher.t12();
+    }
+    ((MessageBusImpl)myBus).waitForBackgroundDelivery();
+
+    assertEquals(400, log.size());
+    for (String id : new String[]{"c1", "c2"}) {
+      int delivered = 0;
+      for (String event : log) {
+        if (event.startsWith(id)) {
+          assertEquals(id + (delivered % 2 == 0 ? ":t11" : ":t12") + ":false", event);
+          delivered++;
+        }
+      }
+      assertEquals(200, delivered);
+    }
+  }
+
+  public void testBackgroundDeliveryStatistics() {
+    myBus.connect().subscribe(BACKGROUND_TOPIC, new T1Handler("c"));
+    final MessageBusImpl bus = (MessageBusImpl)myBus;
+    assertNull(bus.getBackgroundDeliveryStatistics(BACKGROUND_TOPIC));
+
+    for (int i = 0; i < 10; i++) {
+      myBus.syncPublisher(BACKGROUND_TOPIC).t11();
+    }
+    bus.waitForBackgroundDelivery();
+
+    final TopicDeliveryStatistics statistics = bus.getBackgroundDeliveryStatistics(BACKGROUND_TOPIC);
+    assertNotNull(statistics);
+    assertEquals(10, statistics.getDeliveredCount());
+    assertTrue(statistics.getBatchCount() >= 1 && statistics.getBatchCount() <= 10);
+    assertEquals(10, myLog.size());
+  }
+
+  public void testBackgroundDeliveryContinuesAfterFailedSubscriber() throws InterruptedException {
+    final CountDownLatch published = new CountDownLatch(1);
+    final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+    myBus.connect().subscribe(BACKGROUND_TOPIC, new T1Listener() {
+      @Override
+      public void t11() {
+        throw new RuntimeException("failed subscriber");
+      }
+
+      @Override
+      public void t12() {
+        try {
+          // keep the delivery thread busy until the failing message and the ones after it are queued to make them one batch
+          published.await();
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        log.add("t12");
+      }
+    });
+
+    final T1Listener publisher = myBus.syncPublisher(BACKGROUND_TOPIC);
+    publisher.t12();
+    publisher.t11();
+    for (int i = 0; i < 10; i++) {
+      publisher.t12();
+    }
+    published.countDown();
+    ((MessageBusImpl)myBus).waitForBackgroundDelivery();
+
+    assertEquals(11, log.size());
+  }
+
+  public void testBackgroundTopicDeliveredToChildBus() {
+    final MessageBus child = MessageBusFactory.newMessageBus(this, myBus);
+    child.connect().subscribe(BACKGROUND_TOPIC, new T1Handler("child"));
+    myBus.connect().subscribe(BACKGROUND_TOPIC, new T1Handler("parent"));
+
+    myBus.syncPublisher(BACKGROUND_TOPIC).t11();
+    ((MessageBusImpl)child).waitForBackgroundDelivery();
+
+    assertEquals(2, myLog.size());
+    assertTrue(myLog.contains("child:t11"));
+    assertTrue(myLog.contains("parent:t11"));
+  }
+
   private void assertEvents(String... expected) {
     String joinExpected = StringUtil.join(expected, "\n");
     String joinActual = StringUtil.join(myLog, "\n");
@@ -51,6 +51,13 @@ public class PatternValidatorBuilder extends BaseInstrumentingBuilder{
     return config.getInstrumentationType() != InstrumentationType.NONE;
   }
 
+  @NotNull
+  @Override
+  protected String getInstrumentationSettings(CompileContext context) {
+    final JpsIntelliLangConfiguration config = JpsIntelliLangExtensionService.getInstance().getConfiguration(context.getProjectDescriptor().getModel().getGlobal());
+    return "patternAnnotation=" + config.getPatternAnnotationClass() + ";instrumentation=" + config.getInstrumentationType();
+  }
+
   @Override
   protected boolean canInstrument(CompiledClass compiledClass, int classFileVersion) {
     return true;
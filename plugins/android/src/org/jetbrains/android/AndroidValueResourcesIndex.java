@@ -5,12 +5,12 @@ import com.intellij.openapi.fileTypes.StdFileTypes;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.ex.temp.TempFileSystem;
-import com.intellij.psi.PsiFile;
-import com.intellij.psi.XmlRecursiveElementVisitor;
-import com.intellij.psi.xml.XmlFile;
-import com.intellij.psi.xml.XmlTag;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.impl.source.parsing.xml.XmlBuilder;
+import com.intellij.psi.impl.source.parsing.xml.XmlBuilderDriver;
 import com.intellij.util.containers.HashMap;
 import com.intellij.util.containers.HashSet;
+import com.intellij.util.containers.Stack;
 import com.intellij.util.indexing.*;
 import com.intellij.util.io.DataExternalizer;
 import com.intellij.util.io.KeyDescriptor;
@@ -55,53 +55,89 @@ public class AndroidValueResourcesIndex extends FileBasedIndexExtension<Resource
         if (!isSimilarFile(inputData)) {
           return Collections.emptyMap();
         }
-        final PsiFile file = inputData.getPsiFile();
-
-        if (!(file instanceof XmlFile)) {
-          return Collections.emptyMap();
-        }
         final Map<ResourceEntry, Set<MyResourceInfo>> result = new HashMap<ResourceEntry, Set<MyResourceInfo>>();
 
-        file.accept(new XmlRecursiveElementVisitor() {
+        new XmlBuilderDriver(inputData.getContentAsText()).build(new XmlBuilder() {
+          private final Stack<MyTagInfo> myTags = new Stack<MyTagInfo>();
+
           @Override
-          public void visitXmlTag(XmlTag tag) {
-            super.visitXmlTag(tag);
-            final String resName = tag.getAttributeValue(NAME_ATTRIBUTE_VALUE);
+          public void doctype(@Nullable CharSequence publicId, @Nullable CharSequence systemId, int startOffset, int endOffset) {
+          }
 
-            if (resName == null) {
-              return;
-            }
-            final String tagName = tag.getName();
-            final String resTypeStr;
+          @Override
+          public ProcessingOrder startTag(CharSequence localName, String namespace, int startoffset, int endoffset, int headerEndOffset) {
+            myTags.push(new MyTagInfo(localName.toString(), startoffset));
+            return ProcessingOrder.TAGS_AND_ATTRIBUTES;
+          }
+
+          @Override
+          public void attribute(CharSequence name, CharSequence value, int startoffset, int endoffset) {
+            final MyTagInfo tag = myTags.peek();
 
-            if ("item".equals(tagName)) {
-              resTypeStr = tag.getAttributeValue(TYPE_ATTRIBUTE_VALUE);
+            if (NAME_ATTRIBUTE_VALUE.contentEquals(name)) {
+              tag.myResName = StringUtil.stripQuotesAroundValue(value.toString());
             }
-            else {
-              resTypeStr = AndroidCommonUtils.getResourceTypeByTagName(tagName);
+            else if (TYPE_ATTRIBUTE_VALUE.contentEquals(name)) {
+              tag.myResType = StringUtil.stripQuotesAroundValue(value.toString());
+            }
+          }
+
+          @Override
+          public void endTag(CharSequence localName, String namespace, int startoffset, int endoffset) {
+            final MyTagInfo tag = myTags.pop();
+            final String resName = tag.myResName;
+
+            if (resName == null) {
+              return;
             }
+            final String resTypeStr = "item".equals(tag.myName)
+                                      ? tag.myResType
+                                      : AndroidCommonUtils.getResourceTypeByTagName(tag.myName);
             final ResourceType resType = resTypeStr != null ? ResourceType.getEnum(resTypeStr) : null;
 
             if (resType == null) {
               return;
             }
-            final int offset = tag.getTextRange().getStartOffset();
 
             if (resType == ResourceType.ATTR) {
-              final XmlTag parentTag = tag.getParentTag();
-              final String contextName = parentTag != null ? parentTag.getAttributeValue(NAME_ATTRIBUTE_VALUE) : null;
-              processResourceEntry(new ResourceEntry(resTypeStr, resName, contextName != null ? contextName : ""), result, offset);
+              final MyTagInfo parentTag = myTags.isEmpty() ? null : myTags.peek();
+              final String contextName = parentTag != null ? parentTag.myResName : null;
+              processResourceEntry(new ResourceEntry(resTypeStr, resName, contextName != null ? contextName : ""), result, tag.myOffset);
             }
             else {
-              processResourceEntry(new ResourceEntry(resTypeStr, resName, ""), result, offset);
+              processResourceEntry(new ResourceEntry(resTypeStr, resName, ""), result, tag.myOffset);
             }
           }
+
+          @Override
+          public void textElement(CharSequence display, CharSequence physical, int startoffset, int endoffset) {
+          }
+
+          @Override
+          public void entityRef(CharSequence ref, int startOffset, int endOffset) {
+          }
+
+          @Override
+          public void error(String message, int startOffset, int endOffset) {
+          }
         });
 
         return result;
       }
     };
 
+  private static class MyTagInfo {
+    final String myName;
+    final int myOffset;
+    String myResName;
+    String myResType;
+
+    MyTagInfo(@NotNull String name, int offset) {
+      myName = name;
+      myOffset = offset;
+    }
+  }
+
   private static boolean isSimilarFile(FileContent inputData) {
     if (CharArrayUtil.indexOf(inputData.getContentAsText(), "<" + RESOURCES_ROOT_TAG, 0) < 0) {
       return false;
@@ -258,7 +294,7 @@ public class AndroidValueResourcesIndex extends FileBasedIndexExtension<Resource
 
   @Override
   public int getVersion() {
-    return 5;
+    return 6;
   }
 
   public static class MyResourceInfo {
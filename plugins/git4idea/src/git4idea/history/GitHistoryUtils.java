@@ -21,6 +21,7 @@ import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.*;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.FilePathImpl;
 import com.intellij.openapi.vcs.FileStatus;
@@ -35,6 +36,7 @@ import com.intellij.openapi.vcs.history.VcsRevisionNumber;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.AsynchConsumer;
 import com.intellij.util.Consumer;
+import com.intellij.util.Processor;
 import com.intellij.util.concurrency.Semaphore;
 import git4idea.GitBranch;
 import git4idea.GitFileRevision;
@@ -49,7 +51,9 @@ import git4idea.history.browser.SymbolicRefs;
 import git4idea.history.browser.SymbolicRefsI;
 import git4idea.history.wholeTree.AbstractHash;
 import git4idea.history.wholeTree.CommitHashPlusParents;
+import git4idea.history.wholeTree.GitCommitGraph;
 import git4idea.history.wholeTree.GitCommitsSequentialIndex;
+import git4idea.i18n.GitBundle;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -376,15 +380,14 @@ public class GitHistoryUtils {
 
     while (currentPath.get() != null && firstCommitParent.get() != null) {
       logHandler.set(getLogHandler(project, finalRoot, logParser, currentPath.get(), firstCommitParent.get(), parameters));
-      final MyTokenAccumulator accumulator = new MyTokenAccumulator(logParser);
+      final GitLogParser.RecordParser recordParser = logParser.createRecordParser(resultAdapter);
       final Semaphore semaphore = new Semaphore();
 
       logHandler.get().addLineListener(new GitLineHandlerAdapter() {
         @Override
         public void onLineAvailable(String line, Key outputType) {
-          final GitLogRecord record = accumulator.acceptLine(line);
-          if (record != null) {
-            resultAdapter.consume(record);
+          if (ProcessOutputTypes.STDOUT.equals(outputType)) {
+            recordParser.appendLine(line);
           }
         }
 
@@ -402,10 +405,7 @@ public class GitHistoryUtils {
         public void processTerminated(int exitCode) {
           try {
             super.processTerminated(exitCode);
-            final GitLogRecord record = accumulator.processLast();
-            if (record != null) {
-              resultAdapter.consume(record);
-            }
+            recordParser.finish();
           } finally {
             semaphore.up();
           }
@@ -463,45 +463,6 @@ public class GitHistoryUtils {
     return null;
   }
 
-  private static class MyTokenAccumulator {
-    private final StringBuilder myBuffer = new StringBuilder();
-
-    private boolean myNotStarted = true;
-    private GitLogParser myParser;
-
-    public MyTokenAccumulator(GitLogParser parser) {
-      myParser = parser;
-    }
-
-    @Nullable
-    public GitLogRecord acceptLine(String s) {
-      final boolean lineEnd = s.startsWith(GitLogParser.RECORD_START);
-      if (lineEnd && (!myNotStarted)) {
-        final String line = myBuffer.toString();
-        myBuffer.setLength(0);
-        myBuffer.append(s.substring(GitLogParser.RECORD_START.length()));
-
-        return processResult(line);
-      }
-      else {
-        myBuffer.append(lineEnd ? s.substring(GitLogParser.RECORD_START.length()) : s);
-        myBuffer.append("\n");
-      }
-      myNotStarted = false;
-
-      return null;
-    }
-
-    public GitLogRecord processLast() {
-      return processResult(myBuffer.toString());
-    }
-
-    private GitLogRecord processResult(final String line) {
-      return myParser.parseOneRecord(line);
-    }
-
-  }
-
   /**
    * Get history for the file
    *
@@ -552,7 +513,7 @@ public class GitHistoryUtils {
     throws VcsException {
     // adjust path using change manager
     path = getLastCommitName(project, path);
-    GitSimpleHandler h = new GitSimpleHandler(project, root, GitCommand.LOG);
+    final GitLineHandler h = new GitLineHandler(project, root, GitCommand.LOG);
     GitLogParser parser = new GitLogParser(project, HASH, COMMIT_TIME);
     h.setNoSSH(true);
     h.setStdoutSuppressed(true);
@@ -560,13 +521,15 @@ public class GitHistoryUtils {
     h.addParameters(parser.getPretty(), "--encoding=UTF-8");
     h.endOptions();
     h.addRelativePaths(path);
-    String output = h.run();
 
     final List<Pair<SHAHash, Date>> rc = new ArrayList<Pair<SHAHash, Date>>();
-    for (GitLogRecord record : parser.parse(output)) {
-      record.setUsedHandler(h);
-      rc.add(new Pair<SHAHash, Date>(new SHAHash(record.getHash()), record.getDate()));
-    }
+    runAndParse(h, parser, new Consumer<GitLogRecord>() {
+      @Override
+      public void consume(GitLogRecord record) {
+        record.setUsedHandler(h);
+        rc.add(new Pair<SHAHash, Date>(new SHAHash(record.getHash()), record.getDate()));
+      }
+    });
     return rc;
   }
 
@@ -622,8 +585,21 @@ public class GitHistoryUtils {
 
     final VcsException[] exc = new VcsException[1];
     final Semaphore semaphore = new Semaphore();
-    final StringBuilder sb = new StringBuilder();
-    final Ref<Boolean> skipFirst = new Ref<Boolean>(true);
+    final GitLogParser.RecordParser recordParser = parser.createRecordParser(new Consumer<GitLogRecord>() {
+      @Override
+      public void consume(GitLogRecord record) {
+        if (exc[0] != null) {
+          return;
+        }
+        try {
+          gitCommitConsumer.consume(createCommit(project, refs, root, record));
+        }
+        catch (VcsException e) {
+          exc[0] = e;
+          h.cancel();
+        }
+      }
+    });
     h.addLineListener(new GitLineHandlerAdapter() {
       @Override
       public void onLineAvailable(final String line, final Key outputType) {
@@ -633,16 +609,7 @@ public class GitHistoryUtils {
               h.cancel();
               return;
             }
-            //if (line.charAt(line.length() - 1) != '\u0003') {
-            if ((! line.startsWith("\u0001")) || skipFirst.get()) {
-              if (sb.length() > 0) {
-                sb.append("\n");
-              }
-              sb.append(line);
-              skipFirst.set(false);
-              return;
-            }
-            takeLine(project, line, sb, parser, refs, root, exc, h, gitCommitConsumer);
+            recordParser.appendLine(line);
           }
         } catch (ProcessCanceledException e) {
           h.cancel();
@@ -661,37 +628,15 @@ public class GitHistoryUtils {
     semaphore.down();
     h.start();
     semaphore.waitFor();
-    takeLine(project, "", sb, parser, refs, root, exc, h, gitCommitConsumer);
+    if (exc[0] == null && (isCanceled == null || !isCanceled.get())) {
+      recordParser.finish();
+    }
     gitCommitConsumer.finished();
     if (exc[0] != null) {
       throw exc[0];
     }
   }
 
-  private static void takeLine(final Project project, String line,
-                               StringBuilder sb,
-                               GitLogParser parser,
-                               SymbolicRefsI refs,
-                               VirtualFile root,
-                               VcsException[] exc, GitLineHandler h, AsynchConsumer<GitCommit> gitCommitConsumer) {
-    final String text = sb.toString();
-    sb.setLength(0);
-    sb.append(line);
-    if (text.length() == 0) return;
-    GitLogRecord record = parser.parseOneRecord(text);
-
-    final GitCommit gitCommit;
-    try {
-      gitCommit = createCommit(project, refs, root, record);
-    }
-    catch (VcsException e) {
-      exc[0] = e;
-      h.cancel();
-      return;
-    }
-    gitCommitConsumer.consume(gitCommit);
-  }
-
   @NotNull
   private static GitCommit createCommit(@NotNull Project project, @Nullable SymbolicRefsI refs, @NotNull VirtualFile root,
                                         @NotNull GitLogRecord record) throws VcsException {
@@ -807,11 +752,11 @@ public class GitHistoryUtils {
   }
 
   @NotNull
-  public static List<GitCommit> commitsDetails(@NotNull Project project, @NotNull FilePath path, @Nullable SymbolicRefsI refs,
+  public static List<GitCommit> commitsDetails(@NotNull final Project project, @NotNull FilePath path, @Nullable final SymbolicRefsI refs,
                                                @NotNull final Collection<String> commitsIds) throws VcsException {
     path = getLastCommitName(project, path);     // adjust path using change manager
-    VirtualFile root = GitUtil.getGitRoot(path);
-    GitSimpleHandler h = new GitSimpleHandler(project, root, GitCommand.SHOW);
+    final VirtualFile root = GitUtil.getGitRoot(path);
+    GitLineHandler h = new GitLineHandler(project, root, GitCommand.SHOW);
     GitLogParser parser = new GitLogParser(project, GitLogParser.NameStatus.STATUS,
                                            SHORT_HASH, HASH, COMMIT_TIME, AUTHOR_NAME, AUTHOR_TIME, AUTHOR_EMAIL, COMMITTER_NAME,
                                            COMMITTER_EMAIL, SHORT_PARENTS, REF_NAMES, SUBJECT, BODY, RAW_BODY);
@@ -820,15 +765,67 @@ public class GitHistoryUtils {
     h.addParameters("--name-status", "-M", parser.getPretty(), "--encoding=UTF-8");
     h.addParameters(new ArrayList<String>(commitsIds));
 
-    String output = h.run();
     final List<GitCommit> rc = new ArrayList<GitCommit>();
-    for (GitLogRecord record : parser.parse(output)) {
-      final GitCommit gitCommit = createCommit(project, refs, root, record);
-      rc.add(gitCommit);
+    final VcsException[] exc = new VcsException[1];
+    runAndParse(h, parser, new Consumer<GitLogRecord>() {
+      @Override
+      public void consume(GitLogRecord record) {
+        if (exc[0] != null) {
+          return;
+        }
+        try {
+          rc.add(createCommit(project, refs, root, record));
+        }
+        catch (VcsException e) {
+          exc[0] = e;
+        }
+      }
+    });
+    if (exc[0] != null) {
+      throw exc[0];
     }
     return rc;
   }
 
+  /**
+   * Runs the given command synchronously and parses its output while it is being read from the process:
+   * records are passed to the consumer one by one and the whole output is never kept in memory.
+   */
+  private static void runAndParse(@NotNull final GitLineHandler h, @NotNull GitLogParser parser,
+                                  @NotNull Consumer<GitLogRecord> consumer) throws VcsException {
+    final GitLogParser.RecordParser recordParser = parser.createRecordParser(consumer);
+    final StringBuilder errors = new StringBuilder();
+    final VcsException[] exc = new VcsException[1];
+    h.addLineListener(new GitLineHandlerAdapter() {
+      @Override
+      public void onLineAvailable(String line, Key outputType) {
+        if (ProcessOutputTypes.STDOUT.equals(outputType)) {
+          recordParser.appendLine(line);
+        }
+        else if (ProcessOutputTypes.STDERR.equals(outputType)) {
+          errors.append(line).append("\n");
+        }
+      }
+
+      @Override
+      public void processTerminated(int exitCode) {
+        if (exitCode != 0 && !h.isIgnoredErrorCode(exitCode)) {
+          exc[0] = new VcsException(errors.length() > 0 ? errors.toString() : GitBundle.message("git.error.exit", exitCode));
+        }
+      }
+
+      @Override
+      public void startFailed(Throwable exception) {
+        exc[0] = new VcsException("Process failed to start (" + h.printableCommandLine() + "): " + exception.toString(), exception);
+      }
+    });
+    h.runInCurrentThread(null);
+    if (exc[0] != null) {
+      throw exc[0];
+    }
+    recordParser.finish();
+  }
+
   public static long getAuthorTime(Project project, FilePath path, final String commitsId) throws VcsException {
     // adjust path using change manager
     path = getLastCommitName(project, path);
@@ -868,6 +865,14 @@ public class GitHistoryUtils {
     }
 
     final Semaphore semaphore = new Semaphore();
+    final GitLogParser.RecordParser recordParser = parser.createRecordParser(new Consumer<GitLogRecord>() {
+      @Override
+      public void consume(GitLogRecord record) {
+        consumer.consume(new CommitHashPlusParents(record.getShortHash(),
+                                                   record.getParentsShortHashes(), record.getLongTimeStamp() * 1000,
+                                                   record.getAuthorName()));
+      }
+    });
     h.addLineListener(new GitLineHandlerListener() {
       @Override
       public void onLineAvailable(final String line, final Key outputType) {
@@ -877,10 +882,7 @@ public class GitHistoryUtils {
               h.cancel();
               return;
             }
-            GitLogRecord record = parser.parseOneRecord(line);
-            consumer.consume(new CommitHashPlusParents(record.getShortHash(),
-                                                       record.getParentsShortHashes(), record.getLongTimeStamp() * 1000,
-                                                       record.getAuthorName()));
+            recordParser.appendLine(line);
           }
         } catch (ProcessCanceledException e) {
           h.cancel();
@@ -901,9 +903,85 @@ public class GitHistoryUtils {
     semaphore.down();
     h.start();
     semaphore.waitFor();
+    if (isCanceled == null || !isCanceled.get()) {
+      recordParser.finish();
+    }
     consumer.finished();
   }
 
+  /**
+   * Loads the commits all refs point to, i.e. the revisions 'git log --all' starts from except a detached HEAD.
+   * Annotated tags are peeled, refs which don't point to commits are skipped.
+   *
+   * @return full ref names mapped to commit hashes
+   */
+  @NotNull
+  public static Map<String, String> loadCommitRefs(Project project, @NotNull VirtualFile root) throws VcsException {
+    final GitSimpleHandler h = new GitSimpleHandler(project, root, GitCommand.FOR_EACH_REF);
+    h.setNoSSH(true);
+    h.setSilent(true);
+    h.addParameters("--format=%(objecttype) %(objectname) %(*objecttype) %(*objectname) %(refname)");
+    final Map<String, String> refs = new HashMap<String, String>();
+    for (String line : StringUtil.splitByLines(h.run())) {
+      final String[] parts = line.split(" ", 5);
+      if (parts.length < 5) continue;
+      if ("commit".equals(parts[0])) {
+        refs.put(parts[4], parts[1]);
+      }
+      else if ("tag".equals(parts[0]) && "commit".equals(parts[2])) {
+        refs.put(parts[4], parts[3]);
+      }
+    }
+    return refs;
+  }
+
+  /**
+   * Loads commits reachable from the given heads, but not from the known commits, for the {@link GitCommitGraph}.
+   * The known commits are passed via the standard input, since there may be too many of them for the command line.
+   */
+  public static void loadCommitGraph(Project project, @NotNull VirtualFile root, @NotNull Collection<String> heads,
+                                     @NotNull final Collection<String> knownCommits, @NotNull final Consumer<GitCommitGraph.Record> consumer)
+    throws VcsException {
+    final GitLineHandler h = new GitLineHandler(project, root, GitCommand.LOG);
+    final GitLogParser parser = new GitLogParser(project, HASH, SHORT_HASH, PARENTS, COMMIT_TIME, AUTHOR_NAME);
+    h.setNoSSH(true);
+    h.setStdoutSuppressed(true);
+    h.addParameters(parser.getPretty(), "--encoding=UTF-8");
+    h.addParameters(new ArrayList<String>(heads));
+    if (!knownCommits.isEmpty()) {
+      h.addParameters("--stdin");
+      h.setInputProcessor(new Processor<OutputStream>() {
+        @Override
+        public boolean process(OutputStream stream) {
+          try {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(stream, h.getCharset()));
+            try {
+              for (String commit : knownCommits) {
+                writer.write("^" + commit + "\n");
+              }
+            }
+            finally {
+              writer.close();
+            }
+          }
+          catch (IOException e) {
+            LOG.info("Cannot pass known commits to git log", e);
+          }
+          return true;
+        }
+      });
+    }
+    h.endOptions();
+
+    runAndParse(h, parser, new Consumer<GitLogRecord>() {
+      @Override
+      public void consume(GitLogRecord record) {
+        consumer.consume(new GitCommitGraph.Record(record.getHash(), record.getShortHash(), record.getParentsHashes(),
+                                                   record.getLongTimeStamp() * 1000, record.getAuthorName()));
+      }
+    });
+  }
+
   /**
    * Get name of the file in the last commit. If file was renamed, returns the previous name.
    *
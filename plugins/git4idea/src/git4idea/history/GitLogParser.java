@@ -16,7 +16,9 @@
 package git4idea.history;
 
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.Consumer;
 import com.intellij.util.Function;
 import git4idea.GitFormatException;
 import git4idea.GitVcs;
@@ -28,8 +30,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * <p>Parses the 'git log' output basing on the given number of options.
@@ -40,7 +40,8 @@ import java.util.regex.Pattern;
  * 1. Pass options you want to have in the output to the constructor using the {@link GitLogOption} enum constants.
  * 2. Get the custom format pattern for 'git log' by calling {@link #getPretty()}
  * 3. Call the command and retrieve the output.
- * 4. Parse the output via {@link #parse(String)} or {@link #parseOneRecord(String)} (if you want the output to be parsed line by line).</p>
+ * 4. Parse the output via {@link #parse(String)} or {@link #parseOneRecord(String)}, or feed it to the {@link RecordParser} while it is being
+ *    read from the process to get records one by one without keeping the whole output in memory.</p>
  *
  * <p>The class is package visible, since it's used only in GitHistoryUtils - the class which retrieve various pieced of history information
  * in different formats from 'git log'</p>
@@ -75,25 +76,18 @@ class GitLogParser {
    * Record format:
    *
    * One git log record.
-   * RECORD_START - optional: it is split out when calling parse() but it is not when calling parseOneRecord() directly.
+   * RECORD_START - optional: the parser also accepts a record which was split out by the caller.
    * commit information separated by ITEMS_SEPARATOR.
    * RECORD_END
-   * Optionally: changed paths or paths with statuses (if --name-only or --name-status options are given).
+   * Optionally: changed paths or paths with statuses (if --name-only or --name-status options are given), one change per line.
    *
    * Example:
    * 2c815939f45fbcfda9583f84b14fe9d393ada790<ITEM_SEPARATOR>sample commit<RECORD_END>
    * D       a.txt
    */
-  private static final Pattern ONE_RECORD = Pattern.compile(RECORD_START + "?(.*)" + RECORD_END + "\n*(.*)", Pattern.DOTALL);
-  private static final String SINGLE_PATH = "([^\t\r\n]+)"; // something not empty, not a tab or newline.
-  private static final String EOL = "\\s*(?:\r|\n|\r\n)";
-  private static final String PATHS =
-    SINGLE_PATH +                    // First path - required.
-    "(?:\t" + SINGLE_PATH + ")?" +   // Second path - optional. Paths are separated by tab.
-    "(?:" + EOL + ")?";                             // Path(s) information ends with a line terminator (possibly except the last path in the output).
-
-  private static Pattern NAME_ONLY = Pattern.compile(PATHS);
-  private static Pattern NAME_STATUS = Pattern.compile("([\\S]+)\t" + PATHS);
+  private static final char RECORD_START_CHAR = '\u0001';
+  private static final char ITEMS_SEPARATOR_CHAR = '\u0002';
+  private static final char RECORD_END_CHAR = '\u0003';
 
   // --name-only, --name-status or no flag
   enum NameStatus {
@@ -159,20 +153,15 @@ class GitLogParser {
    */
   @NotNull
   List<GitLogRecord> parse(@NotNull String output) {
-    // Here is what git log returns for --pretty=tformat:^%H#%s$
-    // ^2c815939f45fbcfda9583f84b14fe9d393ada790#sample commit$
-    //
-    // D       a.txt
-    // ^b71477e9738168aa67a8d41c414f284255f81e8a#moved out$
-    //
-    // R100    dir/anew.txt    anew.txt
-    final String[] records = output.split(RECORD_START); // split by START, because END is the end of information, but not the end of the record: file status and path follow.
-    final List<GitLogRecord> res = new ArrayList<GitLogRecord>(records.length);
-    for (String record : records) {
-      if (!record.trim().isEmpty()) {  // record[0] is empty for sure, because we're splitting on RECORD_START. Just to play safe adding the check for all records.
-        res.add(parseOneRecord(record));
+    final List<GitLogRecord> res = new ArrayList<GitLogRecord>();
+    RecordParser recordParser = createRecordParser(new Consumer<GitLogRecord>() {
+      @Override
+      public void consume(GitLogRecord record) {
+        res.add(record);
       }
-    }
+    });
+    recordParser.append(output);
+    recordParser.finish();
     return res;
   }
 
@@ -185,71 +174,192 @@ class GitLogParser {
    */
   @Nullable
   GitLogRecord parseOneRecord(@NotNull String line) {
-    if (line.isEmpty()) {
-      return null;
+    final Ref<GitLogRecord> result = Ref.create();
+    RecordParser recordParser = createRecordParser(new Consumer<GitLogRecord>() {
+      @Override
+      public void consume(GitLogRecord record) {
+        if (result.isNull()) {
+          result.set(record);
+        }
+      }
+    });
+    recordParser.append(line);
+    recordParser.finish();
+    return result.get();
+  }
+
+  /**
+   * Creates a parser which accepts the 'git log' output in portions, as soon as it is read from the process,
+   * and passes every record to the given consumer as soon as the record is complete.
+   * Only the record being parsed is kept in memory, so the output of any size may be parsed this way.
+   */
+  @NotNull
+  RecordParser createRecordParser(@NotNull Consumer<GitLogRecord> consumer) {
+    return new RecordParser(consumer);
+  }
+
+  /**
+   * Incremental parser of the 'git log' output. Feed the output via {@link #append(CharSequence)} or {@link #appendLine(String)}
+   * and call {@link #finish()} when the output is over to get the last record.
+   * Not thread-safe: the output should be fed from a single thread, e.g. from a {@link git4idea.commands.GitLineHandlerListener}.
+   */
+  class RecordParser {
+    private final Consumer<GitLogRecord> myConsumer;
+    private final StringBuilder myBuffer = new StringBuilder(); // current item of commit information or current line of paths
+    @Nullable private List<String> myValues; // null between records
+    private boolean myInPaths;
+    private List<String> myPaths;
+    private List<GitLogStatusInfo> myStatuses;
+
+    private RecordParser(@NotNull Consumer<GitLogRecord> consumer) {
+      myConsumer = consumer;
+    }
+
+    void append(@NotNull CharSequence output) {
+      for (int i = 0; i < output.length(); i++) {
+        accept(output.charAt(i));
+      }
+    }
+
+    /**
+     * Accepts a line of output without the line separator, as it is passed to {@link git4idea.commands.GitLineHandlerListener}.
+     */
+    void appendLine(@NotNull String line) {
+      append(line);
+      accept('\n');
+    }
+
+    /**
+     * Passes the last record to the consumer.
+     * @throws GitFormatException if the output ended in the middle of commit information.
+     */
+    void finish() {
+      finishRecord();
+    }
+
+    private void accept(char c) {
+      if (c == RECORD_START_CHAR) {
+        finishRecord();
+        startRecord();
+        return;
+      }
+      if (myValues == null) {
+        if (Character.isWhitespace(c)) {
+          return;
+        }
+        startRecord(); // the record start could be cut off by the caller
+      }
+
+      if (!myInPaths) {
+        if (c == ITEMS_SEPARATOR_CHAR) {
+          addValue();
+        }
+        else if (c == RECORD_END_CHAR) {
+          addValue();
+          myInPaths = true;
+        }
+        else {
+          myBuffer.append(c);
+        }
+      }
+      else if (c == '\n' || c == '\r') {
+        parsePathsLine();
+      }
+      else if (myNameStatusOption != NameStatus.NONE) {
+        myBuffer.append(c);
+      }
     }
-    Matcher matcher = ONE_RECORD.matcher(line);
-    if (!matcher.matches()) {
-      throwGFE("ONE_RECORD didn't match", line);
+
+    private void startRecord() {
+      myValues = new ArrayList<String>(myOptions.length);
+      myPaths = new ArrayList<String>(1);
+      myStatuses = new ArrayList<GitLogStatusInfo>();
+      myInPaths = false;
     }
-    String commitInfo = matcher.group(1);
-    if (commitInfo == null) {
-      throwGFE("No match for group#1 in", line);
+
+    private void addValue() {
+      assert myValues != null;
+      myValues.add(myBuffer.toString());
+      myBuffer.setLength(0);
     }
 
-    final Map<GitLogOption, String> res = parseCommitInfo(commitInfo);
+    private void finishRecord() {
+      final List<String> values = myValues;
+      if (values == null) {
+        return;
+      }
+      if (!myInPaths) {
+        String line = myBuffer.toString();
+        reset();
+        throwGFE("Record end is missing in", StringUtil.join(values, ITEMS_SEPARATOR) + ITEMS_SEPARATOR + line);
+      }
+      parsePathsLine();
+      final GitLogRecord record = new GitLogRecord(toOptionsMap(values), myPaths, myStatuses, mySupportsRawBody);
+      reset();
+      myConsumer.consume(record);
+    }
 
-    // parsing status and path (if given)
-    final List<String> paths = new ArrayList<String>(1);
-    final List<GitLogStatusInfo> statuses = new ArrayList<GitLogStatusInfo>();
+    private void reset() {
+      myValues = null;
+      myPaths = null;
+      myStatuses = null;
+      myInPaths = false;
+      myBuffer.setLength(0);
+    }
 
-    if (myNameStatusOption != NameStatus.NONE) {
-      String pathsAndStatuses = matcher.group(2);
-      if (pathsAndStatuses == null) {
-        throwGFE("No match for group#2 in", line);
+    private void parsePathsLine() {
+      if (myBuffer.length() == 0) {
+        return;
+      }
+      final String line = myBuffer.toString();
+      myBuffer.setLength(0);
+      if (StringUtil.isEmptyOrSpaces(line)) {
+        return;
       }
 
       if (myNameStatusOption == NameStatus.NAME) {
-        Matcher pathsMatcher = NAME_ONLY.matcher(pathsAndStatuses);
-        while (pathsMatcher.find()) {
-          String path1 = pathsMatcher.group(1);
-          String path2 = pathsMatcher.group(2);
-          assertNotNull(path1, "path", pathsAndStatuses);
-          paths.add(path1);
-          if (path2 != null) { // null is perfectly legal here: second path is given only in case of rename
-            paths.add(path2);
-          }
+        // path, or two paths separated by tab in case of rename
+        int tab = line.indexOf('\t');
+        if (tab == 0) {
+          throwGFE("Unexpectedly empty path in", line);
+        }
+        myPaths.add(tab < 0 ? line : line.substring(0, tab));
+        if (tab > 0 && tab < line.length() - 1) {
+          myPaths.add(line.substring(tab + 1));
         }
       }
       else {
-        Matcher nameStatusMatcher = NAME_STATUS.matcher(pathsAndStatuses);
-        while (nameStatusMatcher.find()) {
-          String status = nameStatusMatcher.group(1);
-          String path1 = nameStatusMatcher.group(2);
-          String path2 = nameStatusMatcher.group(3);
-          assertNotNull(status, "status", pathsAndStatuses);
-          assertNotNull(path1, "path1", pathsAndStatuses);
-          paths.add(path1);
-          if (path2 != null) {
-            paths.add(path2);
-          }
-          statuses.add(new GitLogStatusInfo(GitChangeType.fromString(status), path1, path2));
+        // status, path and the second path in case of rename, all separated by tabs
+        int tab = line.indexOf('\t');
+        if (tab < 0) {
+          return; // not a status line
+        }
+        String status = line.substring(0, tab).trim();
+        int secondTab = line.indexOf('\t', tab + 1);
+        String path1 = secondTab < 0 ? line.substring(tab + 1) : line.substring(tab + 1, secondTab);
+        String path2 = secondTab < 0 || secondTab == line.length() - 1 ? null : line.substring(secondTab + 1);
+        if (status.isEmpty()) {
+          throwGFE("Unexpectedly empty status in", line);
         }
+        if (path1.isEmpty()) {
+          throwGFE("Unexpectedly empty path1 in", line);
+        }
+        myPaths.add(path1);
+        if (path2 != null) {
+          myPaths.add(path2);
+        }
+        myStatuses.add(new GitLogStatusInfo(GitChangeType.fromString(status), path1, path2));
       }
     }
-    return new GitLogRecord(res, paths, statuses, mySupportsRawBody);
   }
 
-
   @NotNull
-  private Map<GitLogOption, String> parseCommitInfo(@NotNull String commitInfo) {
-    // parsing revision information
+  private Map<GitLogOption, String> toOptionsMap(@NotNull List<String> values) {
     // we rely on the order of options
-    final String[] values = commitInfo.split(ITEMS_SEPARATOR);
-    final Map<GitLogOption, String> res = new HashMap<GitLogOption, String>(values.length);
+    final Map<GitLogOption, String> res = new HashMap<GitLogOption, String>(myOptions.length);
     int i = 0;
-    for (; i < values.length && i < myOptions.length; i++) {  // fill valid values
-      res.put(myOptions[i], values[i]);
+    for (; i < values.size() && i < myOptions.length; i++) {  // fill valid values
+      res.put(myOptions[i], values.get(i));
     }
     for (; i < myOptions.length; i++) {  // options which were not returned are set to blank string, extra options are ignored.
       res.put(myOptions[i], "");
@@ -257,12 +367,6 @@ class GitLogParser {
     return res;
   }
 
-  private static void assertNotNull(String value, String valueName, String line) {
-    if (value == null) {
-      throwGFE("Unexpectedly null " + valueName + " in ", line);
-    }
-  }
-
   private static void throwGFE(String message, String line) {
     throw new GitFormatException(message + " [" + StringUtil.escapeStringCharacters(line) + "]");
   }
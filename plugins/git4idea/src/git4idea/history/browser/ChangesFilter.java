@@ -396,6 +396,11 @@ public class ChangesFilter {
       };
     }
 
+    // exclusive bound
+    public Date getDate() {
+      return myDate;
+    }
+
     public CommandParametersFilter getCommandParametersFilter() {
       return myCommandParametersFilter;
     }
@@ -446,6 +451,11 @@ public class ChangesFilter {
       };
     }
 
+    // exclusive bound
+    public Date getDate() {
+      return myDate;
+    }
+
     public CommandParametersFilter getCommandParametersFilter() {
       return myCommandParametersFilter;
     }
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.history.wholeTree;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.io.EnumeratorIntegerDescriptor;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.PagedFileStorage;
+import com.intellij.util.io.PersistentHashMap;
+import com.intellij.util.io.PersistentStringEnumerator;
+import com.intellij.util.io.ResizeableMappedFile;
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Persistent graph of the commits of one repository: hashes, parents, commit times and authors, plus the ref pointers
+ * the graph was last updated for. Records and parents are kept in memory-mapped files, so opening the log needs neither git
+ * nor reading the whole graph into memory; {@link GitCommitGraphIndex} appends only the commits which appeared since the last update.
+ * <p/>
+ * Every commit gets a record number when it is met for the first time, either as a commit or as a parent of a commit.
+ * A record is complete when the commit itself was added; records known only as parents are not shown.
+ * <p/>
+ * Updates are done by {@link GitCommitGraphIndex}, log loaders only read the graph; all the accessors are synchronized.
+ */
+public class GitCommitGraph {
+  private static final Logger LOG = Logger.getInstance("#git4idea.history.wholeTree.GitCommitGraph");
+
+  private static final int VERSION = 1;
+  private static final int DEFAULT_ABBREV = 7;
+
+  // record: hash (20 bytes), length of the abbreviated hash (0 if the record is not complete), commit time, author, parents offset and count
+  private static final int HASH_BYTES = 20;
+  private static final int ABBREV_OFFSET = HASH_BYTES;
+  private static final int TIME_OFFSET = ABBREV_OFFSET + 4;
+  private static final int AUTHOR_OFFSET = TIME_OFFSET + 8;
+  private static final int PARENTS_OFFSET = AUTHOR_OFFSET + 4;
+  private static final int PARENTS_COUNT_OFFSET = PARENTS_OFFSET + 4;
+  private static final int RECORD_SIZE = PARENTS_COUNT_OFFSET + 4;
+
+  // header occupies record 0: version, number of records, number of parent ints
+  private static final int HEADER_VERSION_OFFSET = 0;
+  private static final int HEADER_COUNT_OFFSET = 4;
+  private static final int HEADER_PARENTS_OFFSET = 8;
+
+  private final File myDir;
+  private final PersistentHashMap<String, Integer> myHashes;
+  private final ResizeableMappedFile myRecords;
+  private final ResizeableMappedFile myParents;
+  private final PersistentStringEnumerator myAuthors;
+  private final File myRefsFile;
+  private final File myDirtyMarker;
+  private Map<String, String> myRefs;
+  private int myCount;
+  private int myParentsSize;
+
+  /**
+   * Opens the graph stored in the given directory, the graph which was not updated completely or was written
+   * by another version is dropped.
+   */
+  @NotNull
+  static GitCommitGraph open(@NotNull File dir) throws IOException {
+    if (new File(dir, "dirty").exists()) {
+      FileUtil.delete(dir);
+    }
+    try {
+      return new GitCommitGraph(dir);
+    }
+    catch (IOException e) {
+      LOG.info("Commit graph in " + dir + " is dropped: " + e.getMessage());
+      FileUtil.delete(dir);
+      return new GitCommitGraph(dir);
+    }
+  }
+
+  private GitCommitGraph(@NotNull File dir) throws IOException {
+    myDir = dir;
+    myDirtyMarker = new File(dir, "dirty");
+    myRefsFile = new File(dir, "refs");
+    FileUtil.createDirectory(dir);
+
+    final PagedFileStorage.StorageLockContext context = new PagedFileStorage.StorageLock(false).myDefaultStorageLockContext;
+    myHashes = new PersistentHashMap<String, Integer>(new File(dir, "hashes"), new EnumeratorStringDescriptor(),
+                                                      EnumeratorIntegerDescriptor.INSTANCE);
+    myRecords = new ResizeableMappedFile(new File(dir, "commits"), RECORD_SIZE * 1024, context, -1, false);
+    myParents = new ResizeableMappedFile(new File(dir, "parents"), 4 * 1024, context, -1, false);
+    myAuthors = new PersistentStringEnumerator(new File(dir, "authors"), context);
+
+    if (myRecords.length() == 0) {
+      myRecords.putInt(HEADER_VERSION_OFFSET, VERSION);
+      myRecords.putInt(HEADER_COUNT_OFFSET, 0);
+      myRecords.putInt(HEADER_PARENTS_OFFSET, 0);
+      myRecords.put(RECORD_SIZE - 1, (byte)0);
+    }
+    else if (myRecords.getInt(HEADER_VERSION_OFFSET) != VERSION) {
+      close();
+      throw new IOException("Version mismatch");
+    }
+    myCount = myRecords.getInt(HEADER_COUNT_OFFSET);
+    myParentsSize = myRecords.getInt(HEADER_PARENTS_OFFSET);
+    myRefs = readRefs(myRefsFile);
+  }
+
+  @NotNull
+  File getDir() {
+    return myDir;
+  }
+
+  /**
+   * @return ref pointers (full ref name to commit hash) the graph was last updated for
+   */
+  @NotNull
+  synchronized Map<String, String> getRefs() {
+    return myRefs;
+  }
+
+  synchronized void setRefs(@NotNull Map<String, String> refs) throws IOException {
+    if (refs.equals(myRefs)) return;
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myRefsFile)));
+    try {
+      out.writeInt(refs.size());
+      for (Map.Entry<String, String> entry : refs.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeUTF(entry.getValue());
+      }
+    }
+    finally {
+      out.close();
+    }
+    myRefs = new HashMap<String, String>(refs);
+  }
+
+  @NotNull
+  private static Map<String, String> readRefs(@NotNull File file) throws IOException {
+    final Map<String, String> refs = new HashMap<String, String>();
+    if (!file.exists()) return refs;
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      for (int i = in.readInt(); i > 0; i--) {
+        refs.put(in.readUTF(), in.readUTF());
+      }
+    }
+    finally {
+      in.close();
+    }
+    return refs;
+  }
+
+  /**
+   * Marks the graph as being updated: if the update is not finished, the graph is dropped on the next opening.
+   */
+  synchronized void startUpdate() throws IOException {
+    FileUtil.createIfDoesntExist(myDirtyMarker);
+  }
+
+  synchronized void finishUpdate() {
+    flush();
+    FileUtil.delete(myDirtyMarker);
+  }
+
+  void flush() {
+    myHashes.force();
+    myRecords.force();
+    myParents.force();
+    myAuthors.force();
+  }
+
+  synchronized void close() throws IOException {
+    try {
+      myHashes.close();
+    }
+    finally {
+      try {
+        myRecords.close();
+        myParents.close();
+      }
+      finally {
+        myAuthors.close();
+      }
+    }
+  }
+
+  synchronized int getCount() {
+    return myCount;
+  }
+
+  /**
+   * Adds a commit, commits which are already complete are skipped.
+   */
+  synchronized void add(@NotNull Record commit) throws IOException {
+    final int record = getOrCreateRecord(commit.myHash);
+    final int base = record * RECORD_SIZE;
+    if (myRecords.getInt(base + ABBREV_OFFSET) != 0) return;
+
+    final int parentsOffset = myParentsSize;
+    for (String parent : commit.myParents) {
+      myParents.putInt(myParentsSize * 4, getOrCreateRecord(parent));
+      myParentsSize++;
+    }
+    myRecords.putLong(base + TIME_OFFSET, commit.myTime);
+    myRecords.putInt(base + AUTHOR_OFFSET, myAuthors.enumerate(commit.myAuthor));
+    myRecords.putInt(base + PARENTS_OFFSET, parentsOffset);
+    myRecords.putInt(base + PARENTS_COUNT_OFFSET, commit.myParents.length);
+    myRecords.putInt(base + ABBREV_OFFSET, Math.max(1, Math.min(commit.myShortHash.length(), HASH_BYTES * 2)));
+    myRecords.putInt(HEADER_PARENTS_OFFSET, myParentsSize);
+  }
+
+  private int getOrCreateRecord(@NotNull String hash) throws IOException {
+    final Integer existing = myHashes.get(hash);
+    if (existing != null) return existing;
+
+    final int record = ++myCount;
+    final byte[] bytes = toBytes(hash);
+    myRecords.put(record * RECORD_SIZE, bytes, 0, bytes.length);
+    myRecords.putInt(record * RECORD_SIZE + ABBREV_OFFSET, 0);
+    myRecords.putInt(record * RECORD_SIZE + PARENTS_COUNT_OFFSET, 0);
+    myRecords.putInt(HEADER_COUNT_OFFSET, myCount);
+    myHashes.put(hash, record);
+    return record;
+  }
+
+  /**
+   * @return number of the complete record of the commit with the given full hash, or -1 if there is no such commit in the graph
+   */
+  synchronized int find(@NotNull String hash) throws IOException {
+    final Integer record = myHashes.get(hash);
+    return record != null && isComplete(record) ? record : -1;
+  }
+
+  private boolean isComplete(int record) {
+    return myRecords.getInt(record * RECORD_SIZE + ABBREV_OFFSET) != 0;
+  }
+
+  synchronized long getTime(int record) {
+    return myRecords.getLong(record * RECORD_SIZE + TIME_OFFSET);
+  }
+
+  @NotNull
+  int[] getParents(int record) {
+    final int base = record * RECORD_SIZE;
+    final int count = myRecords.getInt(base + PARENTS_COUNT_OFFSET);
+    if (count == 0) return ArrayUtil.EMPTY_INT_ARRAY;
+    final int offset = myRecords.getInt(base + PARENTS_OFFSET);
+    final int[] parents = new int[count];
+    for (int i = 0; i < count; i++) {
+      parents[i] = myParents.getInt((offset + i) * 4);
+    }
+    return parents;
+  }
+
+  @NotNull
+  synchronized String getHash(int record) {
+    final byte[] bytes = new byte[HASH_BYTES];
+    myRecords.get(record * RECORD_SIZE, bytes, 0, HASH_BYTES);
+    return toHex(bytes);
+  }
+
+  @NotNull
+  synchronized CommitHashPlusParents getCommit(int record) throws IOException {
+    final int base = record * RECORD_SIZE;
+    final int[] parents = getParents(record);
+    final String[] parentHashes = new String[parents.length];
+    for (int i = 0; i < parents.length; i++) {
+      parentHashes[i] = getShortHash(parents[i]);
+    }
+    return new CommitHashPlusParents(getShortHash(record), parentHashes, getTime(record),
+                                     myAuthors.valueOf(myRecords.getInt(base + AUTHOR_OFFSET)));
+  }
+
+  @NotNull
+  private String getShortHash(int record) {
+    final int abbrev = myRecords.getInt(record * RECORD_SIZE + ABBREV_OFFSET);
+    return getHash(record).substring(0, abbrev == 0 ? DEFAULT_ABBREV : abbrev);
+  }
+
+  /**
+   * Sorts the commits reachable from the given ones the way 'git log --date-order' does:
+   * no commit is shown before all its children are shown, otherwise newer commits go first.
+   */
+  @NotNull
+  synchronized int[] sortReachable(@NotNull int[] heads) {
+    final int[] children = new int[myCount + 1];
+    final BitSet reachable = new BitSet(myCount + 1);
+    final TIntArrayList stack = new TIntArrayList();
+    for (int head : heads) {
+      if (!reachable.get(head) && isComplete(head)) {
+        reachable.set(head);
+        stack.add(head);
+      }
+    }
+    int size = stack.size();
+    while (!stack.isEmpty()) {
+      final int record = stack.remove(stack.size() - 1);
+      for (int parent : getParents(record)) {
+        if (!isComplete(parent)) continue;
+        children[parent]++;
+        if (!reachable.get(parent)) {
+          reachable.set(parent);
+          stack.add(parent);
+          size++;
+        }
+      }
+    }
+
+    final long[] times = new long[myCount + 1];
+    final int[] queued = new int[myCount + 1];
+    final PriorityQueue<Integer> queue = new PriorityQueue<Integer>(Math.max(1, heads.length), new Comparator<Integer>() {
+      @Override
+      public int compare(Integer r1, Integer r2) {
+        final long t1 = times[r1];
+        final long t2 = times[r2];
+        if (t1 != t2) return t1 > t2 ? -1 : 1;
+        return queued[r1] - queued[r2]; // git keeps commits with the same time in the order they were queued
+      }
+    });
+    int queuedCount = 0;
+    for (int head : heads) {
+      if (reachable.get(head) && children[head] == 0 && queued[head] == 0) {
+        times[head] = getTime(head);
+        queued[head] = ++queuedCount;
+        queue.add(head);
+      }
+    }
+
+    final int[] result = new int[size];
+    int count = 0;
+    while (!queue.isEmpty()) {
+      final int record = queue.poll();
+      result[count++] = record;
+      for (int parent : getParents(record)) {
+        if (isComplete(parent) && --children[parent] == 0) {
+          times[parent] = getTime(parent);
+          queued[parent] = ++queuedCount;
+          queue.add(parent);
+        }
+      }
+    }
+    LOG.assertTrue(count == size, "Cycle in the commit graph");
+    return count == size ? result : ArrayUtil.realloc(result, count);
+  }
+
+  @NotNull
+  private static byte[] toBytes(@NotNull String hash) throws IOException {
+    if (hash.length() != HASH_BYTES * 2) throw new IOException("Unexpected hash: " + hash);
+    final byte[] bytes = new byte[HASH_BYTES];
+    for (int i = 0; i < HASH_BYTES; i++) {
+      final int high = Character.digit(hash.charAt(2 * i), 16);
+      final int low = Character.digit(hash.charAt(2 * i + 1), 16);
+      if (high < 0 || low < 0) throw new IOException("Unexpected hash: " + hash);
+      bytes[i] = (byte)((high << 4) | low);
+    }
+    return bytes;
+  }
+
+  @NotNull
+  private static String toHex(@NotNull byte[] bytes) {
+    final char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+      chars[2 * i + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+    }
+    return new String(chars);
+  }
+
+  /**
+   * A commit as it is read from 'git log' for the graph.
+   */
+  public static class Record {
+    private final String myHash;
+    private final String myShortHash;
+    private final String[] myParents;
+    private final long myTime;
+    private final String myAuthor;
+
+    /**
+     * @param hash      full hash of the commit
+     * @param shortHash abbreviated hash as it is shown by git
+     * @param parents   full hashes of the parents
+     * @param time      commit time in milliseconds
+     * @param author    author name
+     */
+    public Record(@NotNull String hash, @NotNull String shortHash, @NotNull String[] parents, long time, @Nullable String author) {
+      myHash = hash;
+      myShortHash = shortHash;
+      myParents = parents;
+      myTime = time;
+      myAuthor = author == null ? "" : author;
+    }
+  }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.history.wholeTree;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.Consumer;
+import com.intellij.util.Processor;
+import git4idea.GitUtil;
+import git4idea.history.GitHistoryUtils;
+import git4idea.history.browser.CachedRefs;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * !! application-level
+ *
+ * Keeps {@link GitCommitGraph}s of the repositories under system/vcs/git_graph and brings them up to date with the refs:
+ * only the commits which are not in the graph yet are read from git.
+ */
+public class GitCommitGraphIndex implements Disposable {
+  private static final Logger LOG = Logger.getInstance("#git4idea.history.wholeTree.GitCommitGraphIndex");
+
+  private final File myDir;
+  private final Map<String, GraphHolder> myGraphs; // guarded by itself, each holder is guarded by itself
+
+  public static GitCommitGraphIndex getInstance() {
+    return ServiceManager.getService(GitCommitGraphIndex.class);
+  }
+
+  public GitCommitGraphIndex() {
+    myDir = new File(new File(PathManager.getSystemPath(), "vcs"), "git_graph");
+    myGraphs = new HashMap<String, GraphHolder>();
+  }
+
+  /**
+   * Updates the graph of the repository with the commits of all its refs (the ones 'git log --all' starts from),
+   * if they changed since the last update. Only the graph of the given repository is locked while git runs.
+   * The refs are read from git again only if .git/refs or .git/packed-refs changed since the last call.
+   * <p/>
+   * The returned graph stays open until it is {@link #release(VirtualFile, GitCommitGraph) released}, even if it is dropped meanwhile.
+   *
+   * @return the graph, or null if the refs can not be served from the graph (e.g. HEAD is detached) or git failed
+   */
+  @Nullable
+  public GitCommitGraph getUpToDateGraph(@NotNull Project project, @NotNull VirtualFile root, @NotNull CachedRefs refs) {
+    if (refs.getCurrent() == null) return null;
+
+    final GraphHolder holder = getHolder(root);
+    synchronized (holder) {
+      if (holder.myDropped) return null; // readers of the dropped graph are not done yet
+      GitCommitGraph graph = null;
+      try {
+        final long refsStamp = getRefsStamp(root);
+        Map<String, String> heads = refsStamp != 0 && refsStamp == holder.myRefsStamp ? holder.myRefs : null;
+        if (heads == null) {
+          heads = GitHistoryUtils.loadCommitRefs(project, root);
+        }
+        graph = holder.getGraph();
+        if (!heads.equals(graph.getRefs())) {
+          update(project, root, graph, heads);
+        }
+        holder.myRefs = heads;
+        holder.myRefsStamp = refsStamp;
+        ++holder.myReaders;
+        return graph;
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+      catch (VcsException e) {
+        LOG.info(e);
+      }
+      if (graph != null) {
+        holder.drop();
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Registers one more reader of the graph got from {@link #getUpToDateGraph(Project, VirtualFile, CachedRefs)} earlier.
+   *
+   * @return false if the graph was dropped since then, record numbers of the old graph mean nothing then
+   */
+  public boolean acquire(@NotNull VirtualFile root, @NotNull GitCommitGraph graph) {
+    final GraphHolder holder = getHolder(root);
+    synchronized (holder) {
+      if (holder.myDropped || holder.myGraph != graph) return false;
+      ++holder.myReaders;
+      return true;
+    }
+  }
+
+  /**
+   * Returns the graph got from {@link #getUpToDateGraph(Project, VirtualFile, CachedRefs)} or {@link #acquire(VirtualFile, GitCommitGraph)}
+   * back, the graph is closed after the last reader releases it if it was dropped.
+   */
+  public void release(@NotNull VirtualFile root, @NotNull GitCommitGraph graph) {
+    final GraphHolder holder;
+    synchronized (myGraphs) {
+      holder = myGraphs.get(root.getPath());
+    }
+    if (holder == null) return;
+    synchronized (holder) {
+      if (holder.myGraph != graph) return;
+      --holder.myReaders;
+      if (holder.myDropped && holder.myReaders == 0) {
+        holder.drop();
+      }
+    }
+  }
+
+  /**
+   * @return a stamp of the ref files of the repository, 0 if it can't be computed and refs should be read from git
+   */
+  private static long getRefsStamp(@NotNull VirtualFile root) {
+    final VirtualFile gitDir = GitUtil.findGitDir(root);
+    if (gitDir == null) return 0;
+    final File dir = VfsUtilCore.virtualToIoFile(gitDir);
+    final File packedRefs = new File(dir, "packed-refs");
+    final long[] stamp = {31 * packedRefs.lastModified() + packedRefs.length()};
+    FileUtil.processFilesRecursively(new File(dir, "refs"), new Processor<File>() {
+      @Override
+      public boolean process(File file) {
+        // the names are included too, since ref files may be deleted or renamed without a timestamp change
+        stamp[0] = 31 * (31 * stamp[0] + file.getName().hashCode()) + file.lastModified();
+        return true;
+      }
+    });
+    return stamp[0] != 0 ? stamp[0] : 1;
+  }
+
+  private static void update(@NotNull Project project, @NotNull VirtualFile root, @NotNull final GitCommitGraph graph,
+                             @NotNull Map<String, String> heads) throws IOException, VcsException {
+    final Set<String> newHeads = new HashSet<String>();
+    for (String hash : heads.values()) {
+      if (graph.find(hash) < 0) {
+        newHeads.add(hash);
+      }
+    }
+    if (!newHeads.isEmpty()) {
+      final Set<String> known = new HashSet<String>();
+      for (String hash : graph.getRefs().values()) {
+        if (graph.find(hash) >= 0) {
+          known.add(hash);
+        }
+      }
+
+      graph.startUpdate();
+      final IOException[] exc = new IOException[1];
+      GitHistoryUtils.loadCommitGraph(project, root, newHeads, known, new Consumer<GitCommitGraph.Record>() {
+        @Override
+        public void consume(GitCommitGraph.Record record) {
+          if (exc[0] != null) return;
+          try {
+            graph.add(record);
+          }
+          catch (IOException e) {
+            exc[0] = e;
+          }
+        }
+      });
+      if (exc[0] != null) {
+        throw exc[0];
+      }
+      graph.finishUpdate();
+    }
+    graph.setRefs(heads);
+  }
+
+  @NotNull
+  private GraphHolder getHolder(@NotNull VirtualFile root) {
+    final String path = root.getPath();
+    synchronized (myGraphs) {
+      GraphHolder holder = myGraphs.get(path);
+      if (holder == null) {
+        holder = new GraphHolder(new File(myDir, root.getName() + "." + Integer.toHexString(path.hashCode())));
+        myGraphs.put(path, holder);
+      }
+      return holder;
+    }
+  }
+
+  @Override
+  public void dispose() {
+    final List<GraphHolder> holders;
+    synchronized (myGraphs) {
+      holders = new ArrayList<GraphHolder>(myGraphs.values());
+      myGraphs.clear();
+    }
+    for (GraphHolder holder : holders) {
+      synchronized (holder) {
+        holder.close();
+      }
+    }
+  }
+
+  private static class GraphHolder {
+    private final File myDir;
+    private GitCommitGraph myGraph;
+    private int myReaders; // log loaders reading myGraph
+    private boolean myDropped; // myGraph is to be deleted when the last reader is done
+    private Map<String, String> myRefs; // refs as of myRefsStamp
+    private long myRefsStamp;
+
+    private GraphHolder(@NotNull File dir) {
+      myDir = dir;
+    }
+
+    @NotNull
+    private GitCommitGraph getGraph() throws IOException {
+      if (myGraph == null) {
+        myGraph = GitCommitGraph.open(myDir);
+      }
+      return myGraph;
+    }
+
+    private void drop() {
+      myRefs = null;
+      myRefsStamp = 0;
+      if (myReaders > 0) {
+        myDropped = true;
+        return;
+      }
+      myDropped = false;
+      close();
+      FileUtil.delete(myDir);
+    }
+
+    private void close() {
+      if (myGraph == null) return;
+      try {
+        myGraph.close();
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+      myGraph = null;
+    }
+  }
+}
@@ -12,6 +12,7 @@
  */
 package git4idea.history.wholeTree;
 
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Getter;
@@ -21,22 +22,29 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.AsynchConsumer;
 import com.intellij.util.BufferedListConsumer;
 import com.intellij.util.Consumer;
+import com.intellij.util.SystemProperties;
 import com.intellij.util.Ticket;
 import com.intellij.util.containers.Convertor;
+import git4idea.GitBranch;
+import git4idea.GitTag;
+import git4idea.history.browser.CachedRefs;
 import git4idea.history.browser.ChangesFilter;
 import git4idea.history.browser.GitCommit;
 import git4idea.history.browser.LowLevelAccessImpl;
 import git4idea.history.browser.SymbolicRefsI;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * @author irengrig
  */
 public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlusParents> {
+  private static final Logger LOG = Logger.getInstance("#git4idea.history.wholeTree.LoaderAndRefresherImpl");
   private final static int ourFirstLoadCount = 15;
   private final static int ourPreload = (! parameterCheck(Integer.getInteger("git.log.preload.size"))) ? 100 : Integer.getInteger("git.log.preload.size");
+  private final static boolean ourUseGraphIndex = SystemProperties.getBooleanProperty("git.log.graph.index", true);
 
   private final Collection<String> myStartingPoints;
   private final Ticket myTicket;
@@ -60,6 +68,11 @@ public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlus
   @NotNull
   private volatile StepType myStepType;
   private final boolean myTopoOrder;
+  // commits in the log order, when they are read from the commit graph index
+  private GitCommitGraph myGraph;
+  private int[] myGraphOrder;
+  private int myGraphPosition;
+  private boolean myGraphChecked;
 
   private static boolean parameterCheck(final Integer i) {
     return i != null && i > 0;
@@ -229,6 +242,8 @@ public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlus
 
   public void setSymbolicRefs(SymbolicRefsI symbolicRefs) {
     mySymbolicRefs = symbolicRefs;
+    myGraphChecked = false;
+    myGraphOrder = null;
   }
 
   // true - load is complete //if (gitCommit.getParentsHashes().isEmpty())
@@ -284,6 +299,7 @@ public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlus
 
   private void loadShort(final long continuation, int maxCount) {
     final Collection<ChangesFilter.Filter> filters = addContinuation(continuation);
+    if (loadFromGraph(filters, maxCount)) return;
     try {
       myLowLevelAccess.loadHashesWithParents(myStartingPoints, filters, myRepeatingLoadConsumer, myProgressAnalog, maxCount, myTopoOrder);
     }
@@ -292,6 +308,106 @@ public class LoaderAndRefresherImpl implements LoaderAndRefresher<CommitHashPlus
     }
   }
 
+  // the same commits 'git log --date-order' would give, without running git if the branches did not change
+  private boolean loadFromGraph(final Collection<ChangesFilter.Filter> filters, int maxCount) {
+    if (myGraphOrder == null && ! initGraph()) return false;
+
+    long before = Long.MAX_VALUE;
+    long after = Long.MIN_VALUE;
+    for (ChangesFilter.Filter filter : filters) {
+      if (filter instanceof ChangesFilter.BeforeDate) {
+        before = Math.min(before, ((ChangesFilter.BeforeDate)filter).getDate().getTime());
+      } else if (filter instanceof ChangesFilter.AfterDate) {
+        after = Math.max(after, ((ChangesFilter.AfterDate)filter).getDate().getTime());
+      } else {
+        return false;
+      }
+    }
+
+    // the graph may have been dropped since initGraph(), its record numbers are valid only while it's acquired
+    final GitCommitGraphIndex index = GitCommitGraphIndex.getInstance();
+    if (! index.acquire(myRootHolder.getRoot(), myGraph)) {
+      myGraphOrder = null;
+      return false;
+    }
+    // the consumer skips everything before the last loaded commit, so start from it
+    if (myRepeatingLoadConsumer.getLast() == null) {
+      myGraphPosition = 0;
+    }
+    try {
+      int cnt = 0;
+      for (int i = myGraphPosition; i < myGraphOrder.length && cnt < maxCount; i++) {
+        if (isInterrupted()) return true;
+        final long time = myGraph.getTime(myGraphOrder[i]);
+        if (time >= before || time <= after) continue;
+        myRepeatingLoadConsumer.consume(myGraph.getCommit(myGraphOrder[i]));
+        myGraphPosition = i;
+        ++ cnt;
+      }
+      myRepeatingLoadConsumer.finished();
+    }
+    catch (ProcessCanceledException e) {
+      // project is closed
+    }
+    catch (IOException e) {
+      // the consumer skips the commits loaded again by git
+      LOG.info(e);
+      myGraphOrder = null;
+      return false;
+    }
+    finally {
+      index.release(myRootHolder.getRoot(), myGraph);
+    }
+    return true;
+  }
+
+  private boolean initGraph() {
+    if (myGraphChecked) return false;
+    myGraphChecked = true;
+    if (! ourUseGraphIndex || myTopoOrder || ! (mySymbolicRefs instanceof CachedRefs)) return false;
+    for (ChangesFilter.Filter filter : myFilters) {
+      if (! (filter instanceof ChangesFilter.BeforeDate) && ! (filter instanceof ChangesFilter.AfterDate)) return false;
+    }
+
+    final GitCommitGraph graph = GitCommitGraphIndex.getInstance().getUpToDateGraph(myProject, myRootHolder.getRoot(),
+                                                                                     (CachedRefs)mySymbolicRefs);
+    if (graph == null) return false;
+    try {
+      return initGraphOrder(graph);
+    }
+    finally {
+      GitCommitGraphIndex.getInstance().release(myRootHolder.getRoot(), graph);
+    }
+  }
+
+  private boolean initGraphOrder(@NotNull GitCommitGraph graph) {
+    // the graph refs are all the refs 'git log --all' starts from
+    final Map<String, String> refs = graph.getRefs();
+    final Collection<String> startingPoints = myStartingPoints.isEmpty() ? refs.values() : myStartingPoints;
+    final int[] heads = new int[startingPoints.size()];
+    int i = 0;
+    try {
+      for (String point : startingPoints) {
+        String hash = refs.get(point);
+        if (hash == null) hash = refs.get(GitBranch.REFS_HEADS_PREFIX + point);
+        if (hash == null) hash = refs.get(GitBranch.REFS_REMOTES_PREFIX + point);
+        if (hash == null) hash = refs.get(GitTag.REFS_TAGS_PREFIX + point);
+        if (hash == null) hash = point;
+        heads[i] = graph.find(hash);
+        // other revisions (e.g. relative ones) are left to git
+        if (heads[i] < 0) return false;
+        ++ i;
+      }
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      return false;
+    }
+    myGraph = graph;
+    myGraphOrder = graph.sortReachable(heads);
+    return true;
+  }
+
   interface MyRootHolder {
     VirtualFile getRoot();
     CommitI decorateByRoot(final CommitI commitI);
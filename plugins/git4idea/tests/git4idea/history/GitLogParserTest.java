@@ -22,6 +22,7 @@ import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.Change;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.testFramework.LightVirtualFile;
+import com.intellij.util.Consumer;
 import com.intellij.util.containers.ContainerUtil;
 import git4idea.GitUtil;
 import git4idea.test.GitTest;
@@ -146,6 +147,46 @@ public class GitLogParserTest extends GitTest {
     assertAllRecords(actualRecords, expectedRecords, nameStatusOption);
   }
 
+  @Test
+  public void parseAllLineByLine() throws VcsException {
+    myParser = new GitLogParser(myProject, NameStatus.STATUS, GIT_LOG_OPTIONS);
+    final List<GitLogRecord> actualRecords = new ArrayList<GitLogRecord>();
+    RecordParser recordParser = myParser.createRecordParser(new Consumer<GitLogRecord>() {
+      @Override
+      public void consume(GitLogRecord record) {
+        actualRecords.add(record);
+      }
+    });
+    String output = prepareOutputForAllRecords(GitTestLogRecord.NameStatusOption.STATUS);
+    for (String line : output.split("\n")) {
+      int recordsBefore = actualRecords.size();
+      recordParser.appendLine(line);
+      // a record is passed to the consumer as soon as the next one starts, without waiting for the end of the output
+      assertTrue(actualRecords.size() == recordsBefore || line.startsWith(RECORD_START));
+    }
+    assertEquals(actualRecords.size(), ALL_RECORDS.size() - 1);
+    recordParser.finish();
+    assertAllRecords(actualRecords, ALL_RECORDS, GitTestLogRecord.NameStatusOption.STATUS);
+  }
+
+  @Test
+  public void parseAllInChunks() throws VcsException {
+    myParser = new GitLogParser(myProject, NameStatus.NAME, GIT_LOG_OPTIONS);
+    final List<GitLogRecord> actualRecords = new ArrayList<GitLogRecord>();
+    RecordParser recordParser = myParser.createRecordParser(new Consumer<GitLogRecord>() {
+      @Override
+      public void consume(GitLogRecord record) {
+        actualRecords.add(record);
+      }
+    });
+    String output = prepareOutputForAllRecords(GitTestLogRecord.NameStatusOption.NAME);
+    for (int i = 0; i < output.length(); i += 7) {
+      recordParser.append(output.substring(i, Math.min(output.length(), i + 7)));
+    }
+    recordParser.finish();
+    assertAllRecords(actualRecords, ALL_RECORDS, GitTestLogRecord.NameStatusOption.NAME);
+  }
+
   @Test
   public void parseOneRecordWithoutNameStatus() throws VcsException {
     myParser = new GitLogParser(myProject, GIT_LOG_OPTIONS);
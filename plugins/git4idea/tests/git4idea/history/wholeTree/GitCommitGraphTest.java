@@ -0,0 +1,139 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.history.wholeTree;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Test for {@link GitCommitGraph}.
+ */
+public class GitCommitGraphTest {
+  private File myDir;
+  private GitCommitGraph myGraph;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    myDir = FileUtil.createTempDirectory("git_graph", null);
+    myGraph = GitCommitGraph.open(myDir);
+  }
+
+  @AfterMethod
+  public void tearDown() throws IOException {
+    myGraph.close();
+    FileUtil.delete(myDir);
+  }
+
+  /**
+   * Commits come newest first, like 'git log' gives them: parents are met before their own records.
+   */
+  @Test
+  public void dateOrderKeepsParentsAfterChildren() throws IOException {
+    add("c", 50, "a", "b");
+    add("b", 60, "root");  // clock skew: newer than its child
+    add("a", 30, "root");
+    add("root", 10);
+
+    assertOrder(new String[]{"c"}, "c", "b", "a", "root");
+    assertOrder(new String[]{"a", "b"}, "b", "a", "root");
+  }
+
+  @Test
+  public void incompleteCommitsAreNotShown() throws IOException {
+    add("b", 20, "a");
+    assertEquals(myGraph.find(hash("a")), -1);
+    assertOrder(new String[]{"b"}, "b");
+    assertEquals(myGraph.getCommit(myGraph.find(hash("b"))).getParents().get(0).getString(), hash("a").substring(0, 7));
+
+    add("a", 10);
+    assertOrder(new String[]{"b"}, "b", "a");
+  }
+
+  @Test
+  public void graphIsPersistent() throws IOException {
+    add("b", 20, "a");
+    add("a", 10);
+    final Map<String, String> refs = new HashMap<String, String>();
+    refs.put("refs/heads/master", hash("b"));
+    myGraph.setRefs(refs);
+    myGraph.close();
+
+    myGraph = GitCommitGraph.open(myDir);
+    assertEquals(myGraph.getRefs(), refs);
+    assertOrder(new String[]{"b"}, "b", "a");
+    final CommitHashPlusParents commit = myGraph.getCommit(myGraph.find(hash("b")));
+    assertEquals(commit.getHash(), hash("b").substring(0, 7));
+    assertEquals(commit.getTime(), 20);
+    assertEquals(commit.getAuthorName(), "author of b");
+  }
+
+  @Test
+  public void interruptedUpdateDropsGraph() throws IOException {
+    add("a", 10);
+    myGraph.startUpdate();
+    myGraph.close();
+
+    myGraph = GitCommitGraph.open(myDir);
+    assertEquals(myGraph.getCount(), 0);
+    assertTrue(myGraph.getRefs().isEmpty());
+  }
+
+  private void add(String name, long time, String... parents) throws IOException {
+    final String[] parentHashes = new String[parents.length];
+    for (int i = 0; i < parents.length; i++) {
+      parentHashes[i] = hash(parents[i]);
+    }
+    myGraph.add(new GitCommitGraph.Record(hash(name), hash(name).substring(0, 7), parentHashes, time, "author of " + name));
+  }
+
+  private void assertOrder(String[] heads, String... expected) throws IOException {
+    final int[] records = new int[heads.length];
+    for (int i = 0; i < heads.length; i++) {
+      records[i] = myGraph.find(hash(heads[i]));
+    }
+    final int[] order = myGraph.sortReachable(records);
+    final String[] actual = new String[order.length];
+    for (int i = 0; i < order.length; i++) {
+      actual[i] = myGraph.getHash(order[i]);
+    }
+    final String[] expectedHashes = new String[expected.length];
+    for (int i = 0; i < expected.length; i++) {
+      expectedHashes[i] = hash(expected[i]);
+    }
+    assertEquals(actual, expectedHashes);
+  }
+
+  private static String hash(String name) {
+    final StringBuilder sb = new StringBuilder();
+    for (char c : name.toCharArray()) {
+      sb.append(Integer.toHexString(c));
+    }
+    while (sb.length() < 40) {
+      sb.append('0');
+    }
+    return sb.toString();
+  }
+}
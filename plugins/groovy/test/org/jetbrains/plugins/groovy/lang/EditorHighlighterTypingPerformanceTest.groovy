@@ -0,0 +1,94 @@
+/*
+ * Copyright 2000-2012 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.plugins.groovy.lang
+
+import com.intellij.ide.highlighter.JavaFileType
+import com.intellij.ide.highlighter.XmlFileType
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.editor.Document
+import com.intellij.openapi.editor.ex.util.LexerEditorHighlighter
+import com.intellij.openapi.editor.highlighter.EditorHighlighterFactory
+import com.intellij.openapi.editor.highlighter.HighlighterClient
+import com.intellij.openapi.editor.impl.DocumentImpl
+import com.intellij.openapi.fileTypes.FileType
+import com.intellij.testFramework.IdeaTestUtil
+import com.intellij.util.ThrowableRunnable
+import org.jetbrains.plugins.groovy.GroovyFileType
+import org.jetbrains.plugins.groovy.LightGroovyTestCase
+
+/**
+ * Types into the middle of a 20000-line file with the editor highlighter listening to the document,
+ * so the time is dominated by incremental relexing.
+ */
+class EditorHighlighterTypingPerformanceTest extends LightGroovyTestCase {
+  private static final int LINES = 20000
+
+  final String basePath = ''
+
+  public void testJava() {
+    StringBuilder text = new StringBuilder('class Foo {\n')
+    LINES.times { text << "  /* comment $it */ int field$it = \"string $it\".length() + $it;\n" }
+    text << '}\n'
+    doTest(JavaFileType.INSTANCE, text.toString(), 2000)
+  }
+
+  public void testXml() {
+    StringBuilder text = new StringBuilder('<root>\n')
+    LINES.times { text << "  <tag attr=\"value $it\"><!-- comment $it --><![CDATA[data $it]]>text $it</tag>\n" }
+    text << '</root>\n'
+    doTest(XmlFileType.INSTANCE, text.toString(), 2000)
+  }
+
+  public void testGroovy() {
+    StringBuilder text = new StringBuilder('def foo() {\n')
+    LINES.times { text << "  def s$it = \"\"\"multiline \${it} string\n  continued $it\"\"\" + /regex $it/ + 'single'\n" }
+    text << '}\n'
+    doTest(GroovyFileType.GROOVY_FILE_TYPE, text.toString(), 2000)
+  }
+
+  private void doTest(FileType fileType, String text, int expectedMs) {
+    Document document = new DocumentImpl(text)
+    LexerEditorHighlighter highlighter = createHighlighter(fileType, document)
+    int offset = text.indexOf('\n', text.length() >> 1) + 1
+    String typed = 'int x = "a" + /* b */ 1;\n'
+
+    IdeaTestUtil.startPerformanceTest("typing in $fileType.name", expectedMs, {
+      ApplicationManager.application.runWriteAction({
+        for (int i = 0; i < 20; i++) {
+          for (int j = 0; j < typed.length(); j++) {
+            document.insertString(offset + j, typed.substring(j, j + 1))
+          }
+          document.deleteString(offset, offset + typed.length())
+        }
+      } as Runnable)
+    } as ThrowableRunnable).cpuBound().assertTiming()
+
+    LexerEditorHighlighter expected = createHighlighter(fileType, new DocumentImpl(document.text))
+    assert expected.segments.segmentCount == highlighter.segments.segmentCount
+    for (int i = 0; i < expected.segments.segmentCount; i++) {
+      assert expected.segments.getSegmentStart(i) == highlighter.segments.getSegmentStart(i)
+      assert expected.segments.getSegmentData(i) == highlighter.segments.getSegmentData(i)
+    }
+  }
+
+  private LexerEditorHighlighter createHighlighter(FileType fileType, Document document) {
+    LexerEditorHighlighter highlighter = EditorHighlighterFactory.instance.createEditorHighlighter(project, fileType) as LexerEditorHighlighter
+    highlighter.text = document.charsSequence
+    highlighter.editor = [getProject: { project }, repaint: { int start, int end -> }, getDocument: { document }] as HighlighterClient
+    document.addDocumentListener(highlighter)
+    return highlighter
+  }
+}